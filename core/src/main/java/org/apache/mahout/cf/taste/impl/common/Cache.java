@@ -1,178 +1,431 @@
-/**
- * Licensed to the Apache Software Foundation (ASF) under one or more
- * contributor license agreements.  See the NOTICE file distributed with
- * this work for additional information regarding copyright ownership.
- * The ASF licenses this file to You under the Apache License, Version 2.0
- * (the "License"); you may not use this file except in compliance with
- * the License.  You may obtain a copy of the License at
- *
- *     http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
-package org.apache.mahout.cf.taste.impl.common;
-
-import com.google.common.base.Preconditions;
-import org.apache.mahout.cf.taste.common.TasteException;
-
-import java.util.Iterator;
-
-/**
- * <p>
- * An efficient Map-like class which caches values for keys. Values are not "put" into a ;
- * instead the caller supplies the instance with an implementation of {@link Retriever} which can load the
- * value for a given key.
- * </p>
- *
- * <p>
- * The cache does not support {@code null} keys.
- * </p>
- *
- * <p>
- * Thanks to Amila Jayasooriya for helping evaluate performance of the rewrite of this class, as part of a
- * Google Summer of Code 2007 project.
- * </p>
- */
-public final class Cache<K,V> implements Retriever<K,V> {
-
-  private static final Object NULL = new Object();
-  
-  private final FastMap<K,V> cache;
-  private final Retriever<? super K,? extends V> retriever;
-  
-  /**
-   * <p>
-   * Creates a new cache based on the given {@link Retriever}.
-   * </p>
-   * 
-   * @param retriever
-   *          object which can retrieve values for keys
-   */
-  public Cache(Retriever<? super K,? extends V> retriever) {
-    this(retriever, FastMap.NO_MAX_SIZE);
-  }
-  
-  /**
-   * <p>
-   * Creates a new cache based on the given {@link Retriever} and with given maximum size.
-   * </p>
-   * 
-   * @param retriever
-   *          object which can retrieve values for keys
-   * @param maxEntries
-   *          maximum number of entries the cache will store before evicting some
-   */
-  public Cache(Retriever<? super K,? extends V> retriever, int maxEntries) {
-    Preconditions.checkArgument(retriever != null, "retriever is null");
-    Preconditions.checkArgument(maxEntries >= 1, "maxEntries must be at least 1");
-    cache = new FastMap<K, V>(11, maxEntries);
-    this.retriever = retriever;
-  }
-  
-  /**
-   * <p>
-   * Returns cached value for a key. If it does not exist, it is loaded using a {@link Retriever}.
-   * </p>
-   * 
-   * @param key
-   *          cache key
-   * @return value for that key
-   * @throws TasteException
-   *           if an exception occurs while retrieving a new cached value
-   */
-  @Override
-  public V get(K key) throws TasteException {
-    V value;
-    synchronized (cache) {
-      value = cache.get(key);
-    }
-    if (value == null) {
-      return getAndCacheValue(key);
-    }
-    return value == NULL ? null : value;
-  }
-  
-  /**
-   * <p>
-   * Uncaches any existing value for a given key.
-   * </p>
-   * 
-   * @param key
-   *          cache key
-   */
-  public void remove(K key) {
-    synchronized (cache) {
-      cache.remove(key);
-    }
-  }
-
-  /**
-   * Clears all cache entries whose key matches the given predicate.
-   */
-  public void removeKeysMatching(MatchPredicate<K> predicate) {
-    synchronized (cache) {
-      Iterator<K> it = cache.keySet().iterator();
-      while (it.hasNext()) {
-        K key = it.next();
-        if (predicate.matches(key)) {
-          it.remove();
-        }
-      }
-    }
-  }
-
-  /**
-   * Clears all cache entries whose value matches the given predicate.
-   */
-  public void removeValueMatching(MatchPredicate<V> predicate) {
-    synchronized (cache) {
-      Iterator<V> it = cache.values().iterator();
-      while (it.hasNext()) {
-        V value = it.next();
-        if (predicate.matches(value)) {
-          it.remove();
-        }
-      }
-    }
-  }
-  
-  /**
-   * <p>
-   * Clears the cache.
-   * </p>
-   */
-  public void clear() {
-    synchronized (cache) {
-      cache.clear();
-    }
-  }
-  
-  private V getAndCacheValue(K key) throws TasteException {
-    V value = retriever.get(key);
-    if (value == null) {
-      value = (V) NULL;
-    }
-    synchronized (cache) {
-      cache.put(key, value);
-    }
-    return value;
-  }
-  
-  @Override
-  public String toString() {
-    return "Cache[retriever:" + retriever + ']';
-  }
-
-  /**
-   * Used by {#link #removeKeysMatching(Object)} to decide things that are matching.
-   */
-  public interface MatchPredicate<T> {
-    boolean matches(T thing);
-  }
-  
-}
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.TasteException;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * An efficient Map-like class which caches values for keys. Values are not "put" into a {@link Cache};
+ * instead the caller supplies the instance with an implementation of {@link Retriever} which can load the
+ * value for a given key.
+ * </p>
+ *
+ * <p>
+ * The cache is safe for concurrent use. Keys are spread over a number of independently locked segments,
+ * so threads working on different keys rarely contend. When several threads miss on the same key at once,
+ * only one of them calls the {@link Retriever}; the others wait for and share its result.
+ * </p>
+ *
+ * <p>
+ * When a maximum size is given, each segment evicts its least-recently-used entry once it holds more than
+ * its share of entries. Entries may optionally also expire a fixed time after they were loaded.
+ * </p>
+ *
+ * <p>
+ * The cache does not support {@code null} keys.
+ * </p>
+ *
+ * <p>
+ * Thanks to Amila Jayasooriya for helping evaluate performance of the rewrite of this class, as part of a
+ * Google Summer of Code 2007 project.
+ * </p>
+ */
+public final class Cache<K,V> implements Retriever<K,V> {
+
+  private static final Object NULL = new Object();
+  private static final int MAX_SEGMENTS = 16;
+  private static final long NO_EXPIRY = 0L;
+
+  private final Segment<K,V>[] segments;
+  private final int segmentMask;
+  private final Retriever<? super K,? extends V> retriever;
+  private final long expireAfterWriteNanos;
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong loadCount = new AtomicLong();
+  private final AtomicLong totalLoadTimeNanos = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+
+  /**
+   * <p>
+   * Creates a new cache based on the given {@link Retriever}.
+   * </p>
+   * 
+   * @param retriever
+   *          object which can retrieve values for keys
+   */
+  public Cache(Retriever<? super K,? extends V> retriever) {
+    this(retriever, FastMap.NO_MAX_SIZE);
+  }
+  
+  /**
+   * <p>
+   * Creates a new cache based on the given {@link Retriever} and with given maximum size.
+   * </p>
+   * 
+   * @param retriever
+   *          object which can retrieve values for keys
+   * @param maxEntries
+   *          maximum number of entries the cache will store before evicting some
+   */
+  public Cache(Retriever<? super K,? extends V> retriever, int maxEntries) {
+    this(retriever, maxEntries, NO_EXPIRY, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * <p>
+   * Creates a new cache based on the given {@link Retriever}, with given maximum size, whose entries expire
+   * a fixed time after they are loaded.
+   * </p>
+   *
+   * @param retriever
+   *          object which can retrieve values for keys
+   * @param maxEntries
+   *          maximum number of entries the cache will store before evicting some
+   * @param expireAfterWrite
+   *          time after loading after which an entry is reloaded; 0 means entries never expire
+   * @param unit
+   *          unit of {@code expireAfterWrite}
+   */
+  public Cache(Retriever<? super K,? extends V> retriever, int maxEntries, long expireAfterWrite, TimeUnit unit) {
+    Preconditions.checkArgument(retriever != null, "retriever is null");
+    Preconditions.checkArgument(maxEntries >= 1, "maxEntries must be at least 1");
+    Preconditions.checkArgument(expireAfterWrite >= 0L, "expireAfterWrite must be nonnegative");
+    this.retriever = retriever;
+    this.expireAfterWriteNanos = unit.toNanos(expireAfterWrite);
+    int numSegments = 1;
+    while (numSegments < MAX_SEGMENTS && numSegments * 2 <= maxEntries) {
+      numSegments <<= 1;
+    }
+    segmentMask = numSegments - 1;
+    @SuppressWarnings("unchecked")
+    Segment<K,V>[] theSegments = (Segment<K,V>[]) new Segment<?,?>[numSegments];
+    segments = theSegments;
+    for (int i = 0; i < numSegments; i++) {
+      // Share out maxEntries exactly, giving the remainder to the first few segments
+      int maxSegmentEntries = maxEntries == FastMap.NO_MAX_SIZE ? FastMap.NO_MAX_SIZE
+          : maxEntries / numSegments + (i < maxEntries % numSegments ? 1 : 0);
+      segments[i] = new Segment<K,V>(maxSegmentEntries, evictionCount);
+    }
+  }
+  
+  /**
+   * <p>
+   * Returns cached value for a key. If it does not exist, it is loaded using a {@link Retriever}.
+   * </p>
+   * 
+   * @param key
+   *          cache key
+   * @return value for that key
+   * @throws TasteException
+   *           if an exception occurs while retrieving a new cached value
+   */
+  @Override
+  public V get(K key) throws TasteException {
+    Segment<K,V> segment = segmentFor(key);
+    Loader loader;
+    boolean loading = false;
+    synchronized (segment) {
+      Entry entry = segment.entries.get(key);
+      if (entry != null) {
+        if (expireAfterWriteNanos == NO_EXPIRY || System.nanoTime() - entry.writeTime < expireAfterWriteNanos) {
+          hitCount.incrementAndGet();
+          return unmask(entry.value);
+        }
+        segment.entries.remove(key);
+      }
+      missCount.incrementAndGet();
+      loader = segment.loaders.get(key);
+      if (loader == null) {
+        loader = new Loader();
+        segment.loaders.put(key, loader);
+        loading = true;
+      }
+    }
+    if (loading) {
+      return load(segment, key, loader);
+    }
+    return unmask(loader.await());
+  }
+
+  private V load(Segment<K,V> segment, K key, Loader loader) throws TasteException {
+    long start = System.nanoTime();
+    Object value;
+    try {
+      value = retriever.get(key);
+    } catch (TasteException te) {
+      abandon(segment, key, loader);
+      loader.fail(te);
+      throw te;
+    } catch (RuntimeException re) {
+      abandon(segment, key, loader);
+      loader.fail(new TasteException(re));
+      throw re;
+    } catch (Error e) {
+      abandon(segment, key, loader);
+      loader.fail(new TasteException(e));
+      throw e;
+    }
+    long now = System.nanoTime();
+    loadCount.incrementAndGet();
+    totalLoadTimeNanos.addAndGet(now - start);
+    if (value == null) {
+      value = NULL;
+    }
+    synchronized (segment) {
+      // Only publish the value if nobody removed or cleared this key while it was loading
+      if (segment.loaders.get(key) == loader) {
+        segment.loaders.remove(key);
+        segment.entries.put(key, new Entry(value, now));
+      }
+    }
+    loader.complete(value);
+    return unmask(value);
+  }
+
+  private static <K> void abandon(Segment<K,?> segment, K key, Object loader) {
+    synchronized (segment) {
+      if (segment.loaders.get(key) == loader) {
+        segment.loaders.remove(key);
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private V unmask(Object value) {
+    return value == NULL ? null : (V) value;
+  }
+
+  private Segment<K,V> segmentFor(Object key) {
+    int h = key.hashCode();
+    // Spread bits, as in java.util.HashMap, so that low bits differ for similar hash codes
+    h ^= (h >>> 20) ^ (h >>> 12);
+    h ^= (h >>> 7) ^ (h >>> 4);
+    return segments[h & segmentMask];
+  }
+  
+  /**
+   * <p>
+   * Uncaches any existing value for a given key.
+   * </p>
+   * 
+   * @param key
+   *          cache key
+   */
+  public void remove(K key) {
+    Segment<K,V> segment = segmentFor(key);
+    synchronized (segment) {
+      segment.entries.remove(key);
+      segment.loaders.remove(key);
+    }
+  }
+
+  /**
+   * Clears all cache entries whose key matches the given predicate.
+   */
+  public void removeKeysMatching(MatchPredicate<K> predicate) {
+    for (Segment<K,V> segment : segments) {
+      synchronized (segment) {
+        removeKeysMatching(segment.entries, predicate);
+        removeKeysMatching(segment.loaders, predicate);
+      }
+    }
+  }
+
+  private static <K> void removeKeysMatching(Map<K,?> map, MatchPredicate<K> predicate) {
+    Iterator<K> it = map.keySet().iterator();
+    while (it.hasNext()) {
+      K key = it.next();
+      if (predicate.matches(key)) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Clears all cache entries whose value matches the given predicate.
+   */
+  public void removeValueMatching(MatchPredicate<V> predicate) {
+    for (Segment<K,V> segment : segments) {
+      synchronized (segment) {
+        Iterator<Entry> it = segment.entries.values().iterator();
+        while (it.hasNext()) {
+          Entry entry = it.next();
+          if (predicate.matches(unmask(entry.value))) {
+            it.remove();
+          }
+        }
+      }
+    }
+  }
+  
+  /**
+   * <p>
+   * Clears the cache.
+   * </p>
+   */
+  public void clear() {
+    for (Segment<K,V> segment : segments) {
+      synchronized (segment) {
+        segment.entries.clear();
+        segment.loaders.clear();
+      }
+    }
+  }
+
+  /**
+   * @return number of entries currently cached, including any that have expired but not yet been removed
+   */
+  public int size() {
+    int size = 0;
+    for (Segment<K,V> segment : segments) {
+      synchronized (segment) {
+        size += segment.entries.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @return number of calls to {@link #get(Object)} answered from the cache
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * @return number of calls to {@link #get(Object)} that did not find a cached value, including those which
+   *  waited for another thread's load of the same key
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * @return number of successful calls made to the {@link Retriever}
+   */
+  public long getLoadCount() {
+    return loadCount.get();
+  }
+
+  /**
+   * @return total time spent in successful calls to the {@link Retriever}, in nanoseconds
+   */
+  public long getTotalLoadTimeNanos() {
+    return totalLoadTimeNanos.get();
+  }
+
+  /**
+   * @return number of entries evicted to keep the cache within its maximum size
+   */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+  
+  @Override
+  public String toString() {
+    return "Cache[retriever:" + retriever + ", hits:" + hitCount + ", misses:" + missCount + ']';
+  }
+
+  /**
+   * Used by {#link #removeKeysMatching(Object)} to decide things that are matching.
+   */
+  public interface MatchPredicate<T> {
+    boolean matches(T thing);
+  }
+
+  private static final class Entry {
+
+    private final Object value;
+    private final long writeTime;
+
+    private Entry(Object value, long writeTime) {
+      this.value = value;
+      this.writeTime = writeTime;
+    }
+  }
+
+  /** One lock stripe: an access-ordered map of entries, and the loads in flight for its keys. */
+  private static final class Segment<K,V> {
+
+    private final Map<K,Entry> entries;
+    private final Map<K,Loader> loaders;
+
+    private Segment(final int maxEntries, final AtomicLong evictionCount) {
+      entries = new LinkedHashMap<K,Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K,Entry> eldest) {
+          if (size() > maxEntries) {
+            evictionCount.incrementAndGet();
+            return true;
+          }
+          return false;
+        }
+      };
+      loaders = new FastMap<K,Loader>();
+    }
+  }
+
+  /** Holds the eventual result of a single in-flight call to the {@link Retriever}. */
+  private static final class Loader {
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private Object value;
+    private TasteException failure;
+
+    void complete(Object value) {
+      this.value = value;
+      done.countDown();
+    }
+
+    void fail(TasteException failure) {
+      this.failure = failure;
+      done.countDown();
+    }
+
+    Object await() throws TasteException {
+      boolean interrupted = false;
+      while (true) {
+        try {
+          done.await();
+          break;
+        } catch (InterruptedException ie) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return value;
+    }
+  }
+  
+}
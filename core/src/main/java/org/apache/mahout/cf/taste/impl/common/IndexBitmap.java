@@ -0,0 +1,259 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * An immutable, compressed set of non-negative {@code int} indices, such as dense user or item indices, along
+ * the lines of "Roaring" bitmaps. Indices are grouped by their upper 16 bits; each group is stored either as a
+ * sorted array of its lower 16 bits, taking 2 bytes per index, or, once it holds more than
+ * {@value #MAX_ARRAY_SIZE} indices, as a 65536-bit bitmap.
+ * </p>
+ *
+ * <p>
+ * Its purpose is fast {@link #intersectionSize(IndexBitmap)}: two bitmaps intersect by ANDing words and counting
+ * bits, an array and a bitmap by testing bits, and two arrays by merging them, or by binary search when one is
+ * much shorter.
+ * </p>
+ */
+public final class IndexBitmap implements Serializable {
+
+  static final int MAX_ARRAY_SIZE = 4096;
+  private static final int BITMAP_WORDS = 1 << 10;
+
+  /** upper 16 bits of each group's indices, ascending */
+  private final char[] keys;
+  /** each group's lower 16 bits, ascending, or null if the group is a bitmap */
+  private final char[][] lows;
+  /** each group's bitmap, or null if the group is an array */
+  private final long[][] words;
+  private final int size;
+
+  private IndexBitmap(char[] keys, char[][] lows, long[][] words, int size) {
+    this.keys = keys;
+    this.lows = lows;
+    this.words = words;
+    this.size = size;
+  }
+
+  /**
+   * @param indices distinct non-negative indices in ascending order
+   * @param length number of indices to use, from the start of {@code indices}
+   */
+  public static IndexBitmap fromSortedIndices(int[] indices, int length) {
+    int numGroups = 0;
+    int previousKey = -1;
+    for (int i = 0; i < length; i++) {
+      Preconditions.checkArgument(indices[i] >= 0 && (i == 0 || indices[i] > indices[i - 1]),
+                                  "Indices not distinct, non-negative and ascending at %s", i);
+      int key = indices[i] >>> 16;
+      if (key != previousKey) {
+        numGroups++;
+        previousKey = key;
+      }
+    }
+    char[] keys = new char[numGroups];
+    char[][] lows = new char[numGroups][];
+    long[][] words = new long[numGroups][];
+    int start = 0;
+    for (int group = 0; group < numGroups; group++) {
+      int key = indices[start] >>> 16;
+      int end = start + 1;
+      while (end < length && indices[end] >>> 16 == key) {
+        end++;
+      }
+      int groupSize = end - start;
+      keys[group] = (char) key;
+      if (groupSize > MAX_ARRAY_SIZE) {
+        long[] bitmap = new long[BITMAP_WORDS];
+        for (int i = start; i < end; i++) {
+          int low = indices[i] & 0xFFFF;
+          bitmap[low >>> 6] |= 1L << low;
+        }
+        words[group] = bitmap;
+      } else {
+        char[] groupLows = new char[groupSize];
+        for (int i = start; i < end; i++) {
+          groupLows[i - start] = (char) indices[i];
+        }
+        lows[group] = groupLows;
+      }
+      start = end;
+    }
+    return new IndexBitmap(keys, lows, words, length);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public boolean contains(int index) {
+    if (index < 0) {
+      return false;
+    }
+    int group = Arrays.binarySearch(keys, (char) (index >>> 16));
+    if (group < 0) {
+      return false;
+    }
+    char low = (char) index;
+    long[] bitmap = words[group];
+    if (bitmap != null) {
+      return (bitmap[low >>> 6] & 1L << low) != 0L;
+    }
+    return Arrays.binarySearch(lows[group], low) >= 0;
+  }
+
+  /**
+   * @return number of indices in both this and the other set
+   */
+  public int intersectionSize(IndexBitmap other) {
+    int count = 0;
+    int i = 0;
+    int j = 0;
+    while (i < keys.length && j < other.keys.length) {
+      char key = keys[i];
+      char otherKey = other.keys[j];
+      if (key < otherKey) {
+        i++;
+      } else if (key > otherKey) {
+        j++;
+      } else {
+        count += intersectionSize(words[i], lows[i], other.words[j], other.lows[j]);
+        i++;
+        j++;
+      }
+    }
+    return count;
+  }
+
+  private static int intersectionSize(long[] words1, char[] lows1, long[] words2, char[] lows2) {
+    if (words1 != null && words2 != null) {
+      int count = 0;
+      for (int k = 0; k < BITMAP_WORDS; k++) {
+        count += Long.bitCount(words1[k] & words2[k]);
+      }
+      return count;
+    }
+    if (words1 != null) {
+      return intersectionSize(words1, lows2);
+    }
+    if (words2 != null) {
+      return intersectionSize(words2, lows1);
+    }
+    return lows1.length <= lows2.length ? intersectionSize(lows1, lows2) : intersectionSize(lows2, lows1);
+  }
+
+  private static int intersectionSize(long[] bitmap, char[] lows) {
+    int count = 0;
+    for (char low : lows) {
+      if ((bitmap[low >>> 6] & 1L << low) != 0L) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /** @param shorter the shorter of the two arrays */
+  private static int intersectionSize(char[] shorter, char[] longer) {
+    int count = 0;
+    if (shorter.length * 16 < longer.length) {
+      int from = 0;
+      for (char low : shorter) {
+        int found = Arrays.binarySearch(longer, from, longer.length, low);
+        if (found >= 0) {
+          count++;
+          from = found + 1;
+        } else {
+          from = -found - 1;
+        }
+        if (from == longer.length) {
+          break;
+        }
+      }
+      return count;
+    }
+    int i = 0;
+    int j = 0;
+    while (i < shorter.length && j < longer.length) {
+      char a = shorter[i];
+      char b = longer[j];
+      if (a < b) {
+        i++;
+      } else if (a > b) {
+        j++;
+      } else {
+        count++;
+        i++;
+        j++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return the indices, in ascending order
+   */
+  public int[] toArray() {
+    int[] result = new int[size];
+    int n = 0;
+    for (int group = 0; group < keys.length; group++) {
+      int high = keys[group] << 16;
+      long[] bitmap = words[group];
+      if (bitmap == null) {
+        for (char low : lows[group]) {
+          result[n++] = high | low;
+        }
+      } else {
+        for (int k = 0; k < BITMAP_WORDS; k++) {
+          long word = bitmap[k];
+          while (word != 0L) {
+            result[n++] = high | k << 6 | Long.numberOfTrailingZeros(word);
+            word &= word - 1;
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return approximate number of bytes used by the indices, excluding object headers
+   */
+  public long getSizeInBytes() {
+    long bytes = keys.length * (2L + 8L + 8L);
+    for (int group = 0; group < keys.length; group++) {
+      bytes += words[group] == null ? 2L * lows[group].length : 8L * BITMAP_WORDS;
+    }
+    return bytes;
+  }
+
+  @Override
+  public String toString() {
+    return "IndexBitmap[size:" + size + ",groups:" + keys.length + ']';
+  }
+
+}
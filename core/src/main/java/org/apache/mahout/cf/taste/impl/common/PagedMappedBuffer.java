@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * A read-only view of a region of a file, memory-mapped as a series of fixed-size pages so that regions
+ * larger than 2GB (the limit of a single {@link MappedByteBuffer}) can be addressed with {@code long}
+ * byte positions.
+ * </p>
+ *
+ * <p>
+ * Values are read in big-endian order, as written by {@link java.io.DataOutput}. A value must not span two
+ * pages; this holds as long as each value is stored at a position within the region which is a multiple of
+ * its own size, which callers should ensure by laying out arrays of one type each, aligned to 8 bytes.
+ * </p>
+ *
+ * <p>
+ * Data lives in the operating system's page cache rather than on the Java heap, and may be shared by several
+ * processes mapping the same file. This class is thread-safe since it only uses absolute reads.
+ * </p>
+ */
+public final class PagedMappedBuffer {
+
+  /** 1GB pages: a multiple of 8, and comfortably below {@link Integer#MAX_VALUE}. */
+  private static final int PAGE_SHIFT = 30;
+  private static final long PAGE_MASK = (1L << PAGE_SHIFT) - 1L;
+
+  private final MappedByteBuffer[] pages;
+  private final long length;
+
+  /**
+   * @param channel channel to map, opened for reading
+   * @param offset start of region within the file
+   * @param length length of region in bytes
+   */
+  public PagedMappedBuffer(FileChannel channel, long offset, long length) throws IOException {
+    Preconditions.checkArgument(offset >= 0L, "offset is negative");
+    Preconditions.checkArgument(length >= 0L, "length is negative");
+    this.length = length;
+    int numPages = (int) ((length + PAGE_MASK) >>> PAGE_SHIFT);
+    pages = new MappedByteBuffer[numPages];
+    for (int i = 0; i < numPages; i++) {
+      long pageStart = (long) i << PAGE_SHIFT;
+      long pageLength = Math.min(length - pageStart, 1L << PAGE_SHIFT);
+      pages[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + pageStart, pageLength);
+    }
+  }
+
+  public long length() {
+    return length;
+  }
+
+  public long getLong(long position) {
+    return pages[(int) (position >>> PAGE_SHIFT)].getLong((int) (position & PAGE_MASK));
+  }
+
+  public int getInt(long position) {
+    return pages[(int) (position >>> PAGE_SHIFT)].getInt((int) (position & PAGE_MASK));
+  }
+
+  public float getFloat(long position) {
+    return pages[(int) (position >>> PAGE_SHIFT)].getFloat((int) (position & PAGE_MASK));
+  }
+
+  public double getDouble(long position) {
+    return pages[(int) (position >>> PAGE_SHIFT)].getDouble((int) (position & PAGE_MASK));
+  }
+
+  /**
+   * Binary-searches a sorted array of {@code long}s stored in this buffer.
+   *
+   * @param from index (not byte position) of first element to search
+   * @param to index after the last element to search
+   * @return index of the key, if found; otherwise {@code (-(insertion point) - 1)}, as in
+   *  {@link java.util.Arrays#binarySearch(long[], long)}
+   */
+  public long binarySearchLong(long from, long to, long key) {
+    long low = from;
+    long high = to - 1L;
+    while (low <= high) {
+      long mid = (low + high) >>> 1;
+      long midValue = getLong(mid << 3);
+      if (midValue < key) {
+        low = mid + 1L;
+      } else if (midValue > key) {
+        high = mid - 1L;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1L);
+  }
+
+  /**
+   * Like {@link #binarySearchLong(long, long, long)}, for a sorted array of {@code int}s.
+   */
+  public long binarySearchInt(long from, long to, int key) {
+    long low = from;
+    long high = to - 1L;
+    while (low <= high) {
+      long mid = (low + high) >>> 1;
+      int midValue = getInt(mid << 2);
+      if (midValue < key) {
+        low = mid + 1L;
+      } else if (midValue > key) {
+        high = mid - 1L;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1L);
+  }
+
+}
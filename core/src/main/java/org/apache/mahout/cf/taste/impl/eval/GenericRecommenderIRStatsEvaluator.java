@@ -30,11 +30,7 @@ import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
 import org.apache.mahout.cf.taste.eval.RecommenderIRStatsEvaluator;
 import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
-import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
-import org.apache.mahout.cf.taste.impl.common.FullRunningAverageAndStdDev;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
-import org.apache.mahout.cf.taste.impl.common.RunningAverage;
-import org.apache.mahout.cf.taste.impl.common.RunningAverageAndStdDev;
 import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
 import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
 import org.apache.mahout.cf.taste.model.DataModel;
@@ -62,8 +58,6 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
   
   private static final Logger log = LoggerFactory.getLogger(GenericRecommenderIRStatsEvaluator.class);
 
-  private static final double LOG2 = Math.log(2.0);
-  
   /**
    * Pass as "relevanceThreshold" argument to
    * {@link #evaluate(RecommenderBuilder, DataModelBuilder, DataModel, IDRescorer, int, double, double)} to
@@ -93,10 +87,7 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
       "Invalid evaluationPercentage: %s", evaluationPercentage);
 
     int numItems = dataModel.getNumItems();
-    RunningAverage precision = new FullRunningAverage();
-    RunningAverage recall = new FullRunningAverage();
-    RunningAverage fallOut = new FullRunningAverage();
-    RunningAverage nDCG = new FullRunningAverage();
+    IRStatisticsAccumulator statistics = new IRStatisticsAccumulator();
 
     LongPrimitiveIterator it = dataModel.getUserIDs();
     while (it.hasNext()) {
@@ -117,21 +108,8 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
         continue;
       }
 
-      FastIDSet relevantItemIDs = new FastIDSet(at);
-
-      // List some most-preferred items that would count as (most) "relevant" results
-      double theRelevanceThreshold = Double.isNaN(relevanceThreshold) ? computeThreshold(prefs) : relevanceThreshold;
-
-      prefs.sortByValueReversed();
-
-      for (int i = 0; i < size && relevantItemIDs.size() < at; i++) {
-        if (prefs.getValue(i) >= theRelevanceThreshold) {
-          relevantItemIDs.add(prefs.getItemID(i));
-        }
-      }
-
-      int numRelevantItems = relevantItemIDs.size();
-      if (numRelevantItems <= 0) {
+      FastIDSet relevantItemIDs = IRStatisticsAccumulator.getRelevantItemIDs(prefs, at, relevanceThreshold);
+      if (relevantItemIDs.isEmpty()) {
         continue;
       }
 
@@ -151,59 +129,16 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
         continue; // Oops we excluded all prefs for the user -- just move on
       }
 
-      int intersectionSize = 0;
       List<RecommendedItem> recommendedItems = recommender.recommend(userID, at, rescorer);
-      for (RecommendedItem recommendedItem : recommendedItems) {
-        if (relevantItemIDs.contains(recommendedItem.getItemID())) {
-          intersectionSize++;
-        }
-      }
-
-      int numRecommendedItems = recommendedItems.size();
-
-      // Precision
-      if (numRecommendedItems > 0) {
-        precision.addDatum((double) intersectionSize / (double) numRecommendedItems);
-      }
-
-      // Recall
-      recall.addDatum((double) intersectionSize / (double) numRelevantItems);
-
-      // Fall-out
-      if (numRelevantItems < size) {
-        fallOut.addDatum((double) (numRecommendedItems - intersectionSize)
-                         / (double) (numItems - numRelevantItems));
-      }
-
-      // nDCG
-      // In computing, assume relevant IDs have relevance 1 and others 0
-      double cumulativeGain = 0.0;
-      double idealizedGain = 0.0;
-      for (int i = 0; i < recommendedItems.size(); i++) {
-        RecommendedItem item = recommendedItems.get(i);
-        double discount = i == 0 ? 1.0 : 1.0 / log2(i + 1);
-        if (relevantItemIDs.contains(item.getItemID())) {
-          cumulativeGain += discount;
-        }
-        // otherwise we're multiplying discount by relevance 0 so it doesn't do anything
-
-        // Ideally results would be ordered with all relevant ones first, so this theoretical
-        // ideal list starts with number of relevant items equal to the total number of relevant items
-        if (i < relevantItemIDs.size()) {
-          idealizedGain += discount;
-        }
-      }
-      nDCG.addDatum(cumulativeGain / idealizedGain);
+      statistics.addUser(relevantItemIDs, size, numItems, recommendedItems);
 
       long end = System.currentTimeMillis();
 
       log.info("Evaluated with user {} in {}ms", userID, end - start);
-      log.info("Precision/recall/fall-out/nDCG: {} / {} / {} / {}", new Object[] {
-          precision.getAverage(), recall.getAverage(), fallOut.getAverage(), nDCG.getAverage()
-      });
+      log.info("Precision/recall/fall-out/nDCG: {}", statistics);
     }
 
-    return new IRStatisticsImpl(precision.getAverage(), recall.getAverage(), fallOut.getAverage(), nDCG.getAverage());
+    return statistics.getStatistics();
   }
   
   private static void processOtherUser(long id,
@@ -231,21 +166,4 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
     }
   }
   
-  private static double computeThreshold(PreferenceArray prefs) {
-    if (prefs.length() < 2) {
-      // Not enough data points -- return a threshold that allows everything
-      return Double.NEGATIVE_INFINITY;
-    }
-    RunningAverageAndStdDev stdDev = new FullRunningAverageAndStdDev();
-    int size = prefs.length();
-    for (int i = 0; i < size; i++) {
-      stdDev.addDatum(prefs.getValue(i));
-    }
-    return stdDev.getAverage() + stdDev.getStandardDeviation();
-  }
-
-  private static double log2(double value) {
-    return Math.log(value) / LOG2;
-  }
-  
 }
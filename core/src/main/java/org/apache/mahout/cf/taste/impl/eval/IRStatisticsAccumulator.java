@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.List;
+
+import org.apache.mahout.cf.taste.eval.IRStatistics;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
+import org.apache.mahout.cf.taste.impl.common.FullRunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.impl.common.RunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+
+/**
+ * Averages precision, recall, fall-out and nDCG over evaluated users. Users may be added from several threads.
+ */
+final class IRStatisticsAccumulator {
+
+  private static final double LOG2 = Math.log(2.0);
+
+  private final RunningAverage precision = new FullRunningAverage();
+  private final RunningAverage recall = new FullRunningAverage();
+  private final RunningAverage fallOut = new FullRunningAverage();
+  private final RunningAverage nDCG = new FullRunningAverage();
+
+  /**
+   * @param numPrefs number of preferences the user has
+   * @param numItems number of items in the model
+   */
+  void addUser(FastIDSet relevantItemIDs, int numPrefs, int numItems, List<RecommendedItem> recommendedItems) {
+    int numRelevantItems = relevantItemIDs.size();
+    int intersectionSize = 0;
+    for (RecommendedItem recommendedItem : recommendedItems) {
+      if (relevantItemIDs.contains(recommendedItem.getItemID())) {
+        intersectionSize++;
+      }
+    }
+
+    int numRecommendedItems = recommendedItems.size();
+
+    // Precision
+    if (numRecommendedItems > 0) {
+      precision.addDatum((double) intersectionSize / (double) numRecommendedItems);
+    }
+
+    // Recall
+    recall.addDatum((double) intersectionSize / (double) numRelevantItems);
+
+    // Fall-out
+    if (numRelevantItems < numPrefs) {
+      fallOut.addDatum((double) (numRecommendedItems - intersectionSize)
+                       / (double) (numItems - numRelevantItems));
+    }
+
+    // nDCG
+    // In computing, assume relevant IDs have relevance 1 and others 0
+    double cumulativeGain = 0.0;
+    double idealizedGain = 0.0;
+    for (int i = 0; i < recommendedItems.size(); i++) {
+      RecommendedItem item = recommendedItems.get(i);
+      double discount = i == 0 ? 1.0 : 1.0 / log2(i + 1);
+      if (relevantItemIDs.contains(item.getItemID())) {
+        cumulativeGain += discount;
+      }
+      // otherwise we're multiplying discount by relevance 0 so it doesn't do anything
+
+      // Ideally results would be ordered with all relevant ones first, so this theoretical
+      // ideal list starts with number of relevant items equal to the total number of relevant items
+      if (i < numRelevantItems) {
+        idealizedGain += discount;
+      }
+    }
+    nDCG.addDatum(cumulativeGain / idealizedGain);
+  }
+
+  IRStatistics getStatistics() {
+    return new IRStatisticsImpl(precision.getAverage(), recall.getAverage(), fallOut.getAverage(),
+                                nDCG.getAverage());
+  }
+
+  @Override
+  public String toString() {
+    return precision.getAverage() + " / " + recall.getAverage() + " / " + fallOut.getAverage() + " / "
+        + nDCG.getAverage();
+  }
+
+  /**
+   * Lists some of the user's most-preferred items, that would count as (most) "relevant" results.
+   *
+   * @param relevanceThreshold minimum preference value of a relevant item, or
+   *  {@link GenericRecommenderIRStatsEvaluator#CHOOSE_THRESHOLD} to compute one from the user's preferences
+   * @return at most {@code at} item IDs
+   */
+  static FastIDSet getRelevantItemIDs(PreferenceArray prefs, int at, double relevanceThreshold) {
+    double theRelevanceThreshold = Double.isNaN(relevanceThreshold) ? computeThreshold(prefs) : relevanceThreshold;
+    // sort a copy, since the model may be read by other threads meanwhile
+    PreferenceArray sorted = prefs.clone();
+    sorted.sortByValueReversed();
+    int size = sorted.length();
+    FastIDSet relevantItemIDs = new FastIDSet(at);
+    for (int i = 0; i < size && relevantItemIDs.size() < at; i++) {
+      if (sorted.getValue(i) >= theRelevanceThreshold) {
+        relevantItemIDs.add(sorted.getItemID(i));
+      }
+    }
+    return relevantItemIDs;
+  }
+
+  private static double computeThreshold(PreferenceArray prefs) {
+    if (prefs.length() < 2) {
+      // Not enough data points -- return a threshold that allows everything
+      return Double.NEGATIVE_INFINITY;
+    }
+    RunningAverageAndStdDev stdDev = new FullRunningAverageAndStdDev();
+    int size = prefs.length();
+    for (int i = 0; i < size; i++) {
+      stdDev.addDatum(prefs.getValue(i));
+    }
+    return stdDev.getAverage() + stdDev.getStandardDeviation();
+  }
+
+  private static double log2(double value) {
+    return Math.log(value) / LOG2;
+  }
+
+}
@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.DataModelBuilder;
+import org.apache.mahout.cf.taste.eval.IRStatistics;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.eval.RecommenderIRStatsEvaluator;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.MaskedUserDataModel;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.common.RandomUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Computes the same statistics as {@link GenericRecommenderIRStatsEvaluator}, but instead of copying every other
+ * user's preferences into a new {@link DataModel} for each evaluated user, hides the user's relevant items
+ * behind a {@link MaskedUserDataModel} over the given {@link DataModel}. Preparing a user then costs time
+ * proportional to that user's preferences, and users are evaluated concurrently in a thread pool.
+ * </p>
+ *
+ * <p>
+ * The {@link RecommenderBuilder} is still called once per evaluated user, with that user's masked model, so this
+ * pays off for recommenders that are cheap to build over an existing model, such as user- or item-based
+ * recommenders. It must tolerate being called from several threads at once. A {@link DataModelBuilder} is not
+ * supported, as no new model is built.
+ * </p>
+ */
+public final class MaskingRecommenderIRStatsEvaluator implements RecommenderIRStatsEvaluator {
+
+  private static final Logger log = LoggerFactory.getLogger(MaskingRecommenderIRStatsEvaluator.class);
+
+  private static final int LOG_INTERVAL = 1000;
+
+  private final Random random;
+  private final int numThreads;
+
+  public MaskingRecommenderIRStatsEvaluator() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  public MaskingRecommenderIRStatsEvaluator(int numThreads) {
+    Preconditions.checkArgument(numThreads >= 1, "numThreads must be at least 1");
+    this.random = RandomUtils.getRandom();
+    this.numThreads = numThreads;
+  }
+
+  @Override
+  public IRStatistics evaluate(final RecommenderBuilder recommenderBuilder,
+                               DataModelBuilder dataModelBuilder,
+                               final DataModel dataModel,
+                               final IDRescorer rescorer,
+                               final int at,
+                               final double relevanceThreshold,
+                               double evaluationPercentage) throws TasteException {
+
+    Preconditions.checkArgument(recommenderBuilder != null, "recommenderBuilder is null");
+    Preconditions.checkArgument(dataModelBuilder == null, "dataModelBuilder is not supported");
+    Preconditions.checkArgument(dataModel != null, "dataModel is null");
+    Preconditions.checkArgument(at >= 1, "at must be at least 1");
+    Preconditions.checkArgument(evaluationPercentage > 0.0 && evaluationPercentage <= 1.0,
+      "Invalid evaluationPercentage: %s", evaluationPercentage);
+
+    final int numItems = dataModel.getNumItems();
+    final IRStatisticsAccumulator statistics = new IRStatisticsAccumulator();
+    final AtomicInteger numEvaluated = new AtomicInteger();
+    final long start = System.currentTimeMillis();
+
+    List<Callable<Void>> callables = Lists.newArrayList();
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    while (it.hasNext()) {
+      final long userID = it.nextLong();
+      if (random.nextDouble() < evaluationPercentage) {
+        callables.add(new Callable<Void>() {
+          @Override
+          public Void call() throws TasteException {
+            if (evaluateUser(recommenderBuilder, dataModel, rescorer, at, relevanceThreshold, numItems, statistics,
+                             userID)) {
+              int evaluated = numEvaluated.incrementAndGet();
+              if (evaluated % LOG_INTERVAL == 0) {
+                logProgress(evaluated, start, statistics);
+              }
+            }
+            return null;
+          }
+        });
+      }
+    }
+
+    log.info("Evaluating {} users in {} threads", callables.size(), numThreads);
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      for (Future<Void> future : executor.invokeAll(callables)) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      throw new TasteException(ee.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    logProgress(numEvaluated.get(), start, statistics);
+    return statistics.getStatistics();
+  }
+
+  /**
+   * @return true if the user had enough preferences to be evaluated
+   */
+  private static boolean evaluateUser(RecommenderBuilder recommenderBuilder,
+                                      DataModel dataModel,
+                                      IDRescorer rescorer,
+                                      int at,
+                                      double relevanceThreshold,
+                                      int numItems,
+                                      IRStatisticsAccumulator statistics,
+                                      long userID) throws TasteException {
+    PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+    int size = prefs.length();
+    if (size < 2 * at) {
+      // Really not enough prefs to meaningfully evaluate this user
+      return false;
+    }
+
+    FastIDSet relevantItemIDs = IRStatisticsAccumulator.getRelevantItemIDs(prefs, at, relevanceThreshold);
+    if (relevantItemIDs.isEmpty() || relevantItemIDs.size() == size) {
+      // Nothing to find, or nothing left to recommend from
+      return false;
+    }
+
+    DataModel trainingModel = new MaskedUserDataModel(dataModel, userID, relevantItemIDs);
+    Recommender recommender = recommenderBuilder.buildRecommender(trainingModel);
+    List<RecommendedItem> recommendedItems = recommender.recommend(userID, at, rescorer);
+    statistics.addUser(relevantItemIDs, size, numItems, recommendedItems);
+    return true;
+  }
+
+  private static void logProgress(int numEvaluated, long start, IRStatisticsAccumulator statistics) {
+    long elapsed = Math.max(1L, System.currentTimeMillis() - start);
+    log.info("Evaluated {} users in {}ms ({} users/s)",
+             new Object[] {numEvaluated, elapsed, numEvaluated * 1000L / elapsed});
+    log.info("Precision/recall/fall-out/nDCG: {}", statistics);
+  }
+
+}
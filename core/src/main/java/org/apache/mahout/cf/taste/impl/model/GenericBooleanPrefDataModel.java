@@ -27,6 +27,7 @@ import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.IndexBitmap;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.model.DataModel;
@@ -45,7 +46,8 @@ public final class GenericBooleanPrefDataModel extends AbstractDataModel {
   private final long[] userIDs;
   private final FastByIDMap<FastIDSet> preferenceFromUsers;
   private final long[] itemIDs;
-  private final FastByIDMap<FastIDSet> preferenceForItems;
+  /** each item's users, as indices into {@link #userIDs} */
+  private final FastByIDMap<IndexBitmap> preferenceForItems;
   private final FastByIDMap<FastByIDMap<Long>> timestamps;
   
   /**
@@ -74,27 +76,6 @@ public final class GenericBooleanPrefDataModel extends AbstractDataModel {
     Preconditions.checkArgument(userData != null, "userData is null");
 
     this.preferenceFromUsers = userData;
-    this.preferenceForItems = new FastByIDMap<FastIDSet>();
-    FastIDSet itemIDSet = new FastIDSet();
-    for (Map.Entry<Long, FastIDSet> entry : preferenceFromUsers.entrySet()) {
-      long userID = entry.getKey();
-      FastIDSet itemIDs = entry.getValue();
-      itemIDSet.addAll(itemIDs);
-      LongPrimitiveIterator it = itemIDs.iterator();
-      while (it.hasNext()) {
-        long itemID = it.nextLong();
-        FastIDSet userIDs = preferenceForItems.get(itemID);
-        if (userIDs == null) {
-          userIDs = new FastIDSet(2);
-          preferenceForItems.put(itemID, userIDs);
-        }
-        userIDs.add(userID);
-      }
-    }
-
-    this.itemIDs = itemIDSet.toArray();
-    itemIDSet = null; // Might help GC -- this is big
-    Arrays.sort(itemIDs);
 
     this.userIDs = new long[userData.size()];
     int i = 0;
@@ -104,6 +85,46 @@ public final class GenericBooleanPrefDataModel extends AbstractDataModel {
     }
     Arrays.sort(userIDs);
 
+    // Count each item's users first, so that their indices can go straight into arrays of the right size
+    FastByIDMap<int[]> itemUserCounts = new FastByIDMap<int[]>();
+    for (long userID : userIDs) {
+      LongPrimitiveIterator itemIt = preferenceFromUsers.get(userID).iterator();
+      while (itemIt.hasNext()) {
+        long itemID = itemIt.nextLong();
+        int[] count = itemUserCounts.get(itemID);
+        if (count == null) {
+          itemUserCounts.put(itemID, new int[] {1});
+        } else {
+          count[0]++;
+        }
+      }
+    }
+    FastByIDMap<int[]> itemUserIndices = new FastByIDMap<int[]>(itemUserCounts.size());
+    for (Map.Entry<Long,int[]> entry : itemUserCounts.entrySet()) {
+      itemUserIndices.put(entry.getKey(), new int[entry.getValue()[0]]);
+      entry.getValue()[0] = 0;
+    }
+    // Users are visited in order of index, so each item's user indices come out sorted
+    for (int userIndex = 0; userIndex < userIDs.length; userIndex++) {
+      LongPrimitiveIterator itemIt = preferenceFromUsers.get(userIDs[userIndex]).iterator();
+      while (itemIt.hasNext()) {
+        long itemID = itemIt.nextLong();
+        int[] count = itemUserCounts.get(itemID);
+        itemUserIndices.get(itemID)[count[0]++] = userIndex;
+      }
+    }
+    itemUserCounts = null; // Might help GC -- this is big
+
+    this.itemIDs = new long[itemUserIndices.size()];
+    this.preferenceForItems = new FastByIDMap<IndexBitmap>(itemUserIndices.size());
+    i = 0;
+    for (Map.Entry<Long,int[]> entry : itemUserIndices.entrySet()) {
+      int[] indices = entry.getValue();
+      itemIDs[i++] = entry.getKey();
+      preferenceForItems.put(entry.getKey(), IndexBitmap.fromSortedIndices(indices, indices.length));
+    }
+    Arrays.sort(itemIDs);
+
     this.timestamps = timestamps;
   }
   
@@ -163,9 +184,19 @@ public final class GenericBooleanPrefDataModel extends AbstractDataModel {
 
   /**
    * This is used mostly internally to the framework, and shouldn't be relied upon otherwise.
+   * The sets are built anew on each call.
    */
   public FastByIDMap<FastIDSet> getRawItemData() {
-    return this.preferenceForItems;
+    FastByIDMap<FastIDSet> itemData = new FastByIDMap<FastIDSet>(preferenceForItems.size());
+    for (Map.Entry<Long,IndexBitmap> entry : preferenceForItems.entrySet()) {
+      int[] userIndices = entry.getValue().toArray();
+      FastIDSet itemUserIDs = new FastIDSet(userIndices.length);
+      for (int userIndex : userIndices) {
+        itemUserIDs.add(userIDs[userIndex]);
+      }
+      itemData.put(entry.getKey(), itemUserIDs);
+    }
+    return itemData;
   }
   
   @Override
@@ -210,17 +241,15 @@ public final class GenericBooleanPrefDataModel extends AbstractDataModel {
   
   @Override
   public PreferenceArray getPreferencesForItem(long itemID) throws NoSuchItemException {
-    FastIDSet userIDs = preferenceForItems.get(itemID);
-    if (userIDs == null) {
+    IndexBitmap userIndices = preferenceForItems.get(itemID);
+    if (userIndices == null) {
       throw new NoSuchItemException(itemID);
     }
-    PreferenceArray prefArray = new BooleanItemPreferenceArray(userIDs.size());
-    int i = 0;
-    LongPrimitiveIterator it = userIDs.iterator();
-    while (it.hasNext()) {
-      prefArray.setUserID(i, it.nextLong());
+    int[] indices = userIndices.toArray();
+    PreferenceArray prefArray = new BooleanItemPreferenceArray(indices.length);
+    for (int i = 0; i < indices.length; i++) {
+      prefArray.setUserID(i, userIDs[indices[i]]);
       prefArray.setItemID(i, itemID);
-      i++;
     }
     return prefArray;
   }
@@ -261,21 +290,21 @@ public final class GenericBooleanPrefDataModel extends AbstractDataModel {
   
   @Override
   public int getNumUsersWithPreferenceFor(long itemID) {
-    FastIDSet userIDs1 = preferenceForItems.get(itemID);
-    return userIDs1 == null ? 0 : userIDs1.size();
+    IndexBitmap userIndices = preferenceForItems.get(itemID);
+    return userIndices == null ? 0 : userIndices.size();
   }
 
   @Override
   public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) {
-    FastIDSet userIDs1 = preferenceForItems.get(itemID1);
-    if (userIDs1 == null) {
+    IndexBitmap userIndices1 = preferenceForItems.get(itemID1);
+    if (userIndices1 == null) {
       return 0;
     }
-    FastIDSet userIDs2 = preferenceForItems.get(itemID2);
-    if (userIDs2 == null) {
+    IndexBitmap userIndices2 = preferenceForItems.get(itemID2);
+    if (userIndices2 == null) {
       return 0;
     }
-    return userIDs1.intersectionSize(userIDs2);
+    return userIndices1.intersectionSize(userIndices2);
   }
   
   @Override
@@ -0,0 +1,298 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.AbstractLongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * <p>
+ * This {@link DataModel} decorator hides some of one user's preferences in another {@link DataModel}, as if they
+ * had never been expressed. A user left without any preferences disappears from the model, as does an item that
+ * only that user had a preference for.
+ * </p>
+ *
+ * <p>
+ * It is meant for evaluations that hold out a few preferences of each user in turn: building it costs time
+ * proportional to the user's preferences rather than to the whole model, and any number of instances may share
+ * one delegate concurrently, as long as the delegate is not modified meanwhile. Preferences can't be set or
+ * removed for the masked user.
+ * </p>
+ */
+public final class MaskedUserDataModel implements DataModel {
+
+  private final DataModel delegate;
+  private final long userID;
+  private final FastIDSet maskedItemIDs;
+  private final FastIDSet originalItemIDs;
+  private final PreferenceArray remainingPrefs;
+  private final FastIDSet remainingItemIDs;
+  /** items that nobody but the masked user had a preference for */
+  private final FastIDSet vanishedItemIDs;
+
+  /**
+   * @param delegate model to hide preferences in
+   * @param userID user whose preferences are hidden
+   * @param maskedItemIDs items whose preferences from that user are hidden
+   */
+  public MaskedUserDataModel(DataModel delegate, long userID, FastIDSet maskedItemIDs) throws TasteException {
+    Preconditions.checkArgument(delegate != null, "delegate is null");
+    Preconditions.checkArgument(maskedItemIDs != null, "maskedItemIDs is null");
+    this.delegate = delegate;
+    this.userID = userID;
+    this.maskedItemIDs = maskedItemIDs;
+
+    PreferenceArray prefs = delegate.getPreferencesFromUser(userID);
+    originalItemIDs = new FastIDSet(prefs.length());
+    remainingItemIDs = new FastIDSet(prefs.length());
+    vanishedItemIDs = new FastIDSet();
+    List<Preference> remaining = Lists.newArrayListWithCapacity(prefs.length());
+    for (int i = 0; i < prefs.length(); i++) {
+      long itemID = prefs.getItemID(i);
+      originalItemIDs.add(itemID);
+      if (maskedItemIDs.contains(itemID)) {
+        if (delegate.getNumUsersWithPreferenceFor(itemID) <= 1) {
+          vanishedItemIDs.add(itemID);
+        }
+      } else {
+        remainingItemIDs.add(itemID);
+        remaining.add(new GenericPreference(userID, itemID, prefs.getValue(i)));
+      }
+    }
+    if (remaining.isEmpty()) {
+      remainingPrefs = null;
+    } else if (delegate.hasPreferenceValues()) {
+      remainingPrefs = new GenericUserPreferenceArray(remaining);
+    } else {
+      remainingPrefs = new BooleanUserPreferenceArray(remaining);
+    }
+  }
+
+  private boolean isMasked(long userID, long itemID) {
+    return userID == this.userID && maskedItemIDs.contains(itemID) && originalItemIDs.contains(itemID);
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() throws TasteException {
+    if (remainingPrefs == null) {
+      FastIDSet absentUserIDs = new FastIDSet(1);
+      absentUserIDs.add(userID);
+      return new ExcludingLongPrimitiveIterator(delegate.getUserIDs(), absentUserIDs);
+    }
+    return delegate.getUserIDs();
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
+    if (userID == this.userID) {
+      if (remainingPrefs == null) {
+        throw new NoSuchUserException(userID);
+      }
+      return remainingPrefs;
+    }
+    return delegate.getPreferencesFromUser(userID);
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    if (userID == this.userID) {
+      if (remainingPrefs == null) {
+        throw new NoSuchUserException(userID);
+      }
+      return remainingItemIDs;
+    }
+    return delegate.getItemIDsFromUser(userID);
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() throws TasteException {
+    if (vanishedItemIDs.isEmpty()) {
+      return delegate.getItemIDs();
+    }
+    return new ExcludingLongPrimitiveIterator(delegate.getItemIDs(), vanishedItemIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+    if (!isMasked(userID, itemID)) {
+      return delegate.getPreferencesForItem(itemID);
+    }
+    if (vanishedItemIDs.contains(itemID)) {
+      throw new NoSuchItemException(itemID);
+    }
+    PreferenceArray prefs = delegate.getPreferencesForItem(itemID);
+    List<Preference> remaining = Lists.newArrayListWithCapacity(prefs.length() - 1);
+    for (int i = 0; i < prefs.length(); i++) {
+      long otherUserID = prefs.getUserID(i);
+      if (otherUserID != userID) {
+        remaining.add(new GenericPreference(otherUserID, itemID, prefs.getValue(i)));
+      }
+    }
+    return delegate.hasPreferenceValues()
+        ? new GenericItemPreferenceArray(remaining)
+        : new BooleanItemPreferenceArray(remaining, false);
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    if (userID == this.userID && remainingPrefs == null) {
+      throw new NoSuchUserException(userID);
+    }
+    if (isMasked(userID, itemID)) {
+      return null;
+    }
+    return delegate.getPreferenceValue(userID, itemID);
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    if (userID == this.userID && remainingPrefs == null) {
+      throw new NoSuchUserException(userID);
+    }
+    if (isMasked(userID, itemID)) {
+      return null;
+    }
+    return delegate.getPreferenceTime(userID, itemID);
+  }
+
+  @Override
+  public int getNumItems() throws TasteException {
+    return delegate.getNumItems() - vanishedItemIDs.size();
+  }
+
+  @Override
+  public int getNumUsers() throws TasteException {
+    return delegate.getNumUsers() - (remainingPrefs == null ? 1 : 0);
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) throws TasteException {
+    return delegate.getNumUsersWithPreferenceFor(itemID) - (isMasked(userID, itemID) ? 1 : 0);
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) throws TasteException {
+    int count = delegate.getNumUsersWithPreferenceFor(itemID1, itemID2);
+    boolean hadBoth = originalItemIDs.contains(itemID1) && originalItemIDs.contains(itemID2);
+    boolean hasBoth = remainingItemIDs.contains(itemID1) && remainingItemIDs.contains(itemID2);
+    return hadBoth && !hasBoth ? count - 1 : count;
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) throws TasteException {
+    if (userID == this.userID) {
+      throw new UnsupportedOperationException();
+    }
+    delegate.setPreference(userID, itemID, value);
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) throws TasteException {
+    if (userID == this.userID) {
+      throw new UnsupportedOperationException();
+    }
+    delegate.removePreference(userID, itemID);
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    delegate.refresh(alreadyRefreshed);
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return delegate.hasPreferenceValues();
+  }
+
+  @Override
+  public float getMaxPreference() {
+    return delegate.getMaxPreference();
+  }
+
+  @Override
+  public float getMinPreference() {
+    return delegate.getMinPreference();
+  }
+
+  @Override
+  public String toString() {
+    return "MaskedUserDataModel[userID:" + userID + ",masked:" + maskedItemIDs.size() + ']';
+  }
+
+  private static final class ExcludingLongPrimitiveIterator extends AbstractLongPrimitiveIterator {
+
+    private final LongPrimitiveIterator delegate;
+    private final FastIDSet excluded;
+
+    private ExcludingLongPrimitiveIterator(LongPrimitiveIterator delegate, FastIDSet excluded) {
+      this.delegate = delegate;
+      this.excluded = excluded;
+      skipExcluded();
+    }
+
+    private void skipExcluded() {
+      while (delegate.hasNext() && excluded.contains(delegate.peek())) {
+        delegate.nextLong();
+      }
+    }
+
+    @Override
+    public long nextLong() {
+      long next = delegate.nextLong();
+      skipExcluded();
+      return next;
+    }
+
+    @Override
+    public long peek() {
+      return delegate.peek();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return delegate.hasNext();
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void skip(int n) {
+      for (int i = 0; i < n && hasNext(); i++) {
+        nextLong();
+      }
+    }
+
+  }
+
+}
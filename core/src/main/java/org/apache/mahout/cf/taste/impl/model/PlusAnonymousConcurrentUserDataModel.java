@@ -0,0 +1,277 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * <p>
+ * Like {@link PlusAnonymousUserDataModel}, this {@link DataModel} decorator lets you recommend to users that are
+ * not in your actual {@link DataModel}, but supports many of them at the same time. It holds a pool of
+ * temporary user IDs; each request takes one, sets its preferences, recommends, and gives it back:
+ * </p>
+ *
+ * <p>
+ *
+ * <pre>
+ * Recommender recommender = ...; // built on plusModel
+ * ...
+ * Long anonymousUserID = plusModel.takeAvailableUser();
+ * if (anonymousUserID == null) {
+ *   // all temporary users are in use
+ * }
+ * try {
+ *   plusModel.setTempPrefs(tempPrefs, anonymousUserID);
+ *   recommender.recommend(anonymousUserID, 10);
+ * } finally {
+ *   plusModel.releaseUser(anonymousUserID);
+ * }
+ * </pre>
+ *
+ * </p>
+ *
+ * <p>
+ * No locking is needed around this. Temporary users are only visible through the methods that take their ID:
+ * they are not listed by {@link #getUserIDs()} nor counted in any of the {@code getNum...} methods, and their
+ * preferences do not show up in {@link #getPreferencesForItem(long)}. That way they never become anyone's
+ * neighbors or influence each other's recommendations, and the shared model's data is never copied.
+ * </p>
+ */
+public final class PlusAnonymousConcurrentUserDataModel implements DataModel {
+
+  /** the first temporary user ID; the others follow it */
+  public static final long TEMP_USER_ID = Long.MIN_VALUE;
+
+  private final DataModel delegate;
+  private final int maxConcurrentUsers;
+  private final Queue<Long> availableUserIDs;
+  /** temporary user IDs taken and not yet released */
+  private final Set<Long> takenUserIDs;
+  private final ConcurrentMap<Long,PreferenceArray> tempPrefs;
+  private final ConcurrentMap<Long,FastIDSet> prefItemIDs;
+
+  /**
+   * @param maxConcurrentUsers number of temporary users that can be in use at the same time
+   */
+  public PlusAnonymousConcurrentUserDataModel(DataModel delegate, int maxConcurrentUsers) {
+    Preconditions.checkArgument(delegate != null, "delegate is null");
+    Preconditions.checkArgument(maxConcurrentUsers >= 1, "maxConcurrentUsers must be at least 1");
+    this.delegate = delegate;
+    this.maxConcurrentUsers = maxConcurrentUsers;
+    this.availableUserIDs = new ConcurrentLinkedQueue<Long>();
+    for (int i = 0; i < maxConcurrentUsers; i++) {
+      availableUserIDs.add(TEMP_USER_ID + i);
+    }
+    this.takenUserIDs = Collections.newSetFromMap(new ConcurrentHashMap<Long,Boolean>(maxConcurrentUsers));
+    this.tempPrefs = new ConcurrentHashMap<Long,PreferenceArray>(maxConcurrentUsers);
+    this.prefItemIDs = new ConcurrentHashMap<Long,FastIDSet>(maxConcurrentUsers);
+  }
+
+  /**
+   * @return a temporary user ID for the caller's exclusive use until it is passed to {@link #releaseUser(long)},
+   *  or {@code null} if all are in use
+   */
+  public Long takeAvailableUser() {
+    Long anonymousUserID = availableUserIDs.poll();
+    if (anonymousUserID != null) {
+      takenUserIDs.add(anonymousUserID);
+    }
+    return anonymousUserID;
+  }
+
+  /**
+   * Clears the temporary user's preferences and makes it available again.
+   *
+   * @throws IllegalArgumentException if the ID is not a temporary user taken with {@link #takeAvailableUser()},
+   *  or was already released since
+   */
+  public void releaseUser(long anonymousUserID) {
+    checkAnonymousUser(anonymousUserID);
+    Preconditions.checkArgument(takenUserIDs.remove(anonymousUserID), "Temporary user not taken: %s", anonymousUserID);
+    clearTempPrefs(anonymousUserID);
+    availableUserIDs.add(anonymousUserID);
+  }
+
+  /**
+   * @return true if the ID is one of the temporary user IDs of this model
+   */
+  public boolean isAnonymousUser(long userID) {
+    return userID >= TEMP_USER_ID && userID < TEMP_USER_ID + maxConcurrentUsers;
+  }
+
+  public void setTempPrefs(PreferenceArray prefs, long anonymousUserID) {
+    checkAnonymousUser(anonymousUserID);
+    Preconditions.checkArgument(prefs != null && prefs.length() > 0, "prefs is null or empty");
+    FastIDSet itemIDs = new FastIDSet(prefs.length());
+    for (int i = 0; i < prefs.length(); i++) {
+      itemIDs.add(prefs.getItemID(i));
+    }
+    prefItemIDs.put(anonymousUserID, itemIDs);
+    tempPrefs.put(anonymousUserID, prefs);
+  }
+
+  public void clearTempPrefs(long anonymousUserID) {
+    checkAnonymousUser(anonymousUserID);
+    tempPrefs.remove(anonymousUserID);
+    prefItemIDs.remove(anonymousUserID);
+  }
+
+  private void checkAnonymousUser(long anonymousUserID) {
+    Preconditions.checkArgument(isAnonymousUser(anonymousUserID), "Not a temporary user: %s", anonymousUserID);
+  }
+
+  private PreferenceArray getTempPrefs(long anonymousUserID) throws NoSuchUserException {
+    PreferenceArray prefs = tempPrefs.get(anonymousUserID);
+    if (prefs == null) {
+      throw new NoSuchUserException(anonymousUserID);
+    }
+    return prefs;
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() throws TasteException {
+    return delegate.getUserIDs();
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
+    if (isAnonymousUser(userID)) {
+      return getTempPrefs(userID);
+    }
+    return delegate.getPreferencesFromUser(userID);
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    if (isAnonymousUser(userID)) {
+      FastIDSet itemIDs = prefItemIDs.get(userID);
+      if (itemIDs == null) {
+        throw new NoSuchUserException(userID);
+      }
+      return itemIDs;
+    }
+    return delegate.getItemIDsFromUser(userID);
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() throws TasteException {
+    return delegate.getItemIDs();
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+    return delegate.getPreferencesForItem(itemID);
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    if (isAnonymousUser(userID)) {
+      PreferenceArray prefs = getTempPrefs(userID);
+      for (int i = 0; i < prefs.length(); i++) {
+        if (prefs.getItemID(i) == itemID) {
+          return prefs.getValue(i);
+        }
+      }
+      return null;
+    }
+    return delegate.getPreferenceValue(userID, itemID);
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    if (isAnonymousUser(userID)) {
+      getTempPrefs(userID);
+      return null;
+    }
+    return delegate.getPreferenceTime(userID, itemID);
+  }
+
+  @Override
+  public int getNumItems() throws TasteException {
+    return delegate.getNumItems();
+  }
+
+  @Override
+  public int getNumUsers() throws TasteException {
+    return delegate.getNumUsers();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) throws TasteException {
+    return delegate.getNumUsersWithPreferenceFor(itemID);
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) throws TasteException {
+    return delegate.getNumUsersWithPreferenceFor(itemID1, itemID2);
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) throws TasteException {
+    if (isAnonymousUser(userID)) {
+      getTempPrefs(userID);
+      throw new UnsupportedOperationException();
+    }
+    delegate.setPreference(userID, itemID, value);
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) throws TasteException {
+    if (isAnonymousUser(userID)) {
+      getTempPrefs(userID);
+      throw new UnsupportedOperationException();
+    }
+    delegate.removePreference(userID, itemID);
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    delegate.refresh(alreadyRefreshed);
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return delegate.hasPreferenceValues();
+  }
+
+  @Override
+  public float getMaxPreference() {
+    return delegate.getMaxPreference();
+  }
+
+  @Override
+  public float getMinPreference() {
+    return delegate.getMinPreference();
+  }
+
+}
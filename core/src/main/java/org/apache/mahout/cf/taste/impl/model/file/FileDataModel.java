@@ -21,6 +21,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -107,6 +108,16 @@ import com.google.common.base.Preconditions;
  * </p>
  *
  * <p>
+ * By default, applying update files rebuilds the whole in-memory model. If constructed with
+ * {@code incrementalUpdates} set, update files which appear after the main data file was loaded are instead
+ * applied as deltas: only the users and items they mention are copied and changed, and the previous model
+ * remains intact and usable by other threads while this happens. In this mode, new update files must have a
+ * later modification time than those already applied, and {@link #setPreference(long, long, float)} and
+ * {@link #removePreference(long, long)} always throw {@link UnsupportedOperationException}. Any change to the main
+ * data file still causes a full reload.
+ * </p>
+ *
+ * <p>
  * This class is not intended for use with very large amounts of data (over, say, tens of millions of rows).
  * For that, a JDBC-backed {@link DataModel} and a database are more appropriate.
  * </p>
@@ -134,6 +145,9 @@ public class FileDataModel extends AbstractDataModel {
   private final ReentrantLock reloadLock;
   private final boolean transpose;
   private final long minReloadIntervalMS;
+  private final boolean incrementalUpdates;
+  /** Update files already applied to {@link #delegate}, with their modification time when applied. */
+  private final Map<File,Long> appliedUpdateFiles;
 
   /**
    * @param dataFile
@@ -157,6 +171,18 @@ public class FileDataModel extends AbstractDataModel {
    * @see #FileDataModel(File)
    */
   public FileDataModel(File dataFile, boolean transpose, long minReloadIntervalMS) throws IOException {
+    this(dataFile, transpose, minReloadIntervalMS, false);
+  }
+
+  /**
+   * @param incrementalUpdates
+   *          if true, new update files are applied as deltas to the current data rather than by rebuilding it
+   * @see #FileDataModel(File, boolean, long)
+   */
+  public FileDataModel(File dataFile,
+                       boolean transpose,
+                       long minReloadIntervalMS,
+                       boolean incrementalUpdates) throws IOException {
     this.dataFile = Preconditions.checkNotNull(dataFile.getAbsoluteFile());
     if (!dataFile.exists() || dataFile.isDirectory()) {
       throw new FileNotFoundException(dataFile.toString());
@@ -189,6 +215,8 @@ public class FileDataModel extends AbstractDataModel {
     this.reloadLock = new ReentrantLock();
     this.transpose = transpose;
     this.minReloadIntervalMS = minReloadIntervalMS;
+    this.incrementalUpdates = incrementalUpdates;
+    this.appliedUpdateFiles = new HashMap<File,Long>();
 
     reload();
   }
@@ -224,6 +252,16 @@ public class FileDataModel extends AbstractDataModel {
     lastModified = newLastModified;
     lastUpdateFileModified = newLastUpdateFileModified;
 
+    if (incrementalUpdates) {
+      if (!loadFreshData) {
+        return applyNewUpdateFiles();
+      }
+      appliedUpdateFiles.clear();
+      for (File updateFile : findUpdateFilesAfter(newLastModified)) {
+        appliedUpdateFiles.put(updateFile, updateFile.lastModified());
+      }
+    }
+
     FastByIDMap<FastByIDMap<Long>> timestamps = new FastByIDMap<FastByIDMap<Long>>();
 
     if (hasPrefValues) {
@@ -281,6 +319,97 @@ public class FileDataModel extends AbstractDataModel {
     }
   }
 
+  /**
+   * Applies update files not yet applied to the current model, copying only what they change.
+   */
+  private DataModel applyNewUpdateFiles() throws IOException {
+    FastByIDMap<FastByIDMap<IncrementalDataModel.PreferenceUpdate>> updates =
+        new FastByIDMap<FastByIDMap<IncrementalDataModel.PreferenceUpdate>>();
+    int numFiles = 0;
+    for (File updateFile : findUpdateFilesAfter(lastModified)) {
+      Long applied = appliedUpdateFiles.get(updateFile);
+      long updateFileModified = updateFile.lastModified();
+      if (applied == null || applied != updateFileModified) {
+        processUpdateFile(new FileLineIterator(updateFile, false), updates);
+        appliedUpdateFiles.put(updateFile, updateFileModified);
+        numFiles++;
+      }
+    }
+    if (numFiles == 0) {
+      return delegate;
+    }
+    try {
+      IncrementalDataModel current = delegate instanceof IncrementalDataModel
+          ? (IncrementalDataModel) delegate
+          : new IncrementalDataModel(delegate);
+      IncrementalDataModel updated = current.applyUpdates(updates);
+      log.info("Applied {} update files for {} users; {} users and items changed since last full load",
+               new Object[] {numFiles, updates.size(), updated.getNumChangedRows()});
+      return updated;
+    } catch (TasteException te) {
+      throw new IOException(te);
+    }
+  }
+
+  private void processUpdateFile(FileLineIterator updateFileIterator,
+                                 FastByIDMap<FastByIDMap<IncrementalDataModel.PreferenceUpdate>> updates) {
+    log.info("Reading update file...");
+    int count = 0;
+    while (updateFileIterator.hasNext()) {
+      String line = updateFileIterator.next();
+      if (line.length() > 0) {
+        processUpdateLine(line, updates);
+        count++;
+      }
+    }
+    log.info("Read lines: {}", count);
+  }
+
+  /**
+   * Like {@link #processLine(String, FastByIDMap, FastByIDMap, boolean)} and
+   * {@link #processLineWithoutID(String, FastByIDMap, FastByIDMap)}, but records the line as a change to
+   * apply later. A later line for the same user and item supersedes an earlier one.
+   */
+  private void processUpdateLine(String line,
+                                 FastByIDMap<FastByIDMap<IncrementalDataModel.PreferenceUpdate>> updates) {
+
+    if (line.length() == 0 || line.charAt(0) == COMMENT_CHAR) {
+      return;
+    }
+
+    Iterator<String> tokens = delimiterPattern.split(line).iterator();
+    String userIDString = tokens.next();
+    String itemIDString = tokens.next();
+    boolean hasPreference = tokens.hasNext();
+    String preferenceValueString = hasPreference ? tokens.next() : "";
+    boolean hasTimestamp = tokens.hasNext();
+    String timestampString = hasTimestamp ? tokens.next() : null;
+
+    long userID = readUserIDFromString(userIDString);
+    long itemID = readItemIDFromString(itemIDString);
+
+    if (transpose) {
+      long tmp = userID;
+      userID = itemID;
+      itemID = tmp;
+    }
+
+    FastByIDMap<IncrementalDataModel.PreferenceUpdate> userUpdates = updates.get(userID);
+    if (userUpdates == null) {
+      userUpdates = new FastByIDMap<IncrementalDataModel.PreferenceUpdate>();
+      updates.put(userID, userUpdates);
+    }
+
+    if (hasPreference && !hasTimestamp && preferenceValueString.length() == 0) {
+      // Then line is of form "userID,itemID,", meaning remove
+      userUpdates.put(itemID, IncrementalDataModel.PreferenceUpdate.remove());
+    } else {
+      float preferenceValue = hasPrefValues ? Float.parseFloat(preferenceValueString) : 1.0f;
+      Long timestamp = timestampString == null ? null : readTimestampFromString(timestampString);
+      userUpdates.put(itemID, IncrementalDataModel.PreferenceUpdate.set(preferenceValue, timestamp));
+    }
+  }
+
   /**
    * Finds update delta files in the same directory as the data file. This finds any file whose name starts
    * the same way as the data file (up to first period) but isn't the data file itself. For example, if the
@@ -684,18 +813,29 @@ public class FileDataModel extends AbstractDataModel {
    * maintains; it does not modify any data on disk. Therefore any updates from this method are only
    * temporary, and lost when data is reloaded from a file. This method should also be considered relatively
    * slow.
+   *
+   * @throws UnsupportedOperationException when applying updates incrementally, whether or not any update file has
+   *  been applied yet
    */
   @Override
   public void setPreference(long userID, long itemID, float value) throws TasteException {
+    checkNotIncremental();
     delegate.setPreference(userID, itemID, value);
   }
 
   /** See the warning at {@link #setPreference(long, long, float)}. */
   @Override
   public void removePreference(long userID, long itemID) throws TasteException {
+    checkNotIncremental();
     delegate.removePreference(userID, itemID);
   }
 
+  private void checkNotIncremental() {
+    if (incrementalUpdates) {
+      throw new UnsupportedOperationException("Preferences can't be changed when applying updates incrementally");
+    }
+  }
+
   @Override
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
     if (dataFile.lastModified() > lastModified + minReloadIntervalMS
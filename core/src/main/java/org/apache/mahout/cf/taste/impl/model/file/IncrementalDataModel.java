@@ -0,0 +1,501 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.AbstractDataModel;
+import org.apache.mahout.cf.taste.impl.model.BooleanItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.BooleanUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * <p>
+ * An immutable {@link DataModel} which layers changed users and items over an unchanging base model, as loaded
+ * from the main data file by {@link FileDataModel}. Applying updates never modifies an existing instance;
+ * {@link #applyUpdates(FastByIDMap)} copies just the rows of users and items which the updates touch, and
+ * returns a new instance sharing everything else. Readers of the old instance are undisturbed, and the cost
+ * of an update is proportional to the size of the update and of the changes accumulated since the base model
+ * was loaded, not to the size of the base model.
+ * </p>
+ *
+ * <p>
+ * The minimum and maximum preference values only ever widen as updates are applied.
+ * </p>
+ */
+final class IncrementalDataModel extends AbstractDataModel {
+
+  private final DataModel base;
+  /** Replacement rows for users whose preferences changed; an empty row means the user was removed. */
+  private final FastByIDMap<PreferenceArray> changedUsers;
+  private final FastByIDMap<PreferenceArray> changedItems;
+  /** Complete timestamps for changed users. */
+  private final FastByIDMap<FastByIDMap<Long>> changedTimestamps;
+  private final long[] userIDs;
+  private final long[] itemIDs;
+
+  IncrementalDataModel(DataModel base) throws TasteException {
+    this(base,
+         new FastByIDMap<PreferenceArray>(),
+         new FastByIDMap<PreferenceArray>(),
+         new FastByIDMap<FastByIDMap<Long>>(),
+         toArray(base.getUserIDs(), base.getNumUsers()),
+         toArray(base.getItemIDs(), base.getNumItems()),
+         base.getMinPreference(),
+         base.getMaxPreference());
+  }
+
+  private IncrementalDataModel(DataModel base,
+                               FastByIDMap<PreferenceArray> changedUsers,
+                               FastByIDMap<PreferenceArray> changedItems,
+                               FastByIDMap<FastByIDMap<Long>> changedTimestamps,
+                               long[] userIDs,
+                               long[] itemIDs,
+                               float minPreference,
+                               float maxPreference) {
+    this.base = base;
+    this.changedUsers = changedUsers;
+    this.changedItems = changedItems;
+    this.changedTimestamps = changedTimestamps;
+    this.userIDs = userIDs;
+    this.itemIDs = itemIDs;
+    setMinPreference(minPreference);
+    setMaxPreference(maxPreference);
+  }
+
+  private static long[] toArray(LongPrimitiveIterator it, int size) {
+    long[] ids = new long[size];
+    int i = 0;
+    while (it.hasNext()) {
+      ids[i++] = it.nextLong();
+    }
+    Arrays.sort(ids);
+    return ids;
+  }
+
+  /**
+   * @param updates changes keyed by user ID, then item ID
+   * @return a new model reflecting this model's data with the given changes applied
+   */
+  IncrementalDataModel applyUpdates(FastByIDMap<FastByIDMap<PreferenceUpdate>> updates) throws TasteException {
+    FastByIDMap<PreferenceArray> newChangedUsers = changedUsers.clone();
+    FastByIDMap<PreferenceArray> newChangedItems = changedItems.clone();
+    FastByIDMap<FastByIDMap<Long>> newChangedTimestamps = changedTimestamps.clone();
+    FastIDSet addedUsers = new FastIDSet();
+    FastIDSet removedUsers = new FastIDSet();
+    FastIDSet addedItems = new FastIDSet();
+    FastIDSet removedItems = new FastIDSet();
+    float minPreference = getMinPreference();
+    float maxPreference = getMaxPreference();
+
+    FastByIDMap<FastByIDMap<PreferenceUpdate>> updatesByItem = new FastByIDMap<FastByIDMap<PreferenceUpdate>>();
+    for (Map.Entry<Long,FastByIDMap<PreferenceUpdate>> entry : updates.entrySet()) {
+      long userID = entry.getKey();
+      FastByIDMap<PreferenceUpdate> userUpdates = entry.getValue();
+
+      PreferenceArray oldRow = userRowOrNull(userID);
+      PreferenceArray newRow = applyToRow(oldRow, userID, userUpdates, true);
+      newChangedUsers.put(userID, newRow);
+      updateMembership(userID, oldRow, newRow, addedUsers, removedUsers);
+      newChangedTimestamps.put(userID, updateTimestamps(userID, newRow, userUpdates));
+
+      for (Map.Entry<Long,PreferenceUpdate> update : userUpdates.entrySet()) {
+        long itemID = update.getKey();
+        PreferenceUpdate preferenceUpdate = update.getValue();
+        FastByIDMap<PreferenceUpdate> itemUpdates = updatesByItem.get(itemID);
+        if (itemUpdates == null) {
+          itemUpdates = new FastByIDMap<PreferenceUpdate>();
+          updatesByItem.put(itemID, itemUpdates);
+        }
+        itemUpdates.put(userID, preferenceUpdate);
+        if (!preferenceUpdate.isRemove()) {
+          minPreference = Float.isNaN(minPreference) ? preferenceUpdate.getValue()
+              : Math.min(minPreference, preferenceUpdate.getValue());
+          maxPreference = Float.isNaN(maxPreference) ? preferenceUpdate.getValue()
+              : Math.max(maxPreference, preferenceUpdate.getValue());
+        }
+      }
+    }
+
+    for (Map.Entry<Long,FastByIDMap<PreferenceUpdate>> entry : updatesByItem.entrySet()) {
+      long itemID = entry.getKey();
+      PreferenceArray oldRow = itemRowOrNull(itemID);
+      PreferenceArray newRow = applyToRow(oldRow, itemID, entry.getValue(), false);
+      newChangedItems.put(itemID, newRow);
+      updateMembership(itemID, oldRow, newRow, addedItems, removedItems);
+    }
+
+    if (!base.hasPreferenceValues()) {
+      minPreference = getMinPreference();
+      maxPreference = getMaxPreference();
+    }
+
+    return new IncrementalDataModel(base,
+                                    newChangedUsers,
+                                    newChangedItems,
+                                    newChangedTimestamps,
+                                    updateIDs(userIDs, addedUsers, removedUsers),
+                                    updateIDs(itemIDs, addedItems, removedItems),
+                                    minPreference,
+                                    maxPreference);
+  }
+
+  /**
+   * @return number of users and items whose rows differ from the base model
+   */
+  int getNumChangedRows() {
+    return changedUsers.size() + changedItems.size();
+  }
+
+  private PreferenceArray userRowOrNull(long userID) throws TasteException {
+    PreferenceArray row = changedUsers.get(userID);
+    if (row != null) {
+      return row.length() == 0 ? null : row;
+    }
+    try {
+      return base.getPreferencesFromUser(userID);
+    } catch (NoSuchUserException nsue) {
+      return null;
+    }
+  }
+
+  private PreferenceArray itemRowOrNull(long itemID) throws TasteException {
+    PreferenceArray row = changedItems.get(itemID);
+    if (row != null) {
+      return row.length() == 0 ? null : row;
+    }
+    try {
+      return base.getPreferencesForItem(itemID);
+    } catch (NoSuchItemException nsie) {
+      return null;
+    }
+  }
+
+  /**
+   * Builds a new row from an old one and some updates, sorted by the ID of the other side of each preference.
+   */
+  private PreferenceArray applyToRow(PreferenceArray oldRow,
+                                     long rowID,
+                                     FastByIDMap<PreferenceUpdate> updates,
+                                     boolean byUser) {
+    FastByIDMap<Float> values = new FastByIDMap<Float>();
+    if (oldRow != null) {
+      int length = oldRow.length();
+      for (int i = 0; i < length; i++) {
+        values.put(byUser ? oldRow.getItemID(i) : oldRow.getUserID(i), oldRow.getValue(i));
+      }
+    }
+    for (Map.Entry<Long,PreferenceUpdate> entry : updates.entrySet()) {
+      PreferenceUpdate update = entry.getValue();
+      if (update.isRemove()) {
+        values.remove(entry.getKey());
+      } else {
+        values.put(entry.getKey(), update.getValue());
+      }
+    }
+
+    long[] otherIDs = new long[values.size()];
+    int n = 0;
+    LongPrimitiveIterator it = values.keySetIterator();
+    while (it.hasNext()) {
+      otherIDs[n++] = it.nextLong();
+    }
+    Arrays.sort(otherIDs);
+
+    boolean hasPrefValues = base.hasPreferenceValues();
+    PreferenceArray row;
+    if (byUser) {
+      row = hasPrefValues ? new GenericUserPreferenceArray(n) : new BooleanUserPreferenceArray(n);
+      row.setUserID(0, rowID);
+    } else {
+      row = hasPrefValues ? new GenericItemPreferenceArray(n) : new BooleanItemPreferenceArray(n);
+      row.setItemID(0, rowID);
+    }
+    for (int i = 0; i < n; i++) {
+      if (byUser) {
+        row.setItemID(i, otherIDs[i]);
+      } else {
+        row.setUserID(i, otherIDs[i]);
+      }
+      if (hasPrefValues) {
+        row.setValue(i, values.get(otherIDs[i]));
+      }
+    }
+    return row;
+  }
+
+  private static void updateMembership(long id,
+                                       PreferenceArray oldRow,
+                                       PreferenceArray newRow,
+                                       FastIDSet added,
+                                       FastIDSet removed) {
+    boolean existed = oldRow != null;
+    boolean exists = newRow.length() > 0;
+    if (existed && !exists) {
+      removed.add(id);
+    } else if (!existed && exists) {
+      added.add(id);
+    }
+  }
+
+  private FastByIDMap<Long> updateTimestamps(long userID,
+                                             PreferenceArray newRow,
+                                             FastByIDMap<PreferenceUpdate> updates) throws TasteException {
+    FastByIDMap<Long> timestamps = new FastByIDMap<Long>();
+    int length = newRow.length();
+    for (int i = 0; i < length; i++) {
+      long itemID = newRow.getItemID(i);
+      PreferenceUpdate update = updates.get(itemID);
+      Long timestamp = update == null ? null : update.getTimestamp();
+      if (timestamp == null) {
+        // Unchanged, or updated without a new timestamp: keep the old one
+        timestamp = getPreferenceTimeOrNull(userID, itemID);
+      }
+      if (timestamp != null) {
+        timestamps.put(itemID, timestamp);
+      }
+    }
+    return timestamps;
+  }
+
+  private Long getPreferenceTimeOrNull(long userID, long itemID) throws TasteException {
+    try {
+      return getPreferenceTime(userID, itemID);
+    } catch (NoSuchUserException nsue) {
+      return null;
+    }
+  }
+
+  private static long[] updateIDs(long[] ids, FastIDSet added, FastIDSet removed) {
+    if (added.isEmpty() && removed.isEmpty()) {
+      return ids;
+    }
+    long[] addedIDs = added.toArray();
+    Arrays.sort(addedIDs);
+    long[] result = new long[ids.length + addedIDs.length - removed.size()];
+    // Merge the two sorted arrays, dropping removed IDs
+    int i = 0;
+    int j = 0;
+    int k = 0;
+    while (i < ids.length || j < addedIDs.length) {
+      long next;
+      if (j >= addedIDs.length || (i < ids.length && ids[i] < addedIDs[j])) {
+        next = ids[i++];
+        if (removed.contains(next)) {
+          continue;
+        }
+      } else {
+        next = addedIDs[j++];
+      }
+      result[k++] = next;
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() {
+    return new LongPrimitiveArrayIterator(userIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
+    PreferenceArray row = changedUsers.get(userID);
+    if (row == null) {
+      return base.getPreferencesFromUser(userID);
+    }
+    if (row.length() == 0) {
+      throw new NoSuchUserException(userID);
+    }
+    return row;
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    PreferenceArray row = changedUsers.get(userID);
+    if (row == null) {
+      return base.getItemIDsFromUser(userID);
+    }
+    if (row.length() == 0) {
+      throw new NoSuchUserException(userID);
+    }
+    int length = row.length();
+    FastIDSet result = new FastIDSet(length);
+    for (int i = 0; i < length; i++) {
+      result.add(row.getItemID(i));
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() {
+    return new LongPrimitiveArrayIterator(itemIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+    PreferenceArray row = changedItems.get(itemID);
+    if (row == null) {
+      return base.getPreferencesForItem(itemID);
+    }
+    if (row.length() == 0) {
+      throw new NoSuchItemException(itemID);
+    }
+    return row;
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    PreferenceArray row = changedUsers.get(userID);
+    if (row == null) {
+      return base.getPreferenceValue(userID, itemID);
+    }
+    if (row.length() == 0) {
+      throw new NoSuchUserException(userID);
+    }
+    // Rows are sorted by item ID
+    int i = Arrays.binarySearch(row.getIDs(), itemID);
+    return i < 0 ? null : row.getValue(i);
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    FastByIDMap<Long> timestamps = changedTimestamps.get(userID);
+    if (timestamps == null) {
+      return base.getPreferenceTime(userID, itemID);
+    }
+    return timestamps.get(itemID);
+  }
+
+  @Override
+  public int getNumItems() {
+    return itemIDs.length;
+  }
+
+  @Override
+  public int getNumUsers() {
+    return userIDs.length;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) throws TasteException {
+    PreferenceArray row = changedItems.get(itemID);
+    return row == null ? base.getNumUsersWithPreferenceFor(itemID) : row.length();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) throws TasteException {
+    if (!changedItems.containsKey(itemID1) && !changedItems.containsKey(itemID2)) {
+      return base.getNumUsersWithPreferenceFor(itemID1, itemID2);
+    }
+    PreferenceArray row1 = itemRowOrNull(itemID1);
+    PreferenceArray row2 = itemRowOrNull(itemID2);
+    if (row1 == null || row2 == null) {
+      return 0;
+    }
+    if (row1.length() > row2.length()) {
+      PreferenceArray swap = row1;
+      row1 = row2;
+      row2 = swap;
+    }
+    FastIDSet userIDs1 = new FastIDSet(row1.length());
+    for (int i = 0; i < row1.length(); i++) {
+      userIDs1.add(row1.getUserID(i));
+    }
+    int count = 0;
+    for (int i = 0; i < row2.length(); i++) {
+      if (userIDs1.contains(row2.getUserID(i))) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return base.hasPreferenceValues();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // Does nothing
+  }
+
+  @Override
+  public String toString() {
+    return "IncrementalDataModel[base:" + base + ", changedUsers:" + changedUsers.size()
+        + ", changedItems:" + changedItems.size() + ']';
+  }
+
+  /** A change to one preference read from an update file: a new value, or a removal. */
+  static final class PreferenceUpdate {
+
+    private final float value;
+    private final boolean remove;
+    private final Long timestamp;
+
+    private PreferenceUpdate(float value, boolean remove, Long timestamp) {
+      this.value = value;
+      this.remove = remove;
+      this.timestamp = timestamp;
+    }
+
+    static PreferenceUpdate set(float value, Long timestamp) {
+      return new PreferenceUpdate(value, false, timestamp);
+    }
+
+    static PreferenceUpdate remove() {
+      return new PreferenceUpdate(Float.NaN, true, null);
+    }
+
+    float getValue() {
+      return value;
+    }
+
+    boolean isRemove() {
+      return remove;
+    }
+
+    Long getTimestamp() {
+      return timestamp;
+    }
+  }
+
+}
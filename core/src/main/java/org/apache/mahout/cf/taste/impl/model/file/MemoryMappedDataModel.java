@@ -0,0 +1,728 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+import com.google.common.io.Closeables;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.AbstractLongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.PagedMappedBuffer;
+import org.apache.mahout.cf.taste.impl.model.AbstractDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.iterator.CountingIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A read-only {@link DataModel} backed by a compact binary file, which is memory-mapped rather than parsed.
+ * Opening the model costs little more than mapping the file, the data lives in the operating system's page
+ * cache rather than on the heap, and several processes can share one copy of it.
+ * </p>
+ *
+ * <p>
+ * Files are written by {@link MemoryMappedDataModelWriter}, for example from the input of a
+ * {@link FileDataModel}. A file holds sorted arrays of user and item IDs, then preferences twice in
+ * compressed-sparse-row form: once grouped by user (sorted by item), and once grouped by item (sorted by user).
+ * Rows refer to users and items by their index in the sorted ID arrays. Preference values are stored as
+ * {@code float}s, and timestamps, if present, as {@code long}s on the user side only.
+ * </p>
+ *
+ * <p>
+ * {@link #getPreferencesFromUser(long)} and {@link #getPreferencesForItem(long)} return read-only
+ * {@link PreferenceArray} views over the mapped data; nothing is copied until a caller asks for
+ * {@link PreferenceArray#getIDs()} or a {@link PreferenceArray#clone()}.
+ * </p>
+ *
+ * <p>
+ * {@link #refresh(Collection)} re-maps the file if it has been modified.
+ * </p>
+ */
+public final class MemoryMappedDataModel extends AbstractDataModel {
+
+  private static final Logger log = LoggerFactory.getLogger(MemoryMappedDataModel.class);
+
+  static final int MAGIC = 0x4d4d444d; // "MMDM"
+  static final int VERSION = 1;
+  static final int FLAG_PREF_VALUES = 0x01;
+  static final int FLAG_TIMESTAMPS = 0x02;
+  static final int HEADER_SIZE = 48;
+  static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+  private final File dataFile;
+  private transient volatile Layout layout;
+  private transient volatile long lastModified;
+
+  /**
+   * @param dataFile file written by {@link MemoryMappedDataModelWriter}
+   * @throws FileNotFoundException if dataFile does not exist
+   * @throws IOException if the file can't be read or isn't in the expected format
+   */
+  public MemoryMappedDataModel(File dataFile) throws IOException {
+    this.dataFile = Preconditions.checkNotNull(dataFile).getAbsoluteFile();
+    if (!dataFile.exists() || dataFile.isDirectory()) {
+      throw new FileNotFoundException(dataFile.toString());
+    }
+    open();
+  }
+
+  private void open() throws IOException {
+    log.info("Mapping {}", dataFile);
+    long newLastModified = dataFile.lastModified();
+    Layout newLayout = new Layout(dataFile);
+    setMinPreference(newLayout.minPreference);
+    setMaxPreference(newLayout.maxPreference);
+    layout = newLayout;
+    lastModified = newLastModified;
+    log.info("Mapped {} users, {} items, {} preferences",
+             new Object[] {newLayout.numUsers, newLayout.numItems, newLayout.numPrefs});
+  }
+
+  public File getDataFile() {
+    return dataFile;
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() {
+    Layout theLayout = layout;
+    return new MappedIDIterator(theLayout.buffer, theLayout.userIDsStart, theLayout.numUsers);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws NoSuchUserException {
+    Layout theLayout = layout;
+    int userIndex = theLayout.userIndex(userID);
+    if (userIndex < 0) {
+      throw new NoSuchUserException(userID);
+    }
+    return new MappedUserPreferenceArray(theLayout, userID, userIndex);
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws NoSuchUserException {
+    Layout theLayout = layout;
+    int userIndex = theLayout.userIndex(userID);
+    if (userIndex < 0) {
+      throw new NoSuchUserException(userID);
+    }
+    long start = theLayout.userRowStart(userIndex);
+    long end = theLayout.userRowStart(userIndex + 1);
+    FastIDSet result = new FastIDSet((int) (end - start));
+    for (long i = start; i < end; i++) {
+      result.add(theLayout.itemID(theLayout.userRowItemIndex(i)));
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() {
+    Layout theLayout = layout;
+    return new MappedIDIterator(theLayout.buffer, theLayout.itemIDsStart, theLayout.numItems);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws NoSuchItemException {
+    Layout theLayout = layout;
+    int itemIndex = theLayout.itemIndex(itemID);
+    if (itemIndex < 0) {
+      throw new NoSuchItemException(itemID);
+    }
+    return new MappedItemPreferenceArray(theLayout, itemID, itemIndex);
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    Layout theLayout = layout;
+    long position = theLayout.findPreference(userID, itemID);
+    return position < 0L ? null : theLayout.userRowValue(position);
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    Layout theLayout = layout;
+    if (!theLayout.hasTimestamps) {
+      return null;
+    }
+    long position = theLayout.findPreference(userID, itemID);
+    if (position < 0L) {
+      return null;
+    }
+    long time = theLayout.buffer.getLong(theLayout.userTimestampsStart + (position << 3));
+    return time == NO_TIMESTAMP ? null : time;
+  }
+
+  @Override
+  public int getNumItems() {
+    return layout.numItems;
+  }
+
+  @Override
+  public int getNumUsers() {
+    return layout.numUsers;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) {
+    Layout theLayout = layout;
+    int itemIndex = theLayout.itemIndex(itemID);
+    if (itemIndex < 0) {
+      return 0;
+    }
+    return (int) (theLayout.itemRowStart(itemIndex + 1) - theLayout.itemRowStart(itemIndex));
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) {
+    Layout theLayout = layout;
+    int itemIndex1 = theLayout.itemIndex(itemID1);
+    int itemIndex2 = theLayout.itemIndex(itemID2);
+    if (itemIndex1 < 0 || itemIndex2 < 0) {
+      return 0;
+    }
+    long i = theLayout.itemRowStart(itemIndex1);
+    long end1 = theLayout.itemRowStart(itemIndex1 + 1);
+    long j = theLayout.itemRowStart(itemIndex2);
+    long end2 = theLayout.itemRowStart(itemIndex2 + 1);
+    int count = 0;
+    while (i < end1 && j < end2) {
+      int userIndex1 = theLayout.itemRowUserIndex(i);
+      int userIndex2 = theLayout.itemRowUserIndex(j);
+      if (userIndex1 < userIndex2) {
+        i++;
+      } else if (userIndex1 > userIndex2) {
+        j++;
+      } else {
+        count++;
+        i++;
+        j++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return layout.hasPrefValues;
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    if (dataFile.lastModified() != lastModified) {
+      try {
+        open();
+      } catch (IOException ioe) {
+        log.warn("Exception while re-mapping; keeping previous data", ioe);
+      }
+    }
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    open();
+  }
+
+  @Override
+  public String toString() {
+    return "MemoryMappedDataModel[file:" + dataFile + ']';
+  }
+
+  /**
+   * Locations of the arrays in one mapping of the file. A refresh replaces the whole {@link Layout}, so readers
+   * holding the previous one keep seeing consistent data.
+   */
+  private static final class Layout {
+
+    private final PagedMappedBuffer buffer;
+    private final boolean hasPrefValues;
+    private final boolean hasTimestamps;
+    private final int numUsers;
+    private final int numItems;
+    private final long numPrefs;
+    private final float minPreference;
+    private final float maxPreference;
+    private final long userIDsStart;
+    private final long itemIDsStart;
+    private final long userOffsetsStart;
+    private final long userItemIndexesStart;
+    private final long userValuesStart;
+    private final long userTimestampsStart;
+    private final long itemOffsetsStart;
+    private final long itemUserIndexesStart;
+    private final long itemValuesStart;
+
+    private Layout(File dataFile) throws IOException {
+      RandomAccessFile file = new RandomAccessFile(dataFile, "r");
+      try {
+        if (file.length() < HEADER_SIZE) {
+          throw new IOException("Not a memory-mapped data model file: " + dataFile);
+        }
+        buffer = new PagedMappedBuffer(file.getChannel(), 0L, file.length());
+      } finally {
+        // The mapping remains valid after the channel is closed
+        Closeables.closeQuietly(file);
+      }
+      if (buffer.getInt(0L) != MAGIC) {
+        throw new IOException("Not a memory-mapped data model file: " + dataFile);
+      }
+      int version = buffer.getInt(4L);
+      if (version != VERSION) {
+        throw new IOException("Unsupported version " + version + " in " + dataFile);
+      }
+      int flags = buffer.getInt(8L);
+      hasPrefValues = (flags & FLAG_PREF_VALUES) != 0;
+      hasTimestamps = (flags & FLAG_TIMESTAMPS) != 0;
+      numUsers = (int) buffer.getLong(16L);
+      numItems = (int) buffer.getLong(24L);
+      numPrefs = buffer.getLong(32L);
+      minPreference = buffer.getFloat(40L);
+      maxPreference = buffer.getFloat(44L);
+
+      long position = HEADER_SIZE;
+      userIDsStart = position;
+      position += 8L * numUsers;
+      itemIDsStart = position;
+      position += 8L * numItems;
+      userOffsetsStart = position;
+      position += 8L * (numUsers + 1);
+      userItemIndexesStart = position;
+      position += align(4L * numPrefs);
+      userValuesStart = position;
+      if (hasPrefValues) {
+        position += align(4L * numPrefs);
+      }
+      userTimestampsStart = position;
+      if (hasTimestamps) {
+        position += 8L * numPrefs;
+      }
+      itemOffsetsStart = position;
+      position += 8L * (numItems + 1);
+      itemUserIndexesStart = position;
+      position += align(4L * numPrefs);
+      itemValuesStart = position;
+      if (hasPrefValues) {
+        position += align(4L * numPrefs);
+      }
+      if (position != buffer.length()) {
+        throw new IOException("Expected " + position + " bytes but found " + buffer.length() + " in " + dataFile);
+      }
+    }
+
+    static long align(long length) {
+      return (length + 7L) & ~7L;
+    }
+
+    int userIndex(long userID) {
+      long index = buffer.binarySearchLong(userIDsStart >>> 3, (userIDsStart >>> 3) + numUsers, userID);
+      return index < 0L ? -1 : (int) (index - (userIDsStart >>> 3));
+    }
+
+    int itemIndex(long itemID) {
+      long index = buffer.binarySearchLong(itemIDsStart >>> 3, (itemIDsStart >>> 3) + numItems, itemID);
+      return index < 0L ? -1 : (int) (index - (itemIDsStart >>> 3));
+    }
+
+    long userID(int userIndex) {
+      return buffer.getLong(userIDsStart + ((long) userIndex << 3));
+    }
+
+    long itemID(int itemIndex) {
+      return buffer.getLong(itemIDsStart + ((long) itemIndex << 3));
+    }
+
+    long userRowStart(int userIndex) {
+      return buffer.getLong(userOffsetsStart + ((long) userIndex << 3));
+    }
+
+    int userRowItemIndex(long position) {
+      return buffer.getInt(userItemIndexesStart + (position << 2));
+    }
+
+    float userRowValue(long position) {
+      return hasPrefValues ? buffer.getFloat(userValuesStart + (position << 2)) : 1.0f;
+    }
+
+    long itemRowStart(int itemIndex) {
+      return buffer.getLong(itemOffsetsStart + ((long) itemIndex << 3));
+    }
+
+    int itemRowUserIndex(long position) {
+      return buffer.getInt(itemUserIndexesStart + (position << 2));
+    }
+
+    float itemRowValue(long position) {
+      return hasPrefValues ? buffer.getFloat(itemValuesStart + (position << 2)) : 1.0f;
+    }
+
+    /** @return position of the preference within the user-side arrays, or -1 if it doesn't exist */
+    long findPreference(long userID, long itemID) throws NoSuchUserException {
+      int userIndex = userIndex(userID);
+      if (userIndex < 0) {
+        throw new NoSuchUserException(userID);
+      }
+      int itemIndex = itemIndex(itemID);
+      if (itemIndex < 0) {
+        return -1L;
+      }
+      return findInUserRow(userIndex, itemIndex);
+    }
+
+    long findInUserRow(int userIndex, int itemIndex) {
+      long base = userItemIndexesStart >>> 2;
+      long position = buffer.binarySearchInt(base + userRowStart(userIndex),
+                                             base + userRowStart(userIndex + 1),
+                                             itemIndex);
+      return position < 0L ? -1L : position - base;
+    }
+
+    long findInItemRow(int itemIndex, int userIndex) {
+      long base = itemUserIndexesStart >>> 2;
+      long position = buffer.binarySearchInt(base + itemRowStart(itemIndex),
+                                             base + itemRowStart(itemIndex + 1),
+                                             userIndex);
+      return position < 0L ? -1L : position - base;
+    }
+  }
+
+  private static final class MappedIDIterator extends AbstractLongPrimitiveIterator {
+
+    private final PagedMappedBuffer buffer;
+    private final long start;
+    private final int count;
+    private int next;
+
+    private MappedIDIterator(PagedMappedBuffer buffer, long start, int count) {
+      this.buffer = buffer;
+      this.start = start;
+      this.count = count;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next < count;
+    }
+
+    @Override
+    public long nextLong() {
+      long id = peek();
+      next++;
+      return id;
+    }
+
+    @Override
+    public long peek() {
+      if (next >= count) {
+        throw new NoSuchElementException();
+      }
+      return buffer.getLong(start + ((long) next << 3));
+    }
+
+    @Override
+    public void skip(int n) {
+      next = (int) Math.min(count, (long) next + n);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Base class for read-only views of one row of preferences. Mutators throw
+   * {@link UnsupportedOperationException}; {@link #clone()} returns a mutable, on-heap copy.
+   */
+  private abstract static class MappedPreferenceArray implements PreferenceArray {
+
+    final Layout layout;
+    final long id;
+    final int index;
+    final long start;
+    private final int length;
+
+    MappedPreferenceArray(Layout layout, long id, int index, long start, long end) {
+      this.layout = layout;
+      this.id = id;
+      this.index = index;
+      this.start = start;
+      this.length = (int) (end - start);
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public Preference get(int i) {
+      return new PreferenceView(getUserID(i), getItemID(i), getValue(i));
+    }
+
+    @Override
+    public void set(int i, Preference pref) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setUserID(int i, long userID) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setItemID(int i, long itemID) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setValue(int i, float value) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void sortByValue() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void sortByValueReversed() {
+      throw new UnsupportedOperationException();
+    }
+
+    void checkIndex(int i) {
+      if (i < 0 || i >= length) {
+        throw new ArrayIndexOutOfBoundsException(i);
+      }
+    }
+
+    @Override
+    public Iterator<Preference> iterator() {
+      return Iterators.transform(new CountingIterator(length),
+                                 new Function<Integer,Preference>() {
+                                   @Override
+                                   public Preference apply(Integer from) {
+                                     return get(from);
+                                   }
+                                 });
+    }
+
+    @Override
+    public abstract PreferenceArray clone();
+  }
+
+  private static final class MappedUserPreferenceArray extends MappedPreferenceArray {
+
+    private MappedUserPreferenceArray(Layout layout, long userID, int userIndex) {
+      super(layout, userID, userIndex, layout.userRowStart(userIndex), layout.userRowStart(userIndex + 1));
+    }
+
+    @Override
+    public long getUserID(int i) {
+      return id;
+    }
+
+    @Override
+    public long getItemID(int i) {
+      checkIndex(i);
+      return layout.itemID(layout.userRowItemIndex(start + i));
+    }
+
+    @Override
+    public float getValue(int i) {
+      checkIndex(i);
+      return layout.userRowValue(start + i);
+    }
+
+    @Override
+    public long[] getIDs() {
+      long[] ids = new long[length()];
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = layout.itemID(layout.userRowItemIndex(start + i));
+      }
+      return ids;
+    }
+
+    @Override
+    public void sortByUser() { }
+
+    @Override
+    public void sortByItem() {
+      // Already sorted by item
+    }
+
+    @Override
+    public boolean hasPrefWithUserID(long userID) {
+      return id == userID;
+    }
+
+    @Override
+    public boolean hasPrefWithItemID(long itemID) {
+      int itemIndex = layout.itemIndex(itemID);
+      return itemIndex >= 0 && layout.findInUserRow(index, itemIndex) >= 0L;
+    }
+
+    @Override
+    public PreferenceArray clone() {
+      int length = length();
+      GenericUserPreferenceArray copy = new GenericUserPreferenceArray(length);
+      copy.setUserID(0, id);
+      for (int i = 0; i < length; i++) {
+        copy.setItemID(i, getItemID(i));
+        copy.setValue(i, getValue(i));
+      }
+      return copy;
+    }
+
+    @Override
+    public String toString() {
+      return "MappedUserPreferenceArray[userID:" + id + ", length:" + length() + ']';
+    }
+  }
+
+  private static final class MappedItemPreferenceArray extends MappedPreferenceArray {
+
+    private MappedItemPreferenceArray(Layout layout, long itemID, int itemIndex) {
+      super(layout, itemID, itemIndex, layout.itemRowStart(itemIndex), layout.itemRowStart(itemIndex + 1));
+    }
+
+    @Override
+    public long getUserID(int i) {
+      checkIndex(i);
+      return layout.userID(layout.itemRowUserIndex(start + i));
+    }
+
+    @Override
+    public long getItemID(int i) {
+      return id;
+    }
+
+    @Override
+    public float getValue(int i) {
+      checkIndex(i);
+      return layout.itemRowValue(start + i);
+    }
+
+    @Override
+    public long[] getIDs() {
+      long[] ids = new long[length()];
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = layout.userID(layout.itemRowUserIndex(start + i));
+      }
+      return ids;
+    }
+
+    @Override
+    public void sortByUser() {
+      // Already sorted by user
+    }
+
+    @Override
+    public void sortByItem() { }
+
+    @Override
+    public boolean hasPrefWithUserID(long userID) {
+      int userIndex = layout.userIndex(userID);
+      return userIndex >= 0 && layout.findInItemRow(index, userIndex) >= 0L;
+    }
+
+    @Override
+    public boolean hasPrefWithItemID(long itemID) {
+      return id == itemID;
+    }
+
+    @Override
+    public PreferenceArray clone() {
+      int length = length();
+      GenericItemPreferenceArray copy = new GenericItemPreferenceArray(length);
+      copy.setItemID(0, id);
+      for (int i = 0; i < length; i++) {
+        copy.setUserID(i, getUserID(i));
+        copy.setValue(i, getValue(i));
+      }
+      return copy;
+    }
+
+    @Override
+    public String toString() {
+      return "MappedItemPreferenceArray[itemID:" + id + ", length:" + length() + ']';
+    }
+  }
+
+  /** An immutable {@link Preference} read from a mapped row. */
+  private static final class PreferenceView implements Preference {
+
+    private final long userID;
+    private final long itemID;
+    private final float value;
+
+    private PreferenceView(long userID, long itemID, float value) {
+      this.userID = userID;
+      this.itemID = itemID;
+      this.value = value;
+    }
+
+    @Override
+    public long getUserID() {
+      return userID;
+    }
+
+    @Override
+    public long getItemID() {
+      return itemID;
+    }
+
+    @Override
+    public float getValue() {
+      return value;
+    }
+
+    @Override
+    public void setValue(float value) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+}
@@ -0,0 +1,221 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.google.common.io.Closeables;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Writes the contents of any {@link DataModel} in the binary format read by {@link MemoryMappedDataModel}.
+ * This is a one-time conversion; run from the command line it converts the input of a {@link FileDataModel}:
+ * </p>
+ *
+ * <p>{@code MemoryMappedDataModelWriter input.csv output.bin}</p>
+ */
+public final class MemoryMappedDataModelWriter {
+
+  private static final Logger log = LoggerFactory.getLogger(MemoryMappedDataModelWriter.class);
+
+  private MemoryMappedDataModelWriter() { }
+
+  public static void main(String[] args) throws IOException, TasteException {
+    if (args.length != 2) {
+      System.err.println("Usage: MemoryMappedDataModelWriter [input file] [output file]");
+      return;
+    }
+    write(new FileDataModel(new File(args[0])), new File(args[1]));
+  }
+
+  /**
+   * Writes a {@link DataModel} to a file which can be opened with {@link MemoryMappedDataModel}.
+   * Timestamps are written only if the model has any.
+   */
+  public static void write(DataModel dataModel, File outputFile) throws IOException, TasteException {
+    long[] userIDs = sortedIDs(dataModel.getUserIDs(), dataModel.getNumUsers());
+    long[] itemIDs = sortedIDs(dataModel.getItemIDs(), dataModel.getNumItems());
+    boolean hasPrefValues = dataModel.hasPreferenceValues();
+
+    long numPrefs = 0L;
+    boolean hasTimestamps = false;
+    for (long userID : userIDs) {
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+      int length = prefs.length();
+      numPrefs += length;
+      for (int i = 0; i < length && !hasTimestamps; i++) {
+        hasTimestamps = getPreferenceTime(dataModel, userID, prefs.getItemID(i)) != null;
+      }
+    }
+    log.info("Writing {} users, {} items, {} preferences to {}",
+             new Object[] {userIDs.length, itemIDs.length, numPrefs, outputFile});
+
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile), 1 << 16));
+    try {
+      out.writeInt(MemoryMappedDataModel.MAGIC);
+      out.writeInt(MemoryMappedDataModel.VERSION);
+      int flags = (hasPrefValues ? MemoryMappedDataModel.FLAG_PREF_VALUES : 0)
+          | (hasTimestamps ? MemoryMappedDataModel.FLAG_TIMESTAMPS : 0);
+      out.writeInt(flags);
+      out.writeInt(0);
+      out.writeLong(userIDs.length);
+      out.writeLong(itemIDs.length);
+      out.writeLong(numPrefs);
+      out.writeFloat(dataModel.getMinPreference());
+      out.writeFloat(dataModel.getMaxPreference());
+
+      for (long userID : userIDs) {
+        out.writeLong(userID);
+      }
+      for (long itemID : itemIDs) {
+        out.writeLong(itemID);
+      }
+
+      // User-side rows. Each array is written in its own pass so that arrays are contiguous.
+      long offset = 0L;
+      out.writeLong(offset);
+      for (long userID : userIDs) {
+        offset += dataModel.getPreferencesFromUser(userID).length();
+        out.writeLong(offset);
+      }
+      for (long userID : userIDs) {
+        for (int index : sortedIndexes(dataModel.getPreferencesFromUser(userID), itemIDs, true)) {
+          out.writeInt(index);
+        }
+      }
+      pad(out, numPrefs);
+      if (hasPrefValues) {
+        for (long userID : userIDs) {
+          PreferenceArray prefs = sortedByIndex(dataModel.getPreferencesFromUser(userID), itemIDs, true);
+          for (int i = 0; i < prefs.length(); i++) {
+            out.writeFloat(prefs.getValue(i));
+          }
+        }
+        pad(out, numPrefs);
+      }
+      if (hasTimestamps) {
+        for (long userID : userIDs) {
+          PreferenceArray prefs = sortedByIndex(dataModel.getPreferencesFromUser(userID), itemIDs, true);
+          for (int i = 0; i < prefs.length(); i++) {
+            Long time = getPreferenceTime(dataModel, userID, prefs.getItemID(i));
+            out.writeLong(time == null ? MemoryMappedDataModel.NO_TIMESTAMP : time);
+          }
+        }
+      }
+
+      // Item-side rows
+      offset = 0L;
+      out.writeLong(offset);
+      for (long itemID : itemIDs) {
+        offset += dataModel.getPreferencesForItem(itemID).length();
+        out.writeLong(offset);
+      }
+      for (long itemID : itemIDs) {
+        for (int index : sortedIndexes(dataModel.getPreferencesForItem(itemID), userIDs, false)) {
+          out.writeInt(index);
+        }
+      }
+      pad(out, numPrefs);
+      if (hasPrefValues) {
+        for (long itemID : itemIDs) {
+          PreferenceArray prefs = sortedByIndex(dataModel.getPreferencesForItem(itemID), userIDs, false);
+          for (int i = 0; i < prefs.length(); i++) {
+            out.writeFloat(prefs.getValue(i));
+          }
+        }
+        pad(out, numPrefs);
+      }
+    } finally {
+      Closeables.close(out, false);
+    }
+  }
+
+  private static long[] sortedIDs(LongPrimitiveIterator it, int count) {
+    long[] ids = new long[count];
+    int i = 0;
+    while (it.hasNext()) {
+      ids[i++] = it.nextLong();
+    }
+    Arrays.sort(ids);
+    return ids;
+  }
+
+  /**
+   * @return indexes into {@code otherIDs} of the other side of each preference, in ascending order
+   */
+  private static int[] sortedIndexes(PreferenceArray prefs, long[] otherIDs, boolean byUser) {
+    int length = prefs.length();
+    int[] indexes = new int[length];
+    for (int i = 0; i < length; i++) {
+      long otherID = byUser ? prefs.getItemID(i) : prefs.getUserID(i);
+      indexes[i] = Arrays.binarySearch(otherIDs, otherID);
+    }
+    Arrays.sort(indexes);
+    return indexes;
+  }
+
+  /**
+   * @return prefs, or a copy of them, in ascending order of the other side's ID, and so of its index
+   */
+  private static PreferenceArray sortedByIndex(PreferenceArray prefs, long[] otherIDs, boolean byUser) {
+    int length = prefs.length();
+    for (int i = 1; i < length; i++) {
+      long previous = byUser ? prefs.getItemID(i - 1) : prefs.getUserID(i - 1);
+      long current = byUser ? prefs.getItemID(i) : prefs.getUserID(i);
+      if (current < previous) {
+        PreferenceArray sorted = prefs.clone();
+        if (byUser) {
+          sorted.sortByItem();
+        } else {
+          sorted.sortByUser();
+        }
+        return sorted;
+      }
+    }
+    return prefs;
+  }
+
+  private static Long getPreferenceTime(DataModel dataModel, long userID, long itemID) throws TasteException {
+    try {
+      return dataModel.getPreferenceTime(userID, itemID);
+    } catch (NoSuchUserException nsue) {
+      // Some models report users without any timestamps this way
+      return null;
+    }
+  }
+
+  /** Pads an array of {@code count} 4-byte values up to a multiple of 8 bytes. */
+  private static void pad(DataOutputStream out, long count) throws IOException {
+    if ((count & 1L) != 0L) {
+      out.writeInt(0);
+    }
+  }
+
+}
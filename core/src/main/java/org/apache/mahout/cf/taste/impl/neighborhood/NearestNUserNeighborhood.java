@@ -17,11 +17,15 @@
 
 package org.apache.mahout.cf.taste.impl.neighborhood;
 
+import java.util.Arrays;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.common.SamplingLongPrimitiveIterator;
-import org.apache.mahout.cf.taste.impl.recommender.TopItems;
+import org.apache.mahout.cf.taste.impl.recommender.TopIDHeap;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.BatchUserSimilarity;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 
 import com.google.common.base.Preconditions;
@@ -33,6 +37,9 @@ import com.google.common.base.Preconditions;
  * </p>
  */
 public final class NearestNUserNeighborhood extends AbstractUserNeighborhood {
+
+  private static final int BATCH_SIZE = 256;
+  private static final long[] NO_IDS = new long[0];
   
   private final int n;
   private final double minSimilarity;
@@ -82,41 +89,75 @@ public final class NearestNUserNeighborhood extends AbstractUserNeighborhood {
   
   @Override
   public long[] getUserNeighborhood(long userID) throws TasteException {
+    if (n == 0) {
+      // No users in the data model when this was created
+      return NO_IDS;
+    }
     
     DataModel dataModel = getDataModel();
     UserSimilarity userSimilarityImpl = getUserSimilarity();
     
-    TopItems.Estimator<Long> estimator = new Estimator(userSimilarityImpl, userID, minSimilarity);
-    
     LongPrimitiveIterator userIDs = SamplingLongPrimitiveIterator.maybeWrapIterator(dataModel.getUserIDs(),
       getSamplingRate());
-    
-    return TopItems.getTopUsers(n, userIDs, null, estimator);
+
+    // Compare with other users a batch at a time, so that a batch similarity can read this user's data just once
+    TopIDHeap topUsers = new TopIDHeap(n);
+    long[] batch = new long[BATCH_SIZE];
+    int batchSize = 0;
+    while (userIDs.hasNext()) {
+      long otherUserID = userIDs.nextLong();
+      if (otherUserID != userID) {
+        batch[batchSize++] = otherUserID;
+        if (batchSize == BATCH_SIZE) {
+          offerBatch(userSimilarityImpl, userID, batch, batchSize, topUsers);
+          batchSize = 0;
+        }
+      }
+    }
+    offerBatch(userSimilarityImpl, userID, batch, batchSize, topUsers);
+
+    int size = topUsers.size();
+    long[] result = new long[size];
+    topUsers.drainDescending(result, null);
+    return result;
+  }
+
+  private void offerBatch(UserSimilarity userSimilarityImpl,
+                          long userID,
+                          long[] batch,
+                          int batchSize,
+                          TopIDHeap topUsers) throws TasteException {
+    if (batchSize == 0) {
+      return;
+    }
+    long[] otherUserIDs = batchSize == batch.length ? batch : Arrays.copyOf(batch, batchSize);
+    double[] similarities = null;
+    if (userSimilarityImpl instanceof BatchUserSimilarity) {
+      try {
+        similarities = ((BatchUserSimilarity) userSimilarityImpl).userSimilarities(userID, otherUserIDs);
+      } catch (NoSuchUserException nsue) {
+        // Find out below which of them it was, and leave it out
+      }
+    }
+    if (similarities == null) {
+      similarities = new double[batchSize];
+      for (int i = 0; i < batchSize; i++) {
+        try {
+          similarities[i] = userSimilarityImpl.userSimilarity(userID, otherUserIDs[i]);
+        } catch (NoSuchUserException nsue) {
+          similarities[i] = Double.NaN;
+        }
+      }
+    }
+    for (int i = 0; i < batchSize; i++) {
+      double sim = similarities[i];
+      topUsers.offer(otherUserIDs[i], sim >= minSimilarity ? sim : Double.NaN);
+    }
   }
   
   @Override
   public String toString() {
     return "NearestNUserNeighborhood";
   }
-  
-  private static final class Estimator implements TopItems.Estimator<Long> {
-    private final UserSimilarity userSimilarityImpl;
-    private final long theUserID;
-    private final double minSim;
-    
-    private Estimator(UserSimilarity userSimilarityImpl, long theUserID, double minSim) {
-      this.userSimilarityImpl = userSimilarityImpl;
-      this.theUserID = theUserID;
-      this.minSim = minSim;
-    }
-    
-    @Override
-    public double estimate(Long userID) throws TasteException {
-      if (userID == theUserID) {
-        return Double.NaN;
-      }
-      double sim = userSimilarityImpl.userSimilarity(theUserID, userID);
-      return sim >= minSim ? sim : Double.NaN;
-    }
-  }
+
 }
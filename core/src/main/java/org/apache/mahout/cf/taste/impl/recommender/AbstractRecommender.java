@@ -19,11 +19,23 @@ package org.apache.mahout.cf.taste.impl.recommender;
 
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.google.common.collect.Lists;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.BatchRecommender;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendationSink;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.cf.taste.recommender.Recommender;
 import org.slf4j.Logger;
@@ -31,9 +43,12 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
 
-public abstract class AbstractRecommender implements Recommender {
+public abstract class AbstractRecommender implements BatchRecommender {
   
   private static final Logger log = LoggerFactory.getLogger(AbstractRecommender.class);
+
+  /** Number of user IDs a batch worker takes from the shared iterator at once. */
+  private static final int BATCH_CHUNK_SIZE = 64;
   
   private final DataModel dataModel;
   private final CandidateItemsStrategy candidateItemsStrategy;
@@ -63,6 +78,130 @@ public abstract class AbstractRecommender implements Recommender {
     return recommend(userID, howMany, null);
   }
   
+  /**
+   * <p>
+   * Computes recommendations for a batch of users with one thread per processor. See
+   * {@link #recommend(LongPrimitiveIterator, int, IDRescorer, RecommendationSink, int)}.
+   * </p>
+   */
+  @Override
+  public void recommend(LongPrimitiveIterator userIDs,
+                        int howMany,
+                        IDRescorer rescorer,
+                        RecommendationSink sink) throws TasteException {
+    recommend(userIDs, howMany, rescorer, sink, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * <p>
+   * Computes recommendations for a batch of users on the given number of threads. The threads take user IDs
+   * from the iterator in small chunks, and compute recommendations with a single {@link PerUserRecommender}
+   * obtained from {@link #newPerUserRecommender(int, IDRescorer)} for the whole batch, so that subclasses can
+   * share work between users. The first failure stops all threads and is rethrown.
+   * </p>
+   */
+  public void recommend(final LongPrimitiveIterator userIDs,
+                        int howMany,
+                        IDRescorer rescorer,
+                        final RecommendationSink sink,
+                        int numThreads) throws TasteException {
+    Preconditions.checkArgument(userIDs != null, "userIDs is null");
+    Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
+    Preconditions.checkArgument(sink != null, "sink is null");
+    Preconditions.checkArgument(numThreads >= 1, "numThreads must be at least 1");
+
+    final PerUserRecommender perUserRecommender = newPerUserRecommender(howMany, rescorer);
+
+    if (numThreads == 1) {
+      while (userIDs.hasNext()) {
+        long userID = userIDs.nextLong();
+        sink.recommended(userID, perUserRecommender.recommend(userID));
+      }
+      return;
+    }
+
+    final AtomicBoolean failed = new AtomicBoolean();
+    Collection<Callable<Void>> workers = Lists.newArrayListWithCapacity(numThreads);
+    for (int i = 0; i < numThreads; i++) {
+      workers.add(new Callable<Void>() {
+        @Override
+        public Void call() throws TasteException {
+          long[] chunk = new long[BATCH_CHUNK_SIZE];
+          int chunkSize;
+          while (!failed.get() && (chunkSize = nextChunk(userIDs, chunk)) > 0) {
+            for (int j = 0; j < chunkSize && !failed.get(); j++) {
+              try {
+                sink.recommended(chunk[j], perUserRecommender.recommend(chunk[j]));
+              } catch (TasteException te) {
+                failed.set(true);
+                throw te;
+              } catch (RuntimeException re) {
+                failed.set(true);
+                throw re;
+              }
+            }
+          }
+          return null;
+        }
+      });
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      for (Future<Void> future : executor.invokeAll(workers)) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof TasteException) {
+        throw (TasteException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new TasteException(cause);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static int nextChunk(LongPrimitiveIterator userIDs, long[] chunk) {
+    synchronized (userIDs) {
+      int size = 0;
+      while (size < chunk.length && userIDs.hasNext()) {
+        chunk[size++] = userIDs.nextLong();
+      }
+      return size;
+    }
+  }
+
+  /**
+   * <p>
+   * Creates the object which computes recommendations for each user in a batch. It is created once per batch
+   * and used concurrently by all of the batch's threads. This default implementation simply calls
+   * {@link #recommend(long, int, IDRescorer)}; subclasses can override it to look up or precompute what is
+   * shared by all users in the batch only once.
+   * </p>
+   */
+  protected PerUserRecommender newPerUserRecommender(final int howMany, final IDRescorer rescorer)
+    throws TasteException {
+    return new PerUserRecommender() {
+      @Override
+      public List<RecommendedItem> recommend(long userID) throws TasteException {
+        return AbstractRecommender.this.recommend(userID, howMany, rescorer);
+      }
+    };
+  }
+
+  /**
+   * Computes recommendations for one user of a batch. Implementations must be thread-safe.
+   */
+  protected interface PerUserRecommender {
+    List<RecommendedItem> recommend(long userID) throws TasteException;
+  }
+
   /**
    * <p>
    * Default implementation which just calls {@link DataModel#setPreference(long, long, float)}.
@@ -51,7 +51,7 @@ public final class GenericBooleanPrefItemBasedRecommender extends GenericItemBas
   @Override
   protected float doEstimatePreference(long userID, PreferenceArray preferencesFromUser, long itemID)
     throws TasteException {
-    double[] similarities = getSimilarity().itemSimilarities(itemID, preferencesFromUser.getIDs());
+    double[] similarities = getEstimationSimilarity().itemSimilarities(itemID, preferencesFromUser.getIDs());
     boolean foundAPref = false;
     double totalSimilarity = 0.0;
     for (double theSimilarity : similarities) {
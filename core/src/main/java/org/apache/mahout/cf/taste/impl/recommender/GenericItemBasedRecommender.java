@@ -29,6 +29,8 @@ import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.impl.similarity.CachingItemSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.recommender.IDRescorer;
@@ -71,11 +73,15 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   private static final Logger log = LoggerFactory.getLogger(GenericItemBasedRecommender.class);
   
   private final ItemSimilarity similarity;
+  /** the similarity cache shared by the users of the batch this thread is recommending for, if any */
+  private final ThreadLocal<ItemSimilarity> batchSimilarity = new ThreadLocal<ItemSimilarity>();
   private final MostSimilarItemsCandidateItemsStrategy mostSimilarItemsCandidateItemsStrategy;
   private final RefreshHelper refreshHelper;
   private EstimatedPreferenceCapper capper;
 
   private static final boolean EXCLUDE_ITEM_IF_NOT_SIMILAR_TO_ALL_BY_DEFAULT = true;
+  /** Maximum number of item-item similarities remembered for reuse across the users of one batch. */
+  private static final int BATCH_SIMILARITY_CACHE_SIZE = 1000000;
 
   public GenericItemBasedRecommender(DataModel dataModel,
                                      ItemSimilarity similarity,
@@ -117,6 +123,39 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   @Override
   public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) throws TasteException {
     Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
+    return doRecommend(userID, howMany, rescorer);
+  }
+
+  /**
+   * <p>
+   * Users in a batch share a cache of the item-item similarities computed for them, since the same popular
+   * items tend to be compared over and over for different users. This is skipped if the {@link ItemSimilarity}
+   * is already cached or precomputed. {@link #doEstimatePreference(long, PreferenceArray, long)} gets the cache
+   * from {@link #getEstimationSimilarity()}.
+   * </p>
+   */
+  @Override
+  protected PerUserRecommender newPerUserRecommender(final int howMany, final IDRescorer rescorer) {
+    final ItemSimilarity batchSimilarity =
+        similarity instanceof CachingItemSimilarity || similarity instanceof GenericItemSimilarity
+        ? similarity
+        : new CachingItemSimilarity(similarity, BATCH_SIMILARITY_CACHE_SIZE);
+    return new PerUserRecommender() {
+      @Override
+      public List<RecommendedItem> recommend(long userID) throws TasteException {
+        GenericItemBasedRecommender.this.batchSimilarity.set(batchSimilarity);
+        try {
+          return doRecommend(userID, howMany, rescorer);
+        } finally {
+          GenericItemBasedRecommender.this.batchSimilarity.remove();
+        }
+      }
+    };
+  }
+
+  private List<RecommendedItem> doRecommend(long userID,
+                                            int howMany,
+                                            IDRescorer rescorer) throws TasteException {
     log.debug("Recommending items for user ID '{}'", userID);
 
     PreferenceArray preferencesFromUser = getDataModel().getPreferencesFromUser(userID);
@@ -126,7 +165,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
 
     FastIDSet possibleItemIDs = getAllOtherItems(userID, preferencesFromUser);
 
-    TopItems.Estimator<Long> estimator = new Estimator(userID, preferencesFromUser);
+    TopItems.IDEstimator estimator = new Estimator(userID, preferencesFromUser);
 
     List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer,
       estimator);
@@ -163,13 +202,13 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   @Override
   public List<RecommendedItem> mostSimilarItems(long itemID, int howMany,
                                                 Rescorer<LongPair> rescorer) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MostSimilarEstimator(itemID, similarity, rescorer);
+    TopItems.IDEstimator estimator = new MostSimilarEstimator(itemID, similarity, rescorer);
     return doMostSimilarItems(new long[] {itemID}, howMany, estimator);
   }
   
   @Override
   public List<RecommendedItem> mostSimilarItems(long[] itemIDs, int howMany) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MultiMostSimilarEstimator(itemIDs, similarity, null,
+    TopItems.IDEstimator estimator = new MultiMostSimilarEstimator(itemIDs, similarity, null,
         EXCLUDE_ITEM_IF_NOT_SIMILAR_TO_ALL_BY_DEFAULT);
     return doMostSimilarItems(itemIDs, howMany, estimator);
   }
@@ -177,7 +216,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   @Override
   public List<RecommendedItem> mostSimilarItems(long[] itemIDs, int howMany,
                                                 Rescorer<LongPair> rescorer) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MultiMostSimilarEstimator(itemIDs, similarity, rescorer,
+    TopItems.IDEstimator estimator = new MultiMostSimilarEstimator(itemIDs, similarity, rescorer,
         EXCLUDE_ITEM_IF_NOT_SIMILAR_TO_ALL_BY_DEFAULT);
     return doMostSimilarItems(itemIDs, howMany, estimator);
   }
@@ -186,7 +225,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   public List<RecommendedItem> mostSimilarItems(long[] itemIDs,
                                                 int howMany,
                                                 boolean excludeItemIfNotSimilarToAll) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MultiMostSimilarEstimator(itemIDs, similarity, null,
+    TopItems.IDEstimator estimator = new MultiMostSimilarEstimator(itemIDs, similarity, null,
         excludeItemIfNotSimilarToAll);
     return doMostSimilarItems(itemIDs, howMany, estimator);
   }
@@ -195,7 +234,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   public List<RecommendedItem> mostSimilarItems(long[] itemIDs, int howMany,
                                                 Rescorer<LongPair> rescorer,
                                                 boolean excludeItemIfNotSimilarToAll) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MultiMostSimilarEstimator(itemIDs, similarity, rescorer,
+    TopItems.IDEstimator estimator = new MultiMostSimilarEstimator(itemIDs, similarity, rescorer,
         excludeItemIfNotSimilarToAll);
     return doMostSimilarItems(itemIDs, howMany, estimator);
   }
@@ -205,7 +244,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
 
     DataModel model = getDataModel();
-    TopItems.Estimator<Long> estimator = new RecommendedBecauseEstimator(userID, itemID);
+    TopItems.IDEstimator estimator = new RecommendedBecauseEstimator(userID, itemID);
 
     PreferenceArray prefs = model.getPreferencesFromUser(userID);
     int size = prefs.length();
@@ -220,17 +259,30 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   
   private List<RecommendedItem> doMostSimilarItems(long[] itemIDs,
                                                    int howMany,
-                                                   TopItems.Estimator<Long> estimator) throws TasteException {
+                                                   TopItems.IDEstimator estimator) throws TasteException {
     FastIDSet possibleItemIDs = mostSimilarItemsCandidateItemsStrategy.getCandidateItems(itemIDs, getDataModel());
     return TopItems.getTopItems(howMany, possibleItemIDs.iterator(), null, estimator);
   }
   
+  /**
+   * @return the {@link ItemSimilarity} to estimate preferences with: while recommending for a batch, a cache over
+   *  this recommender's own one shared by the users of the batch, or else {@link #getSimilarity()}
+   */
+  protected ItemSimilarity getEstimationSimilarity() {
+    ItemSimilarity theBatchSimilarity = batchSimilarity.get();
+    return theBatchSimilarity == null ? similarity : theBatchSimilarity;
+  }
+
+  /**
+   * Estimates a preference, for {@link #estimatePreference(long, long)} as well as for the items considered by
+   * {@link #recommend(long, int, IDRescorer)}.
+   */
   protected float doEstimatePreference(long userID, PreferenceArray preferencesFromUser, long itemID)
     throws TasteException {
     double preference = 0.0;
     double totalSimilarity = 0.0;
     int count = 0;
-    double[] similarities = similarity.itemSimilarities(itemID, preferencesFromUser.getIDs());
+    double[] similarities = getEstimationSimilarity().itemSimilarities(itemID, preferencesFromUser.getIDs());
     for (int i = 0; i < similarities.length; i++) {
       double theSimilarity = similarities[i];
       if (!Double.isNaN(theSimilarity)) {
@@ -274,7 +326,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
   }
   
-  public static class MostSimilarEstimator implements TopItems.Estimator<Long> {
+  public static class MostSimilarEstimator implements TopItems.IDEstimator {
     
     private final long toItemID;
     private final ItemSimilarity similarity;
@@ -287,7 +339,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
+    public double estimate(long itemID) throws TasteException {
       LongPair pair = new LongPair(toItemID, itemID);
       if (rescorer != null && rescorer.isFiltered(pair)) {
         return Double.NaN;
@@ -297,7 +349,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
   }
   
-  private final class Estimator implements TopItems.Estimator<Long> {
+  private final class Estimator implements TopItems.IDEstimator {
     
     private final long userID;
     private final PreferenceArray preferencesFromUser;
@@ -308,12 +360,12 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
+    public double estimate(long itemID) throws TasteException {
       return doEstimatePreference(userID, preferencesFromUser, itemID);
     }
   }
   
-  private static final class MultiMostSimilarEstimator implements TopItems.Estimator<Long> {
+  private static final class MultiMostSimilarEstimator implements TopItems.IDEstimator {
     
     private final long[] toItemIDs;
     private final ItemSimilarity similarity;
@@ -329,7 +381,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
+    public double estimate(long itemID) throws TasteException {
       RunningAverage average = new FullRunningAverage();
       double[] similarities = similarity.itemSimilarities(itemID, toItemIDs);
       for (int i = 0; i < toItemIDs.length; i++) {
@@ -351,7 +403,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
   }
   
-  private final class RecommendedBecauseEstimator implements TopItems.Estimator<Long> {
+  private final class RecommendedBecauseEstimator implements TopItems.IDEstimator {
     
     private final long userID;
     private final long recommendedItemID;
@@ -362,7 +414,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
+    public double estimate(long itemID) throws TasteException {
       Float pref = getDataModel().getPreferenceValue(userID, itemID);
       if (pref == null) {
         return Float.NaN;
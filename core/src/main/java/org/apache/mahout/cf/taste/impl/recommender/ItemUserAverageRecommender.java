@@ -84,7 +84,7 @@ public final class ItemUserAverageRecommender extends AbstractRecommender {
     PreferenceArray preferencesFromUser = getDataModel().getPreferencesFromUser(userID);
     FastIDSet possibleItemIDs = getAllOtherItems(userID, preferencesFromUser);
 
-    TopItems.Estimator<Long> estimator = new Estimator(userID);
+    TopItems.IDEstimator estimator = new Estimator(userID);
 
     List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer,
       estimator);
@@ -222,7 +222,7 @@ public final class ItemUserAverageRecommender extends AbstractRecommender {
     return "ItemUserAverageRecommender";
   }
   
-  private final class Estimator implements TopItems.Estimator<Long> {
+  private final class Estimator implements TopItems.IDEstimator {
     
     private final long userID;
     
@@ -231,7 +231,7 @@ public final class ItemUserAverageRecommender extends AbstractRecommender {
     }
     
     @Override
-    public double estimate(Long itemID) {
+    public double estimate(long itemID) {
       return doEstimatePreference(userID, itemID);
     }
   }
@@ -0,0 +1,267 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.BatchRecommender;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendationSink;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A {@link Recommender} which refreshes by building a whole new {@link Recommender}, with its own
+ * {@link DataModel}, similarities, caches or factorization, and swapping it in once it is ready, rather than by
+ * refreshing the current one in place. Requests never see a half-refreshed graph and never wait for a refresh:
+ * they keep being served by the current recommender while its replacement is built.
+ * </p>
+ *
+ * <p>
+ * A replaced recommender is retired once the requests that were using it have finished. If it implements
+ * {@link Closeable}, it is closed at that point. Until then both recommenders are in memory.
+ * </p>
+ *
+ * <p>
+ * The factory must build a new graph on each call, reading the underlying data afresh, and must not return
+ * components shared with the previous graph, which may still be serving requests. Preferences set or removed
+ * through this class only reach the current recommender; they are lost at the next refresh unless they were also
+ * written to the data the factory reads.
+ * </p>
+ *
+ * <p>
+ * {@link #refresh(Collection)} builds the new recommender in the calling thread, so it is typically called
+ * periodically from a background thread. A refresh requested while another is running is skipped.
+ * </p>
+ */
+public final class SwappingRecommender implements BatchRecommender {
+
+  private static final Logger log = LoggerFactory.getLogger(SwappingRecommender.class);
+
+  private final Callable<? extends Recommender> recommenderFactory;
+  private final ReentrantLock refreshLock;
+  private volatile Generation current;
+
+  /**
+   * @param recommenderFactory builds a new recommender, with all its dependencies, each time it is called
+   * @throws TasteException if the first recommender can't be built
+   */
+  public SwappingRecommender(Callable<? extends Recommender> recommenderFactory) throws TasteException {
+    this.recommenderFactory = Preconditions.checkNotNull(recommenderFactory);
+    this.refreshLock = new ReentrantLock();
+    current = new Generation(buildRecommender());
+  }
+
+  private Recommender buildRecommender() throws TasteException {
+    Recommender recommender;
+    try {
+      recommender = recommenderFactory.call();
+    } catch (TasteException te) {
+      throw te;
+    } catch (Exception e) {
+      throw new TasteException("Error building recommender", e);
+    }
+    if (recommender == null) {
+      throw new TasteException("Recommender factory returned null");
+    }
+    return recommender;
+  }
+
+  /**
+   * @return the recommender currently serving requests
+   */
+  public Recommender getCurrentRecommender() {
+    return current.recommender;
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany) throws TasteException {
+    return recommend(userID, howMany, null);
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) throws TasteException {
+    Generation generation = acquire();
+    try {
+      return generation.recommender.recommend(userID, howMany, rescorer);
+    } finally {
+      generation.release();
+    }
+  }
+
+  /**
+   * The whole batch is computed by the recommender current when it starts.
+   */
+  @Override
+  public void recommend(LongPrimitiveIterator userIDs, int howMany, IDRescorer rescorer, RecommendationSink sink)
+    throws TasteException {
+    Generation generation = acquire();
+    try {
+      Recommender recommender = generation.recommender;
+      if (recommender instanceof BatchRecommender) {
+        ((BatchRecommender) recommender).recommend(userIDs, howMany, rescorer, sink);
+      } else {
+        while (userIDs.hasNext()) {
+          long userID = userIDs.nextLong();
+          sink.recommended(userID, recommender.recommend(userID, howMany, rescorer));
+        }
+      }
+    } finally {
+      generation.release();
+    }
+  }
+
+  @Override
+  public float estimatePreference(long userID, long itemID) throws TasteException {
+    Generation generation = acquire();
+    try {
+      return generation.recommender.estimatePreference(userID, itemID);
+    } finally {
+      generation.release();
+    }
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) throws TasteException {
+    Generation generation = acquire();
+    try {
+      generation.recommender.setPreference(userID, itemID, value);
+    } finally {
+      generation.release();
+    }
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) throws TasteException {
+    Generation generation = acquire();
+    try {
+      generation.recommender.removePreference(userID, itemID);
+    } finally {
+      generation.release();
+    }
+  }
+
+  /**
+   * @return the {@link DataModel} of the current recommender, which changes with each refresh
+   */
+  @Override
+  public DataModel getDataModel() {
+    return current.recommender.getDataModel();
+  }
+
+  /**
+   * Builds a new recommender and swaps it in. If building fails, the current recommender stays in place.
+   * {@code alreadyRefreshed} is not used, since nothing is refreshed in place.
+   */
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    if (refreshLock.tryLock()) {
+      try {
+        log.info("Building new recommender");
+        Recommender recommender;
+        try {
+          recommender = buildRecommender();
+        } catch (TasteException te) {
+          log.warn("Exception while building new recommender; keeping current one", te);
+          return;
+        }
+        Generation previous = current;
+        current = new Generation(recommender);
+        log.info("Swapped in new recommender {}", recommender);
+        previous.release();
+      } finally {
+        refreshLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * @return the current generation, registered as in use until {@link Generation#release()}
+   */
+  private Generation acquire() {
+    while (true) {
+      Generation generation = current;
+      if (generation.acquire()) {
+        return generation;
+      }
+      // It was just retired, so current has already moved on
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "SwappingRecommender[recommender:" + current.recommender + ']';
+  }
+
+  private static final class Generation {
+
+    private final Recommender recommender;
+    /** requests using this generation, plus one while it is current; it is retired when this reaches 0 */
+    private final AtomicInteger references;
+
+    private Generation(Recommender recommender) {
+      this.recommender = recommender;
+      this.references = new AtomicInteger(1);
+    }
+
+    boolean acquire() {
+      while (true) {
+        int count = references.get();
+        if (count == 0) {
+          return false;
+        }
+        if (references.compareAndSet(count, count + 1)) {
+          return true;
+        }
+      }
+    }
+
+    void release() {
+      if (references.decrementAndGet() == 0) {
+        retire();
+      }
+    }
+
+    private void retire() {
+      log.info("Retiring recommender {}", recommender);
+      if (recommender instanceof Closeable) {
+        try {
+          ((Closeable) recommender).close();
+        } catch (IOException ioe) {
+          log.warn("Exception while closing retired recommender", ioe);
+        }
+      }
+    }
+
+  }
+
+}
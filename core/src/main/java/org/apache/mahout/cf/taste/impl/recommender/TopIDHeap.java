@@ -0,0 +1,199 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A bounded min-heap over ({@code long} ID, {@code double} score) pairs which retains the
+ * {@code howMany} highest-scoring IDs offered to it. IDs and scores live in parallel primitive arrays,
+ * so no object is allocated per offered candidate; callers only materialize the final results.
+ * </p>
+ *
+ * <p>
+ * It selects exactly as the {@link java.util.PriorityQueue}-based code it replaces did: once the heap
+ * has filled and evicted its first entry, a candidate is only admitted if it scores strictly higher than
+ * the current lowest retained score.
+ * This class is not thread-safe.
+ * </p>
+ */
+public final class TopIDHeap {
+
+  private static final int MAX_INITIAL_CAPACITY = 64;
+
+  private final int howMany;
+  private long[] ids;
+  private double[] scores;
+  private int size;
+  private boolean full;
+
+  /**
+   * @param howMany number of IDs to retain; if not positive, none are
+   */
+  public TopIDHeap(int howMany) {
+    this.howMany = howMany;
+    // One extra slot: a candidate is added before the lowest entry is evicted
+    int initialCapacity = Math.max(0, Math.min(howMany, MAX_INITIAL_CAPACITY)) + 1;
+    this.ids = new long[initialCapacity];
+    this.scores = new double[initialCapacity];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public boolean isFull() {
+    return full;
+  }
+
+  /**
+   * @return lowest score currently retained, or {@link Double#NEGATIVE_INFINITY} if the heap is not yet full
+   *  and so would accept any score
+   */
+  public double lowestTopScore() {
+    return full ? scores[0] : Double.NEGATIVE_INFINITY;
+  }
+
+  /**
+   * @return true if a candidate with this score would be retained
+   */
+  public boolean wouldAccept(double score) {
+    return howMany > 0 && !Double.isNaN(score) && (!full || score > scores[0]);
+  }
+
+  /**
+   * Offers a candidate. {@link Double#NaN} scores are ignored.
+   *
+   * @return true if the candidate was added
+   */
+  public boolean offer(long id, double score) {
+    if (!wouldAccept(score)) {
+      return false;
+    }
+    if (size == ids.length) {
+      int newCapacity = (int) Math.min(howMany + 1L, 2L * size);
+      ids = Arrays.copyOf(ids, newCapacity);
+      scores = Arrays.copyOf(scores, newCapacity);
+    }
+    siftUp(size++, id, score);
+    if (size > howMany) {
+      full = true;
+      size--;
+      siftDown(0, ids[size], scores[size]);
+    }
+    return true;
+  }
+
+  /**
+   * Drains the heap. After this call the heap is empty. Entries with equal scores are returned in the order
+   * in which they are stored in the heap.
+   *
+   * @param resultIDs receives retained IDs, from highest to lowest score; must have length at least
+   *  {@link #size()}
+   * @param resultScores receives corresponding scores, or may be null if not needed
+   * @return number of results written
+   */
+  public int drainDescending(long[] resultIDs, double[] resultScores) {
+    int count = size;
+    int[] order = new int[count];
+    for (int i = 0; i < count; i++) {
+      order[i] = i;
+    }
+    mergeSortDescending(order, new int[count], 0, count);
+    for (int i = 0; i < count; i++) {
+      int index = order[i];
+      resultIDs[i] = ids[index];
+      if (resultScores != null) {
+        resultScores[i] = scores[index];
+      }
+    }
+    clear();
+    return count;
+  }
+
+  public void clear() {
+    size = 0;
+    full = false;
+  }
+
+  private void siftUp(int index, long id, double score) {
+    int i = index;
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (scores[parent] <= score) {
+        break;
+      }
+      ids[i] = ids[parent];
+      scores[i] = scores[parent];
+      i = parent;
+    }
+    ids[i] = id;
+    scores[i] = score;
+  }
+
+  private void siftDown(int index, long id, double score) {
+    int i = index;
+    int half = size >>> 1;
+    while (i < half) {
+      int child = (i << 1) + 1;
+      int right = child + 1;
+      if (right < size && scores[right] < scores[child]) {
+        child = right;
+      }
+      if (score <= scores[child]) {
+        break;
+      }
+      ids[i] = ids[child];
+      scores[i] = scores[child];
+      i = child;
+    }
+    ids[i] = id;
+    scores[i] = score;
+  }
+
+  /** Stable sort of heap positions by descending score. */
+  private void mergeSortDescending(int[] order, int[] scratch, int from, int to) {
+    if (to - from < 2) {
+      return;
+    }
+    int mid = (from + to) >>> 1;
+    mergeSortDescending(order, scratch, from, mid);
+    mergeSortDescending(order, scratch, mid, to);
+    System.arraycopy(order, from, scratch, from, to - from);
+    int left = from;
+    int right = mid;
+    for (int i = from; i < to; i++) {
+      if (right >= to || (left < mid && scores[scratch[left]] >= scores[scratch[right]])) {
+        order[i] = scratch[left++];
+      } else {
+        order[i] = scratch[right++];
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "TopIDHeap[howMany:" + howMany + ", size:" + size + ']';
+  }
+
+}
@@ -46,19 +46,28 @@ public final class TopItems {
   
   private TopItems() { }
   
+  /**
+   * Boxed variant of {@link #getTopItems(int, LongPrimitiveIterator, IDRescorer, IDEstimator)}, kept for
+   * compatibility. It simply adapts the {@link Estimator} to an {@link IDEstimator}.
+   */
   public static List<RecommendedItem> getTopItems(int howMany,
                                                   LongPrimitiveIterator possibleItemIDs,
                                                   IDRescorer rescorer,
                                                   Estimator<Long> estimator) throws TasteException {
+    Preconditions.checkArgument(estimator != null, "argument is null");
+    return getTopItems(howMany, possibleItemIDs, rescorer, new BoxedIDEstimator(estimator));
+  }
+
+  public static List<RecommendedItem> getTopItems(int howMany,
+                                                  LongPrimitiveIterator possibleItemIDs,
+                                                  IDRescorer rescorer,
+                                                  IDEstimator estimator) throws TasteException {
     Preconditions.checkArgument(possibleItemIDs != null, "argument is null");
     Preconditions.checkArgument(estimator != null, "argument is null");
 
-    Queue<RecommendedItem> topItems = new PriorityQueue<RecommendedItem>(howMany + 1,
-      Collections.reverseOrder(ByValueRecommendedItemComparator.getInstance()));
-    boolean full = false;
-    double lowestTopValue = Double.NEGATIVE_INFINITY;
+    TopIDHeap topItems = new TopIDHeap(howMany);
     while (possibleItemIDs.hasNext()) {
-      long itemID = possibleItemIDs.next();
+      long itemID = possibleItemIDs.nextLong();
       if (rescorer == null || !rescorer.isFiltered(itemID)) {
         double preference;
         try {
@@ -67,37 +76,51 @@ public final class TopItems {
           continue;
         }
         double rescoredPref = rescorer == null ? preference : rescorer.rescore(itemID, preference);
-        if (!Double.isNaN(rescoredPref) && (!full || rescoredPref > lowestTopValue)) {
-          topItems.add(new GenericRecommendedItem(itemID, (float) rescoredPref));
-          if (full) {
-            topItems.poll();
-          } else if (topItems.size() > howMany) {
-            full = true;
-            topItems.poll();
-          }
-          lowestTopValue = topItems.peek().getValue();
-        }
+        // Recommended items carry float values, so rank by the float value as well
+        topItems.offer(itemID, (float) rescoredPref);
       }
     }
+    return toRecommendedItems(topItems);
+  }
+
+  /**
+   * Materializes the contents of a {@link TopIDHeap} as {@link RecommendedItem}s, ordered from highest
+   * to lowest value. The heap is drained.
+   */
+  public static List<RecommendedItem> toRecommendedItems(TopIDHeap topItems) {
     int size = topItems.size();
     if (size == 0) {
       return Collections.emptyList();
     }
+    long[] itemIDs = new long[size];
+    double[] values = new double[size];
+    topItems.drainDescending(itemIDs, values);
     List<RecommendedItem> result = Lists.newArrayListWithCapacity(size);
-    result.addAll(topItems);
-    Collections.sort(result, ByValueRecommendedItemComparator.getInstance());
+    for (int i = 0; i < size; i++) {
+      result.add(new GenericRecommendedItem(itemIDs[i], (float) values[i]));
+    }
     return result;
   }
-  
+
+  /**
+   * Boxed variant of {@link #getTopUsers(int, LongPrimitiveIterator, IDRescorer, IDEstimator)}, kept for
+   * compatibility.
+   */
   public static long[] getTopUsers(int howMany,
                                    LongPrimitiveIterator allUserIDs,
                                    IDRescorer rescorer,
                                    Estimator<Long> estimator) throws TasteException {
-    Queue<SimilarUser> topUsers = new PriorityQueue<SimilarUser>(howMany + 1, Collections.reverseOrder());
-    boolean full = false;
-    double lowestTopValue = Double.NEGATIVE_INFINITY;
+    Preconditions.checkArgument(estimator != null, "argument is null");
+    return getTopUsers(howMany, allUserIDs, rescorer, new BoxedIDEstimator(estimator));
+  }
+
+  public static long[] getTopUsers(int howMany,
+                                   LongPrimitiveIterator allUserIDs,
+                                   IDRescorer rescorer,
+                                   IDEstimator estimator) throws TasteException {
+    TopIDHeap topUsers = new TopIDHeap(howMany);
     while (allUserIDs.hasNext()) {
-      long userID = allUserIDs.next();
+      long userID = allUserIDs.nextLong();
       if (rescorer != null && rescorer.isFiltered(userID)) {
         continue;
       }
@@ -108,29 +131,17 @@ public final class TopItems {
         continue;
       }
       double rescoredSimilarity = rescorer == null ? similarity : rescorer.rescore(userID, similarity);
-      if (!Double.isNaN(rescoredSimilarity) && (!full || rescoredSimilarity > lowestTopValue)) {
-        topUsers.add(new SimilarUser(userID, similarity));
-        if (full) {
-          topUsers.poll();
-        } else if (topUsers.size() > howMany) {
-          full = true;
-          topUsers.poll();
-        }
-        lowestTopValue = topUsers.peek().getSimilarity();
+      // Users are ranked by their original similarity; the rescored one decides whether they are let in
+      if (!Double.isNaN(rescoredSimilarity) && (!topUsers.isFull() || rescoredSimilarity > topUsers.lowestTopScore())) {
+        topUsers.offer(userID, similarity);
       }
     }
     int size = topUsers.size();
     if (size == 0) {
       return NO_IDS;
     }
-    List<SimilarUser> sorted = Lists.newArrayListWithCapacity(size);
-    sorted.addAll(topUsers);
-    Collections.sort(sorted);
     long[] result = new long[size];
-    int i = 0;
-    for (SimilarUser similarUser : sorted) {
-      result[i++] = similarUser.getUserID();
-    }
+    topUsers.drainDescending(result, null);
     return result;
   }
   
@@ -208,5 +219,26 @@ public final class TopItems {
   public interface Estimator<T> {
     double estimate(T thing) throws TasteException;
   }
+
+  /**
+   * Like {@link Estimator}, but specialized to {@code long} IDs so that candidates need not be boxed.
+   */
+  public interface IDEstimator {
+    double estimate(long id) throws TasteException;
+  }
+
+  private static final class BoxedIDEstimator implements IDEstimator {
+
+    private final Estimator<Long> delegate;
+
+    private BoxedIDEstimator(Estimator<Long> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public double estimate(long id) throws TasteException {
+      return delegate.estimate(id);
+    }
+  }
   
 }
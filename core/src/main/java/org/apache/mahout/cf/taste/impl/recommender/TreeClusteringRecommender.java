@@ -358,7 +358,7 @@ public final class TreeClusteringRecommender extends AbstractRecommender impleme
       possibleItemIDs.addAll(dataModel.getItemIDsFromUser(it.nextLong()));
     }
     
-    TopItems.Estimator<Long> estimator = new Estimator(cluster);
+    TopItems.IDEstimator estimator = new Estimator(cluster);
     
     List<RecommendedItem> topItems =
         TopItems.getTopItems(possibleItemIDs.size(), possibleItemIDs.iterator(), null, estimator);
@@ -388,7 +388,7 @@ public final class TreeClusteringRecommender extends AbstractRecommender impleme
     return "TreeClusteringRecommender[clusterSimilarity:" + clusterSimilarity + ']';
   }
   
-  private final class Estimator implements TopItems.Estimator<Long> {
+  private final class Estimator implements TopItems.IDEstimator {
     
     private final FastIDSet cluster;
     
@@ -397,7 +397,7 @@ public final class TreeClusteringRecommender extends AbstractRecommender impleme
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
+    public double estimate(long itemID) throws TasteException {
       DataModel dataModel = getDataModel();
       RunningAverage average = new FullRunningAverage();
       LongPrimitiveIterator it = cluster.iterator();
@@ -63,11 +63,12 @@ public final class KnnItemBasedRecommender extends GenericItemBasedRecommender {
         getDefaultMostSimilarItemsCandidateItemsStrategy(), neighborhoodSize);
   }
   
-  private List<RecommendedItem> mostSimilarItems(long itemID,
-                                                 LongPrimitiveIterator possibleItemIDs,
-                                                 int howMany,
-                                                 Rescorer<LongPair> rescorer) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MostSimilarEstimator(itemID, getSimilarity(), rescorer);
+  private static List<RecommendedItem> mostSimilarItems(long itemID,
+                                                        LongPrimitiveIterator possibleItemIDs,
+                                                        int howMany,
+                                                        ItemSimilarity itemSimilarity,
+                                                        Rescorer<LongPair> rescorer) throws TasteException {
+    TopItems.IDEstimator estimator = new MostSimilarEstimator(itemID, itemSimilarity, rescorer);
     return TopItems.getTopItems(howMany, possibleItemIDs, null, estimator);
   }
   
@@ -138,7 +139,7 @@ public final class KnnItemBasedRecommender extends GenericItemBasedRecommender {
     possibleItemIDs.remove(itemID);
     
     List<RecommendedItem> mostSimilar = mostSimilarItems(itemID, possibleItemIDs.iterator(),
-      neighborhoodSize, null);
+      neighborhoodSize, getEstimationSimilarity(), null);
     long[] theNeighborhood = new long[mostSimilar.size()];
     int nOffset = 0;
     for (RecommendedItem rec : mostSimilar) {
@@ -0,0 +1,793 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.slopeone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
+import org.apache.mahout.cf.taste.impl.common.FullRunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.slopeone.DiffStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * An implementation of {@link DiffStorage} which, unlike {@link MemoryDiffStorage}, creates no object per
+ * item-item diff. Items are numbered by ID, and each item's diffs are stored as one row of partner item
+ * numbers, counts and average differences (and, if standard deviation weighted, sums of squared deviations)
+ * in primitive buffers. With an index of the rows holding a diff with each item, that takes 16 or 20 bytes per
+ * stored diff. The buffers can live on the heap, off the heap or in a memory-mapped temporary file; see
+ * {@link Placement}.
+ * </p>
+ *
+ * <p>
+ * Each item keeps at most {@code maxDiffsPerItem} diffs, those with the items it is most often co-rated with.
+ * A diff is found in the row of either of its items, and is stored twice, once negated, when both items keep it.
+ * As in {@link MemoryDiffStorage}, diffs with only one data
+ * point are dropped. Rows are computed independently, on several threads.
+ * </p>
+ *
+ * <p>
+ * {@link #addItemPref(long, long, float)}, {@link #removeItemPref(long, long, float)} and
+ * {@link #updateItemPref(long, float)} may be called concurrently with each other and with reads; they only lock
+ * the rows they change. They update the diffs that are stored, but don't add new ones nor new items; those
+ * appear when the storage is next refreshed. Updates made while a refresh is in progress may be lost.
+ * </p>
+ */
+public final class CompactDiffStorage implements DiffStorage {
+
+  private static final Logger log = LoggerFactory.getLogger(CompactDiffStorage.class);
+
+  /** Where the diff buffers are allocated. */
+  public enum Placement {
+    /** in primitive arrays on the heap */
+    HEAP,
+    /** in direct buffers, outside the heap */
+    OFF_HEAP,
+    /** in a deleted temporary file mapped into memory, paged in and out by the operating system */
+    MEMORY_MAPPED
+  }
+
+  private static final int NUM_STRIPES = 64;
+  private static final int ROWS_PER_BLOCK = 1024;
+  private static final int MAX_DIFFS = Integer.MAX_VALUE / 4;
+
+  private final DataModel dataModel;
+  private final boolean stdDevWeighted;
+  private final int maxDiffsPerItem;
+  private final Placement placement;
+  private final int numThreads;
+  private final RefreshHelper refreshHelper;
+  private volatile Diffs diffs;
+
+  /**
+   * Keeps all diffs with more than one data point on the heap, building them in as many threads as there are
+   * processors.
+   *
+   * @param stdDevWeighted see {@link SlopeOneRecommender}
+   */
+  public CompactDiffStorage(DataModel dataModel, Weighting stdDevWeighted) throws TasteException {
+    this(dataModel, stdDevWeighted, Integer.MAX_VALUE, Placement.HEAP,
+         Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param stdDevWeighted see {@link SlopeOneRecommender}
+   * @param maxDiffsPerItem number of diffs kept per item, those with the items most often co-rated with it
+   * @param placement where to allocate the diffs
+   * @param numThreads number of threads computing diffs
+   */
+  public CompactDiffStorage(DataModel dataModel,
+                            Weighting stdDevWeighted,
+                            int maxDiffsPerItem,
+                            Placement placement,
+                            int numThreads) throws TasteException {
+    Preconditions.checkArgument(dataModel != null, "dataModel is null");
+    Preconditions.checkArgument(dataModel.getNumItems() >= 1, "dataModel has no items");
+    Preconditions.checkArgument(maxDiffsPerItem >= 1, "maxDiffsPerItem must be at least 1");
+    Preconditions.checkArgument(placement != null, "placement is null");
+    Preconditions.checkArgument(numThreads >= 1, "numThreads must be at least 1");
+    this.dataModel = dataModel;
+    this.stdDevWeighted = stdDevWeighted == Weighting.WEIGHTED;
+    this.maxDiffsPerItem = maxDiffsPerItem;
+    this.placement = placement;
+    this.numThreads = numThreads;
+    this.refreshHelper = new RefreshHelper(new Callable<Object>() {
+      @Override
+      public Object call() throws TasteException {
+        buildDiffs();
+        return null;
+      }
+    });
+    refreshHelper.addDependency(dataModel);
+    buildDiffs();
+  }
+
+  @Override
+  public RunningAverage getDiff(long itemID1, long itemID2) {
+    Diffs diffs = this.diffs;
+    int row1 = diffs.indexOf(itemID1);
+    int row2 = diffs.indexOf(itemID2);
+    if (row1 < 0 || row2 < 0) {
+      return null;
+    }
+    return diffs.getDiff(row1, row2);
+  }
+
+  @Override
+  public RunningAverage[] getDiffs(long userID, long itemID, PreferenceArray prefs) {
+    Diffs diffs = this.diffs;
+    int size = prefs.length();
+    RunningAverage[] result = new RunningAverage[size];
+    int row = diffs.indexOf(itemID);
+    if (row < 0) {
+      return result;
+    }
+    for (int i = 0; i < size; i++) {
+      int otherRow = diffs.indexOf(prefs.getItemID(i));
+      if (otherRow >= 0) {
+        result[i] = diffs.getDiff(otherRow, row);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public RunningAverage getAverageItemPref(long itemID) {
+    Diffs diffs = this.diffs;
+    int row = diffs.indexOf(itemID);
+    return row < 0 ? null : diffs.getItemAverage(row);
+  }
+
+  @Override
+  public void addItemPref(long userID, long itemID, float prefValue) throws TasteException {
+    PreferenceArray userPreferences = dataModel.getPreferencesFromUser(userID);
+    Diffs diffs = this.diffs;
+    int row = diffs.indexOf(itemID);
+    if (row < 0) {
+      return;
+    }
+    int length = userPreferences.length();
+    for (int i = 0; i < length; i++) {
+      int otherRow = diffs.indexOf(userPreferences.getItemID(i));
+      if (otherRow >= 0 && otherRow != row) {
+        double diff = userPreferences.getValue(i) - prefValue;
+        diffs.addDatum(row, otherRow, diff);
+        diffs.addDatum(otherRow, row, -diff);
+      }
+    }
+    diffs.addItemDatum(row, prefValue);
+  }
+
+  @Override
+  public void updateItemPref(long itemID, float prefDelta) {
+    if (stdDevWeighted) {
+      throw new UnsupportedOperationException("Can't update only when stdDevWeighted is set");
+    }
+    Diffs diffs = this.diffs;
+    int row = diffs.indexOf(itemID);
+    if (row >= 0) {
+      diffs.changeDatum(row, prefDelta);
+    }
+  }
+
+  @Override
+  public void removeItemPref(long userID, long itemID, float prefValue) throws TasteException {
+    PreferenceArray userPreferences = dataModel.getPreferencesFromUser(userID);
+    Diffs diffs = this.diffs;
+    int row = diffs.indexOf(itemID);
+    if (row < 0) {
+      return;
+    }
+    int length = userPreferences.length();
+    for (int i = 0; i < length; i++) {
+      int otherRow = diffs.indexOf(userPreferences.getItemID(i));
+      if (otherRow >= 0 && otherRow != row) {
+        double diff = userPreferences.getValue(i) - prefValue;
+        diffs.removeDatum(row, otherRow, diff);
+        diffs.removeDatum(otherRow, row, -diff);
+      }
+    }
+    diffs.removeItemDatum(row, prefValue);
+  }
+
+  @Override
+  public FastIDSet getRecommendableItemIDs(long userID) throws TasteException {
+    FastIDSet result = diffs.recommendableItemIDs.clone();
+    result.removeAll(dataModel.getItemIDsFromUser(userID));
+    return result;
+  }
+
+  private void buildDiffs() throws TasteException {
+    log.info("Building average diffs...");
+    long start = System.currentTimeMillis();
+
+    long[] itemIDs = new long[dataModel.getNumItems()];
+    int numItems = 0;
+    LongPrimitiveIterator it = dataModel.getItemIDs();
+    while (it.hasNext()) {
+      itemIDs[numItems++] = it.nextLong();
+    }
+    Arrays.sort(itemIDs);
+
+    DiffsBuilder builder = new DiffsBuilder(itemIDs);
+    RowBuilder[] rowBuilders = new RowBuilder[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      rowBuilders[i] = new RowBuilder(itemIDs);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      for (int blockStart = 0; blockStart < numItems; blockStart += ROWS_PER_BLOCK) {
+        final int blockEnd = Math.min(numItems, blockStart + ROWS_PER_BLOCK);
+        final Row[] rows = new Row[blockEnd - blockStart];
+        final int rowsPerThread = (rows.length + numThreads - 1) / numThreads;
+        List<Callable<Void>> callables = Lists.newArrayListWithCapacity(numThreads);
+        for (int i = 0; i < numThreads; i++) {
+          final RowBuilder rowBuilder = rowBuilders[i];
+          final int from = blockStart + i * rowsPerThread;
+          final int blockStartRow = blockStart;
+          callables.add(new Callable<Void>() {
+            @Override
+            public Void call() throws TasteException {
+              for (int row = from; row < Math.min(blockEnd, from + rowsPerThread); row++) {
+                rows[row - blockStartRow] = rowBuilder.build(row);
+              }
+              return null;
+            }
+          });
+        }
+        for (Future<Void> future : executor.invokeAll(callables)) {
+          future.get();
+        }
+        for (Row row : rows) {
+          builder.append(row);
+        }
+        log.debug("Built diffs for {} items", blockEnd);
+      }
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof TasteException) {
+        throw (TasteException) cause;
+      }
+      throw new TasteException(cause);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    diffs = builder.build();
+    log.info("Built {} diffs for {} items in {}ms",
+             new Object[] {diffs.getNumDiffs(), numItems, System.currentTimeMillis() - start});
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  @Override
+  public String toString() {
+    return "CompactDiffStorage[maxDiffsPerItem:" + maxDiffsPerItem + ",placement:" + placement + ']';
+  }
+
+  private IntBuffer allocateInts(int capacity) throws IOException {
+    return placement == Placement.HEAP ? IntBuffer.allocate(capacity) : allocateBytes(capacity * 4).asIntBuffer();
+  }
+
+  private FloatBuffer allocateFloats(int capacity) throws IOException {
+    return placement == Placement.HEAP ? FloatBuffer.allocate(capacity) : allocateBytes(capacity * 4).asFloatBuffer();
+  }
+
+  private ByteBuffer allocateBytes(int capacity) throws IOException {
+    if (placement == Placement.OFF_HEAP) {
+      return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+    File file = File.createTempFile("diffs", ".bin");
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(capacity);
+      // The mapping outlives the file and the channel
+      return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity).order(ByteOrder.nativeOrder());
+    } finally {
+      raf.close();
+      if (!file.delete()) {
+        log.warn("Could not delete {}", file);
+      }
+    }
+  }
+
+  /** One item's diffs, as computed before they are copied into the buffers. */
+  private static final class Row {
+
+    private final int[] partners;
+    private final int[] counts;
+    private final float[] averages;
+    private final float[] deviations;
+    private final int itemCount;
+    private final float itemAverage;
+
+    private Row(int[] partners, int[] counts, float[] averages, float[] deviations, int itemCount,
+                float itemAverage) {
+      this.partners = partners;
+      this.counts = counts;
+      this.averages = averages;
+      this.deviations = deviations;
+      this.itemCount = itemCount;
+      this.itemAverage = itemAverage;
+    }
+  }
+
+  /**
+   * Computes rows, accumulating an item's diffs with all other items in dense arrays indexed by item number,
+   * which are reused from one row to the next. Not thread-safe.
+   */
+  private final class RowBuilder {
+
+    private final long[] itemIDs;
+    private final int[] counts;
+    private final double[] sums;
+    private final double[] sumSquares;
+    private final int[] touched;
+
+    private RowBuilder(long[] itemIDs) {
+      this.itemIDs = itemIDs;
+      counts = new int[itemIDs.length];
+      sums = new double[itemIDs.length];
+      sumSquares = stdDevWeighted ? new double[itemIDs.length] : null;
+      touched = new int[itemIDs.length];
+    }
+
+    private Row build(int row) throws TasteException {
+      long itemID = itemIDs[row];
+      PreferenceArray itemPrefs = dataModel.getPreferencesForItem(itemID);
+      int numTouched = 0;
+      double itemSum = 0.0;
+      for (int i = 0; i < itemPrefs.length(); i++) {
+        float value = itemPrefs.getValue(i);
+        itemSum += value;
+        PreferenceArray userPrefs = dataModel.getPreferencesFromUser(itemPrefs.getUserID(i));
+        for (int j = 0; j < userPrefs.length(); j++) {
+          // This is a performance-critical block
+          int other = Arrays.binarySearch(itemIDs, userPrefs.getItemID(j));
+          if (other >= 0 && other != row) {
+            if (counts[other]++ == 0) {
+              touched[numTouched++] = other;
+            }
+            double diff = userPrefs.getValue(j) - value;
+            sums[other] += diff;
+            if (sumSquares != null) {
+              sumSquares[other] += diff * diff;
+            }
+          }
+        }
+      }
+
+      // Keep only diffs with more than one data point, and then the most supported ones
+      int numCandidates = 0;
+      for (int i = 0; i < numTouched; i++) {
+        int other = touched[i];
+        if (counts[other] > 1) {
+          touched[numCandidates++] = other;
+        } else {
+          clear(other);
+        }
+      }
+      Arrays.sort(touched, 0, numCandidates);
+      int threshold = 0;
+      int numAtThreshold = 0;
+      if (numCandidates > maxDiffsPerItem) {
+        int[] candidateCounts = new int[numCandidates];
+        for (int i = 0; i < numCandidates; i++) {
+          candidateCounts[i] = counts[touched[i]];
+        }
+        Arrays.sort(candidateCounts);
+        threshold = candidateCounts[numCandidates - maxDiffsPerItem];
+        for (int i = numCandidates - maxDiffsPerItem; i < numCandidates && candidateCounts[i] == threshold; i++) {
+          numAtThreshold++;
+        }
+      }
+
+      int size = Math.min(numCandidates, maxDiffsPerItem);
+      int[] partners = new int[size];
+      int[] rowCounts = new int[size];
+      float[] averages = new float[size];
+      float[] deviations = stdDevWeighted ? new float[size] : null;
+      int n = 0;
+      for (int i = 0; i < numCandidates; i++) {
+        int other = touched[i];
+        int count = counts[other];
+        if (count > threshold || (count == threshold && numAtThreshold-- > 0)) {
+          partners[n] = other;
+          rowCounts[n] = count;
+          averages[n] = (float) (sums[other] / count);
+          if (deviations != null) {
+            deviations[n] = (float) Math.max(0.0, sumSquares[other] - sums[other] * sums[other] / count);
+          }
+          n++;
+        }
+        clear(other);
+      }
+
+      int itemCount = itemPrefs.length();
+      return new Row(partners, rowCounts, averages, deviations, itemCount,
+                     itemCount == 0 ? Float.NaN : (float) (itemSum / itemCount));
+    }
+
+    private void clear(int other) {
+      counts[other] = 0;
+      sums[other] = 0.0;
+      if (sumSquares != null) {
+        sumSquares[other] = 0.0;
+      }
+    }
+  }
+
+  /** Appends rows to buffers, growing them as needed. */
+  private final class DiffsBuilder {
+
+    private final long[] itemIDs;
+    private final int[] rowStarts;
+    private final int[] itemCounts;
+    private final float[] itemAverages;
+    private final FastIDSet recommendableItemIDs;
+    private int numRows;
+    private int numDiffs;
+    private IntBuffer partners;
+    private IntBuffer counts;
+    private FloatBuffer averages;
+    private FloatBuffer deviations;
+
+    private DiffsBuilder(long[] itemIDs) throws TasteException {
+      this.itemIDs = itemIDs;
+      rowStarts = new int[itemIDs.length + 1];
+      itemCounts = new int[itemIDs.length];
+      itemAverages = new float[itemIDs.length];
+      recommendableItemIDs = new FastIDSet(itemIDs.length);
+      allocate(Math.max(16, itemIDs.length));
+    }
+
+    private void allocate(int capacity) throws TasteException {
+      IntBuffer oldPartners = partners;
+      IntBuffer oldCounts = counts;
+      FloatBuffer oldAverages = averages;
+      FloatBuffer oldDeviations = deviations;
+      try {
+        partners = allocateInts(capacity);
+        counts = allocateInts(capacity);
+        averages = allocateFloats(capacity);
+        deviations = stdDevWeighted ? allocateFloats(capacity) : null;
+      } catch (IOException ioe) {
+        throw new TasteException(ioe);
+      }
+      if (oldPartners != null) {
+        partners.put((IntBuffer) oldPartners.flip());
+        counts.put((IntBuffer) oldCounts.flip());
+        averages.put((FloatBuffer) oldAverages.flip());
+        if (deviations != null) {
+          deviations.put((FloatBuffer) oldDeviations.flip());
+        }
+      }
+    }
+
+    private void append(Row row) throws TasteException {
+      int size = row.partners.length;
+      if (numDiffs + size > partners.capacity()) {
+        if (numDiffs + size > MAX_DIFFS) {
+          throw new TasteException("Too many diffs; try a smaller maxDiffsPerItem");
+        }
+        allocate((int) Math.min(MAX_DIFFS, Math.max(numDiffs + size, 2L * partners.capacity())));
+      }
+      partners.put(row.partners);
+      counts.put(row.counts);
+      averages.put(row.averages);
+      if (deviations != null) {
+        deviations.put(row.deviations);
+      }
+      itemCounts[numRows] = row.itemCount;
+      itemAverages[numRows] = row.itemAverage;
+      if (size > 0) {
+        recommendableItemIDs.add(itemIDs[numRows]);
+        for (int partner : row.partners) {
+          recommendableItemIDs.add(itemIDs[partner]);
+        }
+      }
+      numDiffs += size;
+      rowStarts[++numRows] = numDiffs;
+    }
+
+    private Diffs build() throws TasteException {
+      // Index, for each item, the rows which hold a diff with it, in order
+      int[] referrerStarts = new int[itemIDs.length + 1];
+      for (int position = 0; position < numDiffs; position++) {
+        referrerStarts[partners.get(position) + 1]++;
+      }
+      for (int i = 0; i < itemIDs.length; i++) {
+        referrerStarts[i + 1] += referrerStarts[i];
+      }
+      IntBuffer referrers;
+      try {
+        referrers = allocateInts(Math.max(1, numDiffs));
+      } catch (IOException ioe) {
+        throw new TasteException(ioe);
+      }
+      int[] next = referrerStarts.clone();
+      for (int row = 0; row < numRows; row++) {
+        for (int position = rowStarts[row]; position < rowStarts[row + 1]; position++) {
+          referrers.put(next[partners.get(position)]++, row);
+        }
+      }
+      return new Diffs(itemIDs, rowStarts, partners, counts, averages, deviations, referrerStarts, referrers,
+                       itemCounts, itemAverages, recommendableItemIDs);
+    }
+  }
+
+  /**
+   * The diffs as of the last refresh. Rows are guarded by striped locks; all access to the buffers is by
+   * absolute index.
+   */
+  private final class Diffs {
+
+    private final long[] itemIDs;
+    private final int[] rowStarts;
+    private final IntBuffer partners;
+    private final IntBuffer counts;
+    private final FloatBuffer averages;
+    private final FloatBuffer deviations;
+    private final int[] referrerStarts;
+    private final IntBuffer referrers;
+    private final int[] itemCounts;
+    private final float[] itemAverages;
+    private final FastIDSet recommendableItemIDs;
+    private final ReadWriteLock[] locks;
+
+    private Diffs(long[] itemIDs,
+                  int[] rowStarts,
+                  IntBuffer partners,
+                  IntBuffer counts,
+                  FloatBuffer averages,
+                  FloatBuffer deviations,
+                  int[] referrerStarts,
+                  IntBuffer referrers,
+                  int[] itemCounts,
+                  float[] itemAverages,
+                  FastIDSet recommendableItemIDs) {
+      this.itemIDs = itemIDs;
+      this.rowStarts = rowStarts;
+      this.partners = partners;
+      this.counts = counts;
+      this.averages = averages;
+      this.deviations = deviations;
+      this.referrerStarts = referrerStarts;
+      this.referrers = referrers;
+      this.itemCounts = itemCounts;
+      this.itemAverages = itemAverages;
+      this.recommendableItemIDs = recommendableItemIDs;
+      locks = new ReadWriteLock[NUM_STRIPES];
+      for (int i = 0; i < NUM_STRIPES; i++) {
+        locks[i] = new ReentrantReadWriteLock();
+      }
+    }
+
+    private int getNumDiffs() {
+      return rowStarts[itemIDs.length];
+    }
+
+    private int indexOf(long itemID) {
+      return Arrays.binarySearch(itemIDs, itemID);
+    }
+
+    private ReadWriteLock lockFor(int row) {
+      return locks[row % NUM_STRIPES];
+    }
+
+    /** @return position of the diff with the partner in the row, or -1 if not stored */
+    private int find(int row, int partner) {
+      int low = rowStarts[row];
+      int high = rowStarts[row + 1] - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int midPartner = partners.get(mid);
+        if (midPartner < partner) {
+          low = mid + 1;
+        } else if (midPartner > partner) {
+          high = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+      return -1;
+    }
+
+    /** @return average of row2's item's preferences minus row1's, or null if not stored */
+    private RunningAverage getDiff(int row1, int row2) {
+      RunningAverage average = getStoredDiff(row1, row2, false);
+      return average == null ? getStoredDiff(row2, row1, true) : average;
+    }
+
+    private RunningAverage getStoredDiff(int row, int partner, boolean inverted) {
+      ReadWriteLock lock = lockFor(row);
+      lock.readLock().lock();
+      try {
+        int position = find(row, partner);
+        if (position < 0) {
+          return null;
+        }
+        int count = counts.get(position);
+        if (count == 0) {
+          return null;
+        }
+        double average = inverted ? -averages.get(position) : averages.get(position);
+        return deviations == null
+            ? new FullRunningAverage(count, average)
+            : new FullRunningAverageAndStdDev(count, average, average, deviations.get(position));
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+
+    private void addDatum(int row, int partner, double datum) {
+      ReadWriteLock lock = lockFor(row);
+      lock.writeLock().lock();
+      try {
+        int position = find(row, partner);
+        if (position >= 0) {
+          int count = counts.get(position) + 1;
+          double oldAverage = count == 1 ? datum : averages.get(position);
+          double average = oldAverage + (datum - oldAverage) / count;
+          counts.put(position, count);
+          averages.put(position, (float) average);
+          if (deviations != null) {
+            deviations.put(position, count == 1 ? 0.0f
+                : (float) (deviations.get(position) + (datum - oldAverage) * (datum - average)));
+          }
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+
+    private void removeDatum(int row, int partner, double datum) {
+      ReadWriteLock lock = lockFor(row);
+      lock.writeLock().lock();
+      try {
+        int position = find(row, partner);
+        if (position >= 0) {
+          int count = counts.get(position);
+          if (count <= 1) {
+            // Same as removing the diff
+            counts.put(position, 0);
+          } else {
+            double oldAverage = averages.get(position);
+            double average = (count * oldAverage - datum) / (count - 1);
+            counts.put(position, count - 1);
+            averages.put(position, (float) average);
+            if (deviations != null) {
+              deviations.put(position, (float) (deviations.get(position) - (datum - average) * (datum - oldAverage)));
+            }
+          }
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+
+    /**
+     * Changes one datum of each of the row's diffs by {@code -delta}, and the corresponding diffs stored in other
+     * rows by {@code delta}, like {@link MemoryDiffStorage#updateItemPref(long, float)}.
+     */
+    private void changeDatum(int row, float delta) {
+      ReadWriteLock lock = lockFor(row);
+      lock.writeLock().lock();
+      try {
+        for (int position = rowStarts[row]; position < rowStarts[row + 1]; position++) {
+          shiftAverage(position, -delta);
+        }
+        if (itemCounts[row] > 0) {
+          itemAverages[row] += delta / itemCounts[row];
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+      for (int i = referrerStarts[row]; i < referrerStarts[row + 1]; i++) {
+        int other = referrers.get(i);
+        ReadWriteLock otherLock = lockFor(other);
+        otherLock.writeLock().lock();
+        try {
+          shiftAverage(find(other, row), delta);
+        } finally {
+          otherLock.writeLock().unlock();
+        }
+      }
+    }
+
+    private void shiftAverage(int position, float delta) {
+      int count = counts.get(position);
+      if (count > 0) {
+        averages.put(position, averages.get(position) + delta / count);
+      }
+    }
+
+    private RunningAverage getItemAverage(int row) {
+      ReadWriteLock lock = lockFor(row);
+      lock.readLock().lock();
+      try {
+        int count = itemCounts[row];
+        return count == 0 ? null : new FullRunningAverage(count, itemAverages[row]);
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+
+    private void addItemDatum(int row, float datum) {
+      ReadWriteLock lock = lockFor(row);
+      lock.writeLock().lock();
+      try {
+        int count = ++itemCounts[row];
+        itemAverages[row] = count == 1 ? datum : itemAverages[row] + (datum - itemAverages[row]) / count;
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+
+    private void removeItemDatum(int row, float datum) {
+      ReadWriteLock lock = lockFor(row);
+      lock.writeLock().lock();
+      try {
+        int count = itemCounts[row];
+        if (count <= 1) {
+          itemCounts[row] = 0;
+        } else {
+          itemCounts[row] = count - 1;
+          itemAverages[row] = (count * itemAverages[row] - datum) / (count - 1);
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+
+}
@@ -110,7 +110,7 @@ public final class SlopeOneRecommender extends AbstractRecommender {
 
     FastIDSet possibleItemIDs = diffStorage.getRecommendableItemIDs(userID);
 
-    TopItems.Estimator<Long> estimator = new Estimator(userID);
+    TopItems.IDEstimator estimator = new Estimator(userID);
 
     List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer,
       estimator);
@@ -209,7 +209,7 @@ public final class SlopeOneRecommender extends AbstractRecommender {
            + ", diffStorage:" + diffStorage + ']';
   }
   
-  private final class Estimator implements TopItems.Estimator<Long> {
+  private final class Estimator implements TopItems.IDEstimator {
     
     private final long userID;
     
@@ -218,7 +218,7 @@ public final class SlopeOneRecommender extends AbstractRecommender {
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
+    public double estimate(long itemID) throws TasteException {
       return doEstimatePreference(userID, itemID);
     }
   }
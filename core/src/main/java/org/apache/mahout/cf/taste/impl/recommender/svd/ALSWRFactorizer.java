@@ -17,6 +17,7 @@
 
 package org.apache.mahout.cf.taste.impl.recommender.svd;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
@@ -28,21 +29,37 @@ import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.common.RandomUtils;
 import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Vector;
-import org.apache.mahout.math.als.AlternateLeastSquaresSolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * factorizes the rating matrix using "Alternating-Least-Squares with Weighted-λ-Regularization" as described in
  * the paper
  * <a href="http://www.hpl.hp.com/personal/Robert_Schreiber/papers/2008%20AAIM%20Netflix/netflix_aaim08(submitted).pdf">
  * "Large-scale Collaborative Filtering for the Netflix Prize"</a>
+ *
+ * <p>
+ * Can also treat preferences as implicit feedback, as described in the paper
+ * <a href="http://research.yahoo.com/pub/2433">"Collaborative Filtering for Implicit Feedback Datasets"</a>: every
+ * user-item pair is then fit, to 1 where there is a positive preference and to 0 elsewhere, with a confidence of
+ * 1 + alpha * |preference|. The contribution of all the pairs without a preference is computed once per
+ * half-iteration, as the Gramian of the fixed features.
+ * </p>
+ *
+ * <p>
+ * Preferences and features are held in contiguous arrays while computing, and each training thread solves its
+ * share of users or items in its own reusable buffers.
+ * </p>
  */
 public class ALSWRFactorizer extends AbstractFactorizer {
 
@@ -54,17 +71,55 @@ public class ALSWRFactorizer extends AbstractFactorizer {
   private final double lambda;
   /** number of iterations */
   private final int numIterations;
+  /** whether preferences are implicit feedback rather than ratings */
+  private final boolean usesImplicitFeedback;
+  /** confidence weighting parameter, only used with implicit feedback */
+  private final double alpha;
+  /** number of threads solving for users or items */
+  private final int numTrainingThreads;
+
+  /** Number of rows a training thread takes at a time */
+  private static final int ROW_BLOCK_SIZE = 64;
+  private static final double DEFAULT_ALPHA = 40.0;
 
   private static final Logger log = LoggerFactory.getLogger(ALSWRFactorizer.class);
 
   public ALSWRFactorizer(DataModel dataModel, int numFeatures, double lambda, int numIterations) throws TasteException {
+    this(dataModel, numFeatures, lambda, numIterations, false, DEFAULT_ALPHA);
+  }
+
+  public ALSWRFactorizer(DataModel dataModel, int numFeatures, double lambda, int numIterations,
+      boolean usesImplicitFeedback, double alpha) throws TasteException {
+    this(dataModel, numFeatures, lambda, numIterations, usesImplicitFeedback, alpha,
+        Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param usesImplicitFeedback whether to treat preferences as implicit feedback rather than ratings
+   * @param alpha how quickly confidence grows with the preference value, only used with implicit feedback
+   * @param numTrainingThreads number of threads solving for users or items
+   */
+  public ALSWRFactorizer(DataModel dataModel, int numFeatures, double lambda, int numIterations,
+      boolean usesImplicitFeedback, double alpha, int numTrainingThreads) throws TasteException {
     super(dataModel);
+    Preconditions.checkArgument(numFeatures >= 1, "numFeatures must be at least 1");
+    Preconditions.checkArgument((long) numFeatures * numFeatures <= Integer.MAX_VALUE, "numFeatures is too large");
+    Preconditions.checkArgument(numTrainingThreads >= 1, "numTrainingThreads must be at least 1");
     this.dataModel = dataModel;
     this.numFeatures = numFeatures;
     this.lambda = lambda;
     this.numIterations = numIterations;
+    this.usesImplicitFeedback = usesImplicitFeedback;
+    this.alpha = alpha;
+    this.numTrainingThreads = numTrainingThreads;
   }
 
+  /**
+   * Item and user features as arrays of rows.
+   *
+   * @deprecated {@link #factorize()} initializes and solves contiguous arrays instead
+   */
+  @Deprecated
   static class Features {
 
     private final DataModel dataModel;
@@ -121,92 +176,68 @@ public class ALSWRFactorizer extends AbstractFactorizer {
     }
 
     protected double averateRating(long itemID) throws TasteException {
-      PreferenceArray prefs = dataModel.getPreferencesForItem(itemID);
-      RunningAverage avg = new FullRunningAverage();
-      for (Preference pref : prefs) {
-        avg.addDatum(pref.getValue());
-      }
-      return avg.getAverage();
+      return averageRating(dataModel, itemID);
+    }
+  }
+
+  private static double averageRating(DataModel dataModel, long itemID) throws TasteException {
+    PreferenceArray prefs = dataModel.getPreferencesForItem(itemID);
+    RunningAverage avg = new FullRunningAverage();
+    for (Preference pref : prefs) {
+      avg.addDatum(pref.getValue());
     }
+    return avg.getAverage();
   }
 
   @Override
   public Factorization factorize() throws TasteException {
     log.info("starting to compute the factorization...");
-    final AlternateLeastSquaresSolver solver = new AlternateLeastSquaresSolver();
-    final Features features = new Features(this);
-
-    for (int iteration = 0; iteration < numIterations; iteration++) {
-      log.info("iteration {}", iteration);
-
-      /* fix M - compute U */
-      ExecutorService queue = createQueue();
-      LongPrimitiveIterator userIDsIterator = dataModel.getUserIDs();
-      try {
-        while (userIDsIterator.hasNext()) {
-          final long userID = userIDsIterator.nextLong();
-          final LongPrimitiveIterator itemIDsFromUser = dataModel.getItemIDsFromUser(userID).iterator();
-          final PreferenceArray userPrefs = dataModel.getPreferencesFromUser(userID);
-          queue.execute(new Runnable() {
-            @Override
-            public void run() {
-              List<Vector> featureVectors = Lists.newArrayList();
-              while (itemIDsFromUser.hasNext()) {
-                long itemID = itemIDsFromUser.nextLong();
-                featureVectors.add(features.getItemFeatureColumn(itemIndex(itemID)));
-              }
-              Vector userFeatures = solver.solve(featureVectors, ratingVector(userPrefs), lambda, numFeatures);
-              features.setFeatureColumnInU(userIndex(userID), userFeatures);
-            }
-          });
-        }
-      } finally {
-        queue.shutdown();
-        try {
-          queue.awaitTermination(dataModel.getNumUsers(), TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-          log.warn("Error when computing user features", e);
-        }
-      }
+    PreferenceRows userRows = userRows();
+    PreferenceRows itemRows = userRows.transpose(dataModel.getNumItems());
+    double[] u = new double[contiguousSize(userRows.numRows())];
+    double[] m = initialItemFeatures(itemRows.numRows());
 
-      /* fix U - compute M */
-      queue = createQueue();
-      LongPrimitiveIterator itemIDsIterator = dataModel.getItemIDs();
-      try {
-        while (itemIDsIterator.hasNext()) {
-          final long itemID = itemIDsIterator.nextLong();
-          final PreferenceArray itemPrefs = dataModel.getPreferencesForItem(itemID);
-          queue.execute(new Runnable() {
-            @Override
-            public void run() {
-              List<Vector> featureVectors = Lists.newArrayList();
-              for (Preference pref : itemPrefs) {
-                long userID = pref.getUserID();
-                featureVectors.add(features.getUserFeatureColumn(userIndex(userID)));
-              }
-              Vector itemFeatures = solver.solve(featureVectors, ratingVector(itemPrefs), lambda, numFeatures);
-              features.setFeatureColumnInM(itemIndex(itemID), itemFeatures);
-            }
-          });
-        }
-      } finally {
-        queue.shutdown();
-        try {
-          queue.awaitTermination(dataModel.getNumItems(), TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-          log.warn("Error when computing item features", e);
-        }
+    ExecutorService queue = createQueue();
+    try {
+      for (int iteration = 0; iteration < numIterations; iteration++) {
+        long start = System.currentTimeMillis();
+        /* fix M - compute U */
+        solve(queue, userRows, m, u);
+        /* fix U - compute M */
+        solve(queue, itemRows, u, m);
+        log.info("iteration {} took {}ms", iteration, System.currentTimeMillis() - start);
       }
+    } finally {
+      queue.shutdownNow();
     }
 
     log.info("finished computation of the factorization...");
-    return createFactorization(features.getU(), features.getM());
+    return createFactorization(fromContiguous(u, userRows.numRows()), m, numFeatures);
   }
 
-  protected ExecutorService createQueue() {
-    return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+  /**
+   * @return item features to start from: the first feature of an item is its average rating, the others are small
+   *  random values
+   */
+  private double[] initialItemFeatures(int numItems) throws TasteException {
+    Random random = RandomUtils.getRandom();
+    double[] m = new double[contiguousSize(numItems)];
+    LongPrimitiveIterator itemIDsIterator = dataModel.getItemIDs();
+    while (itemIDsIterator.hasNext()) {
+      long itemID = itemIDsIterator.nextLong();
+      int offset = itemIndex(itemID) * numFeatures;
+      m[offset] = averageRating(dataModel, itemID);
+      for (int feature = 1; feature < numFeatures; feature++) {
+        m[offset + feature] = random.nextDouble() * 0.1;
+      }
+    }
+    return m;
   }
 
+  /**
+   * @deprecated preferences are now collected into contiguous arrays for training
+   */
+  @Deprecated
   protected Vector ratingVector(PreferenceArray prefs) {
     double[] ratings = new double[prefs.length()];
     for (int n = 0; n < prefs.length(); n++) {
@@ -214,4 +245,283 @@ public class ALSWRFactorizer extends AbstractFactorizer {
     }
     return new DenseVector(ratings);
   }
+
+  protected ExecutorService createQueue() {
+    return Executors.newFixedThreadPool(numTrainingThreads);
+  }
+
+  /** Collects all preferences, by user index, with columns holding item indices. */
+  private PreferenceRows userRows() throws TasteException {
+    int numUsers = dataModel.getNumUsers();
+    int[] offsets = new int[numUsers + 1];
+    int[][] columnsByRow = new int[numUsers][];
+    float[][] valuesByRow = new float[numUsers][];
+    LongPrimitiveIterator userIDsIterator = dataModel.getUserIDs();
+    while (userIDsIterator.hasNext()) {
+      long userID = userIDsIterator.nextLong();
+      int row = userIndex(userID);
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+      int[] columns = new int[prefs.length()];
+      float[] values = new float[prefs.length()];
+      for (int i = 0; i < columns.length; i++) {
+        columns[i] = itemIndex(prefs.getItemID(i));
+        values[i] = prefs.getValue(i);
+      }
+      columnsByRow[row] = columns;
+      valuesByRow[row] = values;
+      offsets[row + 1] = columns.length;
+    }
+    for (int row = 0; row < numUsers; row++) {
+      offsets[row + 1] += offsets[row];
+    }
+    int[] columns = new int[offsets[numUsers]];
+    float[] values = new float[offsets[numUsers]];
+    for (int row = 0; row < numUsers; row++) {
+      if (columnsByRow[row] != null) {
+        System.arraycopy(columnsByRow[row], 0, columns, offsets[row], columnsByRow[row].length);
+        System.arraycopy(valuesByRow[row], 0, values, offsets[row], valuesByRow[row].length);
+        columnsByRow[row] = null;
+        valuesByRow[row] = null;
+      }
+    }
+    return new PreferenceRows(offsets, columns, values);
+  }
+
+  /**
+   * Solves for every row of {@code solved}, holding {@code fixed} constant. Each training thread takes blocks of
+   * rows until none are left.
+   */
+  private void solve(ExecutorService queue,
+                     final PreferenceRows rows,
+                     final double[] fixed,
+                     final double[] solved) throws TasteException {
+    final double[] gramian = usesImplicitFeedback ? gramian(queue, fixed) : null;
+    final AtomicInteger nextRow = new AtomicInteger();
+    List<Callable<Void>> tasks = Lists.newArrayListWithCapacity(numTrainingThreads);
+    for (int thread = 0; thread < numTrainingThreads; thread++) {
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          RowSolver solver = new RowSolver();
+          int from;
+          while ((from = nextRow.getAndAdd(ROW_BLOCK_SIZE)) < rows.numRows()) {
+            int to = Math.min(from + ROW_BLOCK_SIZE, rows.numRows());
+            for (int row = from; row < to; row++) {
+              solver.solve(rows, row, fixed, gramian, solved);
+            }
+          }
+          return null;
+        }
+      });
+    }
+    run(queue, tasks);
+  }
+
+  /** @return lower triangle of the Gramian of the given features, in row-major order */
+  private double[] gramian(ExecutorService queue, final double[] features) throws TasteException {
+    final int numRows = features.length / numFeatures;
+    final int rowsPerThread = (numRows + numTrainingThreads - 1) / numTrainingThreads;
+    final double[][] partials = new double[numTrainingThreads][];
+    List<Callable<Void>> tasks = Lists.newArrayListWithCapacity(numTrainingThreads);
+    for (int thread = 0; thread < numTrainingThreads; thread++) {
+      final int theThread = thread;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          double[] partial = new double[numFeatures * numFeatures];
+          int to = Math.min(numRows, (theThread + 1) * rowsPerThread);
+          for (int row = theThread * rowsPerThread; row < to; row++) {
+            addOuterProduct(partial, features, row * numFeatures, 1.0);
+          }
+          partials[theThread] = partial;
+          return null;
+        }
+      });
+    }
+    run(queue, tasks);
+    double[] gramian = partials[0];
+    for (int thread = 1; thread < partials.length; thread++) {
+      for (int i = 0; i < gramian.length; i++) {
+        gramian[i] += partials[thread][i];
+      }
+    }
+    return gramian;
+  }
+
+  private static void run(ExecutorService queue, List<Callable<Void>> tasks) throws TasteException {
+    try {
+      for (Future<Void> future : queue.invokeAll(tasks)) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      throw new TasteException(ee.getCause());
+    }
+  }
+
+  /** Adds weight times the outer product of a feature row with itself to the lower triangle of a matrix. */
+  private void addOuterProduct(double[] matrix, double[] features, int offset, double weight) {
+    for (int i = 0; i < numFeatures; i++) {
+      double weightedFeature = weight * features[offset + i];
+      int matrixRow = i * numFeatures;
+      for (int j = 0; j <= i; j++) {
+        matrix[matrixRow + j] += weightedFeature * features[offset + j];
+      }
+    }
+  }
+
+  /** Solves the least-squares problem of one user or item at a time, in buffers reused across rows. */
+  private final class RowSolver {
+
+    /** lower triangle of the normal equations matrix, overwritten by its Cholesky factor */
+    private final double[] a = new double[numFeatures * numFeatures];
+    /** right hand side, overwritten by the solution */
+    private final double[] b = new double[numFeatures];
+
+    void solve(PreferenceRows rows, int row, double[] fixed, double[] gramian, double[] solved) {
+      int from = rows.offsets[row];
+      int to = rows.offsets[row + 1];
+      if (gramian == null) {
+        Arrays.fill(a, 0.0);
+      } else {
+        System.arraycopy(gramian, 0, a, 0, a.length);
+      }
+      Arrays.fill(b, 0.0);
+      for (int i = from; i < to; i++) {
+        int offset = rows.columns[i] * numFeatures;
+        float value = rows.values[i];
+        double weight;
+        double target;
+        if (usesImplicitFeedback) {
+          double confidence = 1.0 + alpha * Math.abs(value);
+          // The Gramian already counts this pair once, with a preference of 0
+          weight = confidence - 1.0;
+          target = value > 0.0f ? confidence : 0.0;
+        } else {
+          weight = 1.0;
+          target = value;
+        }
+        addOuterProduct(a, fixed, offset, weight);
+        for (int feature = 0; feature < numFeatures; feature++) {
+          b[feature] += target * fixed[offset + feature];
+        }
+      }
+      // ALS-WR weights the regularization by the number of preferences
+      double regularization = usesImplicitFeedback ? lambda : lambda * (to - from);
+      for (int feature = 0; feature < numFeatures; feature++) {
+        a[feature * numFeatures + feature] += regularization;
+      }
+
+      int solvedOffset = row * numFeatures;
+      if (to > from || usesImplicitFeedback) {
+        if (choleskySolve()) {
+          System.arraycopy(b, 0, solved, solvedOffset, numFeatures);
+          return;
+        }
+        log.warn("Singular least-squares problem for row {}, consider a larger lambda", row);
+      }
+      Arrays.fill(solved, solvedOffset, solvedOffset + numFeatures, 0.0);
+    }
+
+    /** @return false if the matrix is not positive definite */
+    private boolean choleskySolve() {
+      int n = numFeatures;
+      for (int j = 0; j < n; j++) {
+        int rowJ = j * n;
+        double diagonal = a[rowJ + j];
+        for (int k = 0; k < j; k++) {
+          diagonal -= a[rowJ + k] * a[rowJ + k];
+        }
+        if (diagonal <= 0.0 || Double.isNaN(diagonal)) {
+          return false;
+        }
+        double pivot = Math.sqrt(diagonal);
+        a[rowJ + j] = pivot;
+        for (int i = j + 1; i < n; i++) {
+          int rowI = i * n;
+          double sum = a[rowI + j];
+          for (int k = 0; k < j; k++) {
+            sum -= a[rowI + k] * a[rowJ + k];
+          }
+          a[rowI + j] = sum / pivot;
+        }
+      }
+      // Solve L y = b, then L' x = y
+      for (int i = 0; i < n; i++) {
+        int rowI = i * n;
+        double sum = b[i];
+        for (int k = 0; k < i; k++) {
+          sum -= a[rowI + k] * b[k];
+        }
+        b[i] = sum / a[rowI + i];
+      }
+      for (int i = n - 1; i >= 0; i--) {
+        double sum = b[i];
+        for (int k = i + 1; k < n; k++) {
+          sum -= a[k * n + i] * b[k];
+        }
+        b[i] = sum / a[i * n + i];
+      }
+      return true;
+    }
+  }
+
+  /**
+   * @return length of an array holding the features of the given number of rows one after the other; once it is
+   *  checked to fit in an int, so does the offset {@code row * numFeatures} of any of those rows
+   */
+  private int contiguousSize(int numRows) {
+    long size = (long) numRows * numFeatures;
+    Preconditions.checkArgument(size <= Integer.MAX_VALUE,
+        "Too many features to hold in one array: %s rows of %s", numRows, numFeatures);
+    return (int) size;
+  }
+
+  private double[][] fromContiguous(double[] contiguous, int numRows) {
+    double[][] matrix = new double[numRows][numFeatures];
+    for (int row = 0; row < numRows; row++) {
+      System.arraycopy(contiguous, row * numFeatures, matrix[row], 0, numFeatures);
+    }
+    return matrix;
+  }
+
+  /** Preferences in compressed row form: the entries of row r are at offsets[r] to offsets[r + 1] - 1. */
+  private static final class PreferenceRows {
+
+    private final int[] offsets;
+    private final int[] columns;
+    private final float[] values;
+
+    PreferenceRows(int[] offsets, int[] columns, float[] values) {
+      this.offsets = offsets;
+      this.columns = columns;
+      this.values = values;
+    }
+
+    int numRows() {
+      return offsets.length - 1;
+    }
+
+    PreferenceRows transpose(int numColumns) {
+      int[] transposedOffsets = new int[numColumns + 1];
+      for (int column : columns) {
+        transposedOffsets[column + 1]++;
+      }
+      for (int column = 0; column < numColumns; column++) {
+        transposedOffsets[column + 1] += transposedOffsets[column];
+      }
+      int[] next = Arrays.copyOf(transposedOffsets, numColumns);
+      int[] transposedColumns = new int[columns.length];
+      float[] transposedValues = new float[values.length];
+      for (int row = 0; row < numRows(); row++) {
+        for (int i = offsets[row]; i < offsets[row + 1]; i++) {
+          int position = next[columns[i]]++;
+          transposedColumns[position] = row;
+          transposedValues[position] = values[i];
+        }
+      }
+      return new PreferenceRows(transposedOffsets, transposedColumns, transposedValues);
+    }
+  }
 }
@@ -59,6 +59,14 @@ public abstract class AbstractFactorizer implements Factorizer {
     return new Factorization(userIDMapping, itemIDMapping, userFeatures, itemFeatures);
   }
 
+  /**
+   * @param itemFeatures features of all items one after the other, in the order of their indices, which the
+   *  factorization may keep rather than copy
+   */
+  protected Factorization createFactorization(double[][] userFeatures, double[] itemFeatures, int numFeatures) {
+    return new Factorization(userIDMapping, itemIDMapping, userFeatures, itemFeatures, numFeatures);
+  }
+
   protected Integer userIndex(long userID) {
     Integer userIndex = userIDMapping.get(userID);
     if (userIndex == null) {
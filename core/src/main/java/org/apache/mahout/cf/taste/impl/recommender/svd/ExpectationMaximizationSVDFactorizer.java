@@ -20,7 +20,13 @@ package org.apache.mahout.cf.taste.impl.recommender.svd;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
@@ -32,7 +38,22 @@ import org.apache.mahout.common.RandomUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** Calculates the SVD using an Expectation Maximization algorithm. */
+/**
+ * <p>
+ * Calculates the SVD using an Expectation Maximization algorithm.
+ * </p>
+ *
+ * <p>
+ * With more than one thread, each pass over the preferences is split into contiguous ranges of the shuffled
+ * preferences, trained concurrently. Threads update the shared feature matrices without locking, as in
+ * "Hogwild!" (Niu et al.): since each preference only touches one user's and one item's feature, conflicting
+ * updates are rare and only add a little noise. Results are then no longer reproducible for a given random seed.
+ * </p>
+ *
+ * <p>
+ * Each pass logs, at debug level, its RMSE and the number of preferences trained per second.
+ * </p>
+ */
 public final class ExpectationMaximizationSVDFactorizer extends AbstractFactorizer {
 
   private static final Logger log = LoggerFactory.getLogger(ExpectationMaximizationSVDFactorizer.class);
@@ -45,6 +66,8 @@ public final class ExpectationMaximizationSVDFactorizer extends AbstractFactoriz
   /** number of iterations */
   private final int numIterations;
   private final double randomNoise;
+  /** number of threads training concurrently */
+  private final int numThreads;
   /** user singular vectors */
   private double[][] leftVectors;
   /** item singular vectors */
@@ -53,6 +76,8 @@ public final class ExpectationMaximizationSVDFactorizer extends AbstractFactoriz
   private List<SVDPreference> cachedPreferences;
   private double defaultValue;
   private double interval;
+  private float minPreference;
+  private float maxPreference;
 
   public ExpectationMaximizationSVDFactorizer(DataModel dataModel,
                                               int numFeatures,
@@ -67,7 +92,21 @@ public final class ExpectationMaximizationSVDFactorizer extends AbstractFactoriz
                                               double preventOverfitting,
                                               double randomNoise,
                                               int numIterations) throws TasteException {
+    this(dataModel, numFeatures, learningRate, preventOverfitting, randomNoise, numIterations, 1);
+  }
+
+  /**
+   * @param numThreads number of threads to train with; 1 trains sequentially
+   */
+  public ExpectationMaximizationSVDFactorizer(DataModel dataModel,
+                                              int numFeatures,
+                                              double learningRate,
+                                              double preventOverfitting,
+                                              double randomNoise,
+                                              int numIterations,
+                                              int numThreads) throws TasteException {
     super(dataModel);
+    Preconditions.checkArgument(numThreads >= 1, "numThreads must be at least 1");
     this.dataModel = dataModel;
     this.numFeatures = numFeatures;
     this.numIterations = numIterations;
@@ -75,7 +114,7 @@ public final class ExpectationMaximizationSVDFactorizer extends AbstractFactoriz
     this.learningRate = learningRate;
     this.preventOverfitting = preventOverfitting;
     this.randomNoise = randomNoise;
-
+    this.numThreads = numThreads;
   }
 
   @Override
@@ -98,28 +137,42 @@ public final class ExpectationMaximizationSVDFactorizer extends AbstractFactoriz
         rightVectors[itemIndex][feature] = defaultValue + (random.nextDouble() - 0.5) * interval * randomNoise;
       }
     }
+    minPreference = dataModel.getMinPreference();
+    maxPreference = dataModel.getMaxPreference();
     cachedPreferences = Lists.newArrayListWithCapacity(dataModel.getNumUsers());
     cachePreferences();
-    double rmse = dataModel.getMaxPreference() - dataModel.getMinPreference();
-    for (int ii = 0; ii < numFeatures; ii++) {
-      Collections.shuffle(cachedPreferences, random);
-      for (int i = 0; i < numIterations; i++) {
-        double err = 0.0;
-        for (SVDPreference pref : cachedPreferences) {
-          int useridx = userIndex(pref.getUserID());
-          int itemidx = itemIndex(pref.getItemID());
-          err += Math.pow(train(useridx, itemidx, ii, pref), 2.0);
+    int numPreferences = cachedPreferences.size();
+    ExecutorService executor = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+    try {
+      double rmse = dataModel.getMaxPreference() - dataModel.getMinPreference();
+      for (int ii = 0; ii < numFeatures; ii++) {
+        Collections.shuffle(cachedPreferences, random);
+        long featureStart = System.nanoTime();
+        for (int i = 0; i < numIterations; i++) {
+          long epochStart = System.nanoTime();
+          double err = executor == null
+              ? train(ii, 0, numPreferences)
+              : runInParallel(executor, ii, true);
+          rmse = Math.sqrt(err / numPreferences);
+          if (log.isDebugEnabled()) {
+            log.debug("Feature {}, iteration {}: RMSE {}, {} preferences/s",
+                      new Object[] {ii, i, rmse, perSecond(numPreferences, epochStart)});
+          }
         }
-        rmse = Math.sqrt(err / cachedPreferences.size());
-      }
-      if (ii < numFeatures - 1) {
-        for (SVDPreference pref : cachedPreferences) {
-          int useridx = userIndex(pref.getUserID());
-          int itemidx = itemIndex(pref.getItemID());
-          buildCache(useridx, itemidx, ii, pref);
+        if (ii < numFeatures - 1) {
+          if (executor == null) {
+            buildCache(ii, 0, numPreferences);
+          } else {
+            runInParallel(executor, ii, false);
+          }
         }
+        log.info("Finished training feature {} with RMSE {}, {} preferences/s.",
+                 new Object[] {ii, rmse, perSecond((long) numPreferences * numIterations, featureStart)});
+      }
+    } finally {
+      if (executor != null) {
+        executor.shutdownNow();
       }
-      log.info("Finished training feature {} with RMSE {}.", ii, rmse);
     }
     return createFactorization(leftVectors, rightVectors);
   }
@@ -135,6 +188,70 @@ public final class ExpectationMaximizationSVDFactorizer extends AbstractFactoriz
     return average.getAverage();
   }
 
+  private static long perSecond(long count, long startNanos) {
+    long elapsed = Math.max(1L, System.nanoTime() - startNanos);
+    return count * 1000000000L / elapsed;
+  }
+
+  /**
+   * Splits the preferences into one contiguous range per thread and either trains a feature on them, or builds
+   * their cached predictions, concurrently.
+   *
+   * @return sum of the squared training errors, when training
+   */
+  private double runInParallel(ExecutorService executor, final int feature, final boolean training)
+    throws TasteException {
+    int numPreferences = cachedPreferences.size();
+    List<Future<Double>> results = Lists.newArrayListWithCapacity(numThreads);
+    for (int thread = 0; thread < numThreads; thread++) {
+      final int from = (int) ((long) numPreferences * thread / numThreads);
+      final int to = (int) ((long) numPreferences * (thread + 1) / numThreads);
+      results.add(executor.submit(new Callable<Double>() {
+        @Override
+        public Double call() {
+          if (training) {
+            return train(feature, from, to);
+          }
+          buildCache(feature, from, to);
+          return 0.0;
+        }
+      }));
+    }
+    double err = 0.0;
+    try {
+      for (Future<Double> result : results) {
+        err += result.get();
+      }
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      throw new TasteException(ee.getCause());
+    }
+    return err;
+  }
+
+  /**
+   * Trains a feature on a range of the cached preferences.
+   *
+   * @return sum of the squared training errors
+   */
+  private double train(int feature, int from, int to) {
+    double err = 0.0;
+    for (int n = from; n < to; n++) {
+      SVDPreference pref = cachedPreferences.get(n);
+      double prefErr = train(pref.getUserIndex(), pref.getItemIndex(), feature, pref);
+      err += prefErr * prefErr;
+    }
+    return err;
+  }
+
+  private void buildCache(int feature, int from, int to) {
+    for (int n = from; n < to; n++) {
+      SVDPreference pref = cachedPreferences.get(n);
+      buildCache(pref.getUserIndex(), pref.getItemIndex(), feature, pref);
+    }
+  }
+
   private double train(int i, int j, int f, SVDPreference pref) {
     double[] leftVectorI = leftVectors[i];
     double[] rightVectorJ = rightVectors[j];
@@ -150,8 +267,6 @@ public final class ExpectationMaximizationSVDFactorizer extends AbstractFactoriz
   }
 
   private double predictRating(int i, int j, int f, SVDPreference pref, boolean trailing) {
-    float minPreference = dataModel.getMinPreference();
-    float maxPreference = dataModel.getMaxPreference();
     double sum = pref.getCache();
     sum += leftVectors[i][f] * rightVectors[j][f];
     if (trailing) {
@@ -170,7 +285,10 @@ public final class ExpectationMaximizationSVDFactorizer extends AbstractFactoriz
     LongPrimitiveIterator it = dataModel.getUserIDs();
     while (it.hasNext()) {
       for (Preference pref : dataModel.getPreferencesFromUser(it.nextLong())) {
-        cachedPreferences.add(new SVDPreference(pref.getUserID(), pref.getItemID(), pref.getValue(), 0.0));
+        long userID = pref.getUserID();
+        long itemID = pref.getItemID();
+        cachedPreferences.add(new SVDPreference(userID, itemID, pref.getValue(), 0.0, userIndex(userID),
+                                                itemIndex(itemID)));
       }
     }
   }
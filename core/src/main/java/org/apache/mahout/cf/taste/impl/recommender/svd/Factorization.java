@@ -27,6 +27,14 @@ import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 
 /**
  * a factorization of the rating matrix
+ *
+ * <p>
+ * Item features are held as a dense, row-major matrix, so that many items can be scored at once with
+ * {@link #scoreItems(double[], int, int, double[])}, and are copied out of it for per-item lookups. The position of
+ * an item in that matrix is its index in the item ID mapping, which must therefore run from 0 to the number of
+ * items - 1. The matrix is split into chunks of {@value #ITEMS_PER_CHUNK} items, so that no single array is indexed
+ * beyond the range of an int however many items there are.
+ * </p>
  */
 public class Factorization {
 
@@ -37,15 +45,75 @@ public class Factorization {
 
   /** user features matrix */
   private final double[][] userFeatures;
-  /** item features matrix */
+  private final int numFeatures;
+  /** item IDs by position in {@link #itemFeatures} */
+  private final long[] itemIDs;
+  /** item features matrix as row-major chunks of {@link #ITEMS_PER_CHUNK} items */
   private final double[][] itemFeatures;
 
+  /** Number of items scored together, so that each user feature is loaded once per block rather than per item */
+  private static final int ITEM_BLOCK_SIZE = 4;
+  /** Number of items in each chunk of {@link #itemFeatures}; a multiple of {@link #ITEM_BLOCK_SIZE} */
+  private static final int ITEMS_PER_CHUNK = 1 << 16;
+
   public Factorization(FastByIDMap<Integer> userIDMapping, FastByIDMap<Integer> itemIDMapping, double[][] userFeatures,
       double[][] itemFeatures) {
+    this(userIDMapping, itemIDMapping, userFeatures, numFeatures(userFeatures, itemFeatures));
+    int numRows = itemFeatures == null ? 0 : itemFeatures.length;
+    Preconditions.checkArgument(numRows == itemIDs.length,
+        "%s item feature rows for %s items", numRows, itemIDs.length);
+    for (int position = 0; position < numRows; position++) {
+      System.arraycopy(itemFeatures[position], 0, this.itemFeatures[position / ITEMS_PER_CHUNK],
+                       (position % ITEMS_PER_CHUNK) * numFeatures, numFeatures);
+    }
+  }
+
+  /**
+   * @param itemFeatures features of all items one after the other, in the order of their indices in the item ID
+   *  mapping; used as is if they fit in a single chunk
+   */
+  Factorization(FastByIDMap<Integer> userIDMapping, FastByIDMap<Integer> itemIDMapping, double[][] userFeatures,
+      double[] itemFeatures, int numFeatures) {
+    this(userIDMapping, itemIDMapping, userFeatures, numFeatures);
+    Preconditions.checkArgument(itemFeatures.length == (long) itemIDs.length * numFeatures,
+        "%s item features for %s items", itemFeatures.length, itemIDs.length);
+    if (this.itemFeatures.length == 1) {
+      this.itemFeatures[0] = itemFeatures;
+    } else {
+      for (int chunk = 0; chunk < this.itemFeatures.length; chunk++) {
+        System.arraycopy(itemFeatures, chunk * ITEMS_PER_CHUNK * numFeatures,
+                         this.itemFeatures[chunk], 0, this.itemFeatures[chunk].length);
+      }
+    }
+  }
+
+  private Factorization(FastByIDMap<Integer> userIDMapping, FastByIDMap<Integer> itemIDMapping,
+      double[][] userFeatures, int numFeatures) {
     this.userIDMapping = Preconditions.checkNotNull(userIDMapping);
     this.itemIDMapping = Preconditions.checkNotNull(itemIDMapping);
     this.userFeatures = userFeatures;
-    this.itemFeatures = itemFeatures;
+    this.numFeatures = numFeatures;
+    Preconditions.checkArgument((long) ITEMS_PER_CHUNK * numFeatures <= Integer.MAX_VALUE,
+        "Too many features: %s", numFeatures);
+    int numItems = itemIDMapping.size();
+    itemIDs = new long[numItems];
+    for (Map.Entry<Long,Integer> entry : itemIDMapping.entrySet()) {
+      int position = entry.getValue();
+      Preconditions.checkArgument(position >= 0 && position < numItems,
+          "Item %s has index %s out of %s items", entry.getKey(), position, numItems);
+      itemIDs[position] = entry.getKey();
+    }
+    itemFeatures = new double[(numItems + ITEMS_PER_CHUNK - 1) / ITEMS_PER_CHUNK][];
+    for (int chunk = 0; chunk < itemFeatures.length; chunk++) {
+      itemFeatures[chunk] = new double[Math.min(ITEMS_PER_CHUNK, numItems - chunk * ITEMS_PER_CHUNK) * numFeatures];
+    }
+  }
+
+  private static int numFeatures(double[][] userFeatures, double[][] itemFeatures) {
+    if (userFeatures != null && userFeatures.length > 0) {
+      return userFeatures[0].length;
+    }
+    return itemFeatures != null && itemFeatures.length > 0 ? itemFeatures[0].length : 0;
   }
 
   public double[] getUserFeatures(long userID) throws NoSuchUserException {
@@ -56,12 +124,82 @@ public class Factorization {
     return userFeatures[index];
   }
 
+  /** @return a copy of the features of the item */
   public double[] getItemFeatures(long itemID) throws NoSuchItemException {
     Integer index = itemIDMapping.get(itemID);
     if (index == null) {
       throw new NoSuchItemException(itemID);
     }
-    return itemFeatures[index];
+    double[] features = new double[numFeatures];
+    System.arraycopy(itemFeatures[index / ITEMS_PER_CHUNK], (index % ITEMS_PER_CHUNK) * numFeatures,
+                     features, 0, numFeatures);
+    return features;
+  }
+
+  /**
+   * @return ID of the item at the given position of the dense layout used by
+   *  {@link #scoreItems(double[], int, int, double[])}; positions run from 0 to {@link #numItems()} - 1
+   */
+  public long getItemIDAt(int position) {
+    return itemIDs[position];
+  }
+
+  /**
+   * Computes the dot product of the given user features with the features of each item in a range of positions
+   * of the dense item layout.
+   *
+   * @param userFeatures features of the user
+   * @param from first position to score
+   * @param to position after the last one to score
+   * @param scores receives the score of the item at position {@code from + i} at index {@code i}
+   */
+  public void scoreItems(double[] userFeatures, int from, int to, double[] scores) {
+    Preconditions.checkArgument(from >= 0 && from <= to && to <= numItems(), "bad range");
+    Preconditions.checkArgument(scores.length >= to - from, "scores too short");
+    int out = 0;
+    while (from < to) {
+      int chunk = from / ITEMS_PER_CHUNK;
+      int chunkStart = chunk * ITEMS_PER_CHUNK;
+      int chunkTo = Math.min(to, chunkStart + ITEMS_PER_CHUNK);
+      scoreRows(userFeatures, itemFeatures[chunk], from - chunkStart, chunkTo - chunkStart, scores, out);
+      out += chunkTo - from;
+      from = chunkTo;
+    }
+  }
+
+  private static void scoreRows(double[] userFeatures, double[] matrix, int from, int to, double[] scores, int out) {
+    int numFeatures = userFeatures.length;
+    int position = from;
+    // Score a block of items at a time, so each loaded user feature is used several times
+    for (; position + ITEM_BLOCK_SIZE <= to; position += ITEM_BLOCK_SIZE, out += ITEM_BLOCK_SIZE) {
+      int row0 = position * numFeatures;
+      int row1 = row0 + numFeatures;
+      int row2 = row1 + numFeatures;
+      int row3 = row2 + numFeatures;
+      double score0 = 0.0;
+      double score1 = 0.0;
+      double score2 = 0.0;
+      double score3 = 0.0;
+      for (int feature = 0; feature < numFeatures; feature++) {
+        double userFeature = userFeatures[feature];
+        score0 += userFeature * matrix[row0 + feature];
+        score1 += userFeature * matrix[row1 + feature];
+        score2 += userFeature * matrix[row2 + feature];
+        score3 += userFeature * matrix[row3 + feature];
+      }
+      scores[out] = score0;
+      scores[out + 1] = score1;
+      scores[out + 2] = score2;
+      scores[out + 3] = score3;
+    }
+    for (; position < to; position++, out++) {
+      int row = position * numFeatures;
+      double score = 0.0;
+      for (int feature = 0; feature < numFeatures; feature++) {
+        score += userFeatures[feature] * matrix[row + feature];
+      }
+      scores[out] = score;
+    }
   }
 
   public Iterable<Map.Entry<Long,Integer>> getUserIDMappings() {
@@ -73,7 +211,7 @@ public class Factorization {
   }
 
   public int numFeatures() {
-    return userFeatures[0].length;
+    return numFeatures;
   }
 
   public int numUsers() {
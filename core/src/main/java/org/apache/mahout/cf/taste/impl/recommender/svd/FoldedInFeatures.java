@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * Features of users and items folded into a {@link Factorization} after it was computed, which take precedence
+ * over those of the factorization itself, together with the index over the items of that factorization, and the
+ * preference changes which could not be stored in the data model. Thread-safe.
+ */
+final class FoldedInFeatures {
+
+  private final Factorization factorization;
+  /** index over the items of the factorization, or null to score candidates exhaustively */
+  private final MaximumInnerProductIndex index;
+  private final ConcurrentMap<Long,double[]> userFeatures = new ConcurrentHashMap<Long,double[]>();
+  private final ConcurrentMap<Long,double[]> itemFeatures = new ConcurrentHashMap<Long,double[]>();
+  /** all preferences of each user with changes the data model did not accept, including those changes */
+  private final ConcurrentMap<Long,PreferenceArray> changedPreferences = new ConcurrentHashMap<Long,PreferenceArray>();
+
+  FoldedInFeatures(Factorization factorization, MaximumInnerProductIndex index) {
+    this.factorization = factorization;
+    this.index = index;
+  }
+
+  Factorization getFactorization() {
+    return factorization;
+  }
+
+  /** @return index over the items of the factorization, or null if there is none */
+  MaximumInnerProductIndex getIndex() {
+    return index;
+  }
+
+  double[] getUserFeatures(long userID) throws NoSuchUserException {
+    double[] features = userFeatures.get(userID);
+    return features == null ? factorization.getUserFeatures(userID) : features;
+  }
+
+  double[] getItemFeatures(long itemID) throws NoSuchItemException {
+    double[] features = itemFeatures.get(itemID);
+    return features == null ? factorization.getItemFeatures(itemID) : features;
+  }
+
+  /** @return features of the user, or null if it is unknown */
+  double[] findUserFeatures(long userID) {
+    try {
+      return getUserFeatures(userID);
+    } catch (NoSuchUserException nsue) {
+      return null;
+    }
+  }
+
+  /** @return features of the item, or null if it is unknown */
+  double[] findItemFeatures(long itemID) {
+    try {
+      return getItemFeatures(itemID);
+    } catch (NoSuchItemException nsie) {
+      return null;
+    }
+  }
+
+  void setUserFeatures(long userID, double[] features) {
+    userFeatures.put(userID, features);
+  }
+
+  void removeUserFeatures(long userID) {
+    userFeatures.remove(userID);
+  }
+
+  void setItemFeatures(long itemID, double[] features) {
+    itemFeatures.put(itemID, features);
+  }
+
+  /**
+   * @return features of the items folded in so far, which may or may not also be in the factorization, in a copy
+   *  that is read without locking or boxing
+   */
+  FastByIDMap<double[]> copyFoldedInItems() {
+    FastByIDMap<double[]> copy = new FastByIDMap<double[]>(itemFeatures.size());
+    for (Map.Entry<Long,double[]> entry : itemFeatures.entrySet()) {
+      copy.put(entry.getKey(), entry.getValue());
+    }
+    return copy;
+  }
+
+  /** @return all preferences of the user, if some changed without the data model accepting it, or else null */
+  PreferenceArray getChangedPreferences(long userID) {
+    return changedPreferences.isEmpty() ? null : changedPreferences.get(userID);
+  }
+
+  /** @return users with preference changes the data model did not accept, with all their preferences */
+  Iterable<Map.Entry<Long,PreferenceArray>> getChangedPreferences() {
+    return changedPreferences.entrySet();
+  }
+
+  /**
+   * Records a preference which the data model did not accept.
+   *
+   * @param modelPrefs preferences of the user in the data model, which the change applies to if none of the
+   *  user's preferences changed before
+   * @return all preferences of the user, with the change
+   */
+  synchronized PreferenceArray setChangedPreference(long userID, long itemID, float value,
+                                                    PreferenceArray modelPrefs) {
+    PreferenceArray prefs = changedPreferences.containsKey(userID) ? changedPreferences.get(userID) : modelPrefs;
+    int length = prefs.length();
+    int index = 0;
+    while (index < length && prefs.getItemID(index) != itemID) {
+      index++;
+    }
+    PreferenceArray changed = new GenericUserPreferenceArray(index < length ? length : length + 1);
+    changed.setUserID(0, userID);
+    for (int i = 0; i < length; i++) {
+      changed.setItemID(i, prefs.getItemID(i));
+      changed.setValue(i, prefs.getValue(i));
+    }
+    changed.setItemID(index, itemID);
+    changed.setValue(index, value);
+    changedPreferences.put(userID, changed);
+    return changed;
+  }
+
+  /**
+   * Records the removal of a preference which the data model did not accept.
+   *
+   * @param modelPrefs preferences of the user in the data model, which the change applies to if none of the
+   *  user's preferences changed before
+   * @return all preferences of the user, without the removed one; may be empty
+   */
+  synchronized PreferenceArray removeChangedPreference(long userID, long itemID, PreferenceArray modelPrefs) {
+    PreferenceArray prefs = changedPreferences.containsKey(userID) ? changedPreferences.get(userID) : modelPrefs;
+    int length = prefs.length();
+    int numRemoved = 0;
+    for (int i = 0; i < length; i++) {
+      if (prefs.getItemID(i) == itemID) {
+        numRemoved++;
+      }
+    }
+    PreferenceArray changed = new GenericUserPreferenceArray(length - numRemoved);
+    changed.setUserID(0, userID);
+    int j = 0;
+    for (int i = 0; i < length; i++) {
+      if (prefs.getItemID(i) != itemID) {
+        changed.setItemID(j, prefs.getItemID(i));
+        changed.setValue(j, prefs.getValue(i));
+        j++;
+      }
+    }
+    changedPreferences.put(userID, changed);
+    return changed;
+  }
+
+}
@@ -0,0 +1,409 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.io.Closeables;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+
+/**
+ * <p>
+ * A {@link Factorization} read directly from a memory-mapped snapshot file, as written by
+ * {@link #write(Factorization, File)}. Opening a snapshot only reads its header; feature rows are paged in by the
+ * operating system as they are used, and the pages are shared between processes mapping the same file.
+ * </p>
+ *
+ * <p>
+ * The snapshot format is little-endian and laid out as:
+ * </p>
+ *
+ * <ul>
+ * <li>a header of {@value #HEADER_SIZE} bytes: magic number, format version, number of features, users and items</li>
+ * <li>the user IDs, as sorted longs</li>
+ * <li>the item IDs, as sorted longs</li>
+ * <li>the user features, as floats, one row of all features per user in the order of the user IDs</li>
+ * <li>the item features, as floats, one row of all features per item in the order of the item IDs</li>
+ * </ul>
+ *
+ * <p>
+ * Users and items are found by binary search over the sorted IDs, and the position of an item in
+ * {@link #scoreItems(double[], int, int, double[])} is its position in the sorted item IDs. Features are kept in
+ * single precision, so they differ slightly from those of the factorization that was written.
+ * </p>
+ */
+public final class MappedFactorization extends Factorization {
+
+  static final int MAGIC = 0x4D464143;
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 32;
+
+  /** Largest region mapped at once, well below the 2GB limit of a single mapping */
+  private static final long MAX_MAPPED_BYTES = 1L << 30;
+  private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+  private final File file;
+  private final int numFeatures;
+  private final int numUsers;
+  private final int numItems;
+  private final LongBuffer userIDs;
+  private final LongBuffer itemIDs;
+  private final FeatureRows userFeatures;
+  private final FeatureRows itemFeatures;
+
+  private MappedFactorization(File file,
+                              int numFeatures,
+                              int numUsers,
+                              int numItems,
+                              LongBuffer userIDs,
+                              LongBuffer itemIDs,
+                              FeatureRows userFeatures,
+                              FeatureRows itemFeatures) {
+    super(new FastByIDMap<Integer>(), new FastByIDMap<Integer>(), null, null);
+    this.file = file;
+    this.numFeatures = numFeatures;
+    this.numUsers = numUsers;
+    this.numItems = numItems;
+    this.userIDs = userIDs;
+    this.itemIDs = itemIDs;
+    this.userFeatures = userFeatures;
+    this.itemFeatures = itemFeatures;
+  }
+
+  /**
+   * Maps a snapshot file into memory.
+   *
+   * @throws IOException if the file cannot be read, or is not a snapshot of a supported version
+   */
+  public static MappedFactorization open(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      while (header.hasRemaining()) {
+        if (channel.read(header, header.position()) < 0) {
+          throw new IOException("Truncated factorization snapshot " + file);
+        }
+      }
+      header.flip();
+      if (header.getInt() != MAGIC) {
+        throw new IOException(file + " is not a factorization snapshot");
+      }
+      int version = header.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported factorization snapshot version " + version + " in " + file);
+      }
+      int numFeatures = header.getInt();
+      int numUsers = header.getInt();
+      int numItems = header.getInt();
+      if (numFeatures < 1 || numUsers < 0 || numItems < 0) {
+        throw new IOException("Corrupt factorization snapshot header in " + file);
+      }
+
+      long userIDsOffset = HEADER_SIZE;
+      long itemIDsOffset = userIDsOffset + 8L * numUsers;
+      long userFeaturesOffset = itemIDsOffset + 8L * numItems;
+      long itemFeaturesOffset = userFeaturesOffset + 4L * numUsers * numFeatures;
+      long length = itemFeaturesOffset + 4L * numItems * numFeatures;
+      if (channel.size() != length) {
+        throw new IOException("Expected " + length + " bytes but found " + channel.size() + " in " + file);
+      }
+
+      return new MappedFactorization(file,
+                                     numFeatures,
+                                     numUsers,
+                                     numItems,
+                                     mapIDs(channel, userIDsOffset, numUsers),
+                                     mapIDs(channel, itemIDsOffset, numItems),
+                                     new FeatureRows(channel, userFeaturesOffset, numUsers, numFeatures),
+                                     new FeatureRows(channel, itemFeaturesOffset, numItems, numFeatures));
+    } finally {
+      // Mappings stay valid after the channel is closed
+      Closeables.closeQuietly(raf);
+    }
+  }
+
+  private static LongBuffer mapIDs(FileChannel channel, long offset, int count) throws IOException {
+    long size = 8L * count;
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Too many IDs to map: " + count);
+    }
+    return channel.map(FileChannel.MapMode.READ_ONLY, offset, size).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+  }
+
+  /**
+   * Writes a factorization as a snapshot that can be opened with {@link #open(File)}. The snapshot is written to a
+   * temporary file next to the given one, then renamed over it, so that a process opening the file never sees a
+   * partly written snapshot, and processes that mapped the previous snapshot keep reading it.
+   */
+  public static void write(Factorization factorization, File file) throws IOException {
+    long[] sortedUserIDs = sortedIDs(factorization.getUserIDMappings(), factorization.numUsers());
+    long[] sortedItemIDs = sortedIDs(factorization.getItemIDMappings(), factorization.numItems());
+    int numFeatures = factorization.numFeatures();
+
+    File tempFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+    FileOutputStream out = new FileOutputStream(tempFile);
+    try {
+      FileChannel channel = out.getChannel();
+      ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(MAGIC);
+      buffer.putInt(VERSION);
+      buffer.putInt(numFeatures);
+      buffer.putInt(sortedUserIDs.length);
+      buffer.putInt(sortedItemIDs.length);
+      buffer.position(HEADER_SIZE);
+      for (long userID : sortedUserIDs) {
+        ensureRemaining(channel, buffer, 8);
+        buffer.putLong(userID);
+      }
+      for (long itemID : sortedItemIDs) {
+        ensureRemaining(channel, buffer, 8);
+        buffer.putLong(itemID);
+      }
+      for (long userID : sortedUserIDs) {
+        putFeatures(channel, buffer, factorization.getUserFeatures(userID), numFeatures);
+      }
+      for (long itemID : sortedItemIDs) {
+        putFeatures(channel, buffer, factorization.getItemFeatures(itemID), numFeatures);
+      }
+      flush(channel, buffer);
+      channel.force(false);
+    } catch (NoSuchUserException nsue) {
+      throw new IOException("Unable to persist factorization", nsue);
+    } catch (NoSuchItemException nsie) {
+      throw new IOException("Unable to persist factorization", nsie);
+    } finally {
+      Closeables.closeQuietly(out);
+    }
+
+    if (!tempFile.renameTo(file)) {
+      // Some platforms do not rename over an existing file
+      if (!file.delete() || !tempFile.renameTo(file)) {
+        throw new IOException("Unable to rename " + tempFile + " to " + file);
+      }
+    }
+  }
+
+  private static long[] sortedIDs(Iterable<Map.Entry<Long,Integer>> mappings, int count) {
+    long[] ids = new long[count];
+    int i = 0;
+    for (Map.Entry<Long,Integer> entry : mappings) {
+      ids[i++] = entry.getKey();
+    }
+    Arrays.sort(ids);
+    return ids;
+  }
+
+  private static void putFeatures(FileChannel channel, ByteBuffer buffer, double[] features, int numFeatures)
+    throws IOException {
+    Preconditions.checkArgument(features.length == numFeatures, "Inconsistent number of features");
+    for (double feature : features) {
+      ensureRemaining(channel, buffer, 4);
+      buffer.putFloat((float) feature);
+    }
+  }
+
+  private static void ensureRemaining(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+    if (buffer.remaining() < bytes) {
+      flush(channel, buffer);
+    }
+  }
+
+  private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /** @return the snapshot file this factorization was mapped from */
+  public File getFile() {
+    return file;
+  }
+
+  @Override
+  public double[] getUserFeatures(long userID) throws NoSuchUserException {
+    int row = find(userIDs, numUsers, userID);
+    if (row < 0) {
+      throw new NoSuchUserException(userID);
+    }
+    return userFeatures.getRow(row);
+  }
+
+  @Override
+  public double[] getItemFeatures(long itemID) throws NoSuchItemException {
+    int row = find(itemIDs, numItems, itemID);
+    if (row < 0) {
+      throw new NoSuchItemException(itemID);
+    }
+    return itemFeatures.getRow(row);
+  }
+
+  private static int find(LongBuffer ids, int count, long id) {
+    int low = 0;
+    int high = count - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      long middleID = ids.get(middle);
+      if (middleID < id) {
+        low = middle + 1;
+      } else if (middleID > id) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public long getItemIDAt(int position) {
+    return itemIDs.get(position);
+  }
+
+  @Override
+  public void scoreItems(double[] userFeatures, int from, int to, double[] scores) {
+    Preconditions.checkArgument(from >= 0 && from <= to && to <= numItems, "bad range");
+    Preconditions.checkArgument(scores.length >= to - from, "scores too short");
+    for (int position = from; position < to; position++) {
+      scores[position - from] = itemFeatures.dot(position, userFeatures);
+    }
+  }
+
+  @Override
+  public Iterable<Map.Entry<Long,Integer>> getUserIDMappings() {
+    return mappings(userIDs, numUsers);
+  }
+
+  @Override
+  public Iterable<Map.Entry<Long,Integer>> getItemIDMappings() {
+    return mappings(itemIDs, numItems);
+  }
+
+  private static Iterable<Map.Entry<Long,Integer>> mappings(final LongBuffer ids, final int count) {
+    return new Iterable<Map.Entry<Long,Integer>>() {
+      @Override
+      public Iterator<Map.Entry<Long,Integer>> iterator() {
+        return new AbstractIterator<Map.Entry<Long,Integer>>() {
+          private int row;
+          @Override
+          protected Map.Entry<Long,Integer> computeNext() {
+            if (row >= count) {
+              return endOfData();
+            }
+            Map.Entry<Long,Integer> entry = new AbstractMap.SimpleImmutableEntry<Long,Integer>(ids.get(row), row);
+            row++;
+            return entry;
+          }
+        };
+      }
+    };
+  }
+
+  @Override
+  public int numFeatures() {
+    return numFeatures;
+  }
+
+  @Override
+  public int numUsers() {
+    return numUsers;
+  }
+
+  @Override
+  public int numItems() {
+    return numItems;
+  }
+
+  /** Snapshots are compared by identity, since comparing them would read both files entirely. */
+  @Override
+  public boolean equals(Object o) {
+    return this == o;
+  }
+
+  @Override
+  public int hashCode() {
+    return System.identityHashCode(this);
+  }
+
+  @Override
+  public String toString() {
+    return "MappedFactorization[file:" + file + ", features:" + numFeatures + ", users:" + numUsers
+        + ", items:" + numItems + ']';
+  }
+
+  /** Rows of features mapped as several regions, as a single mapping cannot exceed 2GB. */
+  private static final class FeatureRows {
+
+    private final FloatBuffer[] regions;
+    private final int rowsPerRegion;
+    private final int numFeatures;
+
+    FeatureRows(FileChannel channel, long offset, int numRows, int numFeatures) throws IOException {
+      this.numFeatures = numFeatures;
+      long rowBytes = 4L * numFeatures;
+      rowsPerRegion = (int) Math.max(1L, MAX_MAPPED_BYTES / rowBytes);
+      int numRegions = (numRows + rowsPerRegion - 1) / rowsPerRegion;
+      regions = new FloatBuffer[numRegions];
+      for (int region = 0; region < numRegions; region++) {
+        long firstRow = (long) region * rowsPerRegion;
+        long rows = Math.min(rowsPerRegion, numRows - firstRow);
+        regions[region] = channel.map(FileChannel.MapMode.READ_ONLY, offset + firstRow * rowBytes, rows * rowBytes)
+            .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+      }
+    }
+
+    double[] getRow(int row) {
+      FloatBuffer region = regions[row / rowsPerRegion];
+      int base = (row % rowsPerRegion) * numFeatures;
+      double[] features = new double[numFeatures];
+      for (int feature = 0; feature < numFeatures; feature++) {
+        features[feature] = region.get(base + feature);
+      }
+      return features;
+    }
+
+    double dot(int row, double[] vector) {
+      FloatBuffer region = regions[row / rowsPerRegion];
+      int base = (row % rowsPerRegion) * numFeatures;
+      double sum = 0.0;
+      for (int feature = 0; feature < numFeatures; feature++) {
+        sum += vector[feature] * region.get(base + feature);
+      }
+      return sum;
+    }
+  }
+
+}
@@ -0,0 +1,72 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Provides a file-based persistent store in the snapshot format of {@link MappedFactorization}. Unlike
+ * {@link FilePersistenceStrategy}, loading does not read the whole file up front but maps it into memory, so that
+ * even a large factorization is available almost immediately and shares its pages with other processes.
+ * </p>
+ *
+ * <p>
+ * A snapshot is replaced atomically when persisted, so a factorization loaded earlier keeps working.
+ * </p>
+ */
+public class MappedFilePersistenceStrategy implements PersistenceStrategy {
+
+  private final File file;
+
+  private static final Logger log = LoggerFactory.getLogger(MappedFilePersistenceStrategy.class);
+
+  /**
+   * @param file the file to use for storage. If the file does not exist it will be created when required.
+   */
+  public MappedFilePersistenceStrategy(File file) {
+    this.file = Preconditions.checkNotNull(file);
+  }
+
+  @Override
+  public Factorization load() throws IOException {
+    if (!file.exists()) {
+      log.info("{} does not yet exist, no factorization found", file.getAbsolutePath());
+      return null;
+    }
+    log.info("Mapping factorization from {}...", file.getAbsolutePath());
+    return MappedFactorization.open(file);
+  }
+
+  @Override
+  public void maybePersist(Factorization factorization) throws IOException {
+    if (factorization instanceof MappedFactorization
+        && ((MappedFactorization) factorization).getFile().getAbsoluteFile().equals(file.getAbsoluteFile())) {
+      // Already stored here
+      return;
+    }
+    log.info("Writing factorization snapshot to {}...", file.getAbsolutePath());
+    MappedFactorization.write(factorization, file);
+  }
+
+}
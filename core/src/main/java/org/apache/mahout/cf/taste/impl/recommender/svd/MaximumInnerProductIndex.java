@@ -0,0 +1,34 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+/**
+ * An index over the item features of a {@link Factorization} that quickly finds items likely to have a high
+ * dot product with given user features, without scoring every item. Results are approximate: callers are
+ * expected to score the returned items exactly and keep the best ones.
+ */
+public interface MaximumInnerProductIndex {
+
+  /**
+   * @param userFeatures features of the user to find items for
+   * @param howMany number of top items the caller wants in the end
+   * @return IDs of items that are likely among the {@code howMany} highest scoring items, usually more than
+   *  {@code howMany} of them
+   */
+  long[] getCandidateItemIDs(double[] userFeatures, int howMany);
+
+}
@@ -0,0 +1,309 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.Random;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.common.RandomUtils;
+
+/**
+ * <p>
+ * A {@link MaximumInnerProductIndex} based on locality sensitive hashing with random hyperplanes.
+ * </p>
+ *
+ * <p>
+ * Item features are scaled by the largest item norm and get one extra coordinate, so that all of them have unit
+ * length; user features get a zero in that coordinate. On these vectors, a higher dot product means a smaller angle,
+ * which is what random hyperplanes detect: each of several tables hashes a vector to the signs of its projections on
+ * a few random directions, and items sharing a bucket with the user in some table become candidates. When the
+ * user's buckets hold too few items, neighbouring buckets are probed, starting with the bit whose projection was
+ * closest to zero. When they hold too many, the items sharing a bucket with the user in the most tables are kept.
+ * </p>
+ *
+ * <p>
+ * More tables and a larger candidate multiple raise recall and cost time; more hash bits make buckets smaller and
+ * lookups faster, at the expense of recall.
+ * </p>
+ */
+public final class RandomProjectionIndex implements MaximumInnerProductIndex {
+
+  /** IDs of the items, indexed by position */
+  private final long[] itemIDs;
+  private final int numTables;
+  private final int numHashBits;
+  private final int candidateMultiple;
+  /** random directions, numHashBits per table; the last coordinate applies to the extra item coordinate */
+  private final double[][] projections;
+  /** for each table, the start in {@link #bucketItems} of each bucket, plus the end of the last one */
+  private final int[][] bucketStarts;
+  /** for each table, item positions ordered by bucket */
+  private final int[][] bucketItems;
+  /** per-thread arrays over all items for {@link #getCandidateItemIDs(double[], int)}, so queries allocate none */
+  private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+    @Override
+    protected Scratch initialValue() {
+      return new Scratch(itemIDs.length);
+    }
+  };
+
+  /** Hash codes must fit into an int and the bucket arrays must stay reasonably small */
+  static final int MAX_HASH_BITS = 20;
+  /** Collision counts must fit into a byte; an item is in one bucket per table, so collides at most once per table */
+  static final int MAX_TABLES = 127;
+
+  /**
+   * @param factorization factorization whose items to index
+   * @param numTables number of hash tables
+   * @param numHashBits number of random directions per table; each table has 2^numHashBits buckets
+   * @param candidateMultiple how many candidates to return for each item requested
+   */
+  public RandomProjectionIndex(Factorization factorization, int numTables, int numHashBits, int candidateMultiple)
+    throws TasteException {
+    Preconditions.checkArgument(numTables >= 1 && numTables <= MAX_TABLES,
+        "numTables must be between 1 and " + MAX_TABLES);
+    Preconditions.checkArgument(numHashBits >= 1 && numHashBits <= MAX_HASH_BITS,
+        "numHashBits must be between 1 and " + MAX_HASH_BITS);
+    Preconditions.checkArgument(candidateMultiple >= 1, "candidateMultiple must be at least 1");
+    this.numTables = numTables;
+    this.numHashBits = numHashBits;
+    this.candidateMultiple = candidateMultiple;
+
+    int numItems = factorization.numItems();
+    int numFeatures = numItems == 0 ? 0 : factorization.numFeatures();
+    itemIDs = new long[numItems];
+    double[][] items = new double[numItems][];
+    double maxNorm = 0.0;
+    for (int position = 0; position < numItems; position++) {
+      itemIDs[position] = factorization.getItemIDAt(position);
+      items[position] = factorization.getItemFeatures(itemIDs[position]);
+      maxNorm = Math.max(maxNorm, norm(items[position]));
+    }
+    if (maxNorm == 0.0) {
+      maxNorm = 1.0;
+    }
+
+    Random random = RandomUtils.getRandom();
+    projections = new double[numTables * numHashBits][numFeatures + 1];
+    for (double[] projection : projections) {
+      for (int feature = 0; feature < projection.length; feature++) {
+        projection[feature] = random.nextGaussian();
+      }
+    }
+
+    int numBuckets = 1 << numHashBits;
+    bucketStarts = new int[numTables][];
+    bucketItems = new int[numTables][];
+    int[] hashes = new int[numItems];
+    for (int table = 0; table < numTables; table++) {
+      int[] starts = new int[numBuckets + 1];
+      for (int position = 0; position < numItems; position++) {
+        double[] item = items[position];
+        double scaledNorm = norm(item) / maxNorm;
+        double extra = Math.sqrt(Math.max(0.0, 1.0 - scaledNorm * scaledNorm));
+        int hash = 0;
+        for (int bit = 0; bit < numHashBits; bit++) {
+          double[] projection = projections[table * numHashBits + bit];
+          if (dot(item, projection) / maxNorm + extra * projection[numFeatures] > 0.0) {
+            hash |= 1 << bit;
+          }
+        }
+        hashes[position] = hash;
+        starts[hash + 1]++;
+      }
+      for (int bucket = 0; bucket < numBuckets; bucket++) {
+        starts[bucket + 1] += starts[bucket];
+      }
+      int[] next = new int[numBuckets];
+      System.arraycopy(starts, 0, next, 0, numBuckets);
+      int[] members = new int[numItems];
+      for (int position = 0; position < numItems; position++) {
+        members[next[hashes[position]]++] = position;
+      }
+      bucketStarts[table] = starts;
+      bucketItems[table] = members;
+    }
+  }
+
+  @Override
+  public long[] getCandidateItemIDs(double[] userFeatures, int howMany) {
+    int numItems = itemIDs.length;
+    long wanted = (long) howMany * candidateMultiple;
+    if (wanted >= numItems) {
+      return itemIDs.clone();
+    }
+
+    Scratch theScratch = scratch.get();
+    byte[] collisions = theScratch.collisions;
+    int[] touched = theScratch.touched;
+    int found;
+    try {
+      found = findCandidates(userFeatures, wanted, collisions, touched);
+    } catch (RuntimeException re) {
+      // Some collision counts may be left set; the next query on this thread gets fresh arrays
+      scratch.remove();
+      throw re;
+    }
+    long[] result = selectCandidates(wanted, collisions, touched, found);
+    // Leave the collision counts zeroed for the next query on this thread
+    for (int i = 0; i < found; i++) {
+      collisions[touched[i]] = 0;
+    }
+    return result;
+  }
+
+  /**
+   * Counts collisions with the user's buckets, probing neighbouring buckets while too few items are found.
+   *
+   * @return number of items found, whose positions are at the start of {@code touched}
+   */
+  private int findCandidates(double[] userFeatures, long wanted, byte[] collisions, int[] touched) {
+    int[] hashes = new int[numTables];
+    double[][] margins = new double[numTables][numHashBits];
+    int found = 0;
+    for (int table = 0; table < numTables; table++) {
+      int hash = 0;
+      for (int bit = 0; bit < numHashBits; bit++) {
+        // The user's extra coordinate is zero, so the last coordinate of the projection does not contribute
+        double projected = dot(userFeatures, projections[table * numHashBits + bit]);
+        if (projected > 0.0) {
+          hash |= 1 << bit;
+        }
+        margins[table][bit] = Math.abs(projected);
+      }
+      hashes[table] = hash;
+      found = addBucket(table, hash, collisions, touched, found);
+    }
+
+    if (found < wanted) {
+      int[][] probeOrder = new int[numTables][];
+      for (int table = 0; table < numTables; table++) {
+        probeOrder[table] = ascendingOrder(margins[table]);
+      }
+      for (int probe = 0; probe < numHashBits && found < wanted; probe++) {
+        for (int table = 0; table < numTables && found < wanted; table++) {
+          found = addBucket(table, hashes[table] ^ (1 << probeOrder[table][probe]), collisions, touched, found);
+        }
+      }
+    }
+
+    return found;
+  }
+
+  /**
+   * @return IDs of the found items, keeping those with the most collisions if more than wanted were found
+   */
+  private long[] selectCandidates(long wanted, byte[] collisions, int[] touched, int found) {
+    if (found <= wanted) {
+      long[] result = new long[found];
+      for (int i = 0; i < found; i++) {
+        result[i] = itemIDs[touched[i]];
+      }
+      return result;
+    }
+
+    // Too many: keep the items with the most collisions, found by counting items per number of collisions
+    int[] numWithCollisions = new int[numTables + 1];
+    for (int i = 0; i < found; i++) {
+      numWithCollisions[collisions[touched[i]] & 0xFF]++;
+    }
+    int threshold = numTables;
+    long atOrAbove = 0;
+    while (atOrAbove + numWithCollisions[threshold] < wanted) {
+      atOrAbove += numWithCollisions[threshold];
+      threshold--;
+    }
+    long[] result = new long[(int) wanted];
+    int numAbove = 0;
+    int numAtThreshold = (int) (wanted - atOrAbove);
+    for (int i = 0; i < found; i++) {
+      int position = touched[i];
+      int count = collisions[position] & 0xFF;
+      if (count > threshold) {
+        result[numAbove++] = itemIDs[position];
+      } else if (count == threshold && numAtThreshold > 0) {
+        result[(int) wanted - numAtThreshold--] = itemIDs[position];
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Counts a collision for each item of the bucket, and appends the items not seen before to {@code touched}.
+   *
+   * @return new number of items in {@code touched}
+   */
+  private int addBucket(int table, int hash, byte[] collisions, int[] touched, int found) {
+    int[] members = bucketItems[table];
+    int end = bucketStarts[table][hash + 1];
+    for (int i = bucketStarts[table][hash]; i < end; i++) {
+      int position = members[i];
+      if (collisions[position]++ == 0) {
+        touched[found++] = position;
+      }
+    }
+    return found;
+  }
+
+  /** Arrays over all item positions, reused by the queries of one thread */
+  private static final class Scratch {
+    /** number of buckets each item shared with the user; items found in more tables are more likely to be close */
+    private final byte[] collisions;
+    /** positions of the items found so far, in the order they were found */
+    private final int[] touched;
+
+    private Scratch(int numItems) {
+      collisions = new byte[numItems];
+      touched = new int[numItems];
+    }
+  }
+
+  /**
+   * @return indices of the values, ordered so that the values are ascending
+   */
+  private static int[] ascendingOrder(double[] values) {
+    int[] order = new int[values.length];
+    for (int i = 0; i < order.length; i++) {
+      int index = i;
+      int j = i;
+      while (j > 0 && values[order[j - 1]] > values[index]) {
+        order[j] = order[j - 1];
+        j--;
+      }
+      order[j] = index;
+    }
+    return order;
+  }
+
+  private static double dot(double[] features, double[] projection) {
+    double sum = 0.0;
+    for (int feature = 0; feature < features.length; feature++) {
+      sum += features[feature] * projection[feature];
+    }
+    return sum;
+  }
+
+  private static double norm(double[] features) {
+    double sum = 0.0;
+    for (double feature : features) {
+      sum += feature * feature;
+    }
+    return Math.sqrt(sum);
+  }
+
+}
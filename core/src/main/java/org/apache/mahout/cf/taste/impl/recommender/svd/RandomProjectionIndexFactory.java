@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.TasteException;
+
+/**
+ * Builds {@link RandomProjectionIndex}es. Unless given explicitly, the number of hash bits is chosen so that
+ * buckets hold about {@link #TARGET_BUCKET_SIZE} items.
+ */
+public final class RandomProjectionIndexFactory implements MaximumInnerProductIndexFactory {
+
+  static final int DEFAULT_NUM_TABLES = 32;
+  static final int DEFAULT_CANDIDATE_MULTIPLE = 100;
+  static final int TARGET_BUCKET_SIZE = 256;
+
+  private final int numTables;
+  /** number of hash bits, or 0 to derive it from the number of items */
+  private final int numHashBits;
+  private final int candidateMultiple;
+
+  public RandomProjectionIndexFactory() {
+    this(DEFAULT_NUM_TABLES, DEFAULT_CANDIDATE_MULTIPLE);
+  }
+
+  public RandomProjectionIndexFactory(int numTables, int candidateMultiple) {
+    this(numTables, 0, candidateMultiple);
+  }
+
+  /**
+   * @see RandomProjectionIndex#RandomProjectionIndex(Factorization, int, int, int)
+   */
+  public RandomProjectionIndexFactory(int numTables, int numHashBits, int candidateMultiple) {
+    Preconditions.checkArgument(numHashBits >= 0 && numHashBits <= RandomProjectionIndex.MAX_HASH_BITS,
+        "numHashBits must be between 0 and " + RandomProjectionIndex.MAX_HASH_BITS);
+    this.numTables = numTables;
+    this.numHashBits = numHashBits;
+    this.candidateMultiple = candidateMultiple;
+  }
+
+  @Override
+  public MaximumInnerProductIndex build(Factorization factorization) throws TasteException {
+    int bits = numHashBits;
+    if (bits == 0) {
+      bits = 1;
+      while (bits < RandomProjectionIndex.MAX_HASH_BITS
+          && (long) TARGET_BUCKET_SIZE << (bits + 1) <= factorization.numItems()) {
+        bits++;
+      }
+    }
+    return new RandomProjectionIndex(factorization, numTables, bits, candidateMultiple);
+  }
+
+}
@@ -23,10 +23,27 @@ import org.apache.mahout.cf.taste.impl.model.GenericPreference;
 final class SVDPreference extends GenericPreference {
 
   private double cache;
+  /** row of the user and item in the feature matrices, resolved once rather than on every training step */
+  private final int userIndex;
+  private final int itemIndex;
 
   SVDPreference(long userID, long itemID, float value, double cache) {
+    this(userID, itemID, value, cache, -1, -1);
+  }
+
+  SVDPreference(long userID, long itemID, float value, double cache, int userIndex, int itemIndex) {
     super(userID, itemID, value);
     setCache(cache);
+    this.userIndex = userIndex;
+    this.itemIndex = itemIndex;
+  }
+
+  int getUserIndex() {
+    return userIndex;
+  }
+
+  int getItemIndex() {
+    return itemIndex;
   }
 
   public double getCache() {
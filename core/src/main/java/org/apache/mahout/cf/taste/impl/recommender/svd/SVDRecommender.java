@@ -18,22 +18,36 @@
 package org.apache.mahout.cf.taste.impl.recommender.svd;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.model.GenericItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
 import org.apache.mahout.cf.taste.impl.recommender.AbstractRecommender;
+import org.apache.mahout.cf.taste.impl.recommender.AllUnknownItemsCandidateItemsStrategy;
+import org.apache.mahout.cf.taste.impl.recommender.TopIDHeap;
 import org.apache.mahout.cf.taste.impl.recommender.TopItems;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
 import org.apache.mahout.cf.taste.recommender.IDRescorer;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.als.AlternateLeastSquaresSolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,13 +57,26 @@ import org.slf4j.LoggerFactory;
  */
 public final class SVDRecommender extends AbstractRecommender {
 
-  private Factorization factorization;
+  /**
+   * the factorization, its item index and what was folded into it; replaced as a whole on refresh while
+   * recommendations may be running, so they always see an index built over the factorization they score with
+   */
+  private volatile FoldedInFeatures features;
   private final Factorizer factorizer;
   private final PersistenceStrategy persistenceStrategy;
+  private final MaximumInnerProductIndexFactory indexFactory;
+  /** regularization used to fold in users and items, or NaN if preference changes are not folded in */
+  private final double foldInLambda;
+  private final AlternateLeastSquaresSolver foldInSolver;
   private final RefreshHelper refreshHelper;
 
   private static final Logger log = LoggerFactory.getLogger(SVDRecommender.class);
 
+  /** Scoring all items is used when at least 1 in this many items is a candidate. */
+  private static final int DENSE_SCORING_MIN_CANDIDATE_FRACTION = 4;
+  /** Number of items scored at once when scoring all items. */
+  private static final int SCORING_BLOCK_SIZE = 256;
+
   public SVDRecommender(DataModel dataModel, Factorizer factorizer) throws TasteException {
     this(dataModel, factorizer, getDefaultCandidateItemsStrategy(), getDefaultPersistenceStrategy());
   }
@@ -91,9 +118,61 @@ public final class SVDRecommender extends AbstractRecommender {
    */
   public SVDRecommender(DataModel dataModel, Factorizer factorizer, CandidateItemsStrategy candidateItemsStrategy,
       PersistenceStrategy persistenceStrategy) throws TasteException {
+    this(dataModel, factorizer, candidateItemsStrategy, persistenceStrategy, null);
+  }
+
+  /**
+   * Create an SVDRecommender that fetches the items to score for a user from a {@link MaximumInnerProductIndex},
+   * rebuilt whenever the factorization is computed or loaded, instead of scoring every candidate item.
+   * Recommendations are then approximate: an item is only recommended if the index returns it and it is also a
+   * candidate item, so this works best with candidate strategies that consider most of the catalogue, such as the
+   * default one.
+   *
+   * @param dataModel
+   * @param factorizer
+   * @param candidateItemsStrategy
+   * @param persistenceStrategy
+   * @param indexFactory builds the index, or null to score all candidate items exactly
+   *
+   * @throws TasteException
+   */
+  public SVDRecommender(DataModel dataModel, Factorizer factorizer, CandidateItemsStrategy candidateItemsStrategy,
+      PersistenceStrategy persistenceStrategy, MaximumInnerProductIndexFactory indexFactory) throws TasteException {
+    this(dataModel, factorizer, candidateItemsStrategy, persistenceStrategy, indexFactory, Double.NaN);
+  }
+
+  /**
+   * Create an SVDRecommender that folds preference changes made through
+   * {@link #setPreference(long, long, float)} and {@link #removePreference(long, long)} into the current
+   * factorization right away, by solving the regularized least-squares problem of the changed user alone, and of
+   * the item too if the factorization does not know it yet. Folded in features are used until the next
+   * {@link #refresh(java.util.Collection) refresh} computes a new factorization, which then includes the changes.
+   * Folded in items are not returned by an index, and are only recommended when candidates are scored.
+   * If the data model does not support changing preferences, as with
+   * {@link org.apache.mahout.cf.taste.impl.model.GenericDataModel}, changes are kept by this recommender and used
+   * to fold in and recommend instead, but only until the next refresh, whose factorization does not include them.
+   *
+   * @param dataModel
+   * @param factorizer
+   * @param candidateItemsStrategy
+   * @param persistenceStrategy
+   * @param indexFactory builds the index, or null to score all candidate items exactly
+   * @param foldInLambda regularization of the least-squares problems, as with {@link ALSWRFactorizer}, or NaN to
+   *  not fold in preference changes
+   *
+   * @throws TasteException
+   */
+  public SVDRecommender(DataModel dataModel, Factorizer factorizer, CandidateItemsStrategy candidateItemsStrategy,
+      PersistenceStrategy persistenceStrategy, MaximumInnerProductIndexFactory indexFactory, double foldInLambda)
+    throws TasteException {
     super(dataModel, candidateItemsStrategy);
+    Preconditions.checkArgument(Double.isNaN(foldInLambda) || foldInLambda >= 0.0, "foldInLambda must be nonnegative");
     this.factorizer = Preconditions.checkNotNull(factorizer);
     this.persistenceStrategy = Preconditions.checkNotNull(persistenceStrategy);
+    this.indexFactory = indexFactory;
+    this.foldInLambda = foldInLambda;
+    foldInSolver = new AlternateLeastSquaresSolver();
+    Factorization factorization;
     try {
       factorization = persistenceStrategy.load();
     } catch (IOException e) {
@@ -102,6 +181,8 @@ public final class SVDRecommender extends AbstractRecommender {
     
     if (factorization == null) {
       train();
+    } else {
+      features = new FoldedInFeatures(factorization, buildIndex(factorization));
     }
     
     refreshHelper = new RefreshHelper(new Callable<Object>() {
@@ -120,54 +201,321 @@ public final class SVDRecommender extends AbstractRecommender {
   }
 
   private void train() throws TasteException {
-    factorization = factorizer.factorize();
+    Factorization newFactorization = factorizer.factorize();
+    features = new FoldedInFeatures(newFactorization, buildIndex(newFactorization));
     try {
-      persistenceStrategy.maybePersist(factorization);
+      persistenceStrategy.maybePersist(newFactorization);
     } catch (IOException e) {
       throw new TasteException("Error persisting factorization", e);
     }
   }
+
+  private MaximumInnerProductIndex buildIndex(Factorization theFactorization) throws TasteException {
+    if (indexFactory == null) {
+      return null;
+    }
+    log.info("Building item index over {} items", theFactorization.numItems());
+    return indexFactory.build(theFactorization);
+  }
   
   @Override
   public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) throws TasteException {
     Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
     log.debug("Recommending items for user ID '{}'", userID);
 
-    PreferenceArray preferencesFromUser = getDataModel().getPreferencesFromUser(userID);
-    FastIDSet possibleItemIDs = getAllOtherItems(userID, preferencesFromUser);
-
-    List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer,
-        new Estimator(userID));
+    FoldedInFeatures theFeatures = features;
+    List<RecommendedItem> topItems =
+        recommend(theFeatures, theFeatures.copyFoldedInItems(), userID, howMany, rescorer);
     log.debug("Recommendations are: {}", topItems);
 
     return topItems;
   }
 
   /**
-   * a preference is estimated by computing the dot-product of the user and item feature vectors
+   * Users in a batch are all scored against the factorization current when the batch started, even if it is
+   * refreshed meanwhile, and against the items folded in by then, which are copied once for the whole batch.
    */
   @Override
-  public float estimatePreference(long userID, long itemID) throws TasteException {
-    double[] userFeatures = factorization.getUserFeatures(userID);
-    double[] itemFeatures = factorization.getItemFeatures(itemID);
+  protected PerUserRecommender newPerUserRecommender(final int howMany, final IDRescorer rescorer) {
+    final FoldedInFeatures batchFeatures = features;
+    final FastByIDMap<double[]> batchFoldedInItems = batchFeatures.copyFoldedInItems();
+    return new PerUserRecommender() {
+      @Override
+      public List<RecommendedItem> recommend(long userID) throws TasteException {
+        return SVDRecommender.this.recommend(batchFeatures, batchFoldedInItems, userID, howMany, rescorer);
+      }
+    };
+  }
+
+  /**
+   * When the candidates are a large part of the catalogue, as with {@link AllUnknownItemsCandidateItemsStrategy},
+   * it is cheaper to score every item block by block over the dense item features, and skip non-candidates,
+   * than to look up each candidate's features. With an index, only the candidates it returns are scored.
+   *
+   * @param foldedInItems features of the items folded into the factorization, as copied from theFeatures
+   */
+  private List<RecommendedItem> recommend(FoldedInFeatures theFeatures,
+                                          FastByIDMap<double[]> foldedInItems,
+                                          long userID,
+                                          int howMany,
+                                          IDRescorer rescorer) throws TasteException {
+    PreferenceArray preferencesFromUser = getPreferencesFromUser(theFeatures, userID);
+    FastIDSet possibleItemIDs = getAllOtherItems(userID, preferencesFromUser);
+
+    double[] userFeatures = theFeatures.getUserFeatures(userID);
+    Factorization theFactorization = theFeatures.getFactorization();
+    MaximumInnerProductIndex theIndex = theFeatures.getIndex();
+    if (theIndex != null) {
+      // The user's own items tend to score high too, and are not candidates, so ask for that many more
+      long[] indexedItemIDs = theIndex.getCandidateItemIDs(userFeatures,
+          howMany + preferencesFromUser.length());
+      FastIDSet itemIDsToScore = new FastIDSet(indexedItemIDs.length);
+      for (long itemID : indexedItemIDs) {
+        if (possibleItemIDs.contains(itemID)) {
+          itemIDsToScore.add(itemID);
+        }
+      }
+      return TopItems.getTopItems(howMany, itemIDsToScore.iterator(), rescorer,
+          new Estimator(theFactorization, foldedInItems, userFeatures));
+    }
+
+    int numItems = theFactorization.numItems();
+    if ((long) possibleItemIDs.size() * DENSE_SCORING_MIN_CANDIDATE_FRACTION < numItems) {
+      return TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer,
+          new Estimator(theFactorization, foldedInItems, userFeatures));
+    }
+
+    boolean anyFoldedInItems = !foldedInItems.isEmpty();
+    TopIDHeap topItems = new TopIDHeap(howMany);
+    double[] scores = new double[SCORING_BLOCK_SIZE];
+    for (int from = 0; from < numItems; from += SCORING_BLOCK_SIZE) {
+      int to = Math.min(from + SCORING_BLOCK_SIZE, numItems);
+      theFactorization.scoreItems(userFeatures, from, to, scores);
+      for (int position = from; position < to; position++) {
+        long itemID = theFactorization.getItemIDAt(position);
+        if (possibleItemIDs.contains(itemID) && !(anyFoldedInItems && foldedInItems.containsKey(itemID))) {
+          offer(topItems, itemID, scores[position - from], rescorer);
+        }
+      }
+    }
+    // Folded in items are either not in the factorization, or have newer features than it
+    for (Map.Entry<Long,double[]> entry : foldedInItems.entrySet()) {
+      long itemID = entry.getKey();
+      if (possibleItemIDs.contains(itemID)) {
+        offer(topItems, itemID, dot(userFeatures, entry.getValue()), rescorer);
+      }
+    }
+    return TopItems.toRecommendedItems(topItems);
+  }
+
+  private static void offer(TopIDHeap topItems, long itemID, double score, IDRescorer rescorer) {
+    if (rescorer == null || !rescorer.isFiltered(itemID)) {
+      double roundedScore = (float) score;
+      double rescoredScore = rescorer == null ? roundedScore : rescorer.rescore(itemID, roundedScore);
+      topItems.offer(itemID, (float) rescoredScore);
+    }
+  }
+
+  private static double dot(double[] userFeatures, double[] itemFeatures) {
     double estimate = 0;
     for (int feature = 0; feature < userFeatures.length; feature++) {
       estimate += userFeatures[feature] * itemFeatures[feature];
     }
-    return (float) estimate;
+    return estimate;
+  }
+
+  /**
+   * a preference is estimated by computing the dot-product of the user and item feature vectors
+   */
+  @Override
+  public float estimatePreference(long userID, long itemID) throws TasteException {
+    FoldedInFeatures theFeatures = features;
+    return (float) dot(theFeatures.getUserFeatures(userID), theFeatures.getItemFeatures(itemID));
+  }
+
+  /**
+   * Sets the preference in the data model, then folds the change into the factorization if this recommender was
+   * created with a fold-in regularization. The change is then kept by this recommender if the data model does not
+   * support it.
+   */
+  @Override
+  public void setPreference(long userID, long itemID, float value) throws TasteException {
+    if (Double.isNaN(foldInLambda)) {
+      super.setPreference(userID, itemID, value);
+      return;
+    }
+    FoldedInFeatures theFeatures = features;
+    try {
+      super.setPreference(userID, itemID, value);
+    } catch (UnsupportedOperationException uoe) {
+      theFeatures.setChangedPreference(userID, itemID, value, getModelPreferencesFromUser(userID));
+    }
+    if (theFeatures.findItemFeatures(itemID) == null) {
+      foldInItem(theFeatures, itemID);
+    }
+    foldInUser(theFeatures, userID);
+  }
+
+  /**
+   * Removes the preference from the data model, then folds the change into the factorization if this recommender
+   * was created with a fold-in regularization. The change is then kept by this recommender if the data model does
+   * not support it.
+   */
+  @Override
+  public void removePreference(long userID, long itemID) throws TasteException {
+    if (Double.isNaN(foldInLambda)) {
+      super.removePreference(userID, itemID);
+      return;
+    }
+    FoldedInFeatures theFeatures = features;
+    try {
+      super.removePreference(userID, itemID);
+    } catch (UnsupportedOperationException uoe) {
+      theFeatures.removeChangedPreference(userID, itemID, getModelPreferencesFromUser(userID));
+    }
+    foldInUser(theFeatures, userID);
   }
 
-  private final class Estimator implements TopItems.Estimator<Long> {
+  /**
+   * Recomputes the features of a user from its current preferences in the data model and the item features,
+   * keeping them until the next factorization. Useful when preferences change without going through
+   * {@link #setPreference(long, long, float)}.
+   *
+   * @throws IllegalStateException if this recommender was not created with a fold-in regularization
+   */
+  public void foldInUser(long userID) throws TasteException {
+    Preconditions.checkState(!Double.isNaN(foldInLambda), "No fold-in regularization given");
+    foldInUser(features, userID);
+  }
 
-    private final long theUserID;
+  /**
+   * Recomputes the features of an item from its current preferences in the data model and the user features,
+   * keeping them until the next factorization.
+   *
+   * @throws IllegalStateException if this recommender was not created with a fold-in regularization
+   */
+  public void foldInItem(long itemID) throws TasteException {
+    Preconditions.checkState(!Double.isNaN(foldInLambda), "No fold-in regularization given");
+    foldInItem(features, itemID);
+  }
 
-    private Estimator(long theUserID) {
-      this.theUserID = theUserID;
+  /** Features folded in before are dropped once the user has no preferences with known items left. */
+  private void foldInUser(FoldedInFeatures theFeatures, long userID) throws TasteException {
+    PreferenceArray prefs;
+    try {
+      prefs = getPreferencesFromUser(theFeatures, userID);
+    } catch (NoSuchUserException nsue) {
+      theFeatures.removeUserFeatures(userID);
+      return;
+    }
+    double[] userFeatures = solve(theFeatures, prefs, true);
+    if (userFeatures == null) {
+      theFeatures.removeUserFeatures(userID);
+    } else {
+      theFeatures.setUserFeatures(userID, userFeatures);
+    }
+  }
+
+  private void foldInItem(FoldedInFeatures theFeatures, long itemID) throws TasteException {
+    PreferenceArray prefs = getPreferencesForItem(theFeatures, itemID);
+    if (prefs == null) {
+      return;
+    }
+    double[] itemFeatures = solve(theFeatures, prefs, false);
+    if (itemFeatures != null) {
+      theFeatures.setItemFeatures(itemID, itemFeatures);
+    }
+  }
+
+  /** @return the user's preferences in the data model, or none if the data model does not know the user */
+  private PreferenceArray getModelPreferencesFromUser(long userID) throws TasteException {
+    try {
+      return getDataModel().getPreferencesFromUser(userID);
+    } catch (NoSuchUserException nsue) {
+      return new GenericUserPreferenceArray(0);
+    }
+  }
+
+  /** @return the user's preferences, including changes the data model did not accept */
+  private PreferenceArray getPreferencesFromUser(FoldedInFeatures theFeatures, long userID) throws TasteException {
+    PreferenceArray changed = theFeatures.getChangedPreferences(userID);
+    return changed == null ? getDataModel().getPreferencesFromUser(userID) : changed;
+  }
+
+  /**
+   * @return the item's preferences, including changes the data model did not accept, or null if there are none
+   */
+  private PreferenceArray getPreferencesForItem(FoldedInFeatures theFeatures, long itemID) throws TasteException {
+    List<Preference> prefs = Lists.newArrayList();
+    try {
+      for (Preference pref : getDataModel().getPreferencesForItem(itemID)) {
+        if (theFeatures.getChangedPreferences(pref.getUserID()) == null) {
+          prefs.add(pref);
+        }
+      }
+    } catch (NoSuchItemException nsie) {
+      // only the changes then
+    }
+    for (Map.Entry<Long,PreferenceArray> entry : theFeatures.getChangedPreferences()) {
+      for (Preference pref : entry.getValue()) {
+        if (pref.getItemID() == itemID) {
+          prefs.add(pref);
+        }
+      }
+    }
+    return prefs.isEmpty() ? null : new GenericItemPreferenceArray(prefs);
+  }
+
+  /**
+   * Solves for the features of the user or item of the given preferences, holding the features of the other side
+   * fixed, as in one half-iteration of {@link ALSWRFactorizer}. Preferences for unknown users or items are ignored.
+   *
+   * @return the features, or null if none of the preferences is for a known user or item
+   */
+  private double[] solve(FoldedInFeatures theFeatures, PreferenceArray prefs, boolean forUser) {
+    int numFeatures = theFeatures.getFactorization().numFeatures();
+    List<Vector> featureVectors = Lists.newArrayListWithCapacity(prefs.length());
+    double[] ratings = new double[prefs.length()];
+    for (int i = 0; i < prefs.length(); i++) {
+      double[] otherFeatures = forUser
+          ? theFeatures.findItemFeatures(prefs.getItemID(i))
+          : theFeatures.findUserFeatures(prefs.getUserID(i));
+      if (otherFeatures != null) {
+        ratings[featureVectors.size()] = prefs.getValue(i);
+        featureVectors.add(new DenseVector(otherFeatures, true));
+      }
+    }
+    if (featureVectors.isEmpty()) {
+      return null;
+    }
+    Vector solution = foldInSolver.solve(featureVectors,
+        new DenseVector(Arrays.copyOf(ratings, featureVectors.size()), true), foldInLambda, numFeatures);
+    double[] result = new double[numFeatures];
+    for (int feature = 0; feature < numFeatures; feature++) {
+      result[feature] = solution.getQuick(feature);
+    }
+    return result;
+  }
+
+  private static final class Estimator implements TopItems.IDEstimator {
+
+    private final Factorization factorization;
+    private final FastByIDMap<double[]> foldedInItems;
+    private final double[] userFeatures;
+
+    private Estimator(Factorization factorization, FastByIDMap<double[]> foldedInItems, double[] userFeatures) {
+      this.factorization = factorization;
+      this.foldedInItems = foldedInItems;
+      this.userFeatures = userFeatures;
     }
 
     @Override
-    public double estimate(Long itemID) throws TasteException {
-      return estimatePreference(theUserID, itemID);
+    public double estimate(long itemID) throws TasteException {
+      double[] itemFeatures = foldedInItems.isEmpty() ? null : foldedInItems.get(itemID);
+      if (itemFeatures == null) {
+        itemFeatures = factorization.getItemFeatures(itemID);
+      }
+      return (float) dot(userFeatures, itemFeatures);
     }
   }
 
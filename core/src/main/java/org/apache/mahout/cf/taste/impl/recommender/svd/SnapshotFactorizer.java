@@ -0,0 +1,67 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A {@link Factorizer} that computes nothing, but opens the factorization snapshot most recently written to a file
+ * with {@link MappedFactorization#write(Factorization, File)}, typically by an offline training job.
+ * </p>
+ *
+ * <p>
+ * An {@link SVDRecommender} built on it serves the pretrained factorization, and swaps in the current snapshot
+ * each time it is refreshed, while recommendations already underway finish on the previous one. Use it with the
+ * default {@link NoPersistenceStrategy}, as the snapshot file already is the persistent store.
+ * </p>
+ */
+public final class SnapshotFactorizer implements Factorizer {
+
+  private final File file;
+
+  private static final Logger log = LoggerFactory.getLogger(SnapshotFactorizer.class);
+
+  public SnapshotFactorizer(File file) {
+    this.file = Preconditions.checkNotNull(file);
+  }
+
+  @Override
+  public Factorization factorize() throws TasteException {
+    log.info("Opening factorization snapshot {}...", file.getAbsolutePath());
+    try {
+      return MappedFactorization.open(file);
+    } catch (IOException ioe) {
+      throw new TasteException("Error opening factorization snapshot", ioe);
+    }
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // The snapshot is opened again by factorize()
+  }
+
+}
@@ -17,6 +17,7 @@
 
 package org.apache.mahout.cf.taste.impl.similarity;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.concurrent.Callable;
 
@@ -27,14 +28,14 @@ import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
-import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.cf.taste.similarity.BatchUserSimilarity;
 import org.apache.mahout.cf.taste.transforms.PreferenceTransform;
 import org.apache.mahout.cf.taste.transforms.SimilarityTransform;
 
 import com.google.common.base.Preconditions;
 
 /** Abstract superclass encapsulating functionality that is common to most implementations in this package. */
-abstract class AbstractSimilarity extends AbstractItemSimilarity implements UserSimilarity {
+abstract class AbstractSimilarity extends AbstractItemSimilarity implements BatchUserSimilarity {
 
   private PreferenceInferrer inferrer;
   private PreferenceTransform prefTransform;
@@ -132,54 +133,109 @@ abstract class AbstractSimilarity extends AbstractItemSimilarity implements User
   
   @Override
   public double userSimilarity(long userID1, long userID2) throws TasteException {
-    DataModel dataModel = getDataModel();
-    PreferenceArray xPrefs = dataModel.getPreferencesFromUser(userID1);
-    PreferenceArray yPrefs = dataModel.getPreferencesFromUser(userID2);
-    int xLength = xPrefs.length();
+    return userSimilarity(userVector(userID1), userID2);
+  }
+
+  /**
+   * <p>
+   * Reads the first user's preferences only once, and compares them with each of the others'.
+   * </p>
+   */
+  @Override
+  public double[] userSimilarities(long userID1, long[] userID2s) throws TasteException {
+    PreferenceVector xVector = userVector(userID1);
+    int length = userID2s.length;
+    double[] result = new double[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = userSimilarity(xVector, userID2s[i]);
+    }
+    return result;
+  }
+
+  @Override
+  public final double itemSimilarity(long itemID1, long itemID2) throws TasteException {
+    return itemSimilarity(itemVector(itemID1), itemID2);
+  }
+
+  /**
+   * <p>
+   * Reads the first item's preferences only once, and compares them with each of the others'.
+   * </p>
+   */
+  @Override
+  public double[] itemSimilarities(long itemID1, long[] itemID2s) throws TasteException {
+    PreferenceVector xVector = itemVector(itemID1);
+    int length = itemID2s.length;
+    double[] result = new double[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = itemSimilarity(xVector, itemID2s[i]);
+    }
+    return result;
+  }
+
+  private PreferenceVector userVector(long userID) throws TasteException {
+    PreferenceArray prefs = getDataModel().getPreferencesFromUser(userID);
+    int length = prefs.length();
+    long[] itemIDs = new long[length];
+    double[] values = new double[length];
+    for (int i = 0; i < length; i++) {
+      itemIDs[i] = prefs.getItemID(i);
+      values[i] = prefTransform == null ? prefs.getValue(i) : prefTransform.getTransformedValue(prefs.get(i));
+    }
+    return new PreferenceVector(userID, itemIDs, values);
+  }
+
+  private PreferenceVector itemVector(long itemID) throws TasteException {
+    PreferenceArray prefs = getDataModel().getPreferencesForItem(itemID);
+    int length = prefs.length();
+    long[] userIDs = new long[length];
+    double[] values = new double[length];
+    for (int i = 0; i < length; i++) {
+      userIDs[i] = prefs.getUserID(i);
+      values[i] = prefs.getValue(i);
+    }
+    return new PreferenceVector(itemID, userIDs, values);
+  }
+
+  private double userSimilarity(PreferenceVector xVector, long userID2) throws TasteException {
+    PreferenceArray yPrefs = getDataModel().getPreferencesFromUser(userID2);
+    long userID1 = xVector.getID();
+    long[] xIDs = xVector.getIDs();
+    double[] xValues = xVector.getValues();
+    int xLength = xIDs.length;
     int yLength = yPrefs.length();
     
     if (xLength == 0 || yLength == 0) {
       return Double.NaN;
     }
+
+    Sums sums = new Sums();
     
-    long xIndex = xPrefs.getItemID(0);
-    long yIndex = yPrefs.getItemID(0);
-    int xPrefIndex = 0;
-    int yPrefIndex = 0;
-    
-    double sumX = 0.0;
-    double sumX2 = 0.0;
-    double sumY = 0.0;
-    double sumY2 = 0.0;
-    double sumXY = 0.0;
-    double sumXYdiff2 = 0.0;
-    int count = 0;
-    
-    boolean hasInferrer = inferrer != null;
-    boolean hasPrefTransform = prefTransform != null;
-    
-    while (true) {
-      int compare = xIndex < yIndex ? -1 : xIndex > yIndex ? 1 : 0;
-      if (hasInferrer || compare == 0) {
+    if (inferrer == null) {
+      // Only items both users expressed a preference for count
+      intersect(xIDs, xValues, yPrefs, true, sums);
+    } else {
+      long xIndex = xIDs[0];
+      long yIndex = yPrefs.getItemID(0);
+      int xPrefIndex = 0;
+      int yPrefIndex = 0;
+      boolean hasPrefTransform = prefTransform != null;
+      while (true) {
+        int compare = xIndex < yIndex ? -1 : xIndex > yIndex ? 1 : 0;
         double x;
         double y;
         if (xIndex == yIndex) {
           // Both users expressed a preference for the item
-          if (hasPrefTransform) {
-            x = prefTransform.getTransformedValue(xPrefs.get(xPrefIndex));
-            y = prefTransform.getTransformedValue(yPrefs.get(yPrefIndex));
-          } else {
-            x = xPrefs.getValue(xPrefIndex);
-            y = yPrefs.getValue(yPrefIndex);
-          }
+          x = xValues[xPrefIndex];
+          y = hasPrefTransform
+              ? prefTransform.getTransformedValue(yPrefs.get(yPrefIndex))
+              : yPrefs.getValue(yPrefIndex);
         } else {
           // Only one user expressed a preference, but infer the other one's preference and tally
           // as if the other user expressed that preference
           if (compare < 0) {
             // X has a value; infer Y's
-            x = hasPrefTransform
-                ? prefTransform.getTransformedValue(xPrefs.get(xPrefIndex))
-                : xPrefs.getValue(xPrefIndex);
+            x = xValues[xPrefIndex];
             y = inferrer.inferPreference(userID2, xIndex);
           } else {
             // compare > 0
@@ -190,18 +246,9 @@ abstract class AbstractSimilarity extends AbstractItemSimilarity implements User
                 : yPrefs.getValue(yPrefIndex);
           }
         }
-        sumXY += x * y;
-        sumX += x;
-        sumX2 += x * x;
-        sumY += y;
-        sumY2 += y * y;
-        double diff = x - y;
-        sumXYdiff2 += diff * diff;
-        count++;
-      }
-      if (compare <= 0) {
-        if (++xPrefIndex >= xLength) {
-          if (hasInferrer) {
+        sums.add(x, y);
+        if (compare <= 0) {
+          if (++xPrefIndex >= xLength) {
             // Must count other Ys; pretend next X is far away
             if (yIndex == Long.MAX_VALUE) {
               // ... but stop if both are done!
@@ -209,15 +256,11 @@ abstract class AbstractSimilarity extends AbstractItemSimilarity implements User
             }
             xIndex = Long.MAX_VALUE;
           } else {
-            break;
+            xIndex = xIDs[xPrefIndex];
           }
-        } else {
-          xIndex = xPrefs.getItemID(xPrefIndex);
         }
-      }
-      if (compare >= 0) {
-        if (++yPrefIndex >= yLength) {
-          if (hasInferrer) {
+        if (compare >= 0) {
+          if (++yPrefIndex >= yLength) {
             // Must count other Xs; pretend next Y is far away            
             if (xIndex == Long.MAX_VALUE) {
               // ... but stop if both are done!
@@ -225,131 +268,117 @@ abstract class AbstractSimilarity extends AbstractItemSimilarity implements User
             }
             yIndex = Long.MAX_VALUE;
           } else {
-            break;
+            yIndex = yPrefs.getItemID(yPrefIndex);
           }
-        } else {
-          yIndex = yPrefs.getItemID(yPrefIndex);
         }
       }
     }
     
-    // "Center" the data. If my math is correct, this'll do it.
-    double result;
-    if (centerData) {
-      double meanX = sumX / count;
-      double meanY = sumY / count;
-      // double centeredSumXY = sumXY - meanY * sumX - meanX * sumY + n * meanX * meanY;
-      double centeredSumXY = sumXY - meanY * sumX;
-      // double centeredSumX2 = sumX2 - 2.0 * meanX * sumX + n * meanX * meanX;
-      double centeredSumX2 = sumX2 - meanX * sumX;
-      // double centeredSumY2 = sumY2 - 2.0 * meanY * sumY + n * meanY * meanY;
-      double centeredSumY2 = sumY2 - meanY * sumY;
-      result = computeResult(count, centeredSumXY, centeredSumX2, centeredSumY2, sumXYdiff2);
-    } else {
-      result = computeResult(count, sumXY, sumX2, sumY2, sumXYdiff2);
-    }
+    double result = computeResult(sums);
     
     if (similarityTransform != null) {
       result = similarityTransform.transformSimilarity(userID1, userID2, result);
     }
     
     if (!Double.isNaN(result)) {
-      result = normalizeWeightResult(result, count, cachedNumItems);
+      result = normalizeWeightResult(result, sums.count, cachedNumItems);
     }
     return result;
   }
   
-  @Override
-  public final double itemSimilarity(long itemID1, long itemID2) throws TasteException {
-    DataModel dataModel = getDataModel();
-    PreferenceArray xPrefs = dataModel.getPreferencesForItem(itemID1);
-    PreferenceArray yPrefs = dataModel.getPreferencesForItem(itemID2);
-    int xLength = xPrefs.length();
-    int yLength = yPrefs.length();
+  private double itemSimilarity(PreferenceVector xVector, long itemID2) throws TasteException {
+    PreferenceArray yPrefs = getDataModel().getPreferencesForItem(itemID2);
     
-    if (xLength == 0 || yLength == 0) {
+    if (xVector.getIDs().length == 0 || yPrefs.length() == 0) {
       return Double.NaN;
     }
     
-    long xIndex = xPrefs.getUserID(0);
-    long yIndex = yPrefs.getUserID(0);
-    int xPrefIndex = 0;
-    int yPrefIndex = 0;
-    
-    double sumX = 0.0;
-    double sumX2 = 0.0;
-    double sumY = 0.0;
-    double sumY2 = 0.0;
-    double sumXY = 0.0;
-    double sumXYdiff2 = 0.0;
-    int count = 0;
-    
     // No, pref inferrers and transforms don't appy here. I think.
+    Sums sums = new Sums();
+    intersect(xVector.getIDs(), xVector.getValues(), yPrefs, false, sums);
+
+    double result = computeResult(sums);
+    
+    if (similarityTransform != null) {
+      result = similarityTransform.transformSimilarity(xVector.getID(), itemID2, result);
+    }
     
+    if (!Double.isNaN(result)) {
+      result = normalizeWeightResult(result, sums.count, cachedNumUsers);
+    }
+    return result;
+  }
+
+  /**
+   * Tallies the values of the IDs in both X and Y, in increasing order of ID. When Y is much shorter than X,
+   * each of Y's IDs is binary-searched in X rather than walking all of X.
+   *
+   * @param byItemID whether the preference arrays are a user's, ordered by item ID, or an item's
+   */
+  private void intersect(long[] xIDs, double[] xValues, PreferenceArray yPrefs, boolean byItemID, Sums sums)
+    throws TasteException {
+    int xLength = xIDs.length;
+    int yLength = yPrefs.length();
+    boolean hasPrefTransform = byItemID && prefTransform != null;
+    if (yLength * (32 - Integer.numberOfLeadingZeros(xLength)) < xLength) {
+      int from = 0;
+      for (int yPrefIndex = 0; yPrefIndex < yLength && from < xLength; yPrefIndex++) {
+        long yIndex = byItemID ? yPrefs.getItemID(yPrefIndex) : yPrefs.getUserID(yPrefIndex);
+        int xPrefIndex = Arrays.binarySearch(xIDs, from, xLength, yIndex);
+        if (xPrefIndex >= 0) {
+          double y = hasPrefTransform
+              ? prefTransform.getTransformedValue(yPrefs.get(yPrefIndex))
+              : yPrefs.getValue(yPrefIndex);
+          sums.add(xValues[xPrefIndex], y);
+          from = xPrefIndex + 1;
+        } else {
+          from = -xPrefIndex - 1;
+        }
+      }
+      return;
+    }
+    long xIndex = xIDs[0];
+    long yIndex = byItemID ? yPrefs.getItemID(0) : yPrefs.getUserID(0);
+    int xPrefIndex = 0;
+    int yPrefIndex = 0;
     while (true) {
       int compare = xIndex < yIndex ? -1 : xIndex > yIndex ? 1 : 0;
       if (compare == 0) {
-        // Both users expressed a preference for the item
-        double x = xPrefs.getValue(xPrefIndex);
-        double y = yPrefs.getValue(yPrefIndex);
-        sumXY += x * y;
-        sumX += x;
-        sumX2 += x * x;
-        sumY += y;
-        sumY2 += y * y;
-        double diff = x - y;
-        sumXYdiff2 += diff * diff;
-        count++;
+        double y = hasPrefTransform
+            ? prefTransform.getTransformedValue(yPrefs.get(yPrefIndex))
+            : yPrefs.getValue(yPrefIndex);
+        sums.add(xValues[xPrefIndex], y);
       }
       if (compare <= 0) {
         if (++xPrefIndex == xLength) {
           break;
         }
-        xIndex = xPrefs.getUserID(xPrefIndex);
+        xIndex = xIDs[xPrefIndex];
       }
       if (compare >= 0) {
         if (++yPrefIndex == yLength) {
           break;
         }
-        yIndex = yPrefs.getUserID(yPrefIndex);
+        yIndex = byItemID ? yPrefs.getItemID(yPrefIndex) : yPrefs.getUserID(yPrefIndex);
       }
     }
+  }
 
-    double result;
+  private double computeResult(Sums sums) {
     if (centerData) {
-      // See comments above on these computations
-      double n = (double) count;
-      double meanX = sumX / n;
-      double meanY = sumY / n;
+      // "Center" the data. If my math is correct, this'll do it.
+      double n = (double) sums.count;
+      double meanX = sums.sumX / n;
+      double meanY = sums.sumY / n;
       // double centeredSumXY = sumXY - meanY * sumX - meanX * sumY + n * meanX * meanY;
-      double centeredSumXY = sumXY - meanY * sumX;
+      double centeredSumXY = sums.sumXY - meanY * sums.sumX;
       // double centeredSumX2 = sumX2 - 2.0 * meanX * sumX + n * meanX * meanX;
-      double centeredSumX2 = sumX2 - meanX * sumX;
+      double centeredSumX2 = sums.sumX2 - meanX * sums.sumX;
       // double centeredSumY2 = sumY2 - 2.0 * meanY * sumY + n * meanY * meanY;
-      double centeredSumY2 = sumY2 - meanY * sumY;
-      result = computeResult(count, centeredSumXY, centeredSumX2, centeredSumY2, sumXYdiff2);
-    } else {
-      result = computeResult(count, sumXY, sumX2, sumY2, sumXYdiff2);
-    }
-    
-    if (similarityTransform != null) {
-      result = similarityTransform.transformSimilarity(itemID1, itemID2, result);
-    }
-    
-    if (!Double.isNaN(result)) {
-      result = normalizeWeightResult(result, count, cachedNumUsers);
+      double centeredSumY2 = sums.sumY2 - meanY * sums.sumY;
+      return computeResult(sums.count, centeredSumXY, centeredSumX2, centeredSumY2, sums.sumXYdiff2);
     }
-    return result;
-  }
-
-  @Override
-  public double[] itemSimilarities(long itemID1, long[] itemID2s) throws TasteException {
-    int length = itemID2s.length;
-    double[] result = new double[length];
-    for (int i = 0; i < length; i++) {
-      result[i] = itemSimilarity(itemID1, itemID2s[i]);
-    }
-    return result;
+    return computeResult(sums.count, sums.sumXY, sums.sumX2, sums.sumY2, sums.sumXYdiff2);
   }
   
   final double normalizeWeightResult(double result, int count, int num) {
@@ -380,5 +409,54 @@ abstract class AbstractSimilarity extends AbstractItemSimilarity implements User
   public final String toString() {
     return this.getClass().getSimpleName() + "[dataModel:" + getDataModel() + ",inferrer:" + inferrer + ']';
   }
+
+  /** A user's or item's preferences, read out of the {@link DataModel} once to compare with many others. */
+  private static final class PreferenceVector {
+
+    private final long id;
+    private final long[] ids;
+    private final double[] values;
+
+    private PreferenceVector(long id, long[] ids, double[] values) {
+      this.id = id;
+      this.ids = ids;
+      this.values = values;
+    }
+
+    long getID() {
+      return id;
+    }
+
+    long[] getIDs() {
+      return ids;
+    }
+
+    double[] getValues() {
+      return values;
+    }
+  }
+
+  /** Running sums over the pairs of values compared so far. */
+  private static final class Sums {
+
+    private double sumX;
+    private double sumX2;
+    private double sumY;
+    private double sumY2;
+    private double sumXY;
+    private double sumXYdiff2;
+    private int count;
+
+    void add(double x, double y) {
+      sumXY += x * y;
+      sumX += x;
+      sumX2 += x * x;
+      sumY += y;
+      sumY2 += y * y;
+      double diff = x - y;
+      sumXYdiff2 += diff * diff;
+      count++;
+    }
+  }
   
 }
@@ -24,13 +24,13 @@ import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
-import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.cf.taste.similarity.BatchUserSimilarity;
 
 /**
  * Implementation of City Block distance (also known as Manhattan distance) - the absolute value of the difference of
  * each direction is summed.  The resulting unbounded distance is then mapped between 0 and 1.
  */
-public final class CityBlockSimilarity extends AbstractItemSimilarity implements UserSimilarity {
+public final class CityBlockSimilarity extends AbstractItemSimilarity implements BatchUserSimilarity {
 
   public CityBlockSimilarity(DataModel dataModel) {
     super(dataModel);
@@ -74,9 +74,21 @@ public final class CityBlockSimilarity extends AbstractItemSimilarity implements
 
   @Override
   public double userSimilarity(long userID1, long userID2) throws TasteException {
-    DataModel dataModel = getDataModel();
-    FastIDSet prefs1 = dataModel.getItemIDsFromUser(userID1);
-    FastIDSet prefs2 = dataModel.getItemIDsFromUser(userID2);
+    return doUserSimilarity(getDataModel().getItemIDsFromUser(userID1), userID2);
+  }
+
+  @Override
+  public double[] userSimilarities(long userID1, long[] userID2s) throws TasteException {
+    FastIDSet prefs1 = getDataModel().getItemIDsFromUser(userID1);
+    double[] distance = new double[userID2s.length];
+    for (int i = 0; i < userID2s.length; ++i) {
+      distance[i] = doUserSimilarity(prefs1, userID2s[i]);
+    }
+    return distance;
+  }
+
+  private double doUserSimilarity(FastIDSet prefs1, long userID2) throws TasteException {
+    FastIDSet prefs2 = getDataModel().getItemIDsFromUser(userID2);
     int prefs1Size = prefs1.size();
     int prefs2Size = prefs2.size();
     int intersectionSize = prefs1Size < prefs2Size ? prefs2.intersectionSize(prefs1) : prefs1.intersectionSize(prefs2);
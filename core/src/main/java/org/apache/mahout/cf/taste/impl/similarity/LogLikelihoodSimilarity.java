@@ -25,7 +25,7 @@ import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
-import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.cf.taste.similarity.BatchUserSimilarity;
 import org.apache.mahout.math.stats.LogLikelihood;
 
 /**
@@ -34,7 +34,7 @@ import org.apache.mahout.math.stats.LogLikelihood;
  * <a href="http://tdunning.blogspot.com/2008/03/surprise-and-coincidence.html">
  * http://tdunning.blogspot.com/2008/03/surprise-and-coincidence.html</a>.
  */
-public final class LogLikelihoodSimilarity extends AbstractItemSimilarity implements UserSimilarity {
+public final class LogLikelihoodSimilarity extends AbstractItemSimilarity implements BatchUserSimilarity {
 
   public LogLikelihoodSimilarity(DataModel dataModel) {
     super(dataModel);
@@ -50,9 +50,22 @@ public final class LogLikelihoodSimilarity extends AbstractItemSimilarity implem
   
   @Override
   public double userSimilarity(long userID1, long userID2) throws TasteException {
+    return doUserSimilarity(getDataModel().getItemIDsFromUser(userID1), userID2);
+  }
+
+  @Override
+  public double[] userSimilarities(long userID1, long[] userID2s) throws TasteException {
+    FastIDSet prefs1 = getDataModel().getItemIDsFromUser(userID1);
+    int length = userID2s.length;
+    double[] result = new double[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = doUserSimilarity(prefs1, userID2s[i]);
+    }
+    return result;
+  }
 
+  private double doUserSimilarity(FastIDSet prefs1, long userID2) throws TasteException {
     DataModel dataModel = getDataModel();
-    FastIDSet prefs1 = dataModel.getItemIDsFromUser(userID1);
     FastIDSet prefs2 = dataModel.getItemIDsFromUser(userID2);
     
     long prefs1Size = prefs1.size();
@@ -0,0 +1,333 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity.file;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * An {@link ItemSimilarity} holding, for each item, only its most similar items, in a pair of primitive arrays per
+ * item: the IDs of the similar items, sorted, and their similarities as {@code float}s. This takes 12 bytes per
+ * stored similarity, plus a fixed overhead of under 100 bytes per item, where {@link GenericItemSimilarity} takes
+ * about 100 bytes per pair, so that the top 100 neighbours of millions of items fit in memory.
+ * </p>
+ *
+ * <p>
+ * Items are found by hashing their IDs. {@link #itemSimilarity(long, long)} binary-searches the first item's
+ * row, then the second's, since either may have dropped the pair when keeping its top similarities; unknown pairs
+ * are {@link Double#NaN}. {@link #allSimilarItemIDs(long)} returns a row as is.
+ * </p>
+ *
+ * <p>
+ * Instances can be built from the text output of
+ * {@link org.apache.mahout.cf.taste.hadoop.similarity.item.ItemSimilarityJob}, and written with
+ * {@link CompactItemSimilarityWriter} in a binary format which {@link MemoryMappedItemSimilarity} maps
+ * instead of loading.
+ * </p>
+ */
+public final class CompactItemSimilarity implements ItemSimilarity {
+
+  private static final Logger log = LoggerFactory.getLogger(CompactItemSimilarity.class);
+
+  private static final long[] NO_IDS = new long[0];
+  private static final float[] NO_VALUES = new float[0];
+  /** Length a row starts with, before it grows towards the maximum number of similar items */
+  private static final int INITIAL_ROW_LENGTH = 8;
+
+  /** all item IDs, sorted */
+  private final long[] itemIDs;
+  /** each item's similar items */
+  private final FastByIDMap<Row> rows;
+  private final long numSimilarities;
+
+  /**
+   * Keeps the {@code maxSimilarItemsPerItem} highest similarities of each item. As in
+   * {@link GenericItemSimilarity}, similarities are symmetric, so each applies to both of its items, and the
+   * similarity of an item to itself is 1.0. {@link Double#NaN} similarities are skipped.
+   */
+  public CompactItemSimilarity(Iterable<GenericItemSimilarity.ItemItemSimilarity> similarities,
+                               int maxSimilarItemsPerItem) {
+    Preconditions.checkArgument(maxSimilarItemsPerItem > 0, "maxSimilarItemsPerItem must be positive");
+
+    // Each row is a bounded min-heap of the highest similarities while loading, then sorted by ID in place
+    rows = new FastByIDMap<Row>();
+    for (GenericItemSimilarity.ItemItemSimilarity similarity : similarities) {
+      long itemID1 = similarity.getItemID1();
+      long itemID2 = similarity.getItemID2();
+      double value = similarity.getValue();
+      if (itemID1 != itemID2 && !Double.isNaN(value)) {
+        row(itemID1).offer(itemID2, (float) value, maxSimilarItemsPerItem);
+        row(itemID2).offer(itemID1, (float) value, maxSimilarItemsPerItem);
+      }
+    }
+
+    itemIDs = new long[rows.size()];
+    LongPrimitiveIterator it = rows.keySetIterator();
+    for (int index = 0; index < itemIDs.length; index++) {
+      itemIDs[index] = it.nextLong();
+    }
+    Arrays.sort(itemIDs);
+    long total = 0;
+    for (long itemID : itemIDs) {
+      Row row = rows.get(itemID);
+      row.trim();
+      sortByID(row.ids, row.values, 0, row.size);
+      total += row.size;
+    }
+    numSimilarities = total;
+    log.info("Kept {} similarities for {} items", numSimilarities, itemIDs.length);
+  }
+
+  /**
+   * Reads the output of {@link org.apache.mahout.cf.taste.hadoop.similarity.item.ItemSimilarityJob}: either one
+   * file, or a directory of {@code part-*} files, with lines holding two item IDs and their similarity, separated by
+   * commas or tabs.
+   *
+   * @see #CompactItemSimilarity(Iterable, int)
+   */
+  public CompactItemSimilarity(File similaritiesFileOrDirectory, int maxSimilarItemsPerItem)
+    throws FileNotFoundException {
+    this(readSimilarities(similaritiesFileOrDirectory), maxSimilarItemsPerItem);
+  }
+
+  private static Iterable<GenericItemSimilarity.ItemItemSimilarity> readSimilarities(File fileOrDirectory)
+    throws FileNotFoundException {
+    if (!fileOrDirectory.exists()) {
+      throw new FileNotFoundException(fileOrDirectory.toString());
+    }
+    if (!fileOrDirectory.isDirectory()) {
+      return new FileItemItemSimilarityIterable(fileOrDirectory);
+    }
+    File[] files = fileOrDirectory.listFiles();
+    Arrays.sort(files);
+    List<Iterable<GenericItemSimilarity.ItemItemSimilarity>> parts = Lists.newArrayList();
+    for (File file : files) {
+      if (file.isFile() && file.getName().startsWith("part-")) {
+        parts.add(new FileItemItemSimilarityIterable(file));
+      }
+    }
+    return Iterables.concat(parts);
+  }
+
+  private Row row(long itemID) {
+    Row row = rows.get(itemID);
+    if (row == null) {
+      row = new Row();
+      rows.put(itemID, row);
+    }
+    return row;
+  }
+
+  /**
+   * Heap-sorts a range of IDs in ascending order, moving their values along.
+   */
+  private static void sortByID(long[] ids, float[] values, int from, int to) {
+    int length = to - from;
+    for (int root = length / 2 - 1; root >= 0; root--) {
+      siftDownByID(ids, values, from, root, length);
+    }
+    for (int end = length - 1; end > 0; end--) {
+      swap(ids, values, from, from + end);
+      siftDownByID(ids, values, from, 0, end);
+    }
+  }
+
+  private static void siftDownByID(long[] ids, float[] values, int from, int root, int length) {
+    int position = root;
+    while (true) {
+      int child = 2 * position + 1;
+      if (child >= length) {
+        return;
+      }
+      if (child + 1 < length && ids[from + child + 1] > ids[from + child]) {
+        child++;
+      }
+      if (ids[from + child] <= ids[from + position]) {
+        return;
+      }
+      swap(ids, values, from + position, from + child);
+      position = child;
+    }
+  }
+
+  private static void swap(long[] ids, float[] values, int i, int j) {
+    long id = ids[i];
+    ids[i] = ids[j];
+    ids[j] = id;
+    float value = values[i];
+    values[i] = values[j];
+    values[j] = value;
+  }
+
+  @Override
+  public double itemSimilarity(long itemID1, long itemID2) {
+    if (itemID1 == itemID2) {
+      return 1.0;
+    }
+    double similarity = findInRow(rows.get(itemID1), itemID2);
+    return Double.isNaN(similarity) ? findInRow(rows.get(itemID2), itemID1) : similarity;
+  }
+
+  @Override
+  public double[] itemSimilarities(long itemID1, long[] itemID2s) {
+    Row row1 = rows.get(itemID1);
+    int length = itemID2s.length;
+    double[] result = new double[length];
+    for (int i = 0; i < length; i++) {
+      long itemID2 = itemID2s[i];
+      if (itemID1 == itemID2) {
+        result[i] = 1.0;
+      } else {
+        double similarity = findInRow(row1, itemID2);
+        result[i] = Double.isNaN(similarity) ? findInRow(rows.get(itemID2), itemID1) : similarity;
+      }
+    }
+    return result;
+  }
+
+  private static double findInRow(Row row, long similarItemID) {
+    if (row == null) {
+      return Double.NaN;
+    }
+    int position = Arrays.binarySearch(row.ids, similarItemID);
+    return position < 0 ? Double.NaN : row.values[position];
+  }
+
+  /**
+   * @return IDs of the items kept as most similar to the given one, sorted; the array is shared, and must not be
+   *  modified
+   */
+  @Override
+  public long[] allSimilarItemIDs(long itemID) {
+    Row row = rows.get(itemID);
+    return row == null ? NO_IDS : row.ids;
+  }
+
+  int numItems() {
+    return itemIDs.length;
+  }
+
+  long numSimilarities() {
+    return numSimilarities;
+  }
+
+  long getItemID(int index) {
+    return itemIDs[index];
+  }
+
+  /** @return IDs of the items similar to the item at the given index, sorted */
+  long[] getSimilarItemIDs(int index) {
+    return rows.get(itemIDs[index]).ids;
+  }
+
+  /** @return similarities of the item at the given index, in the order of {@link #getSimilarItemIDs(int)} */
+  float[] getSimilarities(int index) {
+    return rows.get(itemIDs[index]).values;
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // Do nothing
+  }
+
+  @Override
+  public String toString() {
+    return "CompactItemSimilarity[items:" + itemIDs.length + ", similarities:" + numSimilarities + ']';
+  }
+
+  /** Similar items of one item: a min-heap by similarity while loading, then sorted by ID and trimmed. */
+  private static final class Row {
+
+    private long[] ids = NO_IDS;
+    private float[] values = NO_VALUES;
+    private int size;
+
+    /**
+     * Adds a similarity to the heap, growing it up to the given capacity, or else replacing the lowest similarity
+     * if the new one beats it.
+     */
+    void offer(long similarItemID, float value, int capacity) {
+      int position;
+      if (size < capacity) {
+        if (size == ids.length) {
+          int length = Math.min(capacity, Math.max(INITIAL_ROW_LENGTH, 2 * size));
+          ids = Arrays.copyOf(ids, length);
+          values = Arrays.copyOf(values, length);
+        }
+        // Sift up from the new leaf
+        position = size;
+        size++;
+        while (position > 0) {
+          int parent = (position - 1) >>> 1;
+          if (values[parent] <= value) {
+            break;
+          }
+          ids[position] = ids[parent];
+          values[position] = values[parent];
+          position = parent;
+        }
+      } else {
+        if (value <= values[0]) {
+          return;
+        }
+        // Replace the root and sift down
+        position = 0;
+        while (true) {
+          int child = 2 * position + 1;
+          if (child >= size) {
+            break;
+          }
+          if (child + 1 < size && values[child + 1] < values[child]) {
+            child++;
+          }
+          if (values[child] >= value) {
+            break;
+          }
+          ids[position] = ids[child];
+          values[position] = values[child];
+          position = child;
+        }
+      }
+      ids[position] = similarItemID;
+      values[position] = value;
+    }
+
+    void trim() {
+      if (size < ids.length) {
+        ids = Arrays.copyOf(ids, size);
+        values = Arrays.copyOf(values, size);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity.file;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.google.common.io.Closeables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Writes a {@link CompactItemSimilarity} in the binary format read by {@link MemoryMappedItemSimilarity}.
+ * Run from the command line, it converts the output of
+ * {@link org.apache.mahout.cf.taste.hadoop.similarity.item.ItemSimilarityJob}, keeping the given number of
+ * similar items per item:
+ * </p>
+ *
+ * <p>{@code CompactItemSimilarityWriter similarities/ 100 similarities.bin}</p>
+ */
+public final class CompactItemSimilarityWriter {
+
+  private static final Logger log = LoggerFactory.getLogger(CompactItemSimilarityWriter.class);
+
+  private CompactItemSimilarityWriter() { }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 3) {
+      System.err.println("Usage: CompactItemSimilarityWriter [input file or directory] [max similar items per item] "
+          + "[output file]");
+      return;
+    }
+    write(new CompactItemSimilarity(new File(args[0]), Integer.parseInt(args[1])), new File(args[2]));
+  }
+
+  public static void write(CompactItemSimilarity similarity, File outputFile) throws IOException {
+    int numItems = similarity.numItems();
+    long numSimilarities = similarity.numSimilarities();
+    log.info("Writing {} similarities of {} items to {}", new Object[] {numSimilarities, numItems, outputFile});
+
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile), 1 << 16));
+    try {
+      out.writeInt(MemoryMappedItemSimilarity.MAGIC);
+      out.writeInt(MemoryMappedItemSimilarity.VERSION);
+      out.writeLong(numItems);
+      out.writeLong(numSimilarities);
+      for (int index = 0; index < numItems; index++) {
+        out.writeLong(similarity.getItemID(index));
+      }
+      long rowStart = 0;
+      out.writeLong(rowStart);
+      for (int index = 0; index < numItems; index++) {
+        rowStart += similarity.getSimilarItemIDs(index).length;
+        out.writeLong(rowStart);
+      }
+      for (int index = 0; index < numItems; index++) {
+        for (long similarItemID : similarity.getSimilarItemIDs(index)) {
+          out.writeLong(similarItemID);
+        }
+      }
+      for (int index = 0; index < numItems; index++) {
+        for (float value : similarity.getSimilarities(index)) {
+          out.writeFloat(value);
+        }
+      }
+      // Pad to a multiple of 8 bytes
+      if ((numSimilarities & 1) != 0) {
+        out.writeInt(0);
+      }
+    } finally {
+      Closeables.close(out, false);
+    }
+  }
+
+}
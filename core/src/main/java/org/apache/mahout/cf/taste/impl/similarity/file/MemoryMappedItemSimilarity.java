@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity.file;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collection;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closeables;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.impl.common.PagedMappedBuffer;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A read-only {@link ItemSimilarity} over a file written by {@link CompactItemSimilarityWriter}, which is
+ * memory-mapped rather than loaded. It answers queries like {@link CompactItemSimilarity}, but the similarities
+ * live in the operating system's page cache instead of the heap, and opening costs little more than mapping.
+ * </p>
+ *
+ * <p>
+ * The file holds a header, the sorted IDs of all items, the start of each item's row, then for all rows together
+ * the IDs of similar items (sorted within each row) and their similarities as {@code float}s.
+ * </p>
+ *
+ * <p>
+ * {@link #refresh(Collection)} re-maps the file if it has been modified.
+ * </p>
+ */
+public final class MemoryMappedItemSimilarity implements ItemSimilarity {
+
+  private static final Logger log = LoggerFactory.getLogger(MemoryMappedItemSimilarity.class);
+
+  static final int MAGIC = 0x4d4d4953; // "MMIS"
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 24;
+
+  private static final long[] NO_IDS = new long[0];
+
+  private final File dataFile;
+  private volatile Layout layout;
+  private volatile long lastModified;
+
+  /**
+   * @param dataFile file written by {@link CompactItemSimilarityWriter}
+   * @throws FileNotFoundException if dataFile does not exist
+   * @throws IOException if the file can't be read or isn't in the expected format
+   */
+  public MemoryMappedItemSimilarity(File dataFile) throws IOException {
+    this.dataFile = Preconditions.checkNotNull(dataFile).getAbsoluteFile();
+    if (!dataFile.exists() || dataFile.isDirectory()) {
+      throw new FileNotFoundException(dataFile.toString());
+    }
+    open();
+  }
+
+  private void open() throws IOException {
+    log.info("Mapping {}", dataFile);
+    long newLastModified = dataFile.lastModified();
+    Layout newLayout = new Layout(dataFile);
+    layout = newLayout;
+    lastModified = newLastModified;
+    log.info("Mapped {} similarities of {} items", newLayout.numSimilarities, newLayout.numItems);
+  }
+
+  @Override
+  public double itemSimilarity(long itemID1, long itemID2) {
+    if (itemID1 == itemID2) {
+      return 1.0;
+    }
+    Layout theLayout = layout;
+    double similarity = theLayout.findInRow(theLayout.itemIndex(itemID1), itemID2);
+    return Double.isNaN(similarity) ? theLayout.findInRow(theLayout.itemIndex(itemID2), itemID1) : similarity;
+  }
+
+  @Override
+  public double[] itemSimilarities(long itemID1, long[] itemID2s) {
+    Layout theLayout = layout;
+    int index1 = theLayout.itemIndex(itemID1);
+    int length = itemID2s.length;
+    double[] result = new double[length];
+    for (int i = 0; i < length; i++) {
+      long itemID2 = itemID2s[i];
+      if (itemID1 == itemID2) {
+        result[i] = 1.0;
+      } else {
+        double similarity = theLayout.findInRow(index1, itemID2);
+        result[i] = Double.isNaN(similarity)
+            ? theLayout.findInRow(theLayout.itemIndex(itemID2), itemID1)
+            : similarity;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public long[] allSimilarItemIDs(long itemID) {
+    Layout theLayout = layout;
+    int index = theLayout.itemIndex(itemID);
+    if (index < 0) {
+      return NO_IDS;
+    }
+    long start = theLayout.rowStart(index);
+    long[] result = new long[(int) (theLayout.rowStart(index + 1) - start)];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = theLayout.buffer.getLong(theLayout.similarItemIDsStart + ((start + i) << 3));
+    }
+    return result;
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    if (dataFile.lastModified() != lastModified) {
+      try {
+        open();
+      } catch (IOException ioe) {
+        log.warn("Exception while re-mapping; keeping previous data", ioe);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "MemoryMappedItemSimilarity[dataFile:" + dataFile + ']';
+  }
+
+  private static final class Layout {
+
+    private final PagedMappedBuffer buffer;
+    private final int numItems;
+    private final long numSimilarities;
+    private final long itemIDsStart;
+    private final long rowStartsStart;
+    private final long similarItemIDsStart;
+    private final long similaritiesStart;
+
+    private Layout(File dataFile) throws IOException {
+      RandomAccessFile file = new RandomAccessFile(dataFile, "r");
+      try {
+        if (file.length() < HEADER_SIZE) {
+          throw new IOException("Not a memory-mapped item similarity file: " + dataFile);
+        }
+        buffer = new PagedMappedBuffer(file.getChannel(), 0L, file.length());
+      } finally {
+        // The mapping remains valid after the channel is closed
+        Closeables.closeQuietly(file);
+      }
+      if (buffer.getInt(0L) != MAGIC) {
+        throw new IOException("Not a memory-mapped item similarity file: " + dataFile);
+      }
+      int version = buffer.getInt(4L);
+      if (version != VERSION) {
+        throw new IOException("Unsupported version " + version + " in " + dataFile);
+      }
+      numItems = (int) buffer.getLong(8L);
+      numSimilarities = buffer.getLong(16L);
+
+      long position = HEADER_SIZE;
+      itemIDsStart = position;
+      position += 8L * numItems;
+      rowStartsStart = position;
+      position += 8L * (numItems + 1);
+      similarItemIDsStart = position;
+      position += 8L * numSimilarities;
+      similaritiesStart = position;
+      position += (4L * numSimilarities + 7L) & ~7L;
+      if (position != buffer.length()) {
+        throw new IOException("Expected " + position + " bytes but found " + buffer.length() + " in " + dataFile);
+      }
+    }
+
+    int itemIndex(long itemID) {
+      long index = buffer.binarySearchLong(itemIDsStart >>> 3, (itemIDsStart >>> 3) + numItems, itemID);
+      return index < 0L ? -1 : (int) (index - (itemIDsStart >>> 3));
+    }
+
+    long rowStart(int index) {
+      return buffer.getLong(rowStartsStart + ((long) index << 3));
+    }
+
+    double findInRow(int index, long similarItemID) {
+      if (index < 0) {
+        return Double.NaN;
+      }
+      long base = similarItemIDsStart >>> 3;
+      long position = buffer.binarySearchLong(base + rowStart(index), base + rowStart(index + 1), similarItemID);
+      return position < 0L ? Double.NaN : buffer.getFloat(similaritiesStart + ((position - base) << 2));
+    }
+
+  }
+
+}
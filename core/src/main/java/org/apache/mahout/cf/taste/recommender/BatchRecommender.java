@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.recommender;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+
+/**
+ * <p>
+ * A {@link Recommender} which can also compute recommendations for many users in one call, as a nightly batch
+ * job would. Implementations may spread the work over several threads and share state, such as looked-up
+ * similarities or features, between the users in a batch.
+ * </p>
+ */
+public interface BatchRecommender extends Recommender {
+
+  /**
+   * @param userIDs
+   *          users for which recommendations are to be computed
+   * @param howMany
+   *          desired number of recommendations per user
+   * @param rescorer
+   *          rescoring function to apply before final list of recommendations is determined; may be
+   *          {@code null}, and must be thread-safe
+   * @param sink
+   *          receives each user's recommendations as they are computed, in no particular order of user
+   * @throws TasteException
+   *           if an error occurs while computing recommendations for any user, in which case the batch is
+   *           abandoned
+   */
+  void recommend(LongPrimitiveIterator userIDs, int howMany, IDRescorer rescorer, RecommendationSink sink)
+    throws TasteException;
+
+}
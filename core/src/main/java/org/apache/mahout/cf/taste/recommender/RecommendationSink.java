@@ -0,0 +1,42 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.recommender;
+
+import java.util.List;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+
+/**
+ * <p>
+ * Receives the recommendations computed by a {@link BatchRecommender}. Implementations must be thread-safe,
+ * since recommendations for different users may be delivered concurrently.
+ * </p>
+ */
+public interface RecommendationSink {
+
+  /**
+   * @param userID
+   *          user for which recommendations were computed
+   * @param recommendations
+   *          recommendations for the user, ordered from most strongly recommend to least
+   * @throws TasteException
+   *           to abandon the batch
+   */
+  void recommended(long userID, List<RecommendedItem> recommendations) throws TasteException;
+
+}
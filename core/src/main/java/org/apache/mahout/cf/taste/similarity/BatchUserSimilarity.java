@@ -0,0 +1,45 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.similarity;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+
+/**
+ * <p>
+ * A {@link UserSimilarity} which can also compute the similarity of one user to many others in one call, like
+ * {@link ItemSimilarity#itemSimilarities(long, long[])}. Implementations can then read the first user's data just
+ * once. Callers should check for this interface and otherwise call {@link #userSimilarity(long, long)} for each
+ * other user.
+ * </p>
+ */
+public interface BatchUserSimilarity extends UserSimilarity {
+
+  /**
+   * <p>A bulk-get version of {@link #userSimilarity(long, long)}.</p>
+   *
+   * @param userID1 first user ID
+   * @param userID2s second user IDs to compute similarity with
+   * @return similarity between userID1 and other users
+   * @throws org.apache.mahout.cf.taste.common.NoSuchUserException
+   *  if any user is known to be non-existent in the data
+   * @throws TasteException if an error occurs while accessing the data
+   */
+  double[] userSimilarities(long userID1, long[] userID2s) throws TasteException;
+
+}
@@ -27,6 +27,7 @@ import org.apache.mahout.cf.taste.common.TasteException;
  * </p>
  * 
  * @see ItemSimilarity
+ * @see BatchUserSimilarity
  */
 public interface UserSimilarity extends Refreshable {
   
@@ -44,8 +45,6 @@ public interface UserSimilarity extends Refreshable {
    */
   double userSimilarity(long userID1, long userID2) throws TasteException;
 
-  // Should we implement userSimilarities() like ItemSimilarity.itemSimilarities()?
-  
   /**
    * <p>
    * Attaches a {@link PreferenceInferrer} to the  implementation.
@@ -23,6 +23,7 @@ import org.apache.hadoop.io.Writable;
 
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.File;
 import java.io.IOException;
 import java.util.Map;
 
@@ -102,11 +103,9 @@ public class MatrixWritable implements Writable {
 
   /** Reads a typed Matrix instance from the input stream */
   public static Matrix readMatrix(DataInput in) throws IOException {
-    int flags = in.readInt();
-    Preconditions.checkArgument(flags >> NUM_FLAGS == 0, "Unknown flags set: %d", Integer.toString(flags, 2));
+    int flags = readFlags(in);
     boolean dense = (flags & FLAG_DENSE) != 0;
     boolean sequential = (flags & FLAG_SEQUENTIAL) != 0;
-    boolean hasLabels = (flags & FLAG_LABELS) != 0;
 
     int rows = in.readInt();
     int columns = in.readInt();
@@ -117,7 +116,34 @@ public class MatrixWritable implements Writable {
     } else {
       r = new SparseRowMatrix(rows, columns, !sequential);
     }
+    readRows(in, flags, r);
+    return r;
+  }
 
+  /**
+   * Reads a Matrix from the input stream into a new memory-mapped file, one row at a time, so that the matrix
+   * need not fit on the heap. The result is dense however the matrix was written.
+   *
+   * @see OffHeapDenseMatrix#map(java.io.File, boolean)
+   */
+  public static OffHeapDenseMatrix readMatrix(DataInput in, File file) throws IOException {
+    int flags = readFlags(in);
+    int rows = in.readInt();
+    int columns = in.readInt();
+    OffHeapDenseMatrix r = OffHeapDenseMatrix.create(file, rows, columns);
+    readRows(in, flags, r);
+    return r;
+  }
+
+  private static int readFlags(DataInput in) throws IOException {
+    int flags = in.readInt();
+    Preconditions.checkArgument(flags >> NUM_FLAGS == 0, "Unknown flags set: %d", Integer.toString(flags, 2));
+    return flags;
+  }
+
+  private static void readRows(DataInput in, int flags, Matrix r) throws IOException {
+    boolean hasLabels = (flags & FLAG_LABELS) != 0;
+    int rows = r.rowSize();
     for (int row = 0; row < rows; row++) {
       r.viewRow(row).assign(VectorWritable.readVector(in));
     }
@@ -133,8 +159,6 @@ public class MatrixWritable implements Writable {
     		r.setRowLabelBindings(rowLabelBindings);
     	}
     }
-
-    return r;
   }
 
   /** Writes a typed Matrix instance to the output stream */
@@ -37,6 +37,7 @@ public final class VectorWritable extends Configured implements Writable {
 
   private Vector vector;
   private boolean writesLaxPrecision;
+  private boolean readsSinglePrecision;
 
   public VectorWritable() {
   }
@@ -70,6 +71,18 @@ public final class VectorWritable extends Configured implements Writable {
     this.writesLaxPrecision = writesLaxPrecision;
   }
 
+  /**
+   * @return true if {@link #readFields(DataInput)} reads values into single-precision vectors such as
+   *  {@link DenseFloatVector}, which take half the memory of their double counterparts
+   */
+  public boolean isReadsSinglePrecision() {
+    return readsSinglePrecision;
+  }
+
+  public void setReadsSinglePrecision(boolean readsSinglePrecision) {
+    this.readsSinglePrecision = readsSinglePrecision;
+  }
+
   @Override
   public void write(DataOutput out) throws IOException {
     writeVector(out, this.vector, this.writesLaxPrecision);
@@ -86,7 +99,13 @@ public final class VectorWritable extends Configured implements Writable {
 
     int size = Varint.readUnsignedVarInt(in);
     Vector v;
-    if (dense) {
+    if (dense && readsSinglePrecision) {
+      float[] values = new float[size];
+      for (int i = 0; i < size; i++) {
+        values[i] = laxPrecision ? in.readFloat() : (float) in.readDouble();
+      }
+      v = new DenseFloatVector(values, true);
+    } else if (dense) {
       double[] values = new double[size];
       for (int i = 0; i < size; i++) {
         values[i] = laxPrecision ? in.readFloat() : in.readDouble();
@@ -94,9 +113,15 @@ public final class VectorWritable extends Configured implements Writable {
       v = new DenseVector(values);
     } else {
       int numNonDefaultElements = Varint.readUnsignedVarInt(in);
-      v = sequential
-          ? new SequentialAccessSparseVector(size, numNonDefaultElements)
-          : new RandomAccessSparseVector(size, numNonDefaultElements);
+      if (readsSinglePrecision) {
+        v = sequential
+            ? new SequentialAccessSparseFloatVector(size, numNonDefaultElements)
+            : new RandomAccessSparseFloatVector(size, numNonDefaultElements);
+      } else {
+        v = sequential
+            ? new SequentialAccessSparseVector(size, numNonDefaultElements)
+            : new RandomAccessSparseVector(size, numNonDefaultElements);
+      }
       if (sequential) {
         int lastIndex = 0;
         for (int i = 0; i < numNonDefaultElements; i++) {
@@ -126,10 +151,15 @@ public final class VectorWritable extends Configured implements Writable {
     writeVector(out, vector, false);
   }
 
+  /**
+   * Write the vector to the output, encoding values as floats if <code>laxPrecision</code> is set or the vector
+   * only holds single-precision values anyway.
+   */
   public static void writeVector(DataOutput out, Vector vector, boolean laxPrecision) throws IOException {
     boolean dense = vector.isDense();
     boolean sequential = vector.isSequentialAccess();
     boolean named = vector instanceof NamedVector;
+    laxPrecision |= isSinglePrecision(named ? ((NamedVector) vector).getDelegate() : vector);
 
     out.writeByte((dense ? FLAG_DENSE : 0)
         | (sequential ? FLAG_SEQUENTIAL : 0)
@@ -180,6 +210,12 @@ public final class VectorWritable extends Configured implements Writable {
     }
   }
 
+  private static boolean isSinglePrecision(Vector vector) {
+    return vector instanceof DenseFloatVector
+        || vector instanceof SequentialAccessSparseFloatVector
+        || vector instanceof RandomAccessSparseFloatVector;
+  }
+
   public static Vector readVector(DataInput in) throws IOException {
     VectorWritable v = new VectorWritable();
     v.readFields(in);
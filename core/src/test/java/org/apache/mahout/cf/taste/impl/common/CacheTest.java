@@ -22,7 +22,17 @@ import org.apache.mahout.cf.taste.impl.TasteTestCase;
 import org.apache.mahout.common.RandomUtils;
 import org.junit.Test;
 
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
 
 public final class CacheTest extends TasteTestCase {
 
@@ -52,6 +62,104 @@ public final class CacheTest extends TasteTestCase {
     }
   }
   
+  @Test
+  public void testMaxSizeAndCounters() throws TasteException {
+    Cache<Object,Object> cache = new Cache<Object,Object>(new IdentityRetriever(), 100);
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i, cache.get(i));
+    }
+    assertTrue(cache.size() <= 100);
+    assertEquals(1000, cache.getMissCount());
+    assertEquals(1000, cache.getLoadCount());
+    assertEquals(1000, cache.size() + cache.getEvictionCount());
+    assertEquals(0, cache.getHitCount());
+    assertEquals(999, cache.get(999));
+    assertEquals(1, cache.getHitCount());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEvicted() throws TasteException {
+    CountingRetriever retriever = new CountingRetriever(null);
+    Cache<Object,Object> cache = new Cache<Object,Object>(retriever, 1);
+    cache.get("a");
+    cache.get("b");
+    cache.get("a");
+    assertEquals(3, retriever.count.get());
+  }
+
+  @Test
+  public void testNullValue() throws TasteException {
+    Cache<Object,Object> cache = new Cache<Object,Object>(new Retriever<Object,Object>() {
+      @Override
+      public Object get(Object key) {
+        return null;
+      }
+    });
+    assertNull(cache.get(1));
+    assertNull(cache.get(1));
+    assertEquals(1, cache.getHitCount());
+  }
+
+  @Test
+  public void testExpiry() throws Exception {
+    CountingRetriever retriever = new CountingRetriever(null);
+    Cache<Object,Object> cache = new Cache<Object,Object>(retriever, 10, 1, TimeUnit.MILLISECONDS);
+    cache.get(1);
+    Thread.sleep(10L);
+    cache.get(1);
+    assertEquals(2, retriever.count.get());
+  }
+
+  @Test
+  public void testConcurrentMissesLoadOnce() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    final CountingRetriever retriever = new CountingRetriever(release);
+    final Cache<Object,Object> cache = new Cache<Object,Object>(retriever, 1000);
+    int numThreads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    List<Future<Object>> futures = Lists.newArrayList();
+    for (int i = 0; i < numThreads; i++) {
+      futures.add(executor.submit(new Callable<Object>() {
+        @Override
+        public Object call() throws TasteException {
+          return cache.get("key");
+        }
+      }));
+    }
+    // Let all threads arrive at the cache before the single load completes
+    Thread.sleep(100L);
+    release.countDown();
+    for (Future<Object> future : futures) {
+      assertEquals("key", future.get());
+    }
+    executor.shutdown();
+    assertEquals(1, retriever.count.get());
+    assertEquals(1, cache.getLoadCount());
+  }
+
+  private static final class CountingRetriever implements Retriever<Object,Object> {
+
+    private final AtomicInteger count = new AtomicInteger();
+    private final CountDownLatch release;
+
+    private CountingRetriever(CountDownLatch release) {
+      this.release = release;
+    }
+
+    @Override
+    public Object get(Object key) throws TasteException {
+      count.incrementAndGet();
+      if (release != null) {
+        try {
+          release.await();
+        } catch (InterruptedException ie) {
+          throw new TasteException(ie);
+        }
+      }
+      return key;
+    }
+  }
+
   private static class IdentityRetriever implements Retriever<Object,Object> {
     @Override
     public Object get(Object key) throws TasteException {
@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+public final class IndexBitmapTest extends TasteTestCase {
+
+  @Test
+  public void testEmpty() {
+    IndexBitmap bitmap = IndexBitmap.fromSortedIndices(new int[0], 0);
+    assertTrue(bitmap.isEmpty());
+    assertFalse(bitmap.contains(0));
+    assertEquals(0, bitmap.toArray().length);
+    assertEquals(0, bitmap.intersectionSize(bitmap));
+  }
+
+  @Test
+  public void testContains() {
+    int[] indices = {0, 5, 65535, 65536, 1000000, Integer.MAX_VALUE};
+    IndexBitmap bitmap = IndexBitmap.fromSortedIndices(indices, indices.length);
+    assertEquals(indices.length, bitmap.size());
+    for (int index : indices) {
+      assertTrue(bitmap.contains(index));
+    }
+    assertFalse(bitmap.contains(1));
+    assertFalse(bitmap.contains(65537));
+    assertFalse(bitmap.contains(-1));
+    assertTrue(Arrays.equals(indices, bitmap.toArray()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnsorted() {
+    IndexBitmap.fromSortedIndices(new int[] {3, 2}, 2);
+  }
+
+  @Test
+  public void testIntersectionSize() {
+    Random random = RandomUtils.getRandom();
+    // densities giving array-only, bitmap-only and mixed groups, and very uneven array lengths
+    double[] densities = {0.0001, 0.002, 0.05, 0.3};
+    for (double density1 : densities) {
+      for (double density2 : densities) {
+        FastIDSet set1 = new FastIDSet();
+        FastIDSet set2 = new FastIDSet();
+        IndexBitmap bitmap1 = randomBitmap(random, density1, set1);
+        IndexBitmap bitmap2 = randomBitmap(random, density2, set2);
+        int expected = set1.intersectionSize(set2);
+        assertEquals(expected, bitmap1.intersectionSize(bitmap2));
+        assertEquals(expected, bitmap2.intersectionSize(bitmap1));
+      }
+    }
+  }
+
+  @Test
+  public void testToArray() {
+    Random random = RandomUtils.getRandom();
+    FastIDSet set = new FastIDSet();
+    IndexBitmap bitmap = randomBitmap(random, 0.2, set);
+    int[] indices = bitmap.toArray();
+    assertEquals(set.size(), indices.length);
+    for (int i = 0; i < indices.length; i++) {
+      assertTrue(set.contains(indices[i]));
+      assertTrue(i == 0 || indices[i] > indices[i - 1]);
+    }
+  }
+
+  private static IndexBitmap randomBitmap(Random random, double density, FastIDSet set) {
+    int[] indices = new int[300000];
+    int length = 0;
+    for (int index = 0; index < indices.length; index++) {
+      if (random.nextDouble() < density) {
+        indices[length++] = index;
+        set.add(index);
+      }
+    }
+    return IndexBitmap.fromSortedIndices(indices, length);
+  }
+
+}
@@ -0,0 +1,74 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.IRStatistics;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.eval.RecommenderIRStatsEvaluator;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.recommender.slopeone.SlopeOneRecommender;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.junit.Test;
+
+public final class MaskingRecommenderIRStatsEvaluatorTest extends TasteTestCase {
+
+  private static final RecommenderBuilder SLOPE_ONE_BUILDER = new RecommenderBuilder() {
+    @Override
+    public Recommender buildRecommender(DataModel dataModel) throws TasteException {
+      return new SlopeOneRecommender(dataModel);
+    }
+  };
+
+  @Test
+  public void testEvaluate() throws Exception {
+    DataModel model = getDataModel();
+    RecommenderIRStatsEvaluator evaluator = new MaskingRecommenderIRStatsEvaluator(2);
+    IRStatistics stats = evaluator.evaluate(SLOPE_ONE_BUILDER, null, model, null, 1, 0.2, 1.0);
+    assertNotNull(stats);
+    assertEquals(0.75, stats.getPrecision(), EPSILON);
+    assertEquals(0.75, stats.getRecall(), EPSILON);
+    assertEquals(0.75, stats.getF1Measure(), EPSILON);
+    assertEquals(0.75, stats.getNormalizedDiscountedCumulativeGain(), EPSILON);
+  }
+
+  @Test
+  public void testSameAsGeneric() throws Exception {
+    DataModel model = getDataModel(
+        new long[] {1, 2, 3, 4, 5, 6},
+        new Double[][] {
+            {0.1, 0.3, 0.9, null, 0.5},
+            {0.2, 0.3, 0.3, 0.6, null, 0.1},
+            {0.4, 0.3, 0.5, null, 0.9, 0.2},
+            {0.7, 0.3, 0.8, 0.1, 0.4},
+            {null, 0.6, 0.2, 0.8, 0.3, 0.7},
+            {0.5, null, 0.1, 0.9, 0.6, 0.4},
+        });
+    IRStatistics expected = new GenericRecommenderIRStatsEvaluator().evaluate(
+        SLOPE_ONE_BUILDER, null, model, null, 2, GenericRecommenderIRStatsEvaluator.CHOOSE_THRESHOLD, 1.0);
+    IRStatistics stats = new MaskingRecommenderIRStatsEvaluator(3).evaluate(
+        SLOPE_ONE_BUILDER, null, model, null, 2, GenericRecommenderIRStatsEvaluator.CHOOSE_THRESHOLD, 1.0);
+    assertEquals(expected.getPrecision(), stats.getPrecision(), EPSILON);
+    assertEquals(expected.getRecall(), stats.getRecall(), EPSILON);
+    assertEquals(expected.getFallOut(), stats.getFallOut(), EPSILON);
+    assertEquals(expected.getNormalizedDiscountedCumulativeGain(),
+                 stats.getNormalizedDiscountedCumulativeGain(), EPSILON);
+  }
+
+}
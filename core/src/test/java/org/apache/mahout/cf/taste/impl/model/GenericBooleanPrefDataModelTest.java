@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Test;
+
+/**
+ * Tests {@link GenericBooleanPrefDataModel}.
+ */
+public final class GenericBooleanPrefDataModelTest extends TasteTestCase {
+
+  private static GenericBooleanPrefDataModel getBooleanDataModel() throws Exception {
+    DataModel dataModel = getDataModel(
+        new long[] {7, 3, 5},
+        new Double[][] {
+            {1.0, 1.0, null, 1.0},
+            {1.0, null, 1.0},
+            {null, 1.0, 1.0, 1.0},
+        });
+    return new GenericBooleanPrefDataModel(GenericBooleanPrefDataModel.toDataMap(dataModel));
+  }
+
+  @Test
+  public void testItemPreferences() throws Exception {
+    GenericBooleanPrefDataModel model = getBooleanDataModel();
+    assertEquals(3, model.getNumUsers());
+    assertEquals(4, model.getNumItems());
+
+    PreferenceArray prefs = model.getPreferencesForItem(1L);
+    assertEquals(2, prefs.length());
+    assertEquals(5L, prefs.getUserID(0));
+    assertEquals(7L, prefs.getUserID(1));
+
+    assertEquals(2, model.getNumUsersWithPreferenceFor(0L));
+    assertEquals(0, model.getNumUsersWithPreferenceFor(9L));
+    assertEquals(1, model.getNumUsersWithPreferenceFor(0L, 1L));
+    assertEquals(2, model.getNumUsersWithPreferenceFor(1L, 3L));
+    assertEquals(0, model.getNumUsersWithPreferenceFor(1L, 9L));
+  }
+
+  @Test
+  public void testRawItemData() throws Exception {
+    FastByIDMap<FastIDSet> itemData = getBooleanDataModel().getRawItemData();
+    assertEquals(4, itemData.size());
+    FastIDSet users = itemData.get(2L);
+    assertEquals(2, users.size());
+    assertTrue(users.contains(3L));
+    assertTrue(users.contains(5L));
+  }
+
+}
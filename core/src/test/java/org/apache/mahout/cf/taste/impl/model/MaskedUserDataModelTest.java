@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Test;
+
+/**
+ * Tests {@link MaskedUserDataModel}.
+ */
+public final class MaskedUserDataModelTest extends TasteTestCase {
+
+  /** item 3 is only preferred by user 1 */
+  private static DataModel getBaseModel() {
+    return getDataModel(
+        new long[] {1, 2, 3},
+        new Double[][] {
+            {0.1, 0.2, 0.3, 0.4},
+            {0.5, 0.6, 0.7},
+            {null, 0.8, 0.9},
+        });
+  }
+
+  @Test
+  public void testMaskedPreferences() throws Exception {
+    DataModel base = getBaseModel();
+    FastIDSet masked = new FastIDSet();
+    masked.add(1L);
+    masked.add(3L);
+    DataModel model = new MaskedUserDataModel(base, 1L, masked);
+
+    PreferenceArray prefs = model.getPreferencesFromUser(1L);
+    assertEquals(2, prefs.length());
+    assertEquals(0L, prefs.getItemID(0));
+    assertEquals(2L, prefs.getItemID(1));
+    assertEquals(2, model.getItemIDsFromUser(1L).size());
+    assertNull(model.getPreferenceValue(1L, 1L));
+    assertEquals(0.3f, model.getPreferenceValue(1L, 2L), EPSILON);
+    assertEquals(0.6f, model.getPreferenceValue(2L, 1L), EPSILON);
+
+    PreferenceArray itemPrefs = model.getPreferencesForItem(1L);
+    assertEquals(2, itemPrefs.length());
+    assertEquals(2L, itemPrefs.getUserID(0));
+    assertEquals(3L, itemPrefs.getUserID(1));
+    assertEquals(2, model.getNumUsersWithPreferenceFor(1L));
+    assertEquals(3, model.getNumUsersWithPreferenceFor(2L));
+    assertEquals(2, model.getNumUsersWithPreferenceFor(1L, 2L));
+    assertEquals(2, model.getNumUsersWithPreferenceFor(0L, 2L));
+
+    // the base model is untouched
+    assertEquals(4, base.getPreferencesFromUser(1L).length());
+    assertEquals(3, base.getPreferencesForItem(1L).length());
+  }
+
+  @Test
+  public void testVanishedItem() throws Exception {
+    FastIDSet masked = new FastIDSet();
+    masked.add(3L);
+    DataModel model = new MaskedUserDataModel(getBaseModel(), 1L, masked);
+    assertEquals(3, model.getNumItems());
+    LongPrimitiveIterator itemIDs = model.getItemIDs();
+    for (long expected = 0L; expected < 3L; expected++) {
+      assertTrue(itemIDs.hasNext());
+      assertEquals(expected, itemIDs.nextLong());
+    }
+    assertFalse(itemIDs.hasNext());
+    try {
+      model.getPreferencesForItem(3L);
+      fail();
+    } catch (NoSuchItemException nsie) {
+      // good
+    }
+  }
+
+  @Test
+  public void testVanishedUser() throws Exception {
+    FastIDSet masked = new FastIDSet();
+    masked.add(1L);
+    masked.add(2L);
+    DataModel model = new MaskedUserDataModel(getBaseModel(), 3L, masked);
+    assertEquals(2, model.getNumUsers());
+    LongPrimitiveIterator userIDs = model.getUserIDs();
+    assertEquals(1L, userIDs.nextLong());
+    assertEquals(2L, userIDs.nextLong());
+    assertFalse(userIDs.hasNext());
+    try {
+      model.getPreferencesFromUser(3L);
+      fail();
+    } catch (NoSuchUserException nsue) {
+      // good
+    }
+  }
+
+}
@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.junit.Test;
+
+/**
+ * Tests {@link PlusAnonymousConcurrentUserDataModel}.
+ */
+public final class PlusAnonymousConcurrentUserDataModelTest extends TasteTestCase {
+
+  private static PreferenceArray getTempPrefs(long anonymousUserID, long... itemIDs) {
+    PreferenceArray prefs = new GenericUserPreferenceArray(itemIDs.length);
+    prefs.setUserID(0, anonymousUserID);
+    for (int i = 0; i < itemIDs.length; i++) {
+      prefs.setItemID(i, itemIDs[i]);
+      prefs.setValue(i, 0.1f * (i + 1));
+    }
+    return prefs;
+  }
+
+  @Test
+  public void testTakeAndRelease() throws Exception {
+    PlusAnonymousConcurrentUserDataModel model = new PlusAnonymousConcurrentUserDataModel(getDataModel(), 2);
+    Long first = model.takeAvailableUser();
+    Long second = model.takeAvailableUser();
+    assertNotNull(first);
+    assertNotNull(second);
+    assertFalse(first.equals(second));
+    assertNull(model.takeAvailableUser());
+
+    model.setTempPrefs(getTempPrefs(first, 0L), first);
+    model.setTempPrefs(getTempPrefs(second, 1L, 2L), second);
+    assertEquals(1, model.getPreferencesFromUser(first).length());
+    assertEquals(2, model.getItemIDsFromUser(second).size());
+    assertEquals(0.2f, model.getPreferenceValue(second, 2L), EPSILON);
+    assertNull(model.getPreferenceValue(first, 2L));
+    // temporary users stay invisible to everyone else
+    assertEquals(4, model.getNumUsers());
+    assertEquals(3, model.getPreferencesForItem(2L).length());
+
+    model.releaseUser(first);
+    try {
+      model.getPreferencesFromUser(first);
+      fail();
+    } catch (NoSuchUserException nsue) {
+      // good
+    }
+    assertEquals(first, model.takeAvailableUser());
+  }
+
+  @Test
+  public void testReleaseOnlyTakenUsers() throws Exception {
+    PlusAnonymousConcurrentUserDataModel model = new PlusAnonymousConcurrentUserDataModel(getDataModel(), 2);
+    Long first = model.takeAvailableUser();
+    try {
+      model.releaseUser(first + 1);
+      fail();
+    } catch (IllegalArgumentException iae) {
+      // good: never taken
+    }
+    model.releaseUser(first);
+    try {
+      model.releaseUser(first);
+      fail();
+    } catch (IllegalArgumentException iae) {
+      // good: already released
+    }
+    // each ID is handed out once
+    Long second = model.takeAvailableUser();
+    Long third = model.takeAvailableUser();
+    assertNotNull(second);
+    assertNotNull(third);
+    assertFalse(second.equals(third));
+    assertNull(model.takeAvailableUser());
+  }
+
+  @Test
+  public void testConcurrentRecommendations() throws Exception {
+    DataModel delegate = getDataModel(
+        new long[] {1, 2, 3, 4, 5},
+        new Double[][] {
+            {0.1, 0.3, 0.9, null, 0.5, 0.2},
+            {0.2, 0.3, 0.3, 0.6, null, 0.1},
+            {0.4, 0.3, 0.5, null, 0.9, 0.2},
+            {0.7, 0.3, 0.8, 0.1, 0.4, 0.6},
+            {null, 0.6, 0.2, 0.8, 0.3, 0.7},
+        });
+    final PlusAnonymousConcurrentUserDataModel model = new PlusAnonymousConcurrentUserDataModel(delegate, 4);
+    final Recommender recommender =
+        new GenericItemBasedRecommender(model, new PearsonCorrelationSimilarity(delegate));
+
+    final long[][] tempItemIDs = { {0L, 1L}, {2L, 3L}, {4L, 5L, 0L}, {1L, 3L, 5L} };
+    final List<List<RecommendedItem>> expected = Lists.newArrayList();
+    for (long[] itemIDs : tempItemIDs) {
+      long anonymousUserID = model.takeAvailableUser();
+      model.setTempPrefs(getTempPrefs(anonymousUserID, itemIDs), anonymousUserID);
+      expected.add(recommender.recommend(anonymousUserID, 3));
+      model.releaseUser(anonymousUserID);
+    }
+
+    List<Callable<Void>> callables = Lists.newArrayList();
+    for (int i = 0; i < 200; i++) {
+      final int session = i % tempItemIDs.length;
+      callables.add(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          Long anonymousUserID = model.takeAvailableUser();
+          assertNotNull(anonymousUserID);
+          try {
+            model.setTempPrefs(getTempPrefs(anonymousUserID, tempItemIDs[session]), anonymousUserID);
+            assertEquals(expected.get(session), recommender.recommend(anonymousUserID, 3));
+          } finally {
+            model.releaseUser(anonymousUserID);
+          }
+          return null;
+        }
+      });
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      for (Future<Void> future : executor.invokeAll(callables)) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+}
@@ -18,6 +18,7 @@
 package org.apache.mahout.cf.taste.impl.model.file;
 
 import org.apache.commons.lang.mutable.MutableBoolean;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
@@ -176,6 +177,69 @@ public final class FileDataModelTest extends TasteTestCase {
     assertEquals(5.0f, dataModel.getPreferenceValue(123L, 456L), EPSILON);
   }
 
+  @Test
+  public void testIncrementalUpdates() throws Exception {
+    File file = getTestTempFile("incremental.txt");
+    writeLines(file, DATA);
+    FileDataModel dataModel = new FileDataModel(file, false, 0L, true);
+    long modified = file.lastModified();
+    // Rejected from the start, not only once an update file has been applied
+    try {
+      dataModel.setPreference(123L, 456L, 0.5f);
+      fail();
+    } catch (UnsupportedOperationException uoe) {
+      // good
+    }
+
+    File update1 = getTestTempFile("incremental.1.txt");
+    writeLines(update1, "123,456,0.9", "123,789,", "567,123,0.3,1234");
+    assertTrue(update1.setLastModified(modified + 10000L));
+    dataModel.refresh(null);
+
+    assertEquals(0.9f, dataModel.getPreferenceValue(123L, 456L), EPSILON);
+    assertNull(dataModel.getPreferenceValue(123L, 789L));
+    assertEquals(2, dataModel.getPreferencesFromUser(123L).length());
+    assertEquals(5, dataModel.getNumUsers());
+    assertEquals(0.3f, dataModel.getPreferenceValue(567L, 123L), EPSILON);
+    assertEquals(1234L, dataModel.getPreferenceTime(567L, 123L).longValue());
+    assertEquals(3, dataModel.getNumUsersWithPreferenceFor(123L));
+    assertEquals(2, dataModel.getNumUsersWithPreferenceFor(789L));
+    assertEquals(2, dataModel.getNumUsersWithPreferenceFor(123L, 999L));
+
+    File update2 = getTestTempFile("incremental.2.txt");
+    writeLines(update2, "234,123,", "234,234,", "234,999,");
+    assertTrue(update2.setLastModified(modified + 20000L));
+    dataModel.refresh(null);
+
+    assertEquals(4, dataModel.getNumUsers());
+    assertEquals(0.9f, dataModel.getPreferenceValue(123L, 456L), EPSILON);
+    try {
+      dataModel.getPreferencesFromUser(234L);
+      fail();
+    } catch (NoSuchUserException nsue) {
+      // good
+    }
+    LongPrimitiveIterator it = dataModel.getItemIDs();
+    long previous = Long.MIN_VALUE;
+    int numItems = 0;
+    while (it.hasNext()) {
+      long itemID = it.nextLong();
+      assertTrue(itemID > previous);
+      previous = itemID;
+      numItems++;
+    }
+    assertEquals(dataModel.getNumItems(), numItems);
+    assertEquals(2, dataModel.getPreferencesForItem(999L).length());
+
+    // The same preferences as a full load of all files
+    FileDataModel fullModel = new FileDataModel(file);
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      assertEquals(fullModel.getItemIDsFromUser(userID), dataModel.getItemIDsFromUser(userID));
+    }
+  }
+
   @Test
   public void testToString() {
     assertTrue(model.toString().length() > 0);
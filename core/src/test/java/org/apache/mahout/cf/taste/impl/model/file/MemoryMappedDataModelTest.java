@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import java.io.File;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.recommender.GenericUserBasedRecommender;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.junit.Before;
+import org.junit.Test;
+
+/** <p>Tests {@link MemoryMappedDataModel}.</p> */
+public final class MemoryMappedDataModelTest extends TasteTestCase {
+
+  private static final String[] DATA = {
+      "123,456,0.1,1000",
+      "123,789,0.6,1001",
+      "123,654,0.7,1002",
+      "234,123,0.5,1003",
+      "234,234,1.0,1004",
+      "234,999,0.9,1005",
+      "345,789,0.6,1006",
+      "345,654,0.7,1007",
+      "345,123,1.0,1008",
+      "345,234,0.5,1009",
+      "345,999,0.5,1010",
+      "456,456,0.1,1011",
+      "456,789,0.5,1012",
+      "456,654,0.0,1013",
+      "456,999,0.2,1014",};
+
+  private DataModel fileModel;
+  private DataModel model;
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    File testFile = getTestTempFile("test.txt");
+    writeLines(testFile, DATA);
+    fileModel = new FileDataModel(testFile);
+    File binaryFile = getTestTempFile("test.bin");
+    MemoryMappedDataModelWriter.write(fileModel, binaryFile);
+    model = new MemoryMappedDataModel(binaryFile);
+  }
+
+  @Test
+  public void testSameAsFileDataModel() throws Exception {
+    assertEquals(fileModel.getNumUsers(), model.getNumUsers());
+    assertEquals(fileModel.getNumItems(), model.getNumItems());
+    assertEquals(fileModel.getMinPreference(), model.getMinPreference(), EPSILON);
+    assertEquals(fileModel.getMaxPreference(), model.getMaxPreference(), EPSILON);
+    LongPrimitiveIterator userIDs = model.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      PreferenceArray expected = fileModel.getPreferencesFromUser(userID);
+      PreferenceArray actual = model.getPreferencesFromUser(userID);
+      assertEquals(expected.length(), actual.length());
+      for (int i = 0; i < actual.length(); i++) {
+        assertEquals(userID, actual.getUserID(i));
+        assertEquals(expected.getItemID(i), actual.getItemID(i));
+        assertEquals(expected.getValue(i), actual.getValue(i), EPSILON);
+        assertEquals(fileModel.getPreferenceTime(userID, actual.getItemID(i)),
+                     model.getPreferenceTime(userID, actual.getItemID(i)));
+      }
+      assertArrayEquals(expected.getIDs(), actual.getIDs());
+      assertEquals(fileModel.getItemIDsFromUser(userID), model.getItemIDsFromUser(userID));
+    }
+    LongPrimitiveIterator itemIDs = model.getItemIDs();
+    while (itemIDs.hasNext()) {
+      long itemID = itemIDs.nextLong();
+      PreferenceArray expected = fileModel.getPreferencesForItem(itemID);
+      PreferenceArray actual = model.getPreferencesForItem(itemID);
+      assertEquals(expected.length(), actual.length());
+      for (int i = 0; i < actual.length(); i++) {
+        assertEquals(itemID, actual.getItemID(i));
+        assertEquals(expected.getUserID(i), actual.getUserID(i));
+        assertEquals(expected.getValue(i), actual.getValue(i), EPSILON);
+        assertTrue(actual.hasPrefWithUserID(actual.getUserID(i)));
+      }
+      assertEquals(fileModel.getNumUsersWithPreferenceFor(itemID), model.getNumUsersWithPreferenceFor(itemID));
+      assertEquals(fileModel.getNumUsersWithPreferenceFor(itemID, 654L),
+                   model.getNumUsersWithPreferenceFor(itemID, 654L));
+    }
+  }
+
+  @Test
+  public void testPreferenceValue() throws Exception {
+    assertEquals(0.7f, model.getPreferenceValue(345L, 654L), EPSILON);
+    assertNull(model.getPreferenceValue(345L, 456L));
+    assertNull(model.getPreferenceValue(345L, 1L));
+    assertEquals(1008L, model.getPreferenceTime(345L, 123L).longValue());
+    assertTrue(model.getPreferencesFromUser(456L).hasPrefWithItemID(999L));
+    assertFalse(model.getPreferencesFromUser(456L).hasPrefWithItemID(123L));
+  }
+
+  @Test(expected = NoSuchUserException.class)
+  public void testNoSuchUser() throws Exception {
+    model.getPreferencesFromUser(1L);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testReadOnly() throws Exception {
+    model.getPreferencesFromUser(123L).setValue(0, 1.0f);
+  }
+
+  @Test
+  public void testClone() throws Exception {
+    PreferenceArray copy = model.getPreferencesFromUser(123L).clone();
+    copy.setValue(0, 5.0f);
+    assertEquals(5.0f, copy.getValue(0), EPSILON);
+    assertEquals(0.1f, model.getPreferencesFromUser(123L).getValue(0), EPSILON);
+  }
+
+  @Test
+  public void testRecommend() throws Exception {
+    UserSimilarity userSimilarity = new PearsonCorrelationSimilarity(model);
+    UserNeighborhood neighborhood = new NearestNUserNeighborhood(3, userSimilarity, model);
+    Recommender recommender = new GenericUserBasedRecommender(model, neighborhood, userSimilarity);
+    assertEquals(1, recommender.recommend(123, 3).size());
+    assertEquals(0, recommender.recommend(234, 3).size());
+    assertEquals(1, recommender.recommend(345, 3).size());
+  }
+
+}
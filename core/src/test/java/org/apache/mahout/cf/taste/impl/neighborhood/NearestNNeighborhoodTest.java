@@ -17,8 +17,16 @@
 
 package org.apache.mahout.cf.taste.impl.neighborhood;
 
+import java.util.Collection;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.BatchUserSimilarity;
+import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 import org.junit.Test;
 
 /** <p>Tests {@link NearestNUserNeighborhood}.</p> */
@@ -50,4 +58,38 @@ public final class NearestNNeighborhoodTest extends TasteTestCase {
     assertTrue(arrayContains(neighborhood3, 3));
   }
 
+  @Test
+  public void testEmptyModel() throws Exception {
+    DataModel dataModel = getDataModel(new long[0], new Double[0][]);
+    long[] neighborhood =
+        new NearestNUserNeighborhood(2, new DummySimilarity(dataModel), dataModel).getUserNeighborhood(1);
+    assertEquals(0, neighborhood.length);
+  }
+
+  @Test
+  public void testBatchSimilarityAgrees() throws Exception {
+    DataModel dataModel = getDataModel();
+    final UserSimilarity batchSimilarity = new PearsonCorrelationSimilarity(dataModel);
+    assertTrue(batchSimilarity instanceof BatchUserSimilarity);
+    // Only has the one-pair method, so the neighborhood computes similarities one at a time
+    UserSimilarity pairSimilarity = new UserSimilarity() {
+      @Override
+      public double userSimilarity(long userID1, long userID2) throws TasteException {
+        return batchSimilarity.userSimilarity(userID1, userID2);
+      }
+      @Override
+      public void setPreferenceInferrer(PreferenceInferrer inferrer) {
+        throw new UnsupportedOperationException();
+      }
+      @Override
+      public void refresh(Collection<Refreshable> alreadyRefreshed) {
+      }
+    };
+    for (long userID = 1; userID <= 4; userID++) {
+      assertArrayEquals(
+          new NearestNUserNeighborhood(2, pairSimilarity, dataModel).getUserNeighborhood(userID),
+          new NearestNUserNeighborhood(2, batchSimilarity, dataModel).getUserNeighborhood(userID));
+    }
+  }
+
 }
@@ -19,24 +19,30 @@ package org.apache.mahout.cf.taste.impl.recommender;
 
 import com.google.common.collect.Lists;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
 import org.apache.mahout.cf.taste.impl.model.GenericPreference;
 import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
 import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
 import org.apache.mahout.cf.taste.recommender.ItemBasedRecommender;
 import org.apache.mahout.cf.taste.recommender.MostSimilarItemsCandidateItemsStrategy;
+import org.apache.mahout.cf.taste.recommender.RecommendationSink;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.cf.taste.recommender.Recommender;
 import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.common.RandomUtils;
 import org.easymock.EasyMock;
 import org.junit.Test;
 
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Random;
 
 /** <p>Tests {@link GenericItemBasedRecommender}.</p> */
 public final class GenericItemBasedRecommenderTest extends TasteTestCase {
@@ -215,6 +221,74 @@ public final class GenericItemBasedRecommenderTest extends TasteTestCase {
     assertEquals(0.2f, third.getValue(), EPSILON);
   }
 
+  @Test
+  public void testBatchRecommend() throws Exception {
+    Random random = RandomUtils.getRandom();
+    int numUsers = 200;
+    long[] userIDs = new long[numUsers];
+    Double[][] prefValues = new Double[numUsers][20];
+    for (int i = 0; i < numUsers; i++) {
+      userIDs[i] = i;
+      for (int j = 0; j < 20; j++) {
+        if (random.nextDouble() < 0.4) {
+          prefValues[i][j] = (double) (1 + random.nextInt(5));
+        }
+      }
+    }
+    DataModel dataModel = getDataModel(userIDs, prefValues);
+    GenericItemBasedRecommender recommender =
+        new GenericItemBasedRecommender(dataModel, new PearsonCorrelationSimilarity(dataModel));
+
+    final FastByIDMap<List<RecommendedItem>> batchResults = new FastByIDMap<List<RecommendedItem>>();
+    recommender.recommend(dataModel.getUserIDs(), 5, null, new RecommendationSink() {
+      @Override
+      public void recommended(long userID, List<RecommendedItem> recommendations) {
+        synchronized (batchResults) {
+          assertNull(batchResults.put(userID, recommendations));
+        }
+      }
+    }, 4);
+
+    assertEquals(numUsers, batchResults.size());
+    for (long userID : userIDs) {
+      assertEquals(recommender.recommend(userID, 5), batchResults.get(userID));
+    }
+  }
+
+  @Test
+  public void testOverriddenEstimateUsedEverywhere() throws Exception {
+    DataModel dataModel = getDataModel(
+        new long[] {1, 2, 3},
+        new Double[][] {
+                {0.1},
+                {0.2, 0.3, 0.3, 0.4},
+                {0.4, 0.3, 0.5, 0.1},
+        });
+    GenericItemBasedRecommender recommender =
+        new GenericItemBasedRecommender(dataModel, new PearsonCorrelationSimilarity(dataModel)) {
+          @Override
+          protected float doEstimatePreference(long userID, PreferenceArray preferencesFromUser, long itemID) {
+            return 10.0f - itemID;
+          }
+        };
+
+    assertEquals(8.0f, recommender.estimatePreference(1, 2), EPSILON);
+    List<RecommendedItem> recommended = recommender.recommend(1, 2);
+    assertEquals(2, recommended.size());
+    assertEquals(1, recommended.get(0).getItemID());
+    assertEquals(9.0f, recommended.get(0).getValue(), EPSILON);
+    assertEquals(2, recommended.get(1).getItemID());
+
+    final FastByIDMap<List<RecommendedItem>> batchResults = new FastByIDMap<List<RecommendedItem>>();
+    recommender.recommend(new LongPrimitiveArrayIterator(new long[] {1}), 2, null, new RecommendationSink() {
+      @Override
+      public void recommended(long userID, List<RecommendedItem> recommendations) {
+        batchResults.put(userID, recommendations);
+      }
+    }, 1);
+    assertEquals(recommended, batchResults.get(1));
+  }
+
   private static ItemBasedRecommender buildRecommender() {
     DataModel dataModel = getDataModel();
     Collection<GenericItemSimilarity.ItemItemSimilarity> similarities = Lists.newArrayList();
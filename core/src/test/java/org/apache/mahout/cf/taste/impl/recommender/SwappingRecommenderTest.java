@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.junit.Test;
+
+public final class SwappingRecommenderTest extends TasteTestCase {
+
+  @Test
+  public void testSwap() throws Exception {
+    RecommenderFactory factory = new RecommenderFactory();
+    SwappingRecommender recommender = new SwappingRecommender(factory);
+    assertEquals(0L, recommender.recommend(1L, 1).get(0).getItemID());
+    assertEquals(0.0f, recommender.estimatePreference(1L, 2L), EPSILON);
+
+    recommender.refresh(null);
+    assertEquals(1L, recommender.recommend(1L, 1).get(0).getItemID());
+    assertEquals(1.0f, recommender.estimatePreference(1L, 2L), EPSILON);
+    assertTrue(factory.built.get(0).closed);
+    assertFalse(factory.built.get(1).closed);
+  }
+
+  @Test
+  public void testFailedRefreshKeepsCurrent() throws Exception {
+    RecommenderFactory factory = new RecommenderFactory();
+    SwappingRecommender recommender = new SwappingRecommender(factory);
+    factory.fail = true;
+    recommender.refresh(null);
+    assertEquals(0L, recommender.recommend(1L, 1).get(0).getItemID());
+    assertFalse(factory.built.get(0).closed);
+  }
+
+  @Test
+  public void testRetireAfterInFlightRequests() throws Exception {
+    final RecommenderFactory factory = new RecommenderFactory();
+    final SwappingRecommender recommender = new SwappingRecommender(factory);
+    StubRecommender first = factory.built.get(0);
+    first.blockRequests = true;
+
+    final AtomicReference<List<RecommendedItem>> result = new AtomicReference<List<RecommendedItem>>();
+    Thread request = new Thread() {
+      @Override
+      public void run() {
+        try {
+          result.set(recommender.recommend(1L, 1));
+        } catch (TasteException te) {
+          throw new IllegalStateException(te);
+        }
+      }
+    };
+    request.start();
+    assertTrue(first.requestStarted.await(10, TimeUnit.SECONDS));
+
+    // Refreshing does not wait for the request, and new requests go to the new recommender
+    recommender.refresh(null);
+    assertEquals(1L, recommender.recommend(2L, 1).get(0).getItemID());
+    assertFalse(first.closed);
+
+    first.requestMayFinish.countDown();
+    request.join();
+    assertEquals(0L, result.get().get(0).getItemID());
+    assertTrue(first.closed);
+  }
+
+  private static final class RecommenderFactory implements Callable<StubRecommender> {
+
+    private final List<StubRecommender> built = Lists.newArrayList();
+    private boolean fail;
+
+    @Override
+    public StubRecommender call() throws TasteException {
+      if (fail) {
+        throw new TasteException("failed");
+      }
+      StubRecommender recommender = new StubRecommender(built.size());
+      built.add(recommender);
+      return recommender;
+    }
+  }
+
+  private static final class StubRecommender implements Recommender, Closeable {
+
+    private final int generation;
+    private final CountDownLatch requestStarted = new CountDownLatch(1);
+    private final CountDownLatch requestMayFinish = new CountDownLatch(1);
+    private volatile boolean blockRequests;
+    private volatile boolean closed;
+
+    private StubRecommender(int generation) {
+      this.generation = generation;
+    }
+
+    @Override
+    public List<RecommendedItem> recommend(long userID, int howMany) throws TasteException {
+      return recommend(userID, howMany, null);
+    }
+
+    @Override
+    public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) throws TasteException {
+      assertFalse(closed);
+      if (blockRequests) {
+        requestStarted.countDown();
+        try {
+          requestMayFinish.await();
+        } catch (InterruptedException ie) {
+          throw new TasteException(ie);
+        }
+      }
+      return Collections.<RecommendedItem>singletonList(new GenericRecommendedItem(generation, 1.0f));
+    }
+
+    @Override
+    public float estimatePreference(long userID, long itemID) {
+      return generation;
+    }
+
+    @Override
+    public void setPreference(long userID, long itemID, float value) {
+      // do nothing
+    }
+
+    @Override
+    public void removePreference(long userID, long itemID) {
+      // do nothing
+    }
+
+    @Override
+    public DataModel getDataModel() {
+      return null;
+    }
+
+    @Override
+    public void refresh(Collection<Refreshable> alreadyRefreshed) {
+      fail("recommenders are replaced, not refreshed");
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+}
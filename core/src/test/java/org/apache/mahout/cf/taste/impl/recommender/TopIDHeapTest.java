@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+public final class TopIDHeapTest extends TasteTestCase {
+
+  @Test
+  public void testKeepsHighest() {
+    TopIDHeap heap = new TopIDHeap(3);
+    heap.offer(1L, 0.5);
+    heap.offer(2L, 0.1);
+    heap.offer(3L, Double.NaN);
+    heap.offer(4L, 0.9);
+    assertFalse(heap.isFull());
+    heap.offer(5L, 0.7);
+    assertTrue(heap.isFull());
+    assertEquals(0.5, heap.lowestTopScore(), EPSILON);
+    assertFalse(heap.offer(6L, 0.5));
+    long[] ids = new long[heap.size()];
+    double[] scores = new double[heap.size()];
+    assertEquals(3, heap.drainDescending(ids, scores));
+    assertArrayEquals(new long[] {4L, 5L, 1L}, ids);
+    assertEquals(0.9, scores[0], EPSILON);
+    assertEquals(0.5, scores[2], EPSILON);
+    assertTrue(heap.isEmpty());
+  }
+
+  @Test
+  public void testNothingWanted() throws TasteException {
+    TopIDHeap heap = new TopIDHeap(0);
+    assertFalse(heap.offer(1L, 0.5));
+    assertTrue(heap.isEmpty());
+    TopItems.IDEstimator estimator = new TopItems.IDEstimator() {
+      @Override
+      public double estimate(long id) {
+        return id;
+      }
+    };
+    long[] ids = {1L, 2L};
+    assertTrue(TopItems.getTopItems(0, new LongPrimitiveArrayIterator(ids), null, estimator).isEmpty());
+    assertEquals(0, TopItems.getTopUsers(0, new LongPrimitiveArrayIterator(ids), null, estimator).length);
+  }
+
+  @Test
+  public void testTopUsersRankedByOriginalSimilarity() throws TasteException {
+    TopItems.IDEstimator similarity = new TopItems.IDEstimator() {
+      @Override
+      public double estimate(long userID) {
+        return userID / 10.0;
+      }
+    };
+    IDRescorer rescorer = new ReversingRescorer<Long>();
+    LongPrimitiveArrayIterator userIDs = new LongPrimitiveArrayIterator(new long[] {3L, 1L, 4L, 2L});
+    assertArrayEquals(new long[] {4L, 3L}, TopItems.getTopUsers(2, userIDs, null, similarity));
+    // Users are ranked by their original similarity; the rescored one only decides whether a user is let in
+    // once there are enough, by comparing it to the lowest original similarity kept
+    userIDs = new LongPrimitiveArrayIterator(new long[] {3L, 1L, 4L, 2L});
+    assertArrayEquals(new long[] {4L, 3L}, TopItems.getTopUsers(2, userIDs, rescorer, similarity));
+    userIDs = new LongPrimitiveArrayIterator(new long[] {1L, 2L, 3L, 4L});
+    assertArrayEquals(new long[] {3L, 2L}, TopItems.getTopUsers(2, userIDs, rescorer, similarity));
+  }
+
+  @Test
+  public void testMatchesSort() {
+    Random random = RandomUtils.getRandom();
+    int n = 1000;
+    double[] values = new double[n];
+    TopIDHeap heap = new TopIDHeap(100);
+    for (int i = 0; i < n; i++) {
+      values[i] = random.nextDouble();
+      heap.offer(i, values[i]);
+    }
+    long[] ids = new long[heap.size()];
+    heap.drainDescending(ids, null);
+    double[] sorted = values.clone();
+    Arrays.sort(sorted);
+    for (int i = 0; i < ids.length; i++) {
+      assertEquals(sorted[n - 1 - i], values[(int) ids[i]], EPSILON);
+    }
+  }
+
+  @Test
+  public void testTopItemsEstimators() throws TasteException {
+    long[] candidates = {1L, 2L, 3L, 4L};
+    List<RecommendedItem> primitive = TopItems.getTopItems(2, new LongPrimitiveArrayIterator(candidates), null,
+        new TopItems.IDEstimator() {
+          @Override
+          public double estimate(long id) {
+            return id;
+          }
+        });
+    List<RecommendedItem> boxed = TopItems.getTopItems(2, new LongPrimitiveArrayIterator(candidates), null,
+        new TopItems.Estimator<Long>() {
+          @Override
+          public double estimate(Long id) {
+            return id;
+          }
+        });
+    assertEquals(primitive, boxed);
+    assertEquals(2, primitive.size());
+    assertEquals(4L, primitive.get(0).getItemID());
+    assertEquals(3L, primitive.get(1).getItemID());
+  }
+
+}
@@ -18,7 +18,11 @@
 package org.apache.mahout.cf.taste.impl.recommender;
 
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.model.GenericBooleanPrefDataModel;
 import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.cf.taste.recommender.Recommender;
@@ -50,6 +54,20 @@ public final class TreeClusteringRecommenderTest extends TasteTestCase {
     assertEquals(0, recommended.size());
   }
 
+  @Test
+  public void testClusterWithoutItems() throws Exception {
+    FastByIDMap<FastIDSet> userData = new FastByIDMap<FastIDSet>();
+    userData.put(1L, new FastIDSet(new long[] {1L, 2L}));
+    userData.put(2L, new FastIDSet(new long[] {2L, 3L}));
+    // user 3 has no items, so neither has the cluster it ends up alone in
+    userData.put(3L, new FastIDSet());
+    DataModel dataModel = new GenericBooleanPrefDataModel(userData);
+    UserSimilarity similarity = new TanimotoCoefficientSimilarity(dataModel);
+    ClusterSimilarity clusterSimilarity = new FarthestNeighborClusterSimilarity(similarity);
+    Recommender recommender = new TreeClusteringRecommender(dataModel, clusterSimilarity, 2);
+    assertTrue(recommender.recommend(3, 1).isEmpty());
+  }
+
   @Test
   public void testHowMany() throws Exception {
     DataModel dataModel = getDataModel(
@@ -17,17 +17,23 @@
 
 package org.apache.mahout.cf.taste.impl.recommender.knn;
 
+import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
 import org.apache.mahout.cf.taste.impl.recommender.ReversingRescorer;
 import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.RecommendationSink;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.cf.taste.recommender.Recommender;
 import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public final class KnnItemBasedRecommenderTest extends TasteTestCase {
 
@@ -70,6 +76,60 @@ public final class KnnItemBasedRecommenderTest extends TasteTestCase {
     }
   }
 
+  @Test
+  public void testBatchUsesSharedSimilarity() throws Exception {
+    DataModel dataModel = getDataModel(
+            new long[] {1, 2, 3, 4, 5},
+            new Double[][] {
+                    {0.1, 0.2},
+                    {0.2, 0.3, 0.3, 0.6},
+                    {0.4, 0.4, 0.5, 0.9},
+                    {0.1, 0.4, 0.5, 0.8, 0.9, 1.0},
+                    {0.2, 0.3, 0.6, 0.7, 0.1, 0.2},
+            });
+    final ItemSimilarity delegate = new PearsonCorrelationSimilarity(dataModel);
+    final AtomicInteger numSimilarities = new AtomicInteger();
+    ItemSimilarity similarity = new ItemSimilarity() {
+      @Override
+      public double itemSimilarity(long itemID1, long itemID2) throws TasteException {
+        numSimilarities.incrementAndGet();
+        return delegate.itemSimilarity(itemID1, itemID2);
+      }
+      @Override
+      public double[] itemSimilarities(long itemID1, long[] itemID2s) throws TasteException {
+        numSimilarities.addAndGet(itemID2s.length);
+        return delegate.itemSimilarities(itemID1, itemID2s);
+      }
+      @Override
+      public long[] allSimilarItemIDs(long itemID) throws TasteException {
+        return delegate.allSimilarItemIDs(itemID);
+      }
+      @Override
+      public void refresh(Collection<Refreshable> alreadyRefreshed) {}
+    };
+    KnnItemBasedRecommender recommender =
+        new KnnItemBasedRecommender(dataModel, similarity, new ConjugateGradientOptimizer(), 5);
+
+    List<RecommendedItem> expected = recommender.recommend(1, 2);
+    int numSimilaritiesPerUser = numSimilarities.getAndSet(0);
+    assertTrue(numSimilaritiesPerUser > 0);
+
+    final List<List<RecommendedItem>> batchResults = new ArrayList<List<RecommendedItem>>();
+    recommender.recommend(new LongPrimitiveArrayIterator(new long[] {1, 1}), 2, null, new RecommendationSink() {
+      @Override
+      public void recommended(long userID, List<RecommendedItem> recommendations) {
+        synchronized (batchResults) {
+          batchResults.add(recommendations);
+        }
+      }
+    }, 1);
+    assertEquals(2, batchResults.size());
+    assertEquals(expected, batchResults.get(0));
+    assertEquals(expected, batchResults.get(1));
+    // The second, identical user is answered from the batch's similarity cache
+    assertEquals(numSimilaritiesPerUser, numSimilarities.get());
+  }
+
   @Test
   public void testRescorer() throws Exception {
     DataModel dataModel = getDataModel(
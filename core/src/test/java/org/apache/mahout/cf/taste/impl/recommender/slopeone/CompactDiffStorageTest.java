@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.slopeone;
+
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.impl.common.RunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.cf.taste.recommender.slopeone.DiffStorage;
+import org.junit.Test;
+
+/** Tests {@link CompactDiffStorage}. */
+public final class CompactDiffStorageTest extends TasteTestCase {
+
+  @Test
+  public void testGetDiff() throws Exception {
+    DataModel model = getDataModel();
+    CompactDiffStorage storage = new CompactDiffStorage(model, Weighting.UNWEIGHTED);
+    RunningAverage average = storage.getDiff(1, 2);
+    assertEquals(0.23333333333333334, average.getAverage(), EPSILON);
+    assertEquals(3, average.getCount());
+    RunningAverage inverted = storage.getDiff(2, 1);
+    assertEquals(-0.23333333333333334, inverted.getAverage(), EPSILON);
+    assertEquals(3, inverted.getCount());
+    assertNull(storage.getDiff(0, 5));
+  }
+
+  @Test
+  public void testRecommendableIDsVaried() throws Exception {
+    DataModel model = MemoryDiffStorageTest.getDataModelVaried();
+    CompactDiffStorage storage = new CompactDiffStorage(model, Weighting.WEIGHTED);
+    FastIDSet recommendableItemIDs = storage.getRecommendableItemIDs(1);
+    assertEquals(3, recommendableItemIDs.size());
+    assertTrue(recommendableItemIDs.contains(1));
+    recommendableItemIDs = storage.getRecommendableItemIDs(2);
+    assertEquals(2, recommendableItemIDs.size());
+    assertTrue(recommendableItemIDs.contains(2));
+    assertTrue(recommendableItemIDs.contains(3));
+    assertEquals(0, storage.getRecommendableItemIDs(4).size());
+  }
+
+  @Test
+  public void testAdd() throws Exception {
+    DataModel model = getDataModel();
+    CompactDiffStorage storage = new CompactDiffStorage(model, Weighting.UNWEIGHTED);
+
+    storage.addItemPref(1, 2, 0.8f);
+
+    RunningAverage average1 = storage.getDiff(0, 2);
+    assertEquals(0.25, average1.getAverage(), EPSILON);
+    assertEquals(4, average1.getCount());
+
+    RunningAverage average2 = storage.getDiff(2, 1);
+    assertEquals(-0.3, average2.getAverage(), EPSILON);
+    assertEquals(4, average2.getCount());
+  }
+
+  @Test
+  public void testUpdate() throws Exception {
+    DataModel model = getDataModel();
+    CompactDiffStorage storage = new CompactDiffStorage(model, Weighting.UNWEIGHTED);
+
+    storage.updateItemPref(1, 0.5f);
+
+    RunningAverage average = storage.getDiff(1, 2);
+    assertEquals(0.06666666666666668, average.getAverage(), EPSILON);
+    assertEquals(3, average.getCount());
+  }
+
+  @Test
+  public void testUpdateDiffsStoredByOtherItems() throws Exception {
+    DataModel model = MemoryDiffStorageTest.getDataModelVaried();
+    CompactDiffStorage storage =
+        new CompactDiffStorage(model, Weighting.UNWEIGHTED, 1, CompactDiffStorage.Placement.HEAP, 2);
+    // Only item 2's row holds its diff with item 0
+    RunningAverage before = storage.getDiff(2, 0);
+
+    storage.updateItemPref(0, 0.6f);
+
+    RunningAverage after = storage.getDiff(2, 0);
+    assertEquals(before.getAverage() + 0.6 / before.getCount(), after.getAverage(), EPSILON);
+    assertEquals(before.getCount(), after.getCount());
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    DataModel model = getDataModel();
+    CompactDiffStorage storage = new CompactDiffStorage(model, Weighting.UNWEIGHTED);
+
+    storage.removeItemPref(4, 2, 0.8f);
+
+    RunningAverage average1 = storage.getDiff(0, 2);
+    assertEquals(0.1, average1.getAverage(), EPSILON);
+    assertEquals(2, average1.getCount());
+
+    RunningAverage average2 = storage.getDiff(1, 2);
+    assertEquals(0.1, average2.getAverage(), EPSILON);
+    assertEquals(2, average2.getCount());
+  }
+
+  @Test
+  public void testRemovePrefWeighted() throws Exception {
+    double eps = 0.0001;
+    DataModel model = MemoryDiffStorageTest.getDataModelPocked();
+    CompactDiffStorage storage = new CompactDiffStorage(model, Weighting.WEIGHTED);
+
+    RunningAverageAndStdDev average = (RunningAverageAndStdDev) storage.getDiff(0, 1);
+    assertEquals(-0.033333, average.getAverage(), eps);
+    assertEquals(0.32145, average.getStandardDeviation(), eps);
+    assertEquals(3, average.getCount());
+
+    storage.removeItemPref(2, 1, 0.1f);
+    average = (RunningAverageAndStdDev) storage.getDiff(0, 1);
+    assertEquals(0.0, average.getAverage(), eps);
+    assertEquals(0.44721, average.getStandardDeviation(), eps);
+    assertEquals(2, average.getCount());
+  }
+
+  @Test
+  public void testMaxDiffsPerItem() throws Exception {
+    DataModel model = MemoryDiffStorageTest.getDataModelVaried();
+    CompactDiffStorage storage =
+        new CompactDiffStorage(model, Weighting.UNWEIGHTED, 1, CompactDiffStorage.Placement.HEAP, 2);
+    // Item 0 is co-rated most often with item 1, and items 1 to 3 with item 0
+    assertNotNull(storage.getDiff(0, 1));
+    assertNotNull(storage.getDiff(0, 2));
+    assertNotNull(storage.getDiff(3, 0));
+    assertNull(storage.getDiff(1, 2));
+    assertNull(storage.getDiff(2, 3));
+  }
+
+  @Test
+  public void testSameAsMemoryDiffStorage() throws Exception {
+    DataModel model = MemoryDiffStorageTest.getDataModelLarge();
+    DiffStorage memory = new MemoryDiffStorage(model, Weighting.WEIGHTED, Long.MAX_VALUE);
+    for (CompactDiffStorage.Placement placement : CompactDiffStorage.Placement.values()) {
+      DiffStorage compact = new CompactDiffStorage(model, Weighting.WEIGHTED, Integer.MAX_VALUE, placement, 3);
+      for (long itemID1 = 0; itemID1 < 7; itemID1++) {
+        for (long itemID2 = 0; itemID2 < 7; itemID2++) {
+          if (itemID1 != itemID2) {
+            RunningAverageAndStdDev expected = (RunningAverageAndStdDev) memory.getDiff(itemID1, itemID2);
+            RunningAverageAndStdDev actual = (RunningAverageAndStdDev) compact.getDiff(itemID1, itemID2);
+            assertEquals(expected.getCount(), actual.getCount());
+            assertEquals(expected.getAverage(), actual.getAverage(), EPSILON);
+            assertEquals(expected.getStandardDeviation(), actual.getStandardDeviation(), EPSILON);
+          }
+        }
+      }
+
+      Recommender memoryRecommender =
+          new SlopeOneRecommender(model, Weighting.WEIGHTED, Weighting.WEIGHTED, memory);
+      Recommender compactRecommender =
+          new SlopeOneRecommender(model, Weighting.WEIGHTED, Weighting.WEIGHTED, compact);
+      for (long userID = 1; userID <= 7; userID++) {
+        for (long itemID = 0; itemID < 7; itemID++) {
+          assertEquals(memoryRecommender.estimatePreference(userID, itemID),
+                       compactRecommender.estimatePreference(userID, itemID), EPSILON);
+        }
+      }
+    }
+  }
+
+}
@@ -28,6 +28,7 @@ import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.Preference;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.RandomUtils;
 import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Vector;
 import org.junit.Before;
@@ -99,6 +100,12 @@ public class ALSWRFactorizerTest extends TasteTestCase {
     assertEquals(prefs.get(2).getValue(), ratingVector.get(2), EPSILON);
   }
 
+  @Test(expected = IllegalArgumentException.class)
+  public void tooManyFeatures() throws Exception {
+    // the normal equations of numFeatures squared entries would not fit in an array
+    new ALSWRFactorizer(dataModel, 50000, 0.065, 10);
+  }
+
   @Test
   public void averageRating() throws Exception {
     ALSWRFactorizer.Features features = new ALSWRFactorizer.Features(factorizer);
@@ -145,4 +152,36 @@ public class ALSWRFactorizerTest extends TasteTestCase {
     double rmse = Math.sqrt(avg.getAverage());
     assertTrue(rmse < 0.2);
   }
+
+  @Test
+  public void sameResultWithMoreThreads() throws Exception {
+    RandomUtils.useTestSeed();
+    Factorization oneThread = new ALSWRFactorizer(dataModel, 3, 0.065, 10, false, 0.0, 1).factorize();
+    RandomUtils.useTestSeed();
+    Factorization threeThreads = new ALSWRFactorizer(dataModel, 3, 0.065, 10, false, 0.0, 3).factorize();
+    assertEquals(oneThread, threeThreads);
+  }
+
+  @Test
+  public void toyExampleImplicit() throws Exception {
+    ALSWRFactorizer implicitFactorizer = new ALSWRFactorizer(dataModel, 3, 0.065, 10, true, 1.0);
+    SVDRecommender svdRecommender = new SVDRecommender(dataModel, implicitFactorizer);
+
+    /* every user-item pair is fit, to 1 where there is a preference and to 0 elsewhere */
+    RunningAverage avg = new FullRunningAverage();
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      LongPrimitiveIterator itemIDs = dataModel.getItemIDs();
+      while (itemIDs.hasNext()) {
+        long itemID = itemIDs.nextLong();
+        double target = dataModel.getPreferenceValue(userID, itemID) == null ? 0.0 : 1.0;
+        double err = target - svdRecommender.estimatePreference(userID, itemID);
+        avg.addDatum(err * err);
+      }
+    }
+
+    double rmse = Math.sqrt(avg.getAverage());
+    assertTrue(rmse < 0.3);
+  }
 }
@@ -0,0 +1,127 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericPreference;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class ExpectationMaximizationSVDFactorizerTest extends TasteTestCase {
+
+  private static final int NUM_USERS = 200;
+  private static final int NUM_ITEMS = 100;
+
+  private DataModel dataModel;
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    Random random = RandomUtils.getRandom();
+    double[][] userFeatures = randomFeatures(random, NUM_USERS);
+    double[][] itemFeatures = randomFeatures(random, NUM_ITEMS);
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+    for (int user = 0; user < NUM_USERS; user++) {
+      List<Preference> prefs = Lists.newArrayList();
+      for (int item = 0; item < NUM_ITEMS; item++) {
+        if (random.nextDouble() < 0.3) {
+          double rating = 3.0 + userFeatures[user][0] * itemFeatures[item][0]
+              + userFeatures[user][1] * itemFeatures[item][1];
+          prefs.add(new GenericPreference(user, item, (float) Math.max(1.0, Math.min(5.0, rating))));
+        }
+      }
+      userData.put(user, new GenericUserPreferenceArray(prefs));
+    }
+    dataModel = new GenericDataModel(userData);
+  }
+
+  private static double[][] randomFeatures(Random random, int rows) {
+    double[][] features = new double[rows][2];
+    for (double[] row : features) {
+      row[0] = random.nextGaussian();
+      row[1] = random.nextGaussian();
+    }
+    return features;
+  }
+
+  @Test
+  public void sequential() throws Exception {
+    Factorization factorization =
+        new ExpectationMaximizationSVDFactorizer(dataModel, 3, 0.01, 0.005, 0.01, 200).factorize();
+    assertTrue(rmse(factorization) < 0.8 * globalAverageRMSE());
+  }
+
+  @Test
+  public void parallel() throws Exception {
+    double sequentialRMSE =
+        rmse(new ExpectationMaximizationSVDFactorizer(dataModel, 3, 0.01, 0.005, 0.01, 200, 1).factorize());
+    double parallelRMSE =
+        rmse(new ExpectationMaximizationSVDFactorizer(dataModel, 3, 0.01, 0.005, 0.01, 200, 4).factorize());
+    assertEquals(sequentialRMSE, parallelRMSE, 0.1);
+  }
+
+  /** RMSE of always estimating the average preference, which training should clearly improve on */
+  private double globalAverageRMSE() throws Exception {
+    double average = new ExpectationMaximizationSVDFactorizer(dataModel, 1, 0.01, 0.005, 0.01, 1)
+        .getAveragePreference();
+    RunningAverage squaredError = new FullRunningAverage();
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      for (Preference pref : dataModel.getPreferencesFromUser(userIDs.nextLong())) {
+        double err = pref.getValue() - average;
+        squaredError.addDatum(err * err);
+      }
+    }
+    return Math.sqrt(squaredError.getAverage());
+  }
+
+  private double rmse(Factorization factorization) throws Exception {
+    RunningAverage average = new FullRunningAverage();
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      double[] userFeatures = factorization.getUserFeatures(userID);
+      for (Preference pref : dataModel.getPreferencesFromUser(userID)) {
+        double[] itemFeatures = factorization.getItemFeatures(pref.getItemID());
+        double estimate = 0.0;
+        for (int feature = 0; feature < userFeatures.length; feature++) {
+          estimate += userFeatures[feature] * itemFeatures[feature];
+        }
+        double err = pref.getValue() - estimate;
+        average.addDatum(err * err);
+      }
+    }
+    return Math.sqrt(average.getAverage());
+  }
+
+}
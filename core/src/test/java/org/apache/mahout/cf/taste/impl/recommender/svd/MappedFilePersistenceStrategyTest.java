@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import com.google.common.io.Files;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.junit.Test;
+
+public class MappedFilePersistenceStrategyTest extends TasteTestCase {
+
+  private static final double FLOAT_EPSILON = 1.0e-6;
+
+  private static Factorization createFactorization(double scale) {
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+
+    userIDMapping.put(456, 0);
+    userIDMapping.put(123, 1);
+
+    itemIDMapping.put(34, 0);
+    itemIDMapping.put(12, 1);
+    itemIDMapping.put(-5, 2);
+
+    double[][] userFeatures = { { 0.1, 0.2, 0.3 }, { 0.4, 0.5, 0.6 } };
+    double[][] itemFeatures = { { 0.7, 0.8, 0.9 }, { 1.0, 1.1, 1.2 }, { -1.3, 1.4, -1.5 } };
+    for (double[] features : itemFeatures) {
+      for (int i = 0; i < features.length; i++) {
+        features[i] *= scale;
+      }
+    }
+
+    return new Factorization(userIDMapping, itemIDMapping, userFeatures, itemFeatures);
+  }
+
+  @Test
+  public void persistAndLoad() throws Exception {
+    Factorization original = createFactorization(1.0);
+    File storage = getTestTempFile("storage.snapshot");
+    PersistenceStrategy persistenceStrategy = new MappedFilePersistenceStrategy(storage);
+
+    assertNull(persistenceStrategy.load());
+
+    persistenceStrategy.maybePersist(original);
+    Factorization clone = persistenceStrategy.load();
+
+    assertEquals(original.numFeatures(), clone.numFeatures());
+    assertEquals(original.numUsers(), clone.numUsers());
+    assertEquals(original.numItems(), clone.numItems());
+    for (Map.Entry<Long,Integer> entry : original.getUserIDMappings()) {
+      assertArrayEquals(original.getUserFeatures(entry.getKey()), clone.getUserFeatures(entry.getKey()), FLOAT_EPSILON);
+    }
+    for (Map.Entry<Long,Integer> entry : original.getItemIDMappings()) {
+      assertArrayEquals(original.getItemFeatures(entry.getKey()), clone.getItemFeatures(entry.getKey()), FLOAT_EPSILON);
+    }
+
+    // Mappings and dense positions follow the sorted IDs
+    long[] expectedItemIDs = { -5, 12, 34 };
+    int position = 0;
+    for (Map.Entry<Long,Integer> entry : clone.getItemIDMappings()) {
+      assertEquals(expectedItemIDs[position], entry.getKey().longValue());
+      assertEquals(position, entry.getValue().intValue());
+      assertEquals(expectedItemIDs[position], clone.getItemIDAt(position));
+      position++;
+    }
+    assertEquals(3, position);
+
+    double[] userFeatures = clone.getUserFeatures(123);
+    double[] scores = new double[2];
+    clone.scoreItems(userFeatures, 1, 3, scores);
+    for (int i = 0; i < 2; i++) {
+      double[] itemFeatures = clone.getItemFeatures(clone.getItemIDAt(i + 1));
+      double expected = 0.0;
+      for (int feature = 0; feature < itemFeatures.length; feature++) {
+        expected += userFeatures[feature] * itemFeatures[feature];
+      }
+      assertEquals(expected, scores[i], EPSILON);
+    }
+  }
+
+  @Test
+  public void unknownIDs() throws Exception {
+    File storage = getTestTempFile("unknown.snapshot");
+    MappedFactorization.write(createFactorization(1.0), storage);
+    Factorization factorization = MappedFactorization.open(storage);
+    try {
+      factorization.getUserFeatures(124);
+      fail();
+    } catch (NoSuchUserException nsue) {
+      // expected
+    }
+    try {
+      factorization.getItemFeatures(13);
+      fail();
+    } catch (NoSuchItemException nsie) {
+      // expected
+    }
+  }
+
+  @Test
+  public void rejectOtherFormats() throws Exception {
+    File storage = getTestTempFile("other.snapshot");
+    new FilePersistenceStrategy(storage).maybePersist(createFactorization(1.0));
+    try {
+      MappedFactorization.open(storage);
+      fail();
+    } catch (IOException ioe) {
+      // expected
+    }
+
+    File truncated = getTestTempFile("truncated.snapshot");
+    MappedFactorization.write(createFactorization(1.0), storage);
+    byte[] bytes = Files.toByteArray(storage);
+    FileOutputStream out = new FileOutputStream(truncated);
+    try {
+      out.write(bytes, 0, bytes.length - 4);
+    } finally {
+      out.close();
+    }
+    try {
+      MappedFactorization.open(truncated);
+      fail();
+    } catch (IOException ioe) {
+      // expected
+    }
+  }
+
+  @Test
+  public void hotSwapOnRefresh() throws Exception {
+    DataModel dataModel = getDataModel(new long[] { 123, 456 },
+                                       new Double[][] { { 1.0, 2.0 }, { 3.0 } });
+    File storage = getTestTempFile("swap.snapshot");
+    MappedFactorization.write(createFactorization(1.0), storage);
+    SVDRecommender recommender = new SVDRecommender(dataModel, new SnapshotFactorizer(storage));
+    float before = recommender.estimatePreference(123, 12);
+
+    MappedFactorization.write(createFactorization(2.0), storage);
+    assertEquals(before, recommender.estimatePreference(123, 12), EPSILON);
+    recommender.refresh(null);
+    assertEquals(2.0 * before, recommender.estimatePreference(123, 12), EPSILON);
+  }
+
+}
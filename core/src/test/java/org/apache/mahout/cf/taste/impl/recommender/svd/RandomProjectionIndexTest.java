@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.recommender.TopIDHeap;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+public final class RandomProjectionIndexTest extends TasteTestCase {
+
+  private static final int NUM_USERS = 50;
+  private static final int NUM_ITEMS = 2000;
+  private static final int NUM_FEATURES = 8;
+  private static final int HOW_MANY = 10;
+
+  @Test
+  public void allItemsWhenFewItems() throws Exception {
+    Factorization factorization = randomFactorization(NUM_USERS, 20, NUM_FEATURES);
+    MaximumInnerProductIndex index = new RandomProjectionIndex(factorization, 2, 4, 2);
+    long[] candidates = index.getCandidateItemIDs(factorization.getUserFeatures(0L), HOW_MANY);
+    assertEquals(20, candidates.length);
+  }
+
+  @Test
+  public void recall() throws Exception {
+    Factorization factorization = randomFactorization(NUM_USERS, NUM_ITEMS, NUM_FEATURES);
+    MaximumInnerProductIndex index = new RandomProjectionIndexFactory(32, 20).build(factorization);
+
+    int hits = 0;
+    for (long userID = 0; userID < NUM_USERS; userID++) {
+      double[] userFeatures = factorization.getUserFeatures(userID);
+      long[] candidates = index.getCandidateItemIDs(userFeatures, HOW_MANY);
+      assertTrue(candidates.length <= HOW_MANY * 20);
+      FastIDSet candidateSet = new FastIDSet(candidates);
+      for (long itemID : exactTopItems(factorization, userFeatures)) {
+        if (candidateSet.contains(itemID)) {
+          hits++;
+        }
+      }
+    }
+    double recall = (double) hits / (NUM_USERS * HOW_MANY);
+    assertTrue("recall " + recall, recall >= 0.7);
+  }
+
+  @Test
+  public void repeatedQueriesAgree() throws Exception {
+    Factorization factorization = randomFactorization(NUM_USERS, NUM_ITEMS, NUM_FEATURES);
+    MaximumInnerProductIndex index = new RandomProjectionIndex(factorization, 8, 6, 5);
+    long[][] first = new long[NUM_USERS][];
+    for (long userID = 0; userID < NUM_USERS; userID++) {
+      first[(int) userID] = index.getCandidateItemIDs(factorization.getUserFeatures(userID), HOW_MANY);
+    }
+    // Queries reuse scratch arrays, which must not carry anything over from earlier queries
+    for (long userID = 0; userID < NUM_USERS; userID++) {
+      long[] again = index.getCandidateItemIDs(factorization.getUserFeatures(userID), HOW_MANY);
+      assertArrayEquals(first[(int) userID], again);
+    }
+  }
+
+  private static long[] exactTopItems(Factorization factorization, double[] userFeatures) {
+    double[] scores = new double[factorization.numItems()];
+    factorization.scoreItems(userFeatures, 0, scores.length, scores);
+    TopIDHeap topItems = new TopIDHeap(HOW_MANY);
+    for (int position = 0; position < scores.length; position++) {
+      topItems.offer(factorization.getItemIDAt(position), scores[position]);
+    }
+    long[] itemIDs = new long[HOW_MANY];
+    topItems.drainDescending(itemIDs, new double[HOW_MANY]);
+    return itemIDs;
+  }
+
+  static Factorization randomFactorization(int numUsers, int numItems, int numFeatures) {
+    Random random = RandomUtils.getRandom();
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    double[][] userFeatures = new double[numUsers][numFeatures];
+    for (int user = 0; user < numUsers; user++) {
+      userIDMapping.put(user, user);
+      for (int feature = 0; feature < numFeatures; feature++) {
+        userFeatures[user][feature] = random.nextGaussian();
+      }
+    }
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+    double[][] itemFeatures = new double[numItems][numFeatures];
+    for (int item = 0; item < numItems; item++) {
+      itemIDMapping.put(item, item);
+      // Vary item norms, as popularity does in real factorizations
+      double scale = 0.5 + random.nextDouble();
+      for (int feature = 0; feature < numFeatures; feature++) {
+        itemFeatures[item][feature] = scale * random.nextGaussian();
+      }
+    }
+    return new Factorization(userIDMapping, itemIDMapping, userFeatures, itemFeatures);
+  }
+
+}
@@ -17,16 +17,25 @@
 
 package org.apache.mahout.cf.taste.impl.recommender.svd;
 
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.recommender.AllUnknownItemsCandidateItemsStrategy;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
+import org.apache.mahout.cf.taste.recommender.RecommendationSink;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.easymock.EasyMock;
 import org.junit.Test;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SVDRecommenderTest extends TasteTestCase {
 
@@ -65,9 +74,9 @@ public class SVDRecommenderTest extends TasteTestCase {
     EasyMock.expect(dataModel.getPreferencesFromUser(1L)).andReturn(preferencesFromUser);
     EasyMock.expect(candidateItemsStrategy.getCandidateItems(1L, preferencesFromUser, dataModel))
         .andReturn(candidateItems);
+    EasyMock.expect(factorization.numItems()).andReturn(100);
     EasyMock.expect(factorization.getUserFeatures(1L)).andReturn(new double[] { 0.4, 2 });
     EasyMock.expect(factorization.getItemFeatures(5L)).andReturn(new double[] { 1, 0.3 });
-    EasyMock.expect(factorization.getUserFeatures(1L)).andReturn(new double[] { 0.4, 2 });
     EasyMock.expect(factorization.getItemFeatures(3L)).andReturn(new double[] { 2, 0.6 });
 
     EasyMock.replay(dataModel, candidateItemsStrategy, factorizer, factorization);
@@ -83,4 +92,214 @@ public class SVDRecommenderTest extends TasteTestCase {
 
     EasyMock.verify(dataModel, candidateItemsStrategy, factorizer, factorization);
   }
+
+  @Test
+  public void batchRecommend() throws Exception {
+    DataModel dataModel = getDataModel(new long[] {1, 2, 3},
+                                       new Double[][] {{1.0, 2.0}, {null, null, 3.0}, {4.0, null, null, 5.0}});
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+    for (int i = 0; i < 4; i++) {
+      if (i < 3) {
+        userIDMapping.put(i + 1, i);
+      }
+      itemIDMapping.put(i, i);
+    }
+    double[][] userFeatures = {{0.1, 0.2}, {0.3, -0.4}, {0.5, 0.6}};
+    double[][] itemFeatures = {{1.0, 0.0}, {0.0, 1.0}, {0.5, 0.5}, {-1.0, 2.0}};
+    Factorization factorization = new Factorization(userIDMapping, itemIDMapping, userFeatures, itemFeatures);
+    Factorizer factorizer = EasyMock.createMock(Factorizer.class);
+    EasyMock.expect(factorizer.factorize()).andReturn(factorization);
+    EasyMock.replay(factorizer);
+
+    final SVDRecommender svdRecommender =
+        new SVDRecommender(dataModel, factorizer, new AllUnknownItemsCandidateItemsStrategy());
+    final AtomicInteger count = new AtomicInteger();
+    svdRecommender.recommend(new LongPrimitiveArrayIterator(new long[] {1L, 2L, 3L}), 2, null,
+        new RecommendationSink() {
+          @Override
+          public void recommended(long userID, List<RecommendedItem> recommendations) throws TasteException {
+            assertEquals(svdRecommender.recommend(userID, 2), recommendations);
+            count.incrementAndGet();
+          }
+        });
+    assertEquals(3, count.get());
+    EasyMock.verify(factorizer);
+  }
+
+  @Test
+  public void recommendWithIndex() throws Exception {
+    DataModel dataModel = getDataModel(new long[] {0, 1, 2},
+                                       new Double[][] {{1.0, 2.0}, {null, null, 3.0}, {4.0, null, null, 5.0}});
+    Factorization factorization = RandomProjectionIndexTest.randomFactorization(3, 4, 2);
+    Factorizer factorizer = EasyMock.createMock(Factorizer.class);
+    EasyMock.expect(factorizer.factorize()).andReturn(factorization).times(2);
+    EasyMock.replay(factorizer);
+
+    SVDRecommender exactRecommender = new SVDRecommender(dataModel, factorizer,
+        new AllUnknownItemsCandidateItemsStrategy());
+    // With this few items, the index returns all of them
+    SVDRecommender indexedRecommender = new SVDRecommender(dataModel, factorizer,
+        new AllUnknownItemsCandidateItemsStrategy(), new NoPersistenceStrategy(), new RandomProjectionIndexFactory());
+    for (long userID = 0; userID < 3; userID++) {
+      assertEquals(exactRecommender.recommend(userID, 2), indexedRecommender.recommend(userID, 2));
+    }
+    EasyMock.verify(factorizer);
+  }
+
+  @Test
+  public void scoreItems() throws Exception {
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    userIDMapping.put(1L, 0);
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+    double[][] itemFeatures = new double[7][3];
+    for (int i = 0; i < itemFeatures.length; i++) {
+      itemIDMapping.put(10L * i, i);
+      for (int j = 0; j < 3; j++) {
+        itemFeatures[i][j] = i - j * 0.5;
+      }
+    }
+    double[] userFeatures = {0.3, -1.0, 2.0};
+    Factorization factorization =
+        new Factorization(userIDMapping, itemIDMapping, new double[][] {userFeatures}, itemFeatures);
+
+    double[] scores = new double[6];
+    factorization.scoreItems(userFeatures, 1, 7, scores);
+    for (int position = 1; position < 7; position++) {
+      double[] features = factorization.getItemFeatures(factorization.getItemIDAt(position));
+      double expected = 0.0;
+      for (int j = 0; j < 3; j++) {
+        expected += userFeatures[j] * features[j];
+      }
+      assertEquals(expected, scores[position - 1], EPSILON);
+    }
+  }
+
+  @Test
+  public void scoreItemsAcrossChunks() throws Exception {
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    userIDMapping.put(1L, 0);
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+    int numItems = (1 << 16) + 7;
+    double[][] itemFeatures = new double[numItems][2];
+    for (int i = 0; i < numItems; i++) {
+      itemIDMapping.put(i, i);
+      itemFeatures[i][0] = i;
+      itemFeatures[i][1] = -0.5 * i;
+    }
+    double[] userFeatures = {2.0, 1.0};
+    Factorization factorization =
+        new Factorization(userIDMapping, itemIDMapping, new double[][] {userFeatures}, itemFeatures);
+
+    int from = (1 << 16) - 5;
+    double[] scores = new double[numItems - from];
+    factorization.scoreItems(userFeatures, from, numItems, scores);
+    for (int position = from; position < numItems; position++) {
+      double expected = 1.5 * factorization.getItemIDAt(position);
+      assertEquals(expected, scores[position - from], EPSILON);
+    }
+  }
+
+  @Test
+  public void foldIn() throws Exception {
+    DataModel dataModel = getDataModel(new long[] {1, 2, 3},
+        new Double[][] {{1.0, null, null, null, 4.0}, {null, 1.0, null, null, -1.0}, {2.0, 3.0, 5.0}});
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    userIDMapping.put(1L, 0);
+    userIDMapping.put(2L, 1);
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+    for (int i = 0; i < 3; i++) {
+      itemIDMapping.put(i, i);
+    }
+    final Factorization factorization = new Factorization(userIDMapping, itemIDMapping,
+        new double[][] {{1.0, 0.0}, {0.0, 1.0}}, new double[][] {{1.0, 0.0}, {0.0, 1.0}, {1.0, 1.0}});
+    Factorizer factorizer = new Factorizer() {
+      @Override
+      public Factorization factorize() {
+        return factorization;
+      }
+      @Override
+      public void refresh(Collection<Refreshable> alreadyRefreshed) {}
+    };
+    SVDRecommender svdRecommender = new SVDRecommender(dataModel, factorizer,
+        new AllUnknownItemsCandidateItemsStrategy(), new NoPersistenceStrategy(), null, 0.0);
+
+    try {
+      svdRecommender.estimatePreference(3L, 0L);
+      fail();
+    } catch (NoSuchUserException nsue) {
+      // expected
+    }
+
+    // User 3's ratings are fit exactly by features (2, 3), and item 4's by (4, -1)
+    svdRecommender.foldInUser(3L);
+    svdRecommender.foldInItem(4L);
+    assertEquals(2.0f, svdRecommender.estimatePreference(3L, 0L), EPSILON);
+    assertEquals(3.0f, svdRecommender.estimatePreference(3L, 1L), EPSILON);
+    assertEquals(5.0f, svdRecommender.estimatePreference(3L, 4L), EPSILON);
+
+    List<RecommendedItem> recommendedItems = svdRecommender.recommend(3L, 2);
+    assertEquals(1, recommendedItems.size());
+    assertEquals(4L, recommendedItems.get(0).getItemID());
+    assertEquals(5.0f, recommendedItems.get(0).getValue(), EPSILON);
+
+    // A new factorization replaces what was folded in
+    svdRecommender.refresh(null);
+    try {
+      svdRecommender.estimatePreference(3L, 0L);
+      fail();
+    } catch (NoSuchUserException nsue) {
+      // expected
+    }
+  }
+
+  @Test
+  public void foldInPreferenceChangesOnReadOnlyModel() throws Exception {
+    DataModel dataModel = getDataModel(new long[] {1, 2, 3},
+        new Double[][] {{1.0, null, null, null, 4.0}, {null, 1.0, null, null, -1.0}, {2.0, 3.0, 5.0}});
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    userIDMapping.put(1L, 0);
+    userIDMapping.put(2L, 1);
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+    for (int i = 0; i < 3; i++) {
+      itemIDMapping.put(i, i);
+    }
+    final Factorization factorization = new Factorization(userIDMapping, itemIDMapping,
+        new double[][] {{1.0, 0.0}, {0.0, 1.0}}, new double[][] {{1.0, 0.0}, {0.0, 1.0}, {1.0, 1.0}});
+    Factorizer factorizer = new Factorizer() {
+      @Override
+      public Factorization factorize() {
+        return factorization;
+      }
+      @Override
+      public void refresh(Collection<Refreshable> alreadyRefreshed) {}
+    };
+    SVDRecommender svdRecommender = new SVDRecommender(dataModel, factorizer,
+        new AllUnknownItemsCandidateItemsStrategy(), new NoPersistenceStrategy(), null, 0.0);
+
+    // The data model does not take the changes, so the recommender keeps them; user 4 is fit by features (3, 1)
+    svdRecommender.setPreference(4L, 0L, 3.0f);
+    svdRecommender.setPreference(4L, 1L, 1.0f);
+    assertEquals(4.0f, svdRecommender.estimatePreference(4L, 2L), EPSILON);
+    List<RecommendedItem> recommendedItems = svdRecommender.recommend(4L, 2);
+    assertEquals(1, recommendedItems.size());
+    assertEquals(2L, recommendedItems.get(0).getItemID());
+
+    // Item 4 is folded in from users 1 and 2 as (4, -1), which fits user 4's preference too
+    svdRecommender.setPreference(4L, 4L, 11.0f);
+    assertEquals(11.0f, svdRecommender.estimatePreference(4L, 4L), EPSILON);
+    assertEquals(4.0f, svdRecommender.estimatePreference(1L, 4L), EPSILON);
+
+    // Without preferences left, the user's folded in features are gone
+    svdRecommender.removePreference(4L, 0L);
+    svdRecommender.removePreference(4L, 1L);
+    svdRecommender.removePreference(4L, 4L);
+    try {
+      svdRecommender.estimatePreference(4L, 2L);
+      fail();
+    } catch (NoSuchUserException nsue) {
+      // expected
+    }
+  }
+
 }
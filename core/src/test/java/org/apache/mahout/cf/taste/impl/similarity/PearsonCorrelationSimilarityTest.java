@@ -24,6 +24,7 @@ import org.apache.mahout.cf.taste.common.Weighting;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
+import org.apache.mahout.cf.taste.similarity.BatchUserSimilarity;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 import org.junit.Test;
 
@@ -262,4 +263,25 @@ public final class PearsonCorrelationSimilarityTest extends SimilarityTestCase {
     assertEquals(-0.435285750066007, similarity.userSimilarity(1L, 2L), EPSILON);
   }
 
+  @Test
+  public void testUserSimilarities() throws Exception {
+    // user 2 has so few preferences that they are looked up in user 1's, rather than merged with them
+    Double[][] prefs = new Double[3][40];
+    for (int i = 0; i < 40; i++) {
+      prefs[0][i] = (double) (i % 7);
+      prefs[2][i] = (double) (i % 5);
+    }
+    prefs[1][3] = 1.0;
+    prefs[1][17] = 4.0;
+    prefs[1][30] = 2.0;
+    DataModel dataModel = getDataModel(new long[] {1, 2, 3}, prefs);
+    BatchUserSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
+
+    double[] similarities = similarity.userSimilarities(1L, new long[] {2L, 3L});
+    assertEquals(2, similarities.length);
+    assertEquals(similarity.userSimilarity(2L, 1L), similarities[0], EPSILON);
+    assertEquals(similarity.userSimilarity(1L, 3L), similarities[1], EPSILON);
+    assertEquals(0.1889822365046136, similarities[0], EPSILON);
+  }
+
 }
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity.file;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity.ItemItemSimilarity;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+/** <p>Tests {@link CompactItemSimilarity} and {@link MemoryMappedItemSimilarity}.</p> */
+public final class CompactItemSimilarityTest extends TasteTestCase {
+
+  private static final String[] data = {
+      "1\t5\t0.125",
+      "1\t7\t0.5",
+      "1\t8\t-0.25",
+      "5\t7\t0.75" };
+
+  @Test
+  public void testLoadFromFile() throws Exception {
+    File testFile = getTestTempFile("similarities.txt");
+    writeLines(testFile, data);
+    assertSimilarities(new CompactItemSimilarity(testFile, 10));
+  }
+
+  @Test
+  public void testLoadFromDirectory() throws Exception {
+    File directory = getTestTempDir("similarities");
+    writeLines(new File(directory, "part-r-00000"), data[0], data[1]);
+    writeLines(new File(directory, "part-r-00001"), data[2], data[3]);
+    writeLines(new File(directory, "_SUCCESS"));
+    assertSimilarities(new CompactItemSimilarity(directory, 10));
+  }
+
+  @Test
+  public void testMemoryMapped() throws Exception {
+    File testFile = getTestTempFile("similarities.txt");
+    writeLines(testFile, data);
+    File binaryFile = getTestTempFile("similarities.bin");
+    CompactItemSimilarityWriter.write(new CompactItemSimilarity(testFile, 10), binaryFile);
+    assertSimilarities(new MemoryMappedItemSimilarity(binaryFile));
+  }
+
+  private static void assertSimilarities(ItemSimilarity similarity) throws Exception {
+    assertEquals(0.125, similarity.itemSimilarity(1L, 5L), EPSILON);
+    assertEquals(0.125, similarity.itemSimilarity(5L, 1L), EPSILON);
+    assertEquals(0.75, similarity.itemSimilarity(7L, 5L), EPSILON);
+    assertEquals(-0.25, similarity.itemSimilarity(8L, 1L), EPSILON);
+    assertEquals(1.0, similarity.itemSimilarity(7L, 7L), EPSILON);
+    assertTrue(Double.isNaN(similarity.itemSimilarity(7L, 8L)));
+    assertTrue(Double.isNaN(similarity.itemSimilarity(2L, 8L)));
+
+    double[] valuesForOne = similarity.itemSimilarities(1L, new long[] { 5L, 7L, 1L, 3L });
+    assertEquals(4, valuesForOne.length);
+    assertEquals(0.125, valuesForOne[0], EPSILON);
+    assertEquals(0.5, valuesForOne[1], EPSILON);
+    assertEquals(1.0, valuesForOne[2], EPSILON);
+    assertTrue(Double.isNaN(valuesForOne[3]));
+
+    long[] similarToOne = similarity.allSimilarItemIDs(1L);
+    Arrays.sort(similarToOne);
+    assertArrayEquals(new long[] { 5L, 7L, 8L }, similarToOne);
+    assertArrayEquals(new long[] { 1L }, similarity.allSimilarItemIDs(8L));
+    assertEquals(0, similarity.allSimilarItemIDs(2L).length);
+  }
+
+  @Test
+  public void testKeepsMostSimilar() throws Exception {
+    Random random = RandomUtils.getRandom();
+    List<ItemItemSimilarity> similarities = Lists.newArrayList();
+    for (long itemID1 = 0; itemID1 < 50; itemID1++) {
+      for (long itemID2 = itemID1 + 1; itemID2 < 50; itemID2++) {
+        similarities.add(new ItemItemSimilarity(itemID1, itemID2, 2.0 * random.nextDouble() - 1.0));
+      }
+    }
+    ItemSimilarity all = new GenericItemSimilarity(similarities);
+    ItemSimilarity compact = new CompactItemSimilarity(similarities, 5);
+
+    for (long itemID = 0; itemID < 50; itemID++) {
+      long[] similarItemIDs = compact.allSimilarItemIDs(itemID);
+      assertTrue(similarItemIDs.length >= 5);
+      // The item's own top 5 are kept, besides items which kept this one among their top 5
+      double[] values = all.itemSimilarities(itemID, all.allSimilarItemIDs(itemID));
+      Arrays.sort(values);
+      double fifthHighest = values[values.length - 5];
+      int atLeastFifthHighest = 0;
+      for (long similarItemID : similarItemIDs) {
+        double value = compact.itemSimilarity(itemID, similarItemID);
+        assertEquals((float) all.itemSimilarity(itemID, similarItemID), value, EPSILON);
+        if (value >= (float) fifthHighest) {
+          atLeastFifthHighest++;
+        }
+      }
+      assertEquals(5, atLeastFifthHighest);
+    }
+  }
+
+}
@@ -25,6 +25,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
@@ -61,6 +62,35 @@ public final class MatrixWritableTest extends MahoutTestCase {
 		doTestMatrixWritableEquals(m);
 	}
 
+	@Test
+	public void testReadMappedMatrix() throws Exception {
+		Matrix m = new SparseRowMatrix(5, 4);
+		m.set(1, 2, 3.0);
+		m.set(3, 0, 5.0);
+		Map<String, Integer> bindings = new HashMap<String, Integer>();
+		bindings.put("A", 0);
+		bindings.put("B", 1);
+		m.setColumnLabelBindings(bindings);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			MatrixWritable.writeMatrix(dos, m);
+		} finally {
+			Closeables.closeQuietly(dos);
+		}
+
+		File file = getTestTempFile("matrix");
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+		try {
+			compareMatrices(m, MatrixWritable.readMatrix(dis, file));
+		} finally {
+			Closeables.closeQuietly(dis);
+		}
+		Matrix mapped = OffHeapDenseMatrix.map(file, false);
+		assertEquals(3.0, mapped.get(1, 2), 0.0);
+		assertEquals(5.0, mapped.get(3, 0), 0.0);
+	}
+
 	private static void doTestMatrixWritableEquals(Matrix m) throws IOException {
 		Writable matrixWritable = new MatrixWritable(m);
 		MatrixWritable matrixWritable2 = new MatrixWritable();
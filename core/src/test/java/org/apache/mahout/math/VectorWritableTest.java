@@ -62,6 +62,43 @@ public final class VectorWritableTest extends MahoutTestCase {
     doTestVectorWritableEquals(v);
   }
 
+  @Test
+  public void testFloatVectorWritable() throws Exception {
+    Vector v = new NamedVector(new DenseFloatVector(5), "Victor");
+    v.set(1, 3.1);
+    v.set(3, 5.0);
+    doTestVectorWritableEquals(v);
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(baos);
+    try {
+      VectorWritable.writeVector(dos, v);
+    } finally {
+      Closeables.closeQuietly(dos);
+    }
+    // 1 byte of flags, 1 byte of size, 5 floats and the name
+    assertEquals(2 + 5 * 4 + 2 + 6, baos.size());
+  }
+
+  @Test
+  public void testReadsSinglePrecision() throws Exception {
+    Vector v = new SequentialAccessSparseVector(5);
+    v.set(1, 3.1);
+    v.set(3, 5.0);
+    VectorWritable vectorWritable = new VectorWritable();
+    vectorWritable.setReadsSinglePrecision(true);
+    writeAndRead(new VectorWritable(v), vectorWritable);
+    Vector v2 = vectorWritable.get();
+    assertTrue(v2 instanceof SequentialAccessSparseFloatVector);
+    assertEquals((float) 3.1, v2.get(1), 0.0);
+    assertEquals(5.0, v2.get(3), 0.0);
+
+    vectorWritable.setReadsSinglePrecision(false);
+    writeAndRead(new VectorWritable(v2), vectorWritable);
+    assertTrue(vectorWritable.get() instanceof SequentialAccessSparseVector);
+    assertEquals(v2, vectorWritable.get());
+  }
+
   private static void doTestVectorWritableEquals(Vector v) throws IOException {
     Writable vectorWritable = new VectorWritable(v);
     VectorWritable vectorWritable2 = new VectorWritable();
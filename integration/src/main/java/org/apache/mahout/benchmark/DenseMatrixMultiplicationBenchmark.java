@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.mahout.benchmark;
+
+import java.util.Random;
+
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.common.TimingStatistics;
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.Matrix;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares {@link DenseMatrix#times(Matrix)} with the element-at-a-time triple loop it replaced, on random square
+ * matrices of increasing size, and reports the time per product and the rate in GFLOPS for each.
+ *
+ * Arguments, all optional: largest size, number of products timed per size.
+ */
+public final class DenseMatrixMultiplicationBenchmark {
+
+  private static final Logger log = LoggerFactory.getLogger(DenseMatrixMultiplicationBenchmark.class);
+
+  private final int maxSize;
+  private final int numRuns;
+
+  public DenseMatrixMultiplicationBenchmark(int maxSize, int numRuns) {
+    this.maxSize = maxSize;
+    this.numRuns = numRuns;
+  }
+
+  public void run() {
+    Random random = RandomUtils.getRandom();
+    for (int size = 64; size <= maxSize; size *= 2) {
+      Matrix a = randomMatrix(size, random);
+      Matrix b = randomMatrix(size, random);
+      double flops = 2.0 * size * size * size;
+      // Untimed, so that both are compiled before they are measured
+      naiveTimes(a, b);
+      a.times(b);
+
+      TimingStatistics naiveStats = new TimingStatistics();
+      for (int run = 0; run < numRuns; run++) {
+        TimingStatistics.Call call = naiveStats.newCall();
+        naiveTimes(a, b);
+        call.end();
+      }
+      TimingStatistics blockedStats = new TimingStatistics();
+      for (int run = 0; run < numRuns; run++) {
+        TimingStatistics.Call call = blockedStats.newCall();
+        a.times(b);
+        call.end();
+      }
+      log.info("{} x {}: naive {}ms ({} GFLOPS), blocked {}ms ({} GFLOPS), speedup {}",
+               new Object[] {size, size, naiveStats.getMeanTime() / 1000000, flops / naiveStats.getMeanTime(),
+                             blockedStats.getMeanTime() / 1000000, flops / blockedStats.getMeanTime(),
+                             (double) naiveStats.getMeanTime() / blockedStats.getMeanTime()});
+    }
+  }
+
+  private static Matrix randomMatrix(int size, Random random) {
+    Matrix matrix = new DenseMatrix(size, size);
+    for (int row = 0; row < size; row++) {
+      for (int column = 0; column < size; column++) {
+        matrix.setQuick(row, column, random.nextGaussian());
+      }
+    }
+    return matrix;
+  }
+
+  private static Matrix naiveTimes(Matrix a, Matrix b) {
+    int rows = a.rowSize();
+    int columns = b.columnSize();
+    int depth = a.columnSize();
+    Matrix result = new DenseMatrix(rows, columns);
+    for (int row = 0; row < rows; row++) {
+      for (int column = 0; column < columns; column++) {
+        double sum = 0.0;
+        for (int k = 0; k < depth; k++) {
+          sum += a.getQuick(row, k) * b.getQuick(k, column);
+        }
+        result.setQuick(row, column, sum);
+      }
+    }
+    return result;
+  }
+
+  public static void main(String[] args) {
+    int maxSize = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+    int numRuns = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    new DenseMatrixMultiplicationBenchmark(maxSize, numRuns).run();
+  }
+
+}
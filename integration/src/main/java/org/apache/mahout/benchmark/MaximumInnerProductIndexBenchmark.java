@@ -0,0 +1,156 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.mahout.benchmark;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.recommender.TopIDHeap;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorization;
+import org.apache.mahout.cf.taste.impl.recommender.svd.MaximumInnerProductIndex;
+import org.apache.mahout.cf.taste.impl.recommender.svd.RandomProjectionIndexFactory;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.common.TimingStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares top-N retrieval through a {@link MaximumInnerProductIndex} with exact scoring of all items, on a random
+ * {@link Factorization}. For several index settings, reports the time per user and recall@N, the fraction of the
+ * exact top N items found by scoring only the candidates the index returned. Features are independent Gaussians,
+ * which have no cluster structure for the index to exploit, so recall on real factorizations is usually higher.
+ *
+ * Arguments, all optional: number of items, number of features, number of users, N.
+ */
+public final class MaximumInnerProductIndexBenchmark {
+
+  private static final Logger log = LoggerFactory.getLogger(MaximumInnerProductIndexBenchmark.class);
+
+  /** numTables, candidateMultiple pairs to try */
+  private static final int[][] SETTINGS = {{16, 50}, {32, 50}, {32, 100}, {64, 100}, {64, 200}};
+
+  private final Factorization factorization;
+  private final int numUsers;
+  private final int howMany;
+
+  public MaximumInnerProductIndexBenchmark(int numItems, int numFeatures, int numUsers, int howMany) {
+    this.numUsers = numUsers;
+    this.howMany = howMany;
+    Random random = RandomUtils.getRandom();
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>(numUsers);
+    double[][] userFeatures = new double[numUsers][numFeatures];
+    for (int user = 0; user < numUsers; user++) {
+      userIDMapping.put(user, user);
+      for (int feature = 0; feature < numFeatures; feature++) {
+        userFeatures[user][feature] = random.nextGaussian();
+      }
+    }
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>(numItems);
+    double[][] itemFeatures = new double[numItems][numFeatures];
+    for (int item = 0; item < numItems; item++) {
+      itemIDMapping.put(item, item);
+      double scale = 0.5 + random.nextDouble();
+      for (int feature = 0; feature < numFeatures; feature++) {
+        itemFeatures[item][feature] = scale * random.nextGaussian();
+      }
+    }
+    factorization = new Factorization(userIDMapping, itemIDMapping, userFeatures, itemFeatures);
+  }
+
+  public void run() throws TasteException {
+    long[][] exactTopItems = new long[numUsers][];
+    TimingStatistics exactStats = new TimingStatistics();
+    for (int user = 0; user < numUsers; user++) {
+      TimingStatistics.Call call = exactStats.newCall();
+      exactTopItems[user] = exactTopItems(factorization.getUserFeatures(user));
+      call.end();
+    }
+    log.info("Exact scoring of {} items: {}", factorization.numItems(), exactStats);
+
+    for (int[] setting : SETTINGS) {
+      int numTables = setting[0];
+      int candidateMultiple = setting[1];
+      long buildStart = System.nanoTime();
+      MaximumInnerProductIndex index =
+          new RandomProjectionIndexFactory(numTables, candidateMultiple).build(factorization);
+      long buildTime = System.nanoTime() - buildStart;
+
+      TimingStatistics indexStats = new TimingStatistics();
+      int hits = 0;
+      long numCandidates = 0;
+      for (int user = 0; user < numUsers; user++) {
+        double[] userFeatures = factorization.getUserFeatures(user);
+        TimingStatistics.Call call = indexStats.newCall();
+        long[] candidates = index.getCandidateItemIDs(userFeatures, howMany);
+        long[] topItems = topItems(userFeatures, candidates);
+        call.end();
+        numCandidates += candidates.length;
+        FastIDSet found = new FastIDSet(topItems);
+        for (long itemID : exactTopItems[user]) {
+          if (found.contains(itemID)) {
+            hits++;
+          }
+        }
+      }
+      log.info("{} tables, candidate multiple {}: build {}ms, {} candidates per user, recall@{} {}, mean speedup {}",
+               new Object[] {numTables, candidateMultiple, buildTime / 1000000, numCandidates / numUsers, howMany,
+                             (double) hits / (numUsers * howMany),
+                             (double) exactStats.getMeanTime() / indexStats.getMeanTime()});
+    }
+  }
+
+  private long[] exactTopItems(double[] userFeatures) {
+    int numItems = factorization.numItems();
+    double[] scores = new double[numItems];
+    factorization.scoreItems(userFeatures, 0, numItems, scores);
+    TopIDHeap topItems = new TopIDHeap(howMany);
+    for (int position = 0; position < numItems; position++) {
+      topItems.offer(factorization.getItemIDAt(position), scores[position]);
+    }
+    return drain(topItems);
+  }
+
+  private long[] topItems(double[] userFeatures, long[] candidates) throws TasteException {
+    TopIDHeap topItems = new TopIDHeap(howMany);
+    for (long itemID : candidates) {
+      double[] itemFeatures = factorization.getItemFeatures(itemID);
+      double score = 0.0;
+      for (int feature = 0; feature < userFeatures.length; feature++) {
+        score += userFeatures[feature] * itemFeatures[feature];
+      }
+      topItems.offer(itemID, score);
+    }
+    return drain(topItems);
+  }
+
+  private static long[] drain(TopIDHeap topItems) {
+    long[] itemIDs = new long[topItems.size()];
+    topItems.drainDescending(itemIDs, new double[itemIDs.length]);
+    return itemIDs;
+  }
+
+  public static void main(String[] args) throws TasteException {
+    int numItems = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    int numFeatures = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    int numUsers = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+    int howMany = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+    new MaximumInnerProductIndexBenchmark(numItems, numFeatures, numUsers, howMany).run();
+  }
+
+}
@@ -17,13 +17,21 @@
 
 package org.apache.mahout.cf.taste.impl.model.jdbc;
 
+import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.sql.DataSource;
 
@@ -80,6 +88,8 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
   public static final String DEFAULT_PREFERENCE_COLUMN = "preference";
   public static final String DEFAULT_PREFERENCE_TIME_COLUMN = "timestamp";
 
+  private static final int EXPORT_FETCH_SIZE = 10000;
+
   private final DataSource dataSource;
   private final String preferenceTable;
   private final String userIDColumn;
@@ -305,94 +315,232 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
 
   @Override
   public FastByIDMap<PreferenceArray> exportWithPrefs() throws TasteException {
+    return export(new PreferencesReader());
+  }
+
+  @Override
+  public FastByIDMap<FastIDSet> exportWithIDsOnly() throws TasteException {
+    return export(new ItemIDsReader());
+  }
+
+  /**
+   * <p>
+   * Like {@link #exportWithPrefs()}, but splits the range of user IDs into {@code numPartitions} contiguous
+   * ranges and reads them concurrently, each over its own connection, with {@link #getUsersInRangeSQL()}. This
+   * only works if user IDs are numeric in the database, and is worthwhile if the database can serve the range
+   * queries from an index on the user ID column.
+   * </p>
+   */
+  public FastByIDMap<PreferenceArray> exportWithPrefs(int numPartitions) throws TasteException {
+    return exportPartitioned(new PreferencesReader(), numPartitions);
+  }
+
+  /**
+   * Like {@link #exportWithPrefs(int)}, but in the manner of {@link #exportWithIDsOnly()}.
+   */
+  public FastByIDMap<FastIDSet> exportWithIDsOnly(int numPartitions) throws TasteException {
+    return exportPartitioned(new ItemIDsReader(), numPartitions);
+  }
+
+  private <T> FastByIDMap<T> export(UserDataReader<T> reader) throws TasteException {
     log.debug("Exporting all data");
 
     Connection conn = null;
     Statement stmt = null;
     ResultSet rs = null;
 
-    FastByIDMap<PreferenceArray> result = new FastByIDMap<PreferenceArray>();
+    FastByIDMap<T> result = new FastByIDMap<T>();
 
     try {
       conn = dataSource.getConnection();
       stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
       stmt.setFetchDirection(ResultSet.FETCH_FORWARD);
-      stmt.setFetchSize(getFetchSize());
+      stmt.setFetchSize(getExportFetchSize());
 
       log.debug("Executing SQL query: {}", getAllUsersSQL);
       rs = stmt.executeQuery(getAllUsersSQL);
+      reader.read(rs, result);
 
-      Long currentUserID = null;
-      List<Preference> currentPrefs = Lists.newArrayList();
-      while (rs.next()) {
-        long nextUserID = getLongColumn(rs, 1);
-        if (currentUserID != null && !currentUserID.equals(nextUserID) && !currentPrefs.isEmpty()) {
-          result.put(currentUserID, new GenericUserPreferenceArray(currentPrefs));
-          currentPrefs.clear();
+      return result;
+
+    } catch (SQLException sqle) {
+      log.warn("Exception while exporting all data", sqle);
+      throw new TasteException(sqle);
+    } finally {
+      IOUtils.quietClose(rs, stmt, conn);
+
+    }
+  }
+
+  private <T> FastByIDMap<T> exportPartitioned(final UserDataReader<T> reader, int numPartitions)
+    throws TasteException {
+    Preconditions.checkArgument(numPartitions >= 1, "numPartitions must be at least 1");
+    if (numPartitions == 1) {
+      return export(reader);
+    }
+
+    long[] range = getUserIDRange();
+    if (range == null) {
+      return new FastByIDMap<T>();
+    }
+    final long[] bounds = partitionRange(range[0], range[1], numPartitions);
+    log.debug("Exporting all data in {} partitions", bounds.length / 2);
+
+    List<Callable<FastByIDMap<T>>> callables = Lists.newArrayListWithCapacity(bounds.length / 2);
+    for (int i = 0; i < bounds.length; i += 2) {
+      final long from = bounds[i];
+      final long to = bounds[i + 1];
+      callables.add(new Callable<FastByIDMap<T>>() {
+        @Override
+        public FastByIDMap<T> call() throws TasteException {
+          return exportRange(reader, from, to);
         }
-        currentPrefs.add(buildPreference(rs));
-        currentUserID = nextUserID;
+      });
+    }
+
+    List<FastByIDMap<T>> partitions = Lists.newArrayListWithCapacity(callables.size());
+    ExecutorService executor = Executors.newFixedThreadPool(callables.size());
+    try {
+      for (Future<FastByIDMap<T>> future : executor.invokeAll(callables)) {
+        partitions.add(future.get());
+      }
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof TasteException) {
+        throw (TasteException) cause;
       }
-      if (!currentPrefs.isEmpty()) {
-        result.put(currentUserID, new GenericUserPreferenceArray(currentPrefs));
+      throw new TasteException(cause);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    int numUsers = 0;
+    for (FastByIDMap<T> partition : partitions) {
+      numUsers += partition.size();
+    }
+    FastByIDMap<T> result = new FastByIDMap<T>(numUsers);
+    for (int i = 0; i < partitions.size(); i++) {
+      for (Map.Entry<Long,T> entry : partitions.get(i).entrySet()) {
+        result.put(entry.getKey(), entry.getValue());
       }
+      partitions.set(i, null); // Might help GC
+    }
+    return result;
+  }
+
+  private <T> FastByIDMap<T> exportRange(UserDataReader<T> reader, long from, long to) throws TasteException {
+    String usersInRangeSQL = getUsersInRangeSQL();
+
+    Connection conn = null;
+    PreparedStatement stmt = null;
+    ResultSet rs = null;
+
+    FastByIDMap<T> result = new FastByIDMap<T>();
+
+    try {
+      conn = dataSource.getConnection();
+      stmt = conn.prepareStatement(usersInRangeSQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      stmt.setFetchDirection(ResultSet.FETCH_FORWARD);
+      stmt.setFetchSize(getExportFetchSize());
+      setLongParameter(stmt, 1, from);
+      setLongParameter(stmt, 2, to);
+
+      log.debug("Executing SQL query: {}", usersInRangeSQL);
+      rs = stmt.executeQuery();
+      reader.read(rs, result);
+      log.debug("Exported {} users with IDs from {} to {}", new Object[] {result.size(), from, to});
 
       return result;
 
     } catch (SQLException sqle) {
-      log.warn("Exception while exporting all data", sqle);
+      log.warn("Exception while exporting data", sqle);
       throw new TasteException(sqle);
     } finally {
       IOUtils.quietClose(rs, stmt, conn);
-
     }
   }
 
-  @Override
-  public FastByIDMap<FastIDSet> exportWithIDsOnly() throws TasteException {
-    log.debug("Exporting all data");
+  /**
+   * @return smallest and largest user ID, or null if there are no preferences
+   */
+  private long[] getUserIDRange() throws TasteException {
+    String userIDRangeSQL = getUserIDRangeSQL();
 
     Connection conn = null;
     Statement stmt = null;
     ResultSet rs = null;
 
-    FastByIDMap<FastIDSet> result = new FastByIDMap<FastIDSet>();
-
     try {
       conn = dataSource.getConnection();
       stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
-      stmt.setFetchDirection(ResultSet.FETCH_FORWARD);
-      stmt.setFetchSize(getFetchSize());
 
-      log.debug("Executing SQL query: {}", getAllUsersSQL);
-      rs = stmt.executeQuery(getAllUsersSQL);
-
-      boolean currentUserIDSet = false;
-      long currentUserID = 0L; // value isn't used
-      FastIDSet currentItemIDs = new FastIDSet(2);
-      while (rs.next()) {
-        long nextUserID = getLongColumn(rs, 1);
-        if (currentUserIDSet && currentUserID != nextUserID && !currentItemIDs.isEmpty()) {
-          result.put(currentUserID, currentItemIDs);
-          currentItemIDs = new FastIDSet(2);
-        }
-        currentItemIDs.add(getLongColumn(rs, 2));
-        currentUserID = nextUserID;
-        currentUserIDSet = true;
-      }
-      if (!currentItemIDs.isEmpty()) {
-        result.put(currentUserID, currentItemIDs);
+      log.debug("Executing SQL query: {}", userIDRangeSQL);
+      rs = stmt.executeQuery(userIDRangeSQL);
+      rs.next();
+      long min = rs.getLong(1);
+      if (rs.wasNull()) {
+        return null;
       }
-
-      return result;
+      return new long[] {min, rs.getLong(2)};
 
     } catch (SQLException sqle) {
-      log.warn("Exception while exporting all data", sqle);
+      log.warn("Exception while retrieving user ID range", sqle);
       throw new TasteException(sqle);
     } finally {
       IOUtils.quietClose(rs, stmt, conn);
+    }
+  }
 
+  /**
+   * @return inclusive lower and upper bounds of at most {@code numPartitions} ranges which together cover
+   *  {@code min} to {@code max}, as consecutive pairs
+   */
+  static long[] partitionRange(long min, long max, int numPartitions) {
+    // Math in BigInteger as max - min may overflow
+    BigInteger low = BigInteger.valueOf(min);
+    BigInteger span = BigInteger.valueOf(max).subtract(low).add(BigInteger.ONE);
+    int numRanges = span.min(BigInteger.valueOf(numPartitions)).intValue();
+    BigInteger numRangesBig = BigInteger.valueOf(numRanges);
+    long[] bounds = new long[2 * numRanges];
+    for (int i = 0; i < numRanges; i++) {
+      BigInteger start = span.multiply(BigInteger.valueOf(i)).divide(numRangesBig);
+      BigInteger end = span.multiply(BigInteger.valueOf(i + 1)).divide(numRangesBig);
+      bounds[2 * i] = low.add(start).longValue();
+      bounds[2 * i + 1] = low.add(end).subtract(BigInteger.ONE).longValue();
     }
+    return bounds;
+  }
+
+  /**
+   * @return SQL selecting the smallest and largest user ID, used by the partitioned exports. Subclasses
+   *  whose schema is not described by {@link #getPreferenceTable()} and the column getters should override it.
+   */
+  protected String getUserIDRangeSQL() {
+    return "SELECT MIN(" + userIDColumn + "), MAX(" + userIDColumn + ") FROM " + preferenceTable;
+  }
+
+  /**
+   * @return SQL selecting the same columns as the query exporting all data, for users whose IDs are between
+   *  two parameters, inclusive, ordered by user and item ID. Used by the partitioned exports; subclasses whose
+   *  schema is not described by {@link #getPreferenceTable()} and the column getters should override it.
+   */
+  protected String getUsersInRangeSQL() {
+    return "SELECT DISTINCT " + userIDColumn + ", " + itemIDColumn
+        + (hasPreferenceValues() ? ", " + preferenceColumn : "") + " FROM " + preferenceTable
+        + " WHERE " + userIDColumn + ">=? AND " + userIDColumn + "<=? ORDER BY " + userIDColumn + ", "
+        + itemIDColumn;
+  }
+
+  /**
+   * Fetch size for the queries exporting all data, which read many rows. By default this is
+   * {@link #getFetchSize()} if that is negative, as it is for MySQL's streaming mode, and otherwise
+   * the larger of that and {@value #EXPORT_FETCH_SIZE}.
+   */
+  protected int getExportFetchSize() {
+    int fetchSize = getFetchSize();
+    return fetchSize < 0 ? fetchSize : Math.max(fetchSize, EXPORT_FETCH_SIZE);
   }
 
   /**
@@ -787,4 +935,81 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
       return getNumThings("user preferring item", getNumPreferenceForItemSQL, key);
     }
   }
+
+  /**
+   * Reads rows of user ID, item ID and possibly preference value, ordered by user ID, into one value per user.
+   * Each user's rows are buffered in primitive arrays, so that no object is kept per row. The buffers belong
+   * to one call of {@link #read(ResultSet, FastByIDMap)}, so one reader can serve concurrent partitions.
+   */
+  private abstract class UserDataReader<T> {
+
+    final void read(ResultSet rs, FastByIDMap<T> result) throws SQLException {
+      long[] itemIDs = new long[16];
+      float[] values = new float[16];
+      boolean currentUserIDSet = false;
+      long currentUserID = 0L; // value isn't used
+      int size = 0;
+      while (rs.next()) {
+        long nextUserID = getLongColumn(rs, 1);
+        if (currentUserIDSet && currentUserID != nextUserID && size > 0) {
+          result.put(currentUserID, build(currentUserID, itemIDs, values, size));
+          size = 0;
+        }
+        if (size == itemIDs.length) {
+          int newLength = size << 1;
+          itemIDs = Arrays.copyOf(itemIDs, newLength);
+          values = Arrays.copyOf(values, newLength);
+        }
+        readRow(rs, itemIDs, values, size);
+        size++;
+        currentUserID = nextUserID;
+        currentUserIDSet = true;
+      }
+      if (size > 0) {
+        result.put(currentUserID, build(currentUserID, itemIDs, values, size));
+      }
+    }
+
+    /** Reads the current row's item ID and value into the buffers at the given index. */
+    abstract void readRow(ResultSet rs, long[] itemIDs, float[] values, int index) throws SQLException;
+
+    abstract T build(long userID, long[] itemIDs, float[] values, int size);
+  }
+
+  /** Reads preferences as built by {@link #buildPreference(ResultSet)}, so subclasses' overrides apply. */
+  private final class PreferencesReader extends UserDataReader<PreferenceArray> {
+    @Override
+    void readRow(ResultSet rs, long[] itemIDs, float[] values, int index) throws SQLException {
+      Preference pref = buildPreference(rs);
+      itemIDs[index] = pref.getItemID();
+      values[index] = pref.getValue();
+    }
+
+    @Override
+    PreferenceArray build(long userID, long[] itemIDs, float[] values, int size) {
+      PreferenceArray prefs = new GenericUserPreferenceArray(size);
+      prefs.setUserID(0, userID);
+      for (int i = 0; i < size; i++) {
+        prefs.setItemID(i, itemIDs[i]);
+        prefs.setValue(i, values[i]);
+      }
+      return prefs;
+    }
+  }
+
+  private final class ItemIDsReader extends UserDataReader<FastIDSet> {
+    @Override
+    void readRow(ResultSet rs, long[] itemIDs, float[] values, int index) throws SQLException {
+      itemIDs[index] = getLongColumn(rs, 2);
+    }
+
+    @Override
+    FastIDSet build(long userID, long[] itemIDs, float[] values, int size) {
+      FastIDSet result = new FastIDSet(size);
+      for (int i = 0; i < size; i++) {
+        result.add(itemIDs[i]);
+      }
+      return result;
+    }
+  }
 }
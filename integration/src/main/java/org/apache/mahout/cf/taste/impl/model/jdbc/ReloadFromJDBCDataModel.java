@@ -20,6 +20,7 @@ package org.apache.mahout.cf.taste.impl.model.jdbc;
 import com.google.common.base.Preconditions;
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
@@ -38,6 +39,11 @@ import java.util.concurrent.Callable;
  * A {@link DataModel} which loads, and can re-load, data from a JDBC-backed {@link JDBCDataModel} into memory, as a
  * {@link GenericDataModel} or {@link GenericBooleanPrefDataModel}. It is intended to provide the speed
  * advantage of in-memory representation but be able to update periodically to pull in new data from a database source.
+ *
+ * <p>
+ * If the delegate is an {@link AbstractJDBCDataModel}, data can be loaded over several connections at once, each
+ * reading a range of user IDs. See {@link AbstractJDBCDataModel#exportWithPrefs(int)}.
+ * </p>
  */
 public final class ReloadFromJDBCDataModel implements DataModel {
 
@@ -45,10 +51,23 @@ public final class ReloadFromJDBCDataModel implements DataModel {
 
   private DataModel delegateInMemory;
   private final JDBCDataModel delegate;
+  private final int numPartitions;
   private final RefreshHelper refreshHelper;
 
   public ReloadFromJDBCDataModel(JDBCDataModel delegate) throws TasteException {
+    this(delegate, 1);
+  }
+
+  /**
+   * @param numPartitions number of user ID ranges to load concurrently; if more than 1, the delegate must be an
+   *  {@link AbstractJDBCDataModel}
+   */
+  public ReloadFromJDBCDataModel(JDBCDataModel delegate, int numPartitions) throws TasteException {
     this.delegate = Preconditions.checkNotNull(delegate);
+    Preconditions.checkArgument(numPartitions >= 1, "numPartitions must be at least 1");
+    Preconditions.checkArgument(numPartitions == 1 || delegate instanceof AbstractJDBCDataModel,
+                                "Partitioned loading requires an AbstractJDBCDataModel");
+    this.numPartitions = numPartitions;
     refreshHelper = new RefreshHelper(new Callable<Void>() {
       @Override
       public Void call() {
@@ -74,8 +93,8 @@ public final class ReloadFromJDBCDataModel implements DataModel {
       log.info("Loading new JDBC delegate data...");
       DataModel newDelegateInMemory =
           delegate.hasPreferenceValues()
-          ? new GenericDataModel(delegate.exportWithPrefs())
-          : new GenericBooleanPrefDataModel(delegate.exportWithIDsOnly());
+          ? new GenericDataModel(exportWithPrefs())
+          : new GenericBooleanPrefDataModel(exportWithIDsOnly());
       // and then swap to it.
       log.info("New data loaded.");
       delegateInMemory = newDelegateInMemory;
@@ -85,6 +104,20 @@ public final class ReloadFromJDBCDataModel implements DataModel {
     }
   }
 
+  private FastByIDMap<PreferenceArray> exportWithPrefs() throws TasteException {
+    if (numPartitions > 1) {
+      return ((AbstractJDBCDataModel) delegate).exportWithPrefs(numPartitions);
+    }
+    return delegate.exportWithPrefs();
+  }
+
+  private FastByIDMap<FastIDSet> exportWithIDsOnly() throws TasteException {
+    if (numPartitions > 1) {
+      return ((AbstractJDBCDataModel) delegate).exportWithIDsOnly(numPartitions);
+    }
+    return delegate.exportWithIDsOnly();
+  }
+
   public JDBCDataModel getDelegate() {
     return delegate;
   }
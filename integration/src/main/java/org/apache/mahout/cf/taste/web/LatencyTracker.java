@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.web;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Keeps the most recent latencies, in a ring buffer of fixed size, and computes percentiles over them.
+ * Thread-safe.
+ */
+final class LatencyTracker {
+
+  private final long[] samples;
+  private int next;
+  private long count;
+
+  LatencyTracker(int maxSamples) {
+    Preconditions.checkArgument(maxSamples >= 1, "maxSamples must be at least 1");
+    samples = new long[maxSamples];
+  }
+
+  synchronized void add(long latency) {
+    samples[next] = latency;
+    next = (next + 1) % samples.length;
+    count++;
+  }
+
+  /** @return number of latencies added so far, including those no longer kept */
+  synchronized long getCount() {
+    return count;
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return smallest kept latency that is at least as large as {@code percentile} percent of kept latencies,
+   *  or 0 if none were added yet
+   */
+  long getPercentile(double percentile) {
+    Preconditions.checkArgument(percentile >= 0.0 && percentile <= 100.0, "Bad percentile: %s", percentile);
+    long[] sorted;
+    synchronized (this) {
+      sorted = Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+    }
+    if (sorted.length == 0) {
+      return 0L;
+    }
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+    return sorted[Math.max(0, index)];
+  }
+
+}
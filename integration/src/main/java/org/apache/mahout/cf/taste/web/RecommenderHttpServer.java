@@ -0,0 +1,403 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.web;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A standalone HTTP server which returns recommendations, like {@link RecommenderServlet}, without tying up
+ * a thread per request while they are computed. It uses the HTTP server built into the JDK; its single
+ * dispatcher thread only parses requests and queues them for a fixed pool of recommendation threads, which
+ * write the responses. When the queue is full, requests are turned away with status 503.</p>
+ *
+ * <p>Requests for a user whose recommendations are already queued or being computed, for no more items, share
+ * that computation rather than queueing another.</p>
+ *
+ * <p>{@code /recommend} accepts GET requests with these parameters:</p>
+ *
+ * <ul>
+ * <li><em>userID</em>: the user ID for which to produce recommendations</li>
+ * <li><em>howMany</em>: (optional) the number of recommendations to produce; defaults to 20</li>
+ * <li><em>format</em>: (optional) {@code text}, the default, for one value and item ID per line as in
+ * {@link RecommenderServlet}; {@code json}, with {@code null} for values that aren't finite; or {@code binary},
+ * for the number of recommendations as an
+ * {@code int} followed by each item ID as a {@code long} and value as a {@code float}, big-endian</li>
+ * </ul>
+ *
+ * <p>{@code /stats} returns, in JSON, the number of requests answered, coalesced and rejected, the current
+ * queue depth and the median and 99th percentile latency in milliseconds of the most recent requests.</p>
+ */
+public final class RecommenderHttpServer {
+
+  private static final Logger log = LoggerFactory.getLogger(RecommenderHttpServer.class);
+
+  private static final int DEFAULT_HOW_MANY = 20;
+  private static final int LATENCY_SAMPLES = 10000;
+
+  private final Recommender recommender;
+  private final HttpServer server;
+  private final ThreadPoolExecutor executor;
+  private final ConcurrentMap<Long,PendingRecommendation> pending;
+  private final LatencyTracker latencies;
+  private final AtomicLong numCoalesced;
+  private final AtomicLong numRejected;
+
+  /**
+   * @param address address to listen on; port 0 picks a free port
+   * @param numThreads number of threads computing recommendations
+   * @param maxQueuedRequests number of requests which may wait for a thread before new ones are rejected
+   */
+  public RecommenderHttpServer(Recommender recommender,
+                               InetSocketAddress address,
+                               int numThreads,
+                               int maxQueuedRequests) throws IOException {
+    Preconditions.checkArgument(recommender != null, "recommender is null");
+    Preconditions.checkArgument(numThreads >= 1, "numThreads must be at least 1");
+    Preconditions.checkArgument(maxQueuedRequests >= 1, "maxQueuedRequests must be at least 1");
+    this.recommender = recommender;
+    executor = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+                                      new ArrayBlockingQueue<Runnable>(maxQueuedRequests));
+    pending = new ConcurrentHashMap<Long,PendingRecommendation>();
+    latencies = new LatencyTracker(LATENCY_SAMPLES);
+    numCoalesced = new AtomicLong();
+    numRejected = new AtomicLong();
+    server = HttpServer.create(address, 0);
+    server.createContext("/recommend", new RecommendHandler());
+    server.createContext("/stats", new StatsHandler());
+  }
+
+  public void start() {
+    server.start();
+    log.info("Serving recommendations on {}", getAddress());
+  }
+
+  /**
+   * Stops accepting requests, waits up to {@code delaySeconds} for queued ones to be answered, and stops.
+   */
+  public void stop(int delaySeconds) throws InterruptedException {
+    executor.shutdown();
+    executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  public InetSocketAddress getAddress() {
+    return server.getAddress();
+  }
+
+  /**
+   * @param args recommender class name, which must have a no-arg constructor; port; and optionally number of
+   *  threads and maximum number of queued requests
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println("Usage: RecommenderHttpServer recommenderClass port [numThreads] [maxQueuedRequests]");
+      return;
+    }
+    RecommenderSingleton.initializeIfNeeded(args[0]);
+    Recommender recommender = RecommenderSingleton.getInstance().getRecommender();
+    int port = Integer.parseInt(args[1]);
+    int numThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+    int maxQueuedRequests = args.length > 3 ? Integer.parseInt(args[3]) : 100 * numThreads;
+    new RecommenderHttpServer(recommender, new InetSocketAddress(port), numThreads, maxQueuedRequests).start();
+  }
+
+  private void submit(long userID, Request request) throws IOException {
+    while (true) {
+      PendingRecommendation existing = pending.get(userID);
+      if (existing != null && existing.join(request)) {
+        numCoalesced.incrementAndGet();
+        return;
+      }
+      PendingRecommendation created = new PendingRecommendation(userID, request);
+      boolean registered = existing == null
+          ? pending.putIfAbsent(userID, created) == null
+          : pending.replace(userID, existing, created);
+      if (registered) {
+        try {
+          executor.execute(created);
+        } catch (RejectedExecutionException ree) {
+          numRejected.incrementAndGet();
+          created.reject();
+        }
+        return;
+      }
+    }
+  }
+
+  private static Map<String,String> parseQuery(String query) throws IOException {
+    if (query == null) {
+      return Collections.emptyMap();
+    }
+    Map<String,String> params = Maps.newHashMap();
+    for (String param : query.split("&")) {
+      int equals = param.indexOf('=');
+      if (equals > 0) {
+        params.put(URLDecoder.decode(param.substring(0, equals), "UTF-8"),
+                   URLDecoder.decode(param.substring(equals + 1), "UTF-8"));
+      }
+    }
+    return params;
+  }
+
+  private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+    byte[] body = (message + '\n').getBytes(Charsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+    exchange.sendResponseHeaders(status, body.length);
+    OutputStream out = exchange.getResponseBody();
+    try {
+      out.write(body);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static void writeRecommendations(HttpExchange exchange, String format, List<RecommendedItem> items)
+    throws IOException {
+    exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+    if ("binary".equals(format)) {
+      exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+      exchange.sendResponseHeaders(200, 4L + 12L * items.size());
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(exchange.getResponseBody()));
+      try {
+        out.writeInt(items.size());
+        for (RecommendedItem item : items) {
+          out.writeLong(item.getItemID());
+          out.writeFloat(item.getValue());
+        }
+      } finally {
+        out.close();
+      }
+      return;
+    }
+
+    boolean json = "json".equals(format);
+    exchange.getResponseHeaders().set("Content-Type",
+                                      json ? "application/json; charset=UTF-8" : "text/plain; charset=UTF-8");
+    // Length 0 means chunked: the response is streamed as it is written
+    exchange.sendResponseHeaders(200, 0);
+    Writer writer = new OutputStreamWriter(new BufferedOutputStream(exchange.getResponseBody()), Charsets.UTF_8);
+    try {
+      if (json) {
+        writer.write("{\"recommendedItems\":[");
+        boolean first = true;
+        for (RecommendedItem item : items) {
+          if (!first) {
+            writer.write(',');
+          }
+          writer.write("{\"id\":");
+          writer.write(Long.toString(item.getItemID()));
+          writer.write(",\"value\":");
+          float value = item.getValue();
+          // JSON has no NaN nor infinities
+          writer.write(Float.isNaN(value) || Float.isInfinite(value) ? "null" : Float.toString(value));
+          writer.write('}');
+          first = false;
+        }
+        writer.write("]}\n");
+      } else {
+        for (RecommendedItem item : items) {
+          writer.write(Float.toString(item.getValue()));
+          writer.write('\t');
+          writer.write(Long.toString(item.getItemID()));
+          writer.write('\n');
+        }
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "RecommenderHttpServer[recommender:" + recommender + ']';
+  }
+
+  /** A request waiting for recommendations. */
+  private static final class Request {
+
+    private final HttpExchange exchange;
+    private final int howMany;
+    private final String format;
+    private final long start;
+
+    private Request(HttpExchange exchange, int howMany, String format, long start) {
+      this.exchange = exchange;
+      this.howMany = howMany;
+      this.format = format;
+      this.start = start;
+    }
+  }
+
+  /** Recommendations for one user, being computed for one or more requests. */
+  private final class PendingRecommendation implements Runnable {
+
+    private final long userID;
+    private final int howMany;
+    private final List<Request> requests;
+    private boolean done;
+
+    private PendingRecommendation(long userID, Request request) {
+      this.userID = userID;
+      this.howMany = request.howMany;
+      this.requests = Lists.newArrayListWithCapacity(1);
+      requests.add(request);
+    }
+
+    /** @return false if the request can't share this computation, as it is finished or wants more items */
+    private synchronized boolean join(Request request) {
+      if (done || request.howMany > howMany) {
+        return false;
+      }
+      requests.add(request);
+      return true;
+    }
+
+    private synchronized List<Request> finish() {
+      done = true;
+      return requests;
+    }
+
+    @Override
+    public void run() {
+      List<RecommendedItem> items = null;
+      Exception error = null;
+      try {
+        items = recommender.recommend(userID, howMany);
+      } catch (TasteException te) {
+        error = te;
+      } catch (RuntimeException re) {
+        error = re;
+      }
+      List<Request> finished = finish();
+      pending.remove(userID, this);
+
+      for (Request request : finished) {
+        try {
+          if (error instanceof NoSuchUserException) {
+            sendError(request.exchange, 404, "No such user: " + userID);
+          } else if (error != null) {
+            log.warn("Error while recommending for user " + userID, error);
+            sendError(request.exchange, 500, String.valueOf(error));
+          } else {
+            writeRecommendations(request.exchange, request.format,
+                                 items.size() > request.howMany ? items.subList(0, request.howMany) : items);
+          }
+        } catch (IOException ioe) {
+          log.warn("Error while writing recommendations for user {}: {}", userID, ioe);
+        } finally {
+          latencies.add(System.nanoTime() - request.start);
+        }
+      }
+    }
+
+    private void reject() throws IOException {
+      List<Request> rejected = finish();
+      pending.remove(userID, this);
+      for (Request request : rejected) {
+        sendError(request.exchange, 503, "Too many requests");
+      }
+    }
+  }
+
+  private final class RecommendHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      long start = System.nanoTime();
+      Map<String,String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+      String userIDString = params.get("userID");
+      String howManyString = params.get("howMany");
+      String format = params.containsKey("format") ? params.get("format") : "text";
+      long userID;
+      int howMany;
+      try {
+        Preconditions.checkArgument(userIDString != null, "userID was not specified");
+        userID = Long.parseLong(userIDString);
+        howMany = howManyString == null ? DEFAULT_HOW_MANY : Integer.parseInt(howManyString);
+        Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
+        Preconditions.checkArgument("text".equals(format) || "json".equals(format) || "binary".equals(format),
+                                    "Bad format parameter: %s", format);
+      } catch (IllegalArgumentException iae) {
+        // Includes NumberFormatException
+        sendError(exchange, 400, String.valueOf(iae.getMessage()));
+        return;
+      }
+      submit(userID, new Request(exchange, howMany, format, start));
+    }
+  }
+
+  private final class StatsHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      String stats = "{\"requests\":" + latencies.getCount()
+          + ",\"coalesced\":" + numCoalesced.get()
+          + ",\"rejected\":" + numRejected.get()
+          + ",\"queueDepth\":" + executor.getQueue().size()
+          + ",\"activeThreads\":" + executor.getActiveCount()
+          + ",\"p50Millis\":" + toMillis(latencies.getPercentile(50.0))
+          + ",\"p99Millis\":" + toMillis(latencies.getPercentile(99.0))
+          + "}\n";
+      byte[] body = stats.getBytes(Charsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+      exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+      exchange.sendResponseHeaders(200, body.length);
+      OutputStream out = exchange.getResponseBody();
+      try {
+        out.write(body);
+      } finally {
+        exchange.close();
+      }
+    }
+
+    private double toMillis(long nanos) {
+      return nanos / 1000000.0;
+    }
+  }
+
+}
@@ -55,6 +55,9 @@ import java.util.List;
  * a parameter named "recommender-class" which is the name of a class that implements
  * {@link Recommender} and has a no-arg constructor. The servlet will instantiate and use
  * this {@link Recommender} to produce recommendations.</p>
+ *
+ * <p>This servlet holds a container thread while recommendations are computed. {@link RecommenderHttpServer}
+ * serves the same requests without doing so.</p>
  */
 public final class RecommenderServlet extends HttpServlet {
 
@@ -0,0 +1,238 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.model.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.model.GenericPreference;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Test;
+
+public final class MySQLJDBCDataModelTest extends TasteTestCase {
+
+  private static final int NUM_USERS = 200;
+
+  @Test
+  public void testPartitionRange() {
+    assertArrayEquals(new long[] {1L, 10L}, AbstractJDBCDataModel.partitionRange(1L, 10L, 1));
+    assertArrayEquals(new long[] {1L, 3L, 4L, 6L, 7L, 10L}, AbstractJDBCDataModel.partitionRange(1L, 10L, 3));
+    // no more ranges than IDs
+    assertArrayEquals(new long[] {5L, 5L, 6L, 6L}, AbstractJDBCDataModel.partitionRange(5L, 6L, 4));
+    assertArrayEquals(new long[] {7L, 7L}, AbstractJDBCDataModel.partitionRange(7L, 7L, 3));
+  }
+
+  @Test
+  public void testPartitionRangeCoversAllLongs() {
+    long[] bounds = AbstractJDBCDataModel.partitionRange(Long.MIN_VALUE, Long.MAX_VALUE, 4);
+    assertEquals(8, bounds.length);
+    assertEquals(Long.MIN_VALUE, bounds[0]);
+    for (int i = 2; i < bounds.length; i += 2) {
+      assertEquals(bounds[i - 1] + 1, bounds[i]);
+      assertTrue(bounds[i] <= bounds[i + 1]);
+    }
+    assertEquals(Long.MAX_VALUE, bounds[bounds.length - 1]);
+  }
+
+  @Test
+  public void testExportPartitioned() throws Exception {
+    List<long[]> rows = Lists.newArrayList();
+    for (long userID = 1; userID <= NUM_USERS; userID++) {
+      // Some users have more rows than the readers' initial buffers hold
+      for (long item = 0; item < numItems(userID); item++) {
+        rows.add(new long[] {userID, itemID(userID, item)});
+      }
+    }
+    MySQLJDBCDataModel model = new MySQLJDBCDataModel(fakeDataSource(rows));
+
+    FastByIDMap<PreferenceArray> exported = model.exportWithPrefs(4);
+
+    assertEquals(NUM_USERS, exported.size());
+    for (long userID = 1; userID <= NUM_USERS; userID++) {
+      PreferenceArray prefs = exported.get(userID);
+      assertNotNull(prefs);
+      assertEquals(numItems(userID), prefs.length());
+      for (int i = 0; i < prefs.length(); i++) {
+        assertEquals(userID, prefs.getUserID(i));
+        assertEquals(itemID(userID, i), prefs.getItemID(i));
+        assertEquals(value(userID, itemID(userID, i)), prefs.getValue(i), EPSILON);
+      }
+    }
+  }
+
+  @Test
+  public void testExportBuildsPreferences() throws Exception {
+    List<long[]> rows = Lists.newArrayList();
+    rows.add(new long[] {1L, 10L});
+    rows.add(new long[] {1L, 11L});
+    rows.add(new long[] {2L, 10L});
+    MySQLJDBCDataModel model = new MySQLJDBCDataModel(fakeDataSource(rows)) {
+      @Override
+      protected Preference buildPreference(ResultSet rs) throws SQLException {
+        Preference pref = super.buildPreference(rs);
+        return new GenericPreference(pref.getUserID(), pref.getItemID(), 2.0f * pref.getValue());
+      }
+    };
+
+    FastByIDMap<PreferenceArray> exported = model.exportWithPrefs(2);
+
+    assertEquals(2, exported.size());
+    PreferenceArray prefs = exported.get(1L);
+    assertEquals(2, prefs.length());
+    assertEquals(11L, prefs.getItemID(1));
+    assertEquals(2.0f * value(1L, 11L), prefs.getValue(1), EPSILON);
+    assertEquals(2.0f * value(2L, 10L), exported.get(2L).getValue(0), EPSILON);
+  }
+
+  private static int numItems(long userID) {
+    return 1 + (int) (userID * 7 % 40);
+  }
+
+  private static long itemID(long userID, long item) {
+    return 1000L * userID + item;
+  }
+
+  private static float value(long userID, long itemID) {
+    return (float) ((userID + itemID) % 5 + 1);
+  }
+
+  /**
+   * @return a {@link DataSource} serving the user ID range and the rows of a range of users, as queried by the
+   *  partitioned exports, from the given rows of user and item ID ordered by user and item ID
+   */
+  private static DataSource fakeDataSource(final List<long[]> rows) {
+    final InvocationHandler connection = new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        if ("createStatement".equals(method.getName())) {
+          long min = rows.get(0)[0];
+          long max = rows.get(rows.size() - 1)[0];
+          return newProxy(Statement.class, new StatementHandler(Lists.newArrayList(new long[] {min, max})));
+        }
+        if ("prepareStatement".equals(method.getName())) {
+          return newProxy(PreparedStatement.class, new StatementHandler(rows));
+        }
+        return null;
+      }
+    };
+    return newProxy(DataSource.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        if ("getConnection".equals(method.getName())) {
+          return newProxy(Connection.class, connection);
+        }
+        return null;
+      }
+    });
+  }
+
+  /** Runs queries over the given rows, keeping those whose first column is between the two long parameters */
+  private static final class StatementHandler implements InvocationHandler {
+
+    private final List<long[]> rows;
+    private long from = Long.MIN_VALUE;
+    private long to = Long.MAX_VALUE;
+
+    private StatementHandler(List<long[]> rows) {
+      this.rows = rows;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      if ("setLong".equals(method.getName())) {
+        if ((Integer) args[0] == 1) {
+          from = (Long) args[1];
+        } else {
+          to = (Long) args[1];
+        }
+      } else if ("executeQuery".equals(method.getName())) {
+        List<long[]> selected = Lists.newArrayList();
+        for (long[] row : rows) {
+          if (row[0] >= from && row[0] <= to) {
+            selected.add(row);
+          }
+        }
+        return newProxy(ResultSet.class, new ResultSetHandler(selected));
+      }
+      return null;
+    }
+  }
+
+  private static final class ResultSetHandler implements InvocationHandler {
+
+    private final List<long[]> rows;
+    private int row = -1;
+
+    private ResultSetHandler(List<long[]> rows) {
+      this.rows = rows;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      String name = method.getName();
+      if ("next".equals(name)) {
+        // Let the other partitions' readers run in between rows
+        Thread.yield();
+        return ++row < rows.size();
+      }
+      if ("getLong".equals(name)) {
+        return rows.get(row)[(Integer) args[0] - 1];
+      }
+      if ("getFloat".equals(name)) {
+        return value(rows.get(row)[0], rows.get(row)[1]);
+      }
+      if ("wasNull".equals(name)) {
+        return false;
+      }
+      return null;
+    }
+  }
+
+  private static <T> T newProxy(final Class<T> type, final InvocationHandler handler) {
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if ("toString".equals(method.getName())) {
+          return "fake " + type.getSimpleName();
+        }
+        if ("hashCode".equals(method.getName())) {
+          return System.identityHashCode(proxy);
+        }
+        if ("equals".equals(method.getName())) {
+          return proxy == args[0];
+        }
+        return handler.invoke(proxy, method, args);
+      }
+    }));
+  }
+
+}
@@ -0,0 +1,233 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.web;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender;
+import org.apache.mahout.cf.taste.impl.recommender.GenericRecommendedItem;
+import org.apache.mahout.cf.taste.impl.similarity.EuclideanDistanceSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.junit.Test;
+
+/** Tests {@link RecommenderHttpServer}. */
+public final class RecommenderHttpServerTest extends TasteTestCase {
+
+  private static DataModel getModel() {
+    return getDataModel(
+        new long[] {1, 2, 3, 4},
+        new Double[][] {
+            {0.1, 0.3},
+            {0.2, 0.3, 0.3, 0.1},
+            {0.4, 0.3, 0.5},
+            {0.7, 0.3, 0.8, 0.2},
+        });
+  }
+
+  @Test
+  public void testFormats() throws Exception {
+    DataModel model = getModel();
+    Recommender recommender = new GenericItemBasedRecommender(model, new EuclideanDistanceSimilarity(model));
+    List<RecommendedItem> expected = recommender.recommend(1, 2);
+    assertFalse(expected.isEmpty());
+
+    RecommenderHttpServer server = startServer(recommender, 2);
+    try {
+      String text = fetch(server, "/recommend?userID=1&howMany=2");
+      StringBuilder expectedText = new StringBuilder();
+      for (RecommendedItem item : expected) {
+        expectedText.append(item.getValue()).append('\t').append(item.getItemID()).append('\n');
+      }
+      assertEquals(expectedText.toString(), text);
+
+      String json = fetch(server, "/recommend?userID=1&howMany=2&format=json");
+      assertTrue(json.startsWith("{\"recommendedItems\":[{\"id\":" + expected.get(0).getItemID() + ','));
+
+      HttpURLConnection connection = open(server, "/recommend?userID=1&howMany=2&format=binary");
+      DataInputStream in = new DataInputStream(connection.getInputStream());
+      try {
+        assertEquals(expected.size(), in.readInt());
+        for (RecommendedItem item : expected) {
+          assertEquals(item.getItemID(), in.readLong());
+          assertEquals(item.getValue(), in.readFloat(), EPSILON);
+        }
+        assertEquals(-1, in.read());
+      } finally {
+        in.close();
+      }
+
+      assertEquals(404, open(server, "/recommend?userID=5").getResponseCode());
+      assertEquals(400, open(server, "/recommend?userID=x").getResponseCode());
+      assertEquals(400, open(server, "/recommend?userID=1&format=csv").getResponseCode());
+
+      String stats = fetch(server, "/stats");
+      assertTrue(stats.startsWith("{\"requests\":4,"));
+      assertTrue(stats.contains("\"p99Millis\":"));
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void testJSONNonFiniteValues() throws Exception {
+    DataModel model = getModel();
+    Recommender recommender = new GenericItemBasedRecommender(model, new EuclideanDistanceSimilarity(model)) {
+      @Override
+      public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) {
+        List<RecommendedItem> items = Lists.newArrayList();
+        items.add(new GenericRecommendedItem(7L, Float.POSITIVE_INFINITY));
+        items.add(new RecommendedItem() {
+          @Override
+          public long getItemID() {
+            return 8L;
+          }
+          @Override
+          public float getValue() {
+            return Float.NaN;
+          }
+        });
+        items.add(new GenericRecommendedItem(9L, 0.5f));
+        return items;
+      }
+    };
+
+    RecommenderHttpServer server = startServer(recommender, 1);
+    try {
+      assertEquals("{\"recommendedItems\":[{\"id\":7,\"value\":null},{\"id\":8,\"value\":null},"
+                   + "{\"id\":9,\"value\":0.5}]}\n",
+                   fetch(server, "/recommend?userID=1&format=json"));
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void testCoalescing() throws Exception {
+    DataModel model = getModel();
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger numCalls = new AtomicInteger();
+    Recommender recommender = new GenericItemBasedRecommender(model, new EuclideanDistanceSimilarity(model)) {
+      @Override
+      public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer)
+        throws TasteException {
+        numCalls.incrementAndGet();
+        entered.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException ie) {
+          throw new TasteException(ie);
+        }
+        return super.recommend(userID, howMany, rescorer);
+      }
+    };
+
+    final RecommenderHttpServer server = startServer(recommender, 1);
+    ExecutorService clients = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<String>> responses = Lists.newArrayList();
+      for (int i = 0; i < 4; i++) {
+        final int howMany = i == 0 ? 3 : i;
+        responses.add(clients.submit(new Callable<String>() {
+          @Override
+          public String call() throws IOException {
+            return fetch(server, "/recommend?userID=1&howMany=" + howMany);
+          }
+        }));
+        if (i == 0) {
+          entered.await();
+        }
+      }
+      long deadline = System.currentTimeMillis() + 10000L;
+      while (!fetch(server, "/stats").contains("\"coalesced\":3,")) {
+        assertTrue("Requests were not coalesced in time", System.currentTimeMillis() < deadline);
+        Thread.sleep(10L);
+      }
+      release.countDown();
+
+      String all = responses.get(0).get();
+      for (Future<String> response : responses) {
+        assertTrue(all.startsWith(response.get()));
+      }
+      assertEquals(1, numCalls.get());
+    } finally {
+      release.countDown();
+      clients.shutdownNow();
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void testLatencyTracker() {
+    LatencyTracker tracker = new LatencyTracker(100);
+    assertEquals(0L, tracker.getPercentile(50.0));
+    for (long latency = 1; latency <= 200; latency++) {
+      tracker.add(latency);
+    }
+    assertEquals(200L, tracker.getCount());
+    // Only the last 100 are kept
+    assertEquals(101L, tracker.getPercentile(0.0));
+    assertEquals(150L, tracker.getPercentile(50.0));
+    assertEquals(199L, tracker.getPercentile(99.0));
+    assertEquals(200L, tracker.getPercentile(100.0));
+  }
+
+  private static RecommenderHttpServer startServer(Recommender recommender, int numThreads) throws IOException {
+    RecommenderHttpServer server =
+        new RecommenderHttpServer(recommender, new InetSocketAddress("localhost", 0), numThreads, 10);
+    server.start();
+    return server;
+  }
+
+  private static HttpURLConnection open(RecommenderHttpServer server, String path) throws IOException {
+    URL url = new URL("http", "localhost", server.getAddress().getPort(), path);
+    return (HttpURLConnection) url.openConnection();
+  }
+
+  private static String fetch(RecommenderHttpServer server, String path) throws IOException {
+    HttpURLConnection connection = open(server, path);
+    assertEquals(200, connection.getResponseCode());
+    InputStream in = connection.getInputStream();
+    try {
+      return new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+    } finally {
+      in.close();
+    }
+  }
+
+}
@@ -18,9 +18,9 @@
 package org.apache.mahout.math;
 
 import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.function.AbstractDoubleDoubleFunction;
 import org.apache.mahout.math.function.DoubleDoubleFunction;
 import org.apache.mahout.math.function.DoubleFunction;
-import org.apache.mahout.math.function.Functions;
 
 import java.util.Iterator;
 
@@ -41,6 +41,15 @@ public abstract class AbstractVector implements Vector {
     if (size < 1) {
       throw new IllegalArgumentException("Cannot aggregate empty vector");
     }
+    if (isSparseAggregator(aggregator) && map.apply(0.0) == 0.0) {
+      // zeros map to zero, which the aggregator ignores
+      double result = 0.0;
+      Iterator<Element> elements = iterateNonZero();
+      while (elements.hasNext()) {
+        result = aggregator.apply(result, map.apply(elements.next().get()));
+      }
+      return result;
+    }
     double result = map.apply(getQuick(0));
     for (int i = 1; i < size; i++) {
       result = aggregator.apply(result, map.apply(getQuick(i)));
@@ -53,6 +62,12 @@ public abstract class AbstractVector implements Vector {
     if (size < 1) {
       throw new IllegalArgumentException("Cannot aggregate empty vector");
     }
+    if (size != other.size()) {
+      throw new CardinalityException(size, other.size());
+    }
+    if (isSparseAggregator(aggregator) && combiner.apply(0.0, 0.0) == 0.0 && !(isDense() && other.isDense())) {
+      return aggregateNonZero(other, aggregator, combiner);
+    }
     double result = combiner.apply(getQuick(0), other.getQuick(0));
     for (int i = 1; i < size; i++) {
       result = aggregator.apply(result, combiner.apply(getQuick(i), other.getQuick(i)));
@@ -60,6 +75,76 @@ public abstract class AbstractVector implements Vector {
     return result;
   }
 
+  /**
+   * @return true if an aggregation with {@code aggregator} may skip zeros and visit the rest in any order
+   */
+  static boolean isSparseAggregator(DoubleDoubleFunction aggregator) {
+    return isLikeRightPlus(aggregator) && isAssociativeAndCommutative(aggregator);
+  }
+
+  /** @return true if the function declares that f(x, 0) = x for any x */
+  static boolean isLikeRightPlus(DoubleDoubleFunction function) {
+    return function instanceof AbstractDoubleDoubleFunction
+        && ((AbstractDoubleDoubleFunction) function).isLikeRightPlus();
+  }
+
+  /** @return true if the function declares that f(0, y) = 0 for any y */
+  static boolean isLikeLeftMult(DoubleDoubleFunction function) {
+    return function instanceof AbstractDoubleDoubleFunction
+        && ((AbstractDoubleDoubleFunction) function).isLikeLeftMult();
+  }
+
+  /** @return true if the function declares that f(x, 0) = 0 for any x */
+  static boolean isLikeRightMult(DoubleDoubleFunction function) {
+    return function instanceof AbstractDoubleDoubleFunction
+        && ((AbstractDoubleDoubleFunction) function).isLikeRightMult();
+  }
+
+  /** @return true if the function declares that it is associative and commutative */
+  static boolean isAssociativeAndCommutative(DoubleDoubleFunction function) {
+    return function instanceof AbstractDoubleDoubleFunction
+        && ((AbstractDoubleDoubleFunction) function).isAssociativeAndCommutative();
+  }
+
+  /**
+   * Aggregates, with an aggregator for which {@link #isSparseAggregator(DoubleDoubleFunction)}, the combinations
+   * of elements where either vector is non-zero, or only where both are if the combiner is zero when either
+   * argument is. Each vector is looked up at the non-zero elements of the other.
+   */
+  private double aggregateNonZero(Vector other, DoubleDoubleFunction aggregator, DoubleDoubleFunction combiner) {
+    double result = 0.0;
+    if (isLikeLeftMult(combiner) && isLikeRightMult(combiner)) {
+      if (other.getNumNondefaultElements() < getNumNondefaultElements()) {
+        Iterator<Element> elements = other.iterateNonZero();
+        while (elements.hasNext()) {
+          Element element = elements.next();
+          result = aggregator.apply(result, combiner.apply(getQuick(element.index()), element.get()));
+        }
+      } else {
+        Iterator<Element> elements = iterateNonZero();
+        while (elements.hasNext()) {
+          Element element = elements.next();
+          result = aggregator.apply(result, combiner.apply(element.get(), other.getQuick(element.index())));
+        }
+      }
+      return result;
+    }
+    Iterator<Element> elements = iterateNonZero();
+    while (elements.hasNext()) {
+      Element element = elements.next();
+      result = aggregator.apply(result, combiner.apply(element.get(), other.getQuick(element.index())));
+    }
+    elements = other.iterateNonZero();
+    while (elements.hasNext()) {
+      Element element = elements.next();
+      // those where this is non-zero were combined above
+      if (getQuick(element.index()) == 0.0) {
+        result = aggregator.apply(result, combiner.apply(0.0, element.get()));
+      }
+    }
+    return result;
+  }
+
   /**
    * Subclasses must override to return an appropriately sparse or dense result
    *
@@ -552,13 +637,19 @@ public abstract class AbstractVector implements Vector {
       throw new CardinalityException(size, other.size());
     }
 
-    /* special case: we only need to iterate over the non-zero elements of the vector to add */
-    if (Functions.PLUS.equals(function)) {
+    /* special cases: we only need to iterate over the non-zero elements of the vector whose zeros change nothing */
+    if (isLikeRightPlus(function)) {
       Iterator<Vector.Element> nonZeroElements = other.iterateNonZero();
       while (nonZeroElements.hasNext()) {
         Vector.Element e = nonZeroElements.next();
         setQuick(e.index(), function.apply(getQuick(e.index()), e.get()));
       }
+    } else if (isLikeLeftMult(function)) {
+      Iterator<Vector.Element> nonZeroElements = iterateNonZero();
+      while (nonZeroElements.hasNext()) {
+        Vector.Element e = nonZeroElements.next();
+        e.set(function.apply(e.get(), other.getQuick(e.index())));
+      }
     } else {
       for (int i = 0; i < size; i++) {
         setQuick(i, function.apply(getQuick(i), other.getQuick(i)));
@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+/**
+ * <p>
+ * Immutable sparse matrix in compressed sparse column (CSC) form: the row indices of the non-zero elements of all
+ * columns, in column order, in one int[], their values in one double[], and for each column the position in those
+ * arrays where its elements start. This is the CSR form of the transpose, and the two share their kernels;
+ * {@link #transpose()} returns a {@link CompressedSparseRowMatrix} over the same arrays.
+ * </p>
+ *
+ * <p>
+ * Columns are cheap to read, rows are read by binary search in every column. {@link #times(Vector)} adds each
+ * column, scaled, into the result, in parallel across blocks of columns for large matrices.
+ * </p>
+ */
+public class CompressedSparseColumnMatrix extends AbstractMatrix {
+
+  private final CompressedSparseStorage storage;
+
+  /**
+   * Compresses a matrix, reading it by row as {@link CompressedSparseRowMatrix} does, and then regrouping the
+   * elements by column.
+   *
+   * @param matrix the matrix to compress, whose slices must be its rows
+   */
+  public CompressedSparseColumnMatrix(VectorIterable matrix) {
+    this(CompressedSparseStorage.compressRows(matrix).transpose());
+  }
+
+  /**
+   * Wraps arrays already in CSC form, without copying them. They must not be modified afterwards.
+   *
+   * @param rows the number of rows
+   * @param columns the number of columns
+   * @param columnPointers for each column, the position of its first element, followed by the number of elements
+   * @param rowIndices the row index of each element, increasing within each column
+   * @param values the value of each element
+   * @throws IllegalArgumentException if the arrays are not consistent
+   */
+  public CompressedSparseColumnMatrix(int rows, int columns, int[] columnPointers, int[] rowIndices, double[] values) {
+    this(CompressedSparseStorage.wrap(columns, rows, columnPointers, rowIndices, values));
+  }
+
+  CompressedSparseColumnMatrix(CompressedSparseStorage storage) {
+    super(storage.numMinor(), storage.numMajor());
+    this.storage = storage;
+  }
+
+  /** @return the number of non-zero elements stored */
+  public int numNonZeros() {
+    return storage.numNonZeros();
+  }
+
+  @Override
+  public double getQuick(int row, int column) {
+    return storage.get(column, row);
+  }
+
+  @Override
+  public void setQuick(int row, int column, double value) {
+    throw new UnsupportedOperationException("Can't assign to read-only matrix");
+  }
+
+  @Override
+  public Matrix assignColumn(int column, Vector other) {
+    throw new UnsupportedOperationException("Can't assign to read-only matrix");
+  }
+
+  @Override
+  public Matrix assignRow(int row, Vector other) {
+    throw new UnsupportedOperationException("Can't assign to read-only matrix");
+  }
+
+  @Override
+  public Matrix like() {
+    return new SparseColumnMatrix(rowSize(), columnSize());
+  }
+
+  @Override
+  public Matrix like(int rows, int columns) {
+    return new SparseColumnMatrix(rows, columns);
+  }
+
+  @Override
+  public int[] getNumNondefaultElements() {
+    int[] result = new int[2];
+    result[COL] = columnSize();
+    result[ROW] = storage.maxMajorLength();
+    return result;
+  }
+
+  @Override
+  public Matrix viewPart(int[] offset, int[] size) {
+    return new MatrixView(this, offset, size);
+  }
+
+  /**
+   * @param column an int column index
+   * @return a copy of the column, as a {@link SequentialAccessSparseVector}
+   */
+  @Override
+  public Vector viewColumn(int column) {
+    if (column < 0 || column >= columnSize()) {
+      throw new IndexException(column, columnSize());
+    }
+    return storage.majorVector(column);
+  }
+
+  @Override
+  public Vector times(Vector v) {
+    if (columnSize() != v.size()) {
+      throw new CardinalityException(columnSize(), v.size());
+    }
+    return new DenseVector(storage.scatter(CompressedSparseRowMatrix.toArray(v)), true);
+  }
+
+  /**
+   * @param v a vector with cardinality equal to the number of rows
+   * @return the product of the transpose of this matrix with {@code v}, computed without transposing
+   * @throws CardinalityException if the number of rows is not {@code v.size()}
+   */
+  public Vector transposeTimes(Vector v) {
+    if (rowSize() != v.size()) {
+      throw new CardinalityException(rowSize(), v.size());
+    }
+    return new DenseVector(storage.gather(CompressedSparseRowMatrix.toArray(v)), true);
+  }
+
+  @Override
+  public Vector timesSquared(Vector v) {
+    if (columnSize() != v.size()) {
+      throw new CardinalityException(columnSize(), v.size());
+    }
+    return new DenseVector(storage.gather(storage.scatter(CompressedSparseRowMatrix.toArray(v))), true);
+  }
+
+  @Override
+  public Matrix transpose() {
+    return new CompressedSparseRowMatrix(storage);
+  }
+
+  @Override
+  public double zSum() {
+    return storage.sum();
+  }
+
+}
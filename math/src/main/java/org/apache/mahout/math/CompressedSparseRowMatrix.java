@@ -0,0 +1,184 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.util.Iterator;
+
+/**
+ * <p>
+ * Immutable sparse matrix in compressed sparse row (CSR) form: the column indices of the non-zero elements of all
+ * rows, in row order, in one int[], their values in one double[], and for each row the position in those arrays
+ * where its elements start. Unlike {@link SparseRowMatrix} there is no object per row, and products with vectors
+ * run straight over the three arrays, in parallel across blocks of rows for large matrices.
+ * </p>
+ *
+ * <p>
+ * Random access is by binary search within a row. {@link #transpose()} returns a {@link CompressedSparseColumnMatrix}
+ * sharing the same arrays, without copying.
+ * </p>
+ */
+public class CompressedSparseRowMatrix extends AbstractMatrix {
+
+  private final CompressedSparseStorage storage;
+
+  /**
+   * Compresses a matrix. A {@link Matrix}, such as a {@link SparseRowMatrix}, is read row by row; any other
+   * {@link VectorIterable}, such as a matrix in a SequenceFile of row index and row, is read in one pass over its
+   * slices.
+   *
+   * @param matrix the matrix to compress, whose slices must be its rows
+   */
+  public CompressedSparseRowMatrix(VectorIterable matrix) {
+    this(CompressedSparseStorage.compressRows(matrix));
+  }
+
+  /**
+   * Wraps arrays already in CSR form, without copying them. They must not be modified afterwards.
+   *
+   * @param rows the number of rows
+   * @param columns the number of columns
+   * @param rowPointers for each row, the position of its first element, followed by the number of elements
+   * @param columnIndices the column index of each element, increasing within each row
+   * @param values the value of each element
+   * @throws IllegalArgumentException if the arrays are not consistent
+   */
+  public CompressedSparseRowMatrix(int rows, int columns, int[] rowPointers, int[] columnIndices, double[] values) {
+    this(CompressedSparseStorage.wrap(rows, columns, rowPointers, columnIndices, values));
+  }
+
+  CompressedSparseRowMatrix(CompressedSparseStorage storage) {
+    super(storage.numMajor(), storage.numMinor());
+    this.storage = storage;
+  }
+
+  /** @return the number of non-zero elements stored */
+  public int numNonZeros() {
+    return storage.numNonZeros();
+  }
+
+  @Override
+  public double getQuick(int row, int column) {
+    return storage.get(row, column);
+  }
+
+  @Override
+  public void setQuick(int row, int column, double value) {
+    throw new UnsupportedOperationException("Can't assign to read-only matrix");
+  }
+
+  @Override
+  public Matrix assignColumn(int column, Vector other) {
+    throw new UnsupportedOperationException("Can't assign to read-only matrix");
+  }
+
+  @Override
+  public Matrix assignRow(int row, Vector other) {
+    throw new UnsupportedOperationException("Can't assign to read-only matrix");
+  }
+
+  @Override
+  public Matrix like() {
+    return new SparseRowMatrix(rowSize(), columnSize());
+  }
+
+  @Override
+  public Matrix like(int rows, int columns) {
+    return new SparseRowMatrix(rows, columns);
+  }
+
+  @Override
+  public int[] getNumNondefaultElements() {
+    int[] result = new int[2];
+    result[ROW] = rowSize();
+    result[COL] = storage.maxMajorLength();
+    return result;
+  }
+
+  @Override
+  public Matrix viewPart(int[] offset, int[] size) {
+    return new MatrixView(this, offset, size);
+  }
+
+  /**
+   * @param row an int row index
+   * @return a copy of the row, as a {@link SequentialAccessSparseVector}
+   */
+  @Override
+  public Vector viewRow(int row) {
+    if (row < 0 || row >= rowSize()) {
+      throw new IndexException(row, rowSize());
+    }
+    return storage.majorVector(row);
+  }
+
+  @Override
+  public Vector times(Vector v) {
+    if (columnSize() != v.size()) {
+      throw new CardinalityException(columnSize(), v.size());
+    }
+    return new DenseVector(storage.gather(toArray(v)), true);
+  }
+
+  /**
+   * @param v a vector with cardinality equal to the number of rows
+   * @return the product of the transpose of this matrix with {@code v}, computed without transposing
+   * @throws CardinalityException if the number of rows is not {@code v.size()}
+   */
+  public Vector transposeTimes(Vector v) {
+    if (rowSize() != v.size()) {
+      throw new CardinalityException(rowSize(), v.size());
+    }
+    return new DenseVector(storage.scatter(toArray(v)), true);
+  }
+
+  @Override
+  public Vector timesSquared(Vector v) {
+    if (columnSize() != v.size()) {
+      throw new CardinalityException(columnSize(), v.size());
+    }
+    return new DenseVector(storage.gatherScatter(toArray(v)), true);
+  }
+
+  @Override
+  public Matrix transpose() {
+    return new CompressedSparseColumnMatrix(storage);
+  }
+
+  @Override
+  public double zSum() {
+    return storage.sum();
+  }
+
+  static double[] toArray(Vector v) {
+    double[] x = new double[v.size()];
+    if (v.isDense()) {
+      for (int i = 0; i < x.length; i++) {
+        x[i] = v.getQuick(i);
+      }
+    } else {
+      Iterator<Vector.Element> elements = v.iterateNonZero();
+      while (elements.hasNext()) {
+        Vector.Element element = elements.next();
+        x[element.index()] = element.get();
+      }
+    }
+    return x;
+  }
+
+}
@@ -0,0 +1,373 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.google.common.collect.Lists;
+
+/**
+ * <p>
+ * The arrays behind {@link CompressedSparseRowMatrix} and {@link CompressedSparseColumnMatrix}, and the kernels that
+ * multiply them with vectors. Non-zero elements are grouped by their major index (the row of a CSR matrix, the
+ * column of a CSC matrix): those with major index {@code i} are at positions {@code pointers[i]} to
+ * {@code pointers[i + 1]} of {@code indices}, which holds their minor indices in increasing order, and of
+ * {@code values}.
+ * </p>
+ *
+ * <p>
+ * The same arrays describe a matrix in CSR form and its transpose in CSC form, so a transpose shares them. Nothing
+ * here modifies them once built.
+ * </p>
+ *
+ * <p>
+ * Kernels over enough non-zero elements split the major indices into blocks with about the same number of
+ * elements each, and run the blocks in parallel with {@link ParallelTasks}.
+ * </p>
+ */
+final class CompressedSparseStorage {
+
+  /** Kernels over fewer non-zero elements than this run on the calling thread */
+  private static final int MIN_PARALLEL_NON_ZEROS = 1 << 17;
+
+  private final int numMajor;
+  private final int numMinor;
+  private final int[] pointers;
+  private final int[] indices;
+  private final double[] values;
+
+  private CompressedSparseStorage(int numMajor, int numMinor, int[] pointers, int[] indices, double[] values) {
+    this.numMajor = numMajor;
+    this.numMinor = numMinor;
+    this.pointers = pointers;
+    this.indices = indices;
+    this.values = values;
+  }
+
+  /**
+   * Wraps arrays in compressed form, after checking that they are consistent.
+   *
+   * @throws IllegalArgumentException if they are not
+   */
+  static CompressedSparseStorage wrap(int numMajor, int numMinor, int[] pointers, int[] indices, double[] values) {
+    if (pointers.length != numMajor + 1 || pointers[0] != 0) {
+      throw new IllegalArgumentException("Need " + (numMajor + 1) + " pointers, starting at 0");
+    }
+    if (indices.length != values.length || pointers[numMajor] != indices.length) {
+      throw new IllegalArgumentException("Need " + pointers[numMajor] + " indices and values but got "
+          + indices.length + " and " + values.length);
+    }
+    for (int major = 0; major < numMajor; major++) {
+      if (pointers[major] > pointers[major + 1]) {
+        throw new IllegalArgumentException("Pointers decrease at " + major);
+      }
+      int previous = -1;
+      for (int position = pointers[major]; position < pointers[major + 1]; position++) {
+        int minor = indices[position];
+        if (minor <= previous || minor >= numMinor) {
+          throw new IllegalArgumentException("Index " + minor + " at " + position + " is out of order or range");
+        }
+        previous = minor;
+      }
+    }
+    return new CompressedSparseStorage(numMajor, numMinor, pointers, indices, values);
+  }
+
+  /**
+   * Compresses the non-zero elements of a matrix by row. The rows of a {@link Matrix} are read with
+   * {@link Matrix#viewRow(int)}; those of any other {@link VectorIterable}, such as a matrix stored in a
+   * SequenceFile, are read in one pass over its slices, which may come in any order.
+   */
+  static CompressedSparseStorage compressRows(VectorIterable matrix) {
+    int rows = matrix.numRows();
+    int columns = matrix.numCols();
+    int[][] rowIndices = new int[rows][];
+    double[][] rowValues = new double[rows][];
+    if (matrix instanceof Matrix) {
+      for (int row = 0; row < rows; row++) {
+        compressRow(((Matrix) matrix).viewRow(row), row, columns, rowIndices, rowValues);
+      }
+    } else {
+      for (MatrixSlice slice : matrix) {
+        int row = slice.index();
+        if (row < 0 || row >= rows) {
+          throw new IndexException(row, rows);
+        }
+        compressRow(slice.vector(), row, columns, rowIndices, rowValues);
+      }
+    }
+
+    int[] pointers = new int[rows + 1];
+    for (int row = 0; row < rows; row++) {
+      pointers[row + 1] = pointers[row] + (rowIndices[row] == null ? 0 : rowIndices[row].length);
+    }
+    int[] indices = new int[pointers[rows]];
+    double[] values = new double[pointers[rows]];
+    for (int row = 0; row < rows; row++) {
+      if (rowIndices[row] != null) {
+        System.arraycopy(rowIndices[row], 0, indices, pointers[row], rowIndices[row].length);
+        System.arraycopy(rowValues[row], 0, values, pointers[row], rowValues[row].length);
+      }
+    }
+    return new CompressedSparseStorage(rows, columns, pointers, indices, values);
+  }
+
+  private static void compressRow(Vector vector, int row, int columns, int[][] rowIndices, double[][] rowValues) {
+    if (vector.size() != columns) {
+      throw new CardinalityException(columns, vector.size());
+    }
+    int[] indices = new int[vector.getNumNondefaultElements()];
+    double[] values = new double[indices.length];
+    int length = 0;
+    Iterator<Vector.Element> elements = vector.iterateNonZero();
+    while (elements.hasNext()) {
+      Vector.Element element = elements.next();
+      double value = element.get();
+      if (value != 0.0) {
+        if (length == indices.length) {
+          indices = Arrays.copyOf(indices, 2 * length + 1);
+          values = Arrays.copyOf(values, 2 * length + 1);
+        }
+        indices[length] = element.index();
+        values[length++] = value;
+      }
+    }
+    indices = Arrays.copyOf(indices, length);
+    values = Arrays.copyOf(values, length);
+    if (!vector.isSequentialAccess()) {
+      Arrays.sort(indices);
+      for (int i = 0; i < length; i++) {
+        values[i] = vector.getQuick(indices[i]);
+      }
+    }
+    rowIndices[row] = indices;
+    rowValues[row] = values;
+  }
+
+  /** @return the same elements grouped by minor index instead, with a counting sort */
+  CompressedSparseStorage transpose() {
+    int[] transposedPointers = new int[numMinor + 1];
+    for (int index : indices) {
+      transposedPointers[index + 1]++;
+    }
+    for (int minor = 0; minor < numMinor; minor++) {
+      transposedPointers[minor + 1] += transposedPointers[minor];
+    }
+    int[] next = Arrays.copyOf(transposedPointers, numMinor);
+    int[] transposedIndices = new int[indices.length];
+    double[] transposedValues = new double[values.length];
+    for (int major = 0; major < numMajor; major++) {
+      for (int position = pointers[major]; position < pointers[major + 1]; position++) {
+        int target = next[indices[position]]++;
+        transposedIndices[target] = major;
+        transposedValues[target] = values[position];
+      }
+    }
+    return new CompressedSparseStorage(numMinor, numMajor, transposedPointers, transposedIndices, transposedValues);
+  }
+
+  int numMajor() {
+    return numMajor;
+  }
+
+  int numMinor() {
+    return numMinor;
+  }
+
+  int numNonZeros() {
+    return values.length;
+  }
+
+  /** @return the largest number of non-zero elements with the same major index */
+  int maxMajorLength() {
+    int max = 0;
+    for (int major = 0; major < numMajor; major++) {
+      max = Math.max(max, pointers[major + 1] - pointers[major]);
+    }
+    return max;
+  }
+
+  double get(int major, int minor) {
+    int position = Arrays.binarySearch(indices, pointers[major], pointers[major + 1], minor);
+    return position < 0 ? 0.0 : values[position];
+  }
+
+  /** @return a copy of the elements with the given major index */
+  Vector majorVector(int major) {
+    int from = pointers[major];
+    int to = pointers[major + 1];
+    Vector vector = new SequentialAccessSparseVector(numMinor, to - from);
+    for (int position = from; position < to; position++) {
+      vector.setQuick(indices[position], values[position]);
+    }
+    return vector;
+  }
+
+  double sum() {
+    double sum = 0.0;
+    for (double value : values) {
+      sum += value;
+    }
+    return sum;
+  }
+
+  /**
+   * @param x one value per minor index
+   * @return for each major index, the sum of its elements times the values of {@code x} at their minor indices
+   */
+  double[] gather(final double[] x) {
+    final double[] y = new double[numMajor];
+    int[] blocks = blocks(4 * ParallelTasks.NUM_THREADS);
+    List<Callable<Void>> tasks = Lists.newArrayList();
+    for (int block = 0; block + 1 < blocks.length; block++) {
+      final int from = blocks[block];
+      final int to = blocks[block + 1];
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          for (int major = from; major < to; major++) {
+            y[major] = dot(major, x);
+          }
+          return null;
+        }
+      });
+    }
+    run(tasks);
+    return y;
+  }
+
+  /**
+   * @param x one value per major index
+   * @return for each minor index, the sum of its elements times the values of {@code x} at their major indices
+   */
+  double[] scatter(final double[] x) {
+    return accumulate(new Accumulator() {
+      @Override
+      public void accumulate(int major, double[] y) {
+        addTo(major, x[major], y);
+      }
+    });
+  }
+
+  /**
+   * @param x one value per minor index
+   * @return for each minor index, the result of {@link #scatter(double[])} applied to {@link #gather(double[])} of
+   *  {@code x}, computed in one pass
+   */
+  double[] gatherScatter(final double[] x) {
+    return accumulate(new Accumulator() {
+      @Override
+      public void accumulate(int major, double[] y) {
+        double d = dot(major, x);
+        if (d != 0.0) {
+          addTo(major, d, y);
+        }
+      }
+    });
+  }
+
+  private double dot(int major, double[] x) {
+    double sum = 0.0;
+    for (int position = pointers[major]; position < pointers[major + 1]; position++) {
+      sum += values[position] * x[indices[position]];
+    }
+    return sum;
+  }
+
+  private void addTo(int major, double multiplier, double[] y) {
+    for (int position = pointers[major]; position < pointers[major + 1]; position++) {
+      y[indices[position]] += multiplier * values[position];
+    }
+  }
+
+  private interface Accumulator {
+    void accumulate(int major, double[] y);
+  }
+
+  /**
+   * Runs an accumulator over all major indices into one array per minor index. Blocks run in parallel add into
+   * arrays of their own, which are summed at the end, so there are only as many blocks as threads.
+   */
+  private double[] accumulate(final Accumulator accumulator) {
+    int[] blocks = blocks(ParallelTasks.NUM_THREADS);
+    final double[][] partialSums = new double[blocks.length - 1][];
+    List<Callable<Void>> tasks = Lists.newArrayList();
+    for (int block = 0; block + 1 < blocks.length; block++) {
+      final int index = block;
+      final int from = blocks[block];
+      final int to = blocks[block + 1];
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          double[] y = new double[numMinor];
+          for (int major = from; major < to; major++) {
+            accumulator.accumulate(major, y);
+          }
+          partialSums[index] = y;
+          return null;
+        }
+      });
+    }
+    run(tasks);
+    double[] y = partialSums[0];
+    for (int block = 1; block < partialSums.length; block++) {
+      for (int minor = 0; minor < numMinor; minor++) {
+        y[minor] += partialSums[block][minor];
+      }
+    }
+    return y;
+  }
+
+  /**
+   * @return boundaries of up to {@code maxBlocks} blocks of major indices with about the same number of non-zero
+   *  elements each, or a single block if there are too few elements to run in parallel
+   */
+  private int[] blocks(int maxBlocks) {
+    int numBlocks = values.length < MIN_PARALLEL_NON_ZEROS ? 1 : Math.max(1, Math.min(maxBlocks, numMajor));
+    int[] blocks = new int[numBlocks + 1];
+    for (int block = 1; block < numBlocks; block++) {
+      int target = (int) ((long) values.length * block / numBlocks);
+      int major = Arrays.binarySearch(pointers, target);
+      if (major < 0) {
+        major = -major - 1;
+      }
+      blocks[block] = Math.max(blocks[block - 1], Math.min(major, numMajor));
+    }
+    blocks[numBlocks] = numMajor;
+    return blocks;
+  }
+
+  private static void run(List<Callable<Void>> tasks) {
+    if (tasks.size() == 1) {
+      try {
+        tasks.get(0).call();
+      } catch (RuntimeException re) {
+        throw re;
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    } else {
+      ParallelTasks.invokeAll(tasks);
+    }
+  }
+
+}
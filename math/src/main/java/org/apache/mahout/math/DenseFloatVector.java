@@ -0,0 +1,259 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import com.google.common.collect.AbstractIterator;
+import org.apache.mahout.math.function.DoubleDoubleFunction;
+
+/**
+ * Implements vector as an array of floats, in half the memory of a {@link DenseVector}. Values are rounded to
+ * float when set and widened to double when read, so all arithmetic is done in double.
+ */
+public class DenseFloatVector extends AbstractVector {
+
+  private float[] values;
+
+  /** For serialization purposes only */
+  public DenseFloatVector() {
+    super(0);
+  }
+
+  /** Construct a new instance using provided values */
+  public DenseFloatVector(float[] values) {
+    this(values, false);
+  }
+
+  public DenseFloatVector(float[] values, boolean shallowCopy) {
+    super(values.length);
+    this.values = shallowCopy ? values : values.clone();
+  }
+
+  /** Construct a new instance of the given cardinality */
+  public DenseFloatVector(int cardinality) {
+    super(cardinality);
+    this.values = new float[cardinality];
+  }
+
+  /**
+   * Copy-constructor, rounding the values of the given vector to float
+   * @param vector
+   */
+  public DenseFloatVector(Vector vector) {
+    super(vector.size());
+    values = new float[vector.size()];
+    Iterator<Element> it = vector.iterateNonZero();
+    while (it.hasNext()) {
+      Element e = it.next();
+      values[e.index()] = (float) e.get();
+    }
+  }
+
+  @Override
+  protected Matrix matrixLike(int rows, int columns) {
+    return new DenseFloatMatrix(rows, columns);
+  }
+
+  @Override
+  public DenseFloatVector clone() {
+    return new DenseFloatVector(values.clone());
+  }
+
+  /**
+   * @return true
+   */
+  @Override
+  public boolean isDense() {
+    return true;
+  }
+
+  /**
+   * @return true
+   */
+  @Override
+  public boolean isSequentialAccess() {
+    return true;
+  }
+
+  @Override
+  public double dotSelf() {
+    return getLengthSquared();
+  }
+
+  @Override
+  public double getQuick(int index) {
+    return values[index];
+  }
+
+  @Override
+  public DenseFloatVector like() {
+    return new DenseFloatVector(size());
+  }
+
+  @Override
+  public void setQuick(int index, double value) {
+    lengthSquared = -1.0;
+    values[index] = (float) value;
+  }
+
+  @Override
+  public Vector assign(double value) {
+    this.lengthSquared = -1;
+    Arrays.fill(values, (float) value);
+    return this;
+  }
+
+  @Override
+  public Vector assign(Vector other, DoubleDoubleFunction function) {
+    if (size() != other.size()) {
+      throw new CardinalityException(size(), other.size());
+    }
+    // only the non-zero elements of other change anything when function.apply(x, 0) = x for all x
+    if (isLikeRightPlus(function)) {
+      Iterator<Element> it = other.iterateNonZero();
+      Element e;
+      while (it.hasNext() && (e = it.next()) != null) {
+        values[e.index()] = (float) function.apply(values[e.index()], e.get());
+      }
+    } else {
+      for (int i = 0; i < size(); i++) {
+        values[i] = (float) function.apply(values[i], other.getQuick(i));
+      }
+    }
+    lengthSquared = -1;
+    return this;
+  }
+
+  @Override
+  public int getNumNondefaultElements() {
+    return values.length;
+  }
+
+  @Override
+  public Vector viewPart(int offset, int length) {
+    if (offset < 0) {
+      throw new IndexException(offset, size());
+    }
+    if (offset + length > size()) {
+      throw new IndexException(offset + length, size());
+    }
+    return new VectorView(this, offset, length);
+  }
+
+  /**
+   * Returns an iterator that traverses this Vector from 0 to cardinality-1, in that order.
+   */
+  @Override
+  public Iterator<Element> iterateNonZero() {
+    return new NonDefaultIterator();
+  }
+
+  @Override
+  public Iterator<Element> iterator() {
+    return new AllIterator();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o instanceof DenseFloatVector) {
+      // Speedup for DenseFloatVectors
+      return Arrays.equals(values, ((DenseFloatVector) o).values);
+    }
+    return super.equals(o);
+  }
+
+  @Override
+  public double getLengthSquared() {
+    if (lengthSquared >= 0.0) {
+      return lengthSquared;
+    }
+
+    double result = 0.0;
+    for (float value : values) {
+      result += (double) value * value;
+    }
+    lengthSquared = result;
+    return result;
+  }
+
+  private final class NonDefaultIterator extends AbstractIterator<Element> {
+
+    private final DenseElement element = new DenseElement();
+    private int index = 0;
+
+    @Override
+    protected Element computeNext() {
+      while (index < size() && values[index] == 0.0f) {
+        index++;
+      }
+      if (index < size()) {
+        element.index = index;
+        index++;
+        return element;
+      } else {
+        return endOfData();
+      }
+    }
+
+  }
+
+  private final class AllIterator extends AbstractIterator<Element> {
+
+    private final DenseElement element = new DenseElement();
+
+    private AllIterator() {
+      element.index = -1;
+    }
+
+    @Override
+    protected Element computeNext() {
+      if (element.index + 1 < size()) {
+        element.index++;
+        return element;
+      } else {
+        return endOfData();
+      }
+    }
+
+  }
+
+  private final class DenseElement implements Element {
+
+    int index;
+
+    @Override
+    public double get() {
+      return values[index];
+    }
+
+    @Override
+    public int index() {
+      return index;
+    }
+
+    @Override
+    public void set(double value) {
+      lengthSquared = -1;
+      values[index] = (float) value;
+    }
+  }
+
+}
@@ -19,7 +19,10 @@ package org.apache.mahout.math;
 
 import java.util.Arrays;
 
-/** Matrix of doubles implemented using a 2-d array */
+/**
+ * Matrix of doubles implemented using a 2-d array. Products with other dense matrices and with vectors work on the
+ * arrays directly, the former with the cache-blocked, multithreaded {@link DenseMatrixMultiplication}.
+ */
 public class DenseMatrix extends AbstractMatrix {
 
   private double[][] values;
@@ -31,15 +34,29 @@ public class DenseMatrix extends AbstractMatrix {
    *          a double[][]
    */
   public DenseMatrix(double[][] values) {
+    this(values, false);
+  }
+  
+  /**
+   * Construct a matrix from the given values
+   *
+   * @param values
+   *          a double[][] of rows of equal length
+   * @param shallowCopy
+   *          whether to use the given rows as they are, rather than copies of them
+   */
+  public DenseMatrix(double[][] values, boolean shallowCopy) {
     super(values.length, values[0].length);
-    // clone the rows
-    this.values = new double[values.length][];
-    // be careful, need to clone the columns too
-    for (int i = 0; i < values.length; i++) {
-      this.values[i] = values[i].clone();
+    if (shallowCopy) {
+      this.values = values;
+    } else {
+      this.values = new double[values.length][];
+      for (int i = 0; i < values.length; i++) {
+        this.values[i] = values[i].clone();
+      }
     }
   }
-  
+
   /**
    * Constructs an empty matrix of the given size.
    * @param rows  The number of rows in the result.
@@ -163,4 +180,82 @@ public class DenseMatrix extends AbstractMatrix {
     return new DenseVector(values[row], true);
   }
   
+  @Override
+  public Matrix times(Matrix other) {
+    if (!(other instanceof DenseMatrix)) {
+      return super.times(other);
+    }
+    if (columnSize() != other.rowSize()) {
+      throw new CardinalityException(columnSize(), other.rowSize());
+    }
+    if (rowSize() == 0 || other.columnSize() == 0) {
+      return super.times(other);
+    }
+    return new DenseMatrix(DenseMatrixMultiplication.multiply(values, ((DenseMatrix) other).values,
+        other.columnSize()), true);
+  }
+
+  @Override
+  public Vector times(Vector v) {
+    int columns = columnSize();
+    if (columns != v.size()) {
+      throw new CardinalityException(columns, v.size());
+    }
+    if (!v.isDense()) {
+      return super.times(v);
+    }
+    double[] x = toArray(v);
+    double[] w = new double[rowSize()];
+    for (int row = 0; row < w.length; row++) {
+      w[row] = dot(values[row], x);
+    }
+    return new DenseVector(w, true);
+  }
+
+  @Override
+  public Vector timesSquared(Vector v) {
+    int columns = columnSize();
+    if (columns != v.size()) {
+      throw new CardinalityException(columns, v.size());
+    }
+    if (!v.isDense()) {
+      return super.timesSquared(v);
+    }
+    double[] x = toArray(v);
+    double[] w = new double[columns];
+    for (double[] row : values) {
+      double d = dot(row, x);
+      if (d != 0.0) {
+        for (int col = 0; col < columns; col++) {
+          w[col] += d * row[col];
+        }
+      }
+    }
+    return new DenseVector(w, true);
+  }
+
+  private static double[] toArray(Vector v) {
+    double[] x = new double[v.size()];
+    for (int i = 0; i < x.length; i++) {
+      x[i] = v.getQuick(i);
+    }
+    return x;
+  }
+
+  private static double dot(double[] row, double[] x) {
+    double sum = 0.0;
+    for (int col = 0; col < x.length; col++) {
+      sum += row[col] * x[col];
+    }
+    return sum;
+  }
+
+  @Override
+  public Matrix transpose() {
+    if (rowSize() == 0 || columnSize() == 0) {
+      return super.transpose();
+    }
+    return new DenseMatrix(DenseMatrixMultiplication.transpose(values, columnSize()), true);
+  }
+
 }
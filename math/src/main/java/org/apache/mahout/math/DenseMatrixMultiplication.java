@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.google.common.collect.Lists;
+
+/**
+ * <p>
+ * Multiplies dense matrices held as arrays of rows. The product is computed in tiles: a panel of rows of the right
+ * hand matrix that fits in cache is applied to each group of four rows of the left hand matrix, so that every loaded
+ * element of the right hand matrix is used four times, and the innermost loop runs along contiguous rows.
+ * </p>
+ *
+ * <p>
+ * Large products are split into panels of rows of the result, computed in parallel by {@link ParallelTasks}.
+ * </p>
+ */
+final class DenseMatrixMultiplication {
+
+  /** Rows of the right hand matrix in a tile */
+  private static final int DEPTH_BLOCK_SIZE = 128;
+  /** Columns of the right hand matrix in a tile */
+  private static final int COLUMN_BLOCK_SIZE = 512;
+  /** Rows and columns in a tile copied by {@link #transpose(double[][], int)} */
+  private static final int TRANSPOSE_TILE_SIZE = 64;
+  /** Products with fewer multiply-adds than this are computed on the calling thread */
+  private static final long MIN_PARALLEL_WORK = 1L << 21;
+
+  private DenseMatrixMultiplication() {
+  }
+
+  /**
+   * @param a left hand matrix, as rows of equal length
+   * @param b right hand matrix, with as many rows as {@code a} has columns
+   * @param numColumns number of columns of {@code b}, needed when {@code b} has no rows
+   * @return the product, as new rows
+   */
+  static double[][] multiply(final double[][] a, final double[][] b, final int numColumns) {
+    final int rows = a.length;
+    final int depth = b.length;
+    final double[][] c = new double[rows][numColumns];
+    long work = (long) rows * depth * numColumns;
+    int numThreads = ParallelTasks.NUM_THREADS;
+    if (numThreads == 1 || work < MIN_PARALLEL_WORK || rows < 8) {
+      multiply(a, b, c, 0, rows);
+      return c;
+    }
+
+    // A few panels per thread evens out the load, panels of a multiple of 4 rows keep the register blocking
+    int panelSize = Math.max(4, ((rows + 4 * numThreads - 1) / (4 * numThreads) + 3) & ~3);
+    List<Callable<Void>> tasks = Lists.newArrayList();
+    for (int from = 0; from < rows; from += panelSize) {
+      final int panelFrom = from;
+      final int panelTo = Math.min(rows, from + panelSize);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          multiply(a, b, c, panelFrom, panelTo);
+          return null;
+        }
+      });
+    }
+    ParallelTasks.invokeAll(tasks);
+    return c;
+  }
+
+  /** Adds the product of rows {@code from} to {@code to} of {@code a} with {@code b} to the same rows of {@code c}. */
+  private static void multiply(double[][] a, double[][] b, double[][] c, int from, int to) {
+    int depth = b.length;
+    int columns = c.length == 0 ? 0 : c[0].length;
+    for (int columnStart = 0; columnStart < columns; columnStart += COLUMN_BLOCK_SIZE) {
+      int columnEnd = Math.min(columns, columnStart + COLUMN_BLOCK_SIZE);
+      for (int depthStart = 0; depthStart < depth; depthStart += DEPTH_BLOCK_SIZE) {
+        int depthEnd = Math.min(depth, depthStart + DEPTH_BLOCK_SIZE);
+        int row = from;
+        for (; row + 4 <= to; row += 4) {
+          multiplyFourRows(a, b, c, row, depthStart, depthEnd, columnStart, columnEnd);
+        }
+        for (; row < to; row++) {
+          double[] aRow = a[row];
+          double[] cRow = c[row];
+          for (int k = depthStart; k < depthEnd; k++) {
+            double a0 = aRow[k];
+            double[] bRow = b[k];
+            for (int column = columnStart; column < columnEnd; column++) {
+              cRow[column] += a0 * bRow[column];
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static void multiplyFourRows(double[][] a, double[][] b, double[][] c, int row,
+                                       int depthStart, int depthEnd, int columnStart, int columnEnd) {
+    double[] aRow0 = a[row];
+    double[] aRow1 = a[row + 1];
+    double[] aRow2 = a[row + 2];
+    double[] aRow3 = a[row + 3];
+    double[] cRow0 = c[row];
+    double[] cRow1 = c[row + 1];
+    double[] cRow2 = c[row + 2];
+    double[] cRow3 = c[row + 3];
+    for (int k = depthStart; k < depthEnd; k++) {
+      double a0 = aRow0[k];
+      double a1 = aRow1[k];
+      double a2 = aRow2[k];
+      double a3 = aRow3[k];
+      double[] bRow = b[k];
+      for (int column = columnStart; column < columnEnd; column++) {
+        double bValue = bRow[column];
+        cRow0[column] += a0 * bValue;
+        cRow1[column] += a1 * bValue;
+        cRow2[column] += a2 * bValue;
+        cRow3[column] += a3 * bValue;
+      }
+    }
+  }
+
+  /** @return the transpose of a matrix with the given number of columns, copied in square tiles */
+  static double[][] transpose(double[][] values, int columns) {
+    int rows = values.length;
+    double[][] result = new double[columns][rows];
+    for (int rowStart = 0; rowStart < rows; rowStart += TRANSPOSE_TILE_SIZE) {
+      int rowEnd = Math.min(rows, rowStart + TRANSPOSE_TILE_SIZE);
+      for (int columnStart = 0; columnStart < columns; columnStart += TRANSPOSE_TILE_SIZE) {
+        int columnEnd = Math.min(columns, columnStart + TRANSPOSE_TILE_SIZE);
+        for (int row = rowStart; row < rowEnd; row++) {
+          double[] valuesRow = values[row];
+          for (int column = columnStart; column < columnEnd; column++) {
+            result[column][row] = valuesRow[column];
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+}
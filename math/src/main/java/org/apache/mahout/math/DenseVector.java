@@ -22,7 +22,6 @@ import java.util.Iterator;
 
 import com.google.common.collect.AbstractIterator;
 import org.apache.mahout.math.function.DoubleDoubleFunction;
-import org.apache.mahout.math.function.PlusMult;
 
 /** Implements vector as an array of doubles */
 public class DenseVector extends AbstractVector {
@@ -133,8 +132,8 @@ public class DenseVector extends AbstractVector {
     if (size() != other.size()) {
       throw new CardinalityException(size(), other.size());
     }
-    // is there some other way to know if function.apply(0, x) = x for all x?
-    if (function instanceof PlusMult) {
+    // only the non-zero elements of other change anything when function.apply(x, 0) = x for all x
+    if (isLikeRightPlus(function)) {
       Iterator<Element> it = other.iterateNonZero();
       Element e;
       while (it.hasNext() && (e = it.next()) != null) {
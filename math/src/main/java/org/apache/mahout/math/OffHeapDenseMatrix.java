@@ -0,0 +1,312 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Dense matrix whose values live outside the Java heap, either in direct buffers or in a memory-mapped file.
+ * Large read-mostly matrices, such as factor matrices or a Lanczos basis, can then be much bigger than the heap,
+ * add nothing to garbage collection pauses, and when mapped read-only be shared by every process on a machine
+ * through the operating system's page cache.
+ * <p>
+ * A single buffer can address at most 2GB, so rows are stored row-major across pages of about 2<sup>27</sup>
+ * doubles, each holding a whole number of rows. {@link #viewRow(int)} is therefore a view over one page.
+ * <p>
+ * A matrix file is a 16 byte header, holding a magic number, the number of rows and the number of columns as
+ * big-endian ints, followed by the values as big-endian doubles. Use {@link #create(File, int, int)} or
+ * {@link #create(File, VectorIterable)} to write one, and {@link #map(File, boolean)} to map an existing one.
+ * Setting a value in a matrix that was mapped read-only throws {@link java.nio.ReadOnlyBufferException}.
+ * <p>
+ * New matrices, such as the results of {@link #like()} or {@link #plus(Matrix)}, are held in direct buffers.
+ */
+public class OffHeapDenseMatrix extends AbstractMatrix {
+
+  private static final int MAGIC = 0x4D4D4431;
+  private static final int HEADER_SIZE = 16;
+
+  private DoubleBuffer[] pages;
+  /** the mapped buffers behind {@link #pages}, or null if they are direct */
+  private MappedByteBuffer[] mapped;
+  private final int rowsPerPage;
+
+  /**
+   * Constructs an empty matrix of the given size in direct buffers.
+   * @param rows  The number of rows in the result.
+   * @param columns The number of columns in the result.
+   */
+  public OffHeapDenseMatrix(int rows, int columns) {
+    this(rows, columns, rowsPerPage(columns, 1 << OffHeapDenseVector.PAGE_SHIFT));
+  }
+
+  OffHeapDenseMatrix(int rows, int columns, int rowsPerPage) {
+    super(rows, columns);
+    this.rowsPerPage = rowsPerPage;
+    this.pages = OffHeapDenseVector.allocate((long) rows * columns, rowsPerPage * columns);
+  }
+
+  private OffHeapDenseMatrix(int rows, int columns, int rowsPerPage, MappedByteBuffer[] mapped) {
+    super(rows, columns);
+    this.rowsPerPage = rowsPerPage;
+    this.mapped = mapped;
+    this.pages = new DoubleBuffer[mapped.length];
+    for (int page = 0; page < mapped.length; page++) {
+      pages[page] = mapped[page].asDoubleBuffer();
+    }
+  }
+
+  private static int rowsPerPage(int columns, int pageSize) {
+    Preconditions.checkArgument(columns <= pageSize, "Too many columns: %s", columns);
+    return pageSize / Math.max(1, columns);
+  }
+
+  /**
+   * Creates a zeroed matrix file of the given size and maps it read-write.
+   */
+  public static OffHeapDenseMatrix create(File file, int rows, int columns) throws IOException {
+    return create(file, rows, columns, rowsPerPage(columns, 1 << OffHeapDenseVector.PAGE_SHIFT));
+  }
+
+  static OffHeapDenseMatrix create(File file, int rows, int columns, int rowsPerPage) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(0L);
+      raf.writeInt(MAGIC);
+      raf.writeInt(rows);
+      raf.writeInt(columns);
+      raf.setLength(HEADER_SIZE + ((long) rows * columns << 3));
+      return map(raf.getChannel(), FileChannel.MapMode.READ_WRITE, rows, columns, rowsPerPage);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Creates a matrix file holding a copy of the given rows, for instance those of a
+   * <code>DistributedRowMatrix</code> read from a SequenceFile, and maps it read-write. Rows that are missing from
+   * <code>matrix</code> are left as zeros.
+   */
+  public static OffHeapDenseMatrix create(File file, VectorIterable matrix) throws IOException {
+    OffHeapDenseMatrix result = create(file, matrix.numRows(), matrix.numCols());
+    for (MatrixSlice slice : matrix) {
+      result.assignRow(slice.index(), slice.vector());
+    }
+    return result;
+  }
+
+  /**
+   * Maps an existing matrix file.
+   *
+   * @param writable whether to map the file read-write; changes are then visible to every process that maps it
+   */
+  public static OffHeapDenseMatrix map(File file, boolean writable) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+    try {
+      if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC) {
+        throw new IOException("Not a matrix file: " + file);
+      }
+      int rows = raf.readInt();
+      int columns = raf.readInt();
+      if (raf.length() < HEADER_SIZE + ((long) rows * columns << 3)) {
+        throw new IOException("Truncated matrix file: " + file);
+      }
+      return map(raf.getChannel(),
+                 writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                 rows,
+                 columns,
+                 rowsPerPage(columns, 1 << OffHeapDenseVector.PAGE_SHIFT));
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static OffHeapDenseMatrix map(FileChannel channel, FileChannel.MapMode mode,
+                                        int rows, int columns, int rowsPerPage) throws IOException {
+    long pageBytes = (long) rowsPerPage * columns << 3;
+    long totalBytes = (long) rows * columns << 3;
+    MappedByteBuffer[] mapped = new MappedByteBuffer[(int) (((long) rows + rowsPerPage - 1) / rowsPerPage)];
+    for (int page = 0; page < mapped.length; page++) {
+      long position = page * pageBytes;
+      mapped[page] = channel.map(mode, HEADER_SIZE + position, Math.min(pageBytes, totalBytes - position));
+    }
+    // mappings remain valid once the channel is closed
+    return new OffHeapDenseMatrix(rows, columns, rowsPerPage, mapped);
+  }
+
+  /**
+   * Writes any changes to a read-write mapped matrix through to its file. Does nothing for direct buffers.
+   */
+  public void flush() {
+    if (mapped != null) {
+      for (MappedByteBuffer buffer : mapped) {
+        buffer.force();
+      }
+    }
+  }
+
+  /**
+   * @return a copy of this matrix in new direct buffers
+   */
+  @Override
+  public Matrix clone() {
+    OffHeapDenseMatrix clone = (OffHeapDenseMatrix) super.clone();
+    clone.mapped = null;
+    clone.pages = OffHeapDenseVector.allocate((long) rowSize() * columnSize(), rowsPerPage * columnSize());
+    for (int page = 0; page < pages.length; page++) {
+      clone.pages[page].duplicate().put(pages[page].duplicate());
+    }
+    return clone;
+  }
+
+  @Override
+  public double getQuick(int row, int column) {
+    return pages[row / rowsPerPage].get((row % rowsPerPage) * columns + column);
+  }
+
+  @Override
+  public void setQuick(int row, int column, double value) {
+    pages[row / rowsPerPage].put((row % rowsPerPage) * columns + column, value);
+  }
+
+  @Override
+  public Matrix like() {
+    return like(rowSize(), columnSize());
+  }
+
+  @Override
+  public Matrix like(int rows, int columns) {
+    return new OffHeapDenseMatrix(rows, columns);
+  }
+
+  @Override
+  public Matrix viewPart(int[] offset, int[] size) {
+    return viewPart(offset[ROW], size[ROW], offset[COL], size[COL]);
+  }
+
+  @Override
+  public Matrix viewPart(int rowOffset, int rowsRequested, int columnOffset, int columnsRequested) {
+    if (rowOffset < 0) {
+      throw new IndexException(rowOffset, rowSize());
+    }
+    if (rowOffset + rowsRequested > rowSize()) {
+      throw new IndexException(rowOffset + rowsRequested, rowSize());
+    }
+    if (columnOffset < 0) {
+      throw new IndexException(columnOffset, columnSize());
+    }
+    if (columnOffset + columnsRequested > columnSize()) {
+      throw new IndexException(columnOffset + columnsRequested, columnSize());
+    }
+    return new MatrixView(this, new int[]{rowOffset, columnOffset}, new int[]{rowsRequested, columnsRequested});
+  }
+
+  @Override
+  public Matrix assign(double value) {
+    for (DoubleBuffer page : pages) {
+      for (int i = 0; i < page.limit(); i++) {
+        page.put(i, value);
+      }
+    }
+    return this;
+  }
+
+  @Override
+  public Matrix assignRow(int row, Vector other) {
+    if (columnSize() != other.size()) {
+      throw new CardinalityException(columnSize(), other.size());
+    }
+    if (row < 0 || row >= rowSize()) {
+      throw new IndexException(row, rowSize());
+    }
+    DoubleBuffer page = pages[row / rowsPerPage];
+    int offset = (row % rowsPerPage) * columns;
+    if (other.isDense()) {
+      for (int col = 0; col < columns; col++) {
+        page.put(offset + col, other.getQuick(col));
+      }
+    } else {
+      for (int col = 0; col < columns; col++) {
+        page.put(offset + col, 0.0);
+      }
+      Iterator<Vector.Element> it = other.iterateNonZero();
+      while (it.hasNext()) {
+        Vector.Element e = it.next();
+        page.put(offset + e.index(), e.get());
+      }
+    }
+    return this;
+  }
+
+  @Override
+  public Matrix assignColumn(int column, Vector other) {
+    if (rowSize() != other.size()) {
+      throw new CardinalityException(rowSize(), other.size());
+    }
+    if (column < 0 || column >= columnSize()) {
+      throw new IndexException(column, columnSize());
+    }
+    for (int row = 0; row < rowSize(); row++) {
+      setQuick(row, column, other.getQuick(row));
+    }
+    return this;
+  }
+
+  @Override
+  public Vector viewRow(int row) {
+    if (row < 0 || row >= rowSize()) {
+      throw new IndexException(row, rowSize());
+    }
+    DoubleBuffer page = pages[row / rowsPerPage].duplicate();
+    int offset = (row % rowsPerPage) * columns;
+    page.position(offset);
+    page.limit(offset + columns);
+    return new OffHeapDenseVector(new DoubleBuffer[] {page.slice()}, columns, OffHeapDenseVector.PAGE_SHIFT);
+  }
+
+  @Override
+  public Vector times(Vector v) {
+    if (columns != v.size()) {
+      throw new CardinalityException(columns, v.size());
+    }
+    double[] x = new double[columns];
+    for (int col = 0; col < columns; col++) {
+      x[col] = v.getQuick(col);
+    }
+    double[] w = new double[rows];
+    for (int row = 0; row < rows; row++) {
+      DoubleBuffer page = pages[row / rowsPerPage];
+      int offset = (row % rowsPerPage) * columns;
+      double sum = 0.0;
+      for (int col = 0; col < columns; col++) {
+        sum += page.get(offset + col) * x[col];
+      }
+      w[row] = sum;
+    }
+    return new DenseVector(w, true);
+  }
+
+}
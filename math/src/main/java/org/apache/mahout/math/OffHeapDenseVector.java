@@ -0,0 +1,254 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.Iterator;
+
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * Dense vector whose values live outside the Java heap, in direct or memory-mapped {@link DoubleBuffer}s, so that
+ * very large vectors neither crowd the heap nor lengthen garbage collection pauses. A single buffer can address at
+ * most 2GB, so values are split across pages of 2<sup>27</sup> doubles.
+ * <p>
+ * Rows of an {@link OffHeapDenseMatrix} are views of this type over the matrix's own storage. New vectors, such as
+ * the results of {@link #like()} or {@link #plus(Vector)}, are held in direct buffers.
+ */
+public class OffHeapDenseVector extends AbstractVector {
+
+  /** log<sub>2</sub> of the number of doubles in a page; 2<sup>27</sup> doubles take 1GB */
+  static final int PAGE_SHIFT = 27;
+
+  private DoubleBuffer[] pages;
+  private final int pageShift;
+  private final int pageMask;
+
+  /** Construct a new instance of the given cardinality in direct buffers */
+  public OffHeapDenseVector(int cardinality) {
+    this(cardinality, PAGE_SHIFT);
+  }
+
+  /**
+   * Copy-constructor, into direct buffers
+   * @param vector
+   */
+  public OffHeapDenseVector(Vector vector) {
+    this(vector.size());
+    Iterator<Element> it = vector.iterateNonZero();
+    while (it.hasNext()) {
+      Element e = it.next();
+      setQuick(e.index(), e.get());
+    }
+  }
+
+  OffHeapDenseVector(int cardinality, int pageShift) {
+    this(allocate(cardinality, 1 << pageShift), cardinality, pageShift);
+  }
+
+  /**
+   * @param pages buffers of 2<sup>pageShift</sup> values each, except perhaps the last
+   */
+  OffHeapDenseVector(DoubleBuffer[] pages, int cardinality, int pageShift) {
+    super(cardinality);
+    this.pages = pages;
+    this.pageShift = pageShift;
+    this.pageMask = (1 << pageShift) - 1;
+  }
+
+  /**
+   * Allocates zeroed direct buffers holding <code>size</code> values, <code>pageSize</code> to a buffer.
+   */
+  static DoubleBuffer[] allocate(long size, int pageSize) {
+    if (size == 0) {
+      return new DoubleBuffer[0];
+    }
+    DoubleBuffer[] pages = new DoubleBuffer[(int) ((size + pageSize - 1) / pageSize)];
+    for (int page = 0; page < pages.length; page++) {
+      long length = Math.min(pageSize, size - (long) page * pageSize);
+      pages[page] = ByteBuffer.allocateDirect((int) length << 3).asDoubleBuffer();
+    }
+    return pages;
+  }
+
+  @Override
+  protected Matrix matrixLike(int rows, int columns) {
+    return new OffHeapDenseMatrix(rows, columns);
+  }
+
+  /**
+   * @return a copy of this vector in new direct buffers
+   */
+  @Override
+  public OffHeapDenseVector clone() {
+    OffHeapDenseVector clone = (OffHeapDenseVector) super.clone();
+    clone.pages = allocate(size(), 1 << pageShift);
+    for (int page = 0; page < pages.length; page++) {
+      clone.pages[page].duplicate().put(pages[page].duplicate());
+    }
+    return clone;
+  }
+
+  /**
+   * @return true
+   */
+  @Override
+  public boolean isDense() {
+    return true;
+  }
+
+  /**
+   * @return true
+   */
+  @Override
+  public boolean isSequentialAccess() {
+    return true;
+  }
+
+  @Override
+  public double dotSelf() {
+    double result = 0.0;
+    for (DoubleBuffer page : pages) {
+      for (int i = 0; i < page.limit(); i++) {
+        double value = page.get(i);
+        result += value * value;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public double getQuick(int index) {
+    return pages[index >>> pageShift].get(index & pageMask);
+  }
+
+  @Override
+  public OffHeapDenseVector like() {
+    return new OffHeapDenseVector(size());
+  }
+
+  @Override
+  public void setQuick(int index, double value) {
+    lengthSquared = -1.0;
+    pages[index >>> pageShift].put(index & pageMask, value);
+  }
+
+  @Override
+  public Vector assign(double value) {
+    lengthSquared = -1.0;
+    for (DoubleBuffer page : pages) {
+      for (int i = 0; i < page.limit(); i++) {
+        page.put(i, value);
+      }
+    }
+    return this;
+  }
+
+  @Override
+  public int getNumNondefaultElements() {
+    return size();
+  }
+
+  @Override
+  public Vector viewPart(int offset, int length) {
+    if (offset < 0) {
+      throw new IndexException(offset, size());
+    }
+    if (offset + length > size()) {
+      throw new IndexException(offset + length, size());
+    }
+    return new VectorView(this, offset, length);
+  }
+
+  /**
+   * Returns an iterator that traverses this Vector from 0 to cardinality-1, in that order.
+   */
+  @Override
+  public Iterator<Element> iterateNonZero() {
+    return new NonDefaultIterator();
+  }
+
+  @Override
+  public Iterator<Element> iterator() {
+    return new AllIterator();
+  }
+
+  private final class NonDefaultIterator extends AbstractIterator<Element> {
+
+    private final OffHeapElement element = new OffHeapElement();
+    private int index = 0;
+
+    @Override
+    protected Element computeNext() {
+      while (index < size() && getQuick(index) == 0.0) {
+        index++;
+      }
+      if (index < size()) {
+        element.index = index;
+        index++;
+        return element;
+      } else {
+        return endOfData();
+      }
+    }
+
+  }
+
+  private final class AllIterator extends AbstractIterator<Element> {
+
+    private final OffHeapElement element = new OffHeapElement();
+
+    private AllIterator() {
+      element.index = -1;
+    }
+
+    @Override
+    protected Element computeNext() {
+      if (element.index + 1 < size()) {
+        element.index++;
+        return element;
+      } else {
+        return endOfData();
+      }
+    }
+
+  }
+
+  private final class OffHeapElement implements Element {
+
+    int index;
+
+    @Override
+    public double get() {
+      return getQuick(index);
+    }
+
+    @Override
+    public int index() {
+      return index;
+    }
+
+    @Override
+    public void set(double value) {
+      setQuick(index, value);
+    }
+  }
+
+}
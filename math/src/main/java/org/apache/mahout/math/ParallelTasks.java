@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs the pieces of a matrix computation in parallel on a shared pool of daemon threads, one per processor.
+ */
+final class ParallelTasks {
+
+  static final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+
+  private static final ExecutorService POOL = Executors.newFixedThreadPool(NUM_THREADS,
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("mahout-math-%d").build());
+
+  private ParallelTasks() {
+  }
+
+  /**
+   * Runs all tasks and waits for them to finish. A {@link RuntimeException} thrown by a task is rethrown as is.
+   */
+  static void invokeAll(List<? extends Callable<Void>> tasks) {
+    try {
+      for (Future<Void> future : POOL.invokeAll(tasks)) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+}
@@ -0,0 +1,261 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * <p>
+ * Implements vector that only stores non-zero floats as a pair of parallel arrays ordered by index, one int[], one
+ * float[]. Like {@link SequentialAccessSparseVector}, random reads take O(log(k)) time and random writes O(k) for
+ * <b>k</b> non-zero elements, so it is meant to be read through {@link #iterateNonZero()}, in index order.
+ * </p>
+ *
+ * <p>
+ * Values are rounded to float when set and widened to double when read.
+ * </p>
+ */
+public class SequentialAccessSparseFloatVector extends AbstractVector {
+
+  private int[] indices;
+  private float[] values;
+  private int numMappings;
+
+  /** For serialization purposes only. */
+  public SequentialAccessSparseFloatVector() {
+    this(0, 0);
+  }
+
+  public SequentialAccessSparseFloatVector(int cardinality) {
+    this(cardinality, cardinality / 8); // arbitrary estimate of 'sparseness'
+  }
+
+  public SequentialAccessSparseFloatVector(int cardinality, int size) {
+    super(cardinality);
+    indices = new int[size];
+    values = new float[size];
+  }
+
+  public SequentialAccessSparseFloatVector(Vector other) {
+    this(other.size(), other.getNumNondefaultElements());
+    Iterator<Element> it = other.iterateNonZero();
+    while (it.hasNext()) {
+      Element e = it.next();
+      float value = (float) e.get();
+      if (value != 0.0f) {
+        if (numMappings == indices.length) {
+          indices = Arrays.copyOf(indices, 2 * numMappings + 1);
+          values = Arrays.copyOf(values, 2 * numMappings + 1);
+        }
+        indices[numMappings] = e.index();
+        values[numMappings++] = value;
+      }
+    }
+    if (!other.isSequentialAccess()) {
+      Arrays.sort(indices, 0, numMappings);
+      for (int i = 0; i < numMappings; i++) {
+        values[i] = (float) other.getQuick(indices[i]);
+      }
+    }
+  }
+
+  @Override
+  protected Matrix matrixLike(int rows, int columns) {
+    return new SparseRowMatrix(rows, columns);
+  }
+
+  @Override
+  public SequentialAccessSparseFloatVector clone() {
+    SequentialAccessSparseFloatVector clone = (SequentialAccessSparseFloatVector) super.clone();
+    clone.indices = indices.clone();
+    clone.values = values.clone();
+    return clone;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder();
+    result.append('{');
+    for (int i = 0; i < numMappings; i++) {
+      if (i > 0) {
+        result.append(',');
+      }
+      result.append(indices[i]);
+      result.append(':');
+      result.append(values[i]);
+    }
+    result.append('}');
+    return result.toString();
+  }
+
+  /**
+   * @return false
+   */
+  @Override
+  public boolean isDense() {
+    return false;
+  }
+
+  /**
+   * @return true
+   */
+  @Override
+  public boolean isSequentialAccess() {
+    return true;
+  }
+
+  @Override
+  public double getQuick(int index) {
+    int offset = Arrays.binarySearch(indices, 0, numMappings, index);
+    return offset >= 0 ? values[offset] : 0.0;
+  }
+
+  @Override
+  public void setQuick(int index, double value) {
+    lengthSquared = -1;
+    float floatValue = (float) value;
+    int offset = Arrays.binarySearch(indices, 0, numMappings, index);
+    if (offset >= 0) {
+      if (floatValue == 0.0f) {
+        System.arraycopy(indices, offset + 1, indices, offset, numMappings - offset - 1);
+        System.arraycopy(values, offset + 1, values, offset, numMappings - offset - 1);
+        numMappings--;
+      } else {
+        values[offset] = floatValue;
+      }
+    } else if (floatValue != 0.0f) {
+      if (numMappings == indices.length) {
+        int capacity = Math.max((int) (1.2 * numMappings), numMappings + 1);
+        indices = Arrays.copyOf(indices, capacity);
+        values = Arrays.copyOf(values, capacity);
+      }
+      int at = -offset - 1;
+      System.arraycopy(indices, at, indices, at + 1, numMappings - at);
+      System.arraycopy(values, at, values, at + 1, numMappings - at);
+      indices[at] = index;
+      values[at] = floatValue;
+      numMappings++;
+    }
+  }
+
+  @Override
+  public int getNumNondefaultElements() {
+    return numMappings;
+  }
+
+  @Override
+  public SequentialAccessSparseFloatVector like() {
+    return new SequentialAccessSparseFloatVector(size(), numMappings);
+  }
+
+  @Override
+  public Iterator<Element> iterateNonZero() {
+    return new NonDefaultIterator();
+  }
+
+  @Override
+  public Iterator<Element> iterator() {
+    return new AllIterator();
+  }
+
+  private final class NonDefaultIterator extends AbstractIterator<Element> {
+
+    private final NonDefaultElement element = new NonDefaultElement();
+
+    @Override
+    protected Element computeNext() {
+      if (element.offset + 1 >= numMappings) {
+        return endOfData();
+      }
+      element.offset++;
+      return element;
+    }
+
+  }
+
+  private final class AllIterator extends AbstractIterator<Element> {
+
+    private final AllElement element = new AllElement();
+
+    @Override
+    protected Element computeNext() {
+      if (element.index + 1 >= size()) {
+        return endOfData();
+      }
+      element.index++;
+      while (element.nextOffset < numMappings && indices[element.nextOffset] < element.index) {
+        element.nextOffset++;
+      }
+      return element;
+    }
+
+  }
+
+  private final class NonDefaultElement implements Element {
+
+    private int offset = -1;
+
+    @Override
+    public double get() {
+      return values[offset];
+    }
+
+    @Override
+    public int index() {
+      return indices[offset];
+    }
+
+    @Override
+    public void set(double value) {
+      lengthSquared = -1;
+      values[offset] = (float) value;
+    }
+  }
+
+  private final class AllElement implements Element {
+
+    private int index = -1;
+    private int nextOffset;
+
+    @Override
+    public double get() {
+      return nextOffset < numMappings && indices[nextOffset] == index ? values[nextOffset] : 0.0;
+    }
+
+    @Override
+    public int index() {
+      return index;
+    }
+
+    @Override
+    public void set(double value) {
+      if (nextOffset < numMappings && indices[nextOffset] == index) {
+        lengthSquared = -1;
+        values[nextOffset] = (float) value;
+      } else {
+        // inserts at nextOffset, which stays the offset of this index
+        setQuick(index, value);
+      }
+    }
+  }
+
+}
@@ -19,6 +19,7 @@ package org.apache.mahout.math;
 
 import com.google.common.collect.AbstractIterator;
 import com.google.common.primitives.Doubles;
+import org.apache.mahout.math.function.DoubleDoubleFunction;
 import org.apache.mahout.math.function.Functions;
 
 import java.util.Arrays;
@@ -40,7 +41,8 @@ import java.util.Iterator;
  * <p>
  * Note that the Vector passed to these above methods may (and currently, are) be used in a random access fashion,
  * so for example, calling SequentialAccessSparseVector.dot(SequentialAccessSparseVector) is slow.
- * TODO: this need not be the case - both are ordered, so this should be very fast if implmented in this class
+ * {@link #assign(Vector, DoubleDoubleFunction)} and {@link #aggregate(Vector, DoubleDoubleFunction,
+ * DoubleDoubleFunction)} do merge the two in index order, when the functions allow.
  * </p>
  *
  * See {@link OrderedIntDoubleMapping}
@@ -145,6 +147,167 @@ public class SequentialAccessSparseVector extends AbstractVector {
     return this;
   }
 
+  /**
+   * When only the non-zero elements of one of the vectors matter, merges the two in index order, in time
+   * proportional to their numbers of non-zero elements.
+   */
+  @Override
+  public Vector assign(Vector other, DoubleDoubleFunction function) {
+    if (size() != other.size()) {
+      throw new CardinalityException(size(), other.size());
+    }
+    if (isLikeRightPlus(function)) {
+      mergeAll(nonZerosInOrder(other), function);
+    } else if (isLikeLeftMult(function) && !other.isDense()) {
+      mergeOwn(nonZerosInOrder(other), function);
+    } else {
+      return super.assign(other, function);
+    }
+    return this;
+  }
+
+  /** Sets each element where either vector is non-zero, leaving those where other is zero as they are. */
+  private void mergeAll(OrderedIntDoubleMapping other, DoubleDoubleFunction function) {
+    int[] indices = values.getIndices();
+    double[] elements = values.getValues();
+    int numMappings = values.getNumMappings();
+    int[] otherIndices = other.getIndices();
+    double[] otherElements = other.getValues();
+    int otherNumMappings = other.getNumMappings();
+    int[] newIndices = new int[numMappings + otherNumMappings];
+    double[] newElements = new double[newIndices.length];
+    int i = 0;
+    int j = 0;
+    int n = 0;
+    while (i < numMappings || j < otherNumMappings) {
+      int index;
+      double value;
+      if (j >= otherNumMappings || (i < numMappings && indices[i] < otherIndices[j])) {
+        index = indices[i];
+        value = elements[i++];
+      } else if (i >= numMappings || otherIndices[j] < indices[i]) {
+        index = otherIndices[j];
+        value = function.apply(0.0, otherElements[j++]);
+      } else {
+        index = indices[i];
+        value = function.apply(elements[i++], otherElements[j++]);
+      }
+      if (value != 0.0) {
+        newIndices[n] = index;
+        newElements[n++] = value;
+      }
+    }
+    values = new OrderedIntDoubleMapping(newIndices, newElements, n);
+    lengthSquared = -1;
+  }
+
+  /** Sets each element where this vector is non-zero, the others staying zero. */
+  private void mergeOwn(OrderedIntDoubleMapping other, DoubleDoubleFunction function) {
+    int[] indices = values.getIndices();
+    double[] elements = values.getValues();
+    int numMappings = values.getNumMappings();
+    int[] otherIndices = other.getIndices();
+    double[] otherElements = other.getValues();
+    int otherNumMappings = other.getNumMappings();
+    int[] newIndices = new int[numMappings];
+    double[] newElements = new double[numMappings];
+    int j = 0;
+    int n = 0;
+    for (int i = 0; i < numMappings; i++) {
+      int index = indices[i];
+      while (j < otherNumMappings && otherIndices[j] < index) {
+        j++;
+      }
+      double otherValue = j < otherNumMappings && otherIndices[j] == index ? otherElements[j] : 0.0;
+      double value = function.apply(elements[i], otherValue);
+      if (value != 0.0) {
+        newIndices[n] = index;
+        newElements[n++] = value;
+      }
+    }
+    values = new OrderedIntDoubleMapping(newIndices, newElements, n);
+    lengthSquared = -1;
+  }
+
+  /**
+   * When zeros change nothing in the aggregation, merges the two vectors in index order, in time proportional to
+   * their numbers of non-zero elements.
+   */
+  @Override
+  public double aggregate(Vector other, DoubleDoubleFunction aggregator, DoubleDoubleFunction combiner) {
+    if (size() < 1 || !other.isSequentialAccess() || other.isDense() || !isSparseAggregator(aggregator)
+        || combiner.apply(0.0, 0.0) != 0.0) {
+      return super.aggregate(other, aggregator, combiner);
+    }
+    if (size() != other.size()) {
+      throw new CardinalityException(size(), other.size());
+    }
+    boolean onlyBoth = isLikeLeftMult(combiner) && isLikeRightMult(combiner);
+    OrderedIntDoubleMapping otherValues = nonZerosInOrder(other);
+    int[] indices = values.getIndices();
+    double[] elements = values.getValues();
+    int numMappings = values.getNumMappings();
+    int[] otherIndices = otherValues.getIndices();
+    double[] otherElements = otherValues.getValues();
+    int otherNumMappings = otherValues.getNumMappings();
+    double result = 0.0;
+    int i = 0;
+    int j = 0;
+    while (i < numMappings && j < otherNumMappings) {
+      if (indices[i] < otherIndices[j]) {
+        if (!onlyBoth) {
+          result = aggregator.apply(result, combiner.apply(elements[i], 0.0));
+        }
+        i++;
+      } else if (otherIndices[j] < indices[i]) {
+        if (!onlyBoth) {
+          result = aggregator.apply(result, combiner.apply(0.0, otherElements[j]));
+        }
+        j++;
+      } else {
+        result = aggregator.apply(result, combiner.apply(elements[i++], otherElements[j++]));
+      }
+    }
+    if (!onlyBoth) {
+      for (; i < numMappings; i++) {
+        result = aggregator.apply(result, combiner.apply(elements[i], 0.0));
+      }
+      for (; j < otherNumMappings; j++) {
+        result = aggregator.apply(result, combiner.apply(0.0, otherElements[j]));
+      }
+    }
+    return result;
+  }
+
+  /** @return the non-zero elements of a vector, in index order */
+  private static OrderedIntDoubleMapping nonZerosInOrder(Vector vector) {
+    if (vector instanceof SequentialAccessSparseVector) {
+      return ((SequentialAccessSparseVector) vector).values;
+    }
+    int[] indices = new int[vector.getNumNondefaultElements()];
+    double[] elements = new double[indices.length];
+    int n = 0;
+    Iterator<Element> it = vector.iterateNonZero();
+    while (it.hasNext()) {
+      Element e = it.next();
+      if (e.get() != 0.0) {
+        if (n == indices.length) {
+          indices = Arrays.copyOf(indices, 2 * n + 1);
+          elements = Arrays.copyOf(elements, 2 * n + 1);
+        }
+        indices[n] = e.index();
+        elements[n++] = e.get();
+      }
+    }
+    if (!vector.isSequentialAccess()) {
+      Arrays.sort(indices, 0, n);
+      for (int k = 0; k < n; k++) {
+        elements[k] = vector.getQuick(indices[k]);
+      }
+    }
+    return new OrderedIntDoubleMapping(indices, elements, n);
+  }
+
   @Override
   public String toString() {
     StringBuilder result = new StringBuilder();
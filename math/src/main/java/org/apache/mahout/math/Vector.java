@@ -376,6 +376,7 @@ public interface Vector extends Cloneable, Iterable<Vector.Element> {
    * @param aggregator
    * @param combiner
    * @return the final aggregation
+   * @throws CardinalityException if the cardinalities differ
    */
   double aggregate(Vector other, DoubleDoubleFunction aggregator, DoubleDoubleFunction combiner);
 
@@ -0,0 +1,56 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math.function;
+
+/**
+ * A {@link DoubleDoubleFunction} which declares algebraic properties of the function. They let vector operations
+ * skip the elements where one of the arguments is zero, so that they cost time in proportion to the number of
+ * non-zero elements. The properties need only hold for finite arguments. All are false unless overridden, as
+ * they are for functions which don't extend this class.
+ */
+public abstract class AbstractDoubleDoubleFunction implements DoubleDoubleFunction {
+
+  /**
+   * @return true if f(x, 0) = x for any x, as for addition
+   */
+  public boolean isLikeRightPlus() {
+    return false;
+  }
+
+  /**
+   * @return true if f(0, y) = 0 for any y, as for multiplication
+   */
+  public boolean isLikeLeftMult() {
+    return false;
+  }
+
+  /**
+   * @return true if f(x, 0) = 0 for any x, as for multiplication
+   */
+  public boolean isLikeRightMult() {
+    return false;
+  }
+
+  /**
+   * @return true if f is associative and commutative, so that a sequence of values can be combined with it in
+   *  any order
+   */
+  public boolean isAssociativeAndCommutative() {
+    return false;
+  }
+}
@@ -403,21 +403,31 @@ public final class Functions {
   };
 
   /** Function that returns <tt>Math.max(a,b)</tt>. */
-  public static final DoubleDoubleFunction MAX = new DoubleDoubleFunction() {
+  public static final DoubleDoubleFunction MAX = new AbstractDoubleDoubleFunction() {
 
     @Override
     public double apply(double a, double b) {
       return Math.max(a, b);
     }
+
+    @Override
+    public boolean isAssociativeAndCommutative() {
+      return true;
+    }
   };
 
   /** Function that returns <tt>Math.min(a,b)</tt>. */
-  public static final DoubleDoubleFunction MIN = new DoubleDoubleFunction() {
+  public static final DoubleDoubleFunction MIN = new AbstractDoubleDoubleFunction() {
 
     @Override
     public double apply(double a, double b) {
       return Math.min(a, b);
     }
+
+    @Override
+    public boolean isAssociativeAndCommutative() {
+      return true;
+    }
   };
 
   /** Function that returns <tt>a - b</tt>. */
@@ -438,21 +448,46 @@ public final class Functions {
   };
 
   /** Function that returns <tt>a * b</tt>. */
-  public static final DoubleDoubleFunction MULT = new DoubleDoubleFunction() {
+  public static final DoubleDoubleFunction MULT = new AbstractDoubleDoubleFunction() {
 
     @Override
     public double apply(double a, double b) {
       return a * b;
     }
+
+    @Override
+    public boolean isLikeLeftMult() {
+      return true;
+    }
+
+    @Override
+    public boolean isLikeRightMult() {
+      return true;
+    }
+
+    @Override
+    public boolean isAssociativeAndCommutative() {
+      return true;
+    }
   };
   
   /** Function that returns <tt>a + b</tt>. */
-  public static final DoubleDoubleFunction PLUS = new DoubleDoubleFunction() {
+  public static final DoubleDoubleFunction PLUS = new AbstractDoubleDoubleFunction() {
     
     @Override
     public double apply(double a, double b) {
       return a + b;
     }
+
+    @Override
+    public boolean isLikeRightPlus() {
+      return true;
+    }
+
+    @Override
+    public boolean isAssociativeAndCommutative() {
+      return true;
+    }
   };
 
   /** Function that returns <tt>Math.abs(a) + Math.abs(b)</tt>. */
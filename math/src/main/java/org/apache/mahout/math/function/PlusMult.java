@@ -39,7 +39,7 @@ package org.apache.mahout.math.function;
  * Intended to be passed to <tt>matrix.assign(otherMatrix,function)</tt> methods.
  */
 
-public final class PlusMult implements DoubleDoubleFunction {
+public final class PlusMult extends AbstractDoubleDoubleFunction {
 
   private double multiplicator;
 
@@ -53,6 +53,12 @@ public final class PlusMult implements DoubleDoubleFunction {
     return a + b * multiplicator;
   }
 
+  /** <tt>a + 0*constant = a</tt> */
+  @Override
+  public boolean isLikeRightPlus() {
+    return true;
+  }
+
   /** <tt>a - b*constant</tt>. */
   public static PlusMult minusMult(double constant) {
     return new PlusMult(-constant);
@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.util.Iterator;
+
+/**
+ * Runs the {@link AbstractTestVector} suite against single-precision vectors, comparing with a tolerance
+ * wherever the base suite expects exact double values.
+ */
+public abstract class AbstractTestFloatVector extends AbstractTestVector {
+
+  private static final double FLOAT_EPSILON = 1.0e-5;
+
+  @Override
+  public void testIterator() {
+    Vector test = getTestVector();
+    double[] gold = {0.0, 1.1, 0.0, 2.2, 0.0, 3.3, 0.0};
+    checkIterator(test.iterateNonZero(), gold);
+    checkIterator(test.iterator(), gold);
+    int count = 0;
+    Iterator<Vector.Element> all = test.iterator();
+    while (all.hasNext()) {
+      all.next();
+      count++;
+    }
+    assertEquals(gold.length, count);
+  }
+
+  @Override
+  public void testGetDistanceSquared() {
+    Vector test = getTestVector();
+    Vector other = new RandomAccessSparseVector(test.size());
+    other.set(1, -2);
+    other.set(2, -5);
+    other.set(3, -9);
+    other.set(4, 1);
+    double expected = 0.0;
+    for (int i = 0; i < test.size(); i++) {
+      double delta = test.get(i) - other.get(i);
+      expected += delta * delta;
+    }
+    assertEquals(expected, test.getDistanceSquared(other), FLOAT_EPSILON);
+  }
+
+  private static void checkIterator(Iterator<Vector.Element> iterator, double[] gold) {
+    while (iterator.hasNext()) {
+      Vector.Element element = iterator.next();
+      assertEquals("value[" + element.index() + ']', gold[element.index()], element.get(), FLOAT_EPSILON);
+    }
+  }
+
+}
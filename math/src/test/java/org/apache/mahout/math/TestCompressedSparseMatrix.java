@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+public final class TestCompressedSparseMatrix extends MahoutTestCase {
+
+  @Test
+  public void testCompressRows() {
+    Matrix source = randomSparseMatrix(RandomUtils.getRandom(), 30, 20, 0.2);
+    source.viewRow(7).assign(0.0);
+    Matrix csr = new CompressedSparseRowMatrix(source);
+    Matrix csc = new CompressedSparseColumnMatrix(source);
+    assertSameElements(source, csr);
+    assertSameElements(source, csc);
+    assertSameElements(source.transpose(), csr.transpose());
+    assertSameElements(source.transpose(), csc.transpose());
+    assertEquals(0, csr.viewRow(7).getNumNondefaultElements());
+    assertEquals(source.viewRow(3), csr.viewRow(3));
+    assertEquals(source.viewColumn(5), csc.viewColumn(5));
+    assertEquals(source.zSum(), csr.zSum(), EPSILON);
+    assertEquals(source.zSum(), csc.zSum(), EPSILON);
+    assertTrue(csr.transpose() instanceof CompressedSparseColumnMatrix);
+    assertTrue(csc.transpose() instanceof CompressedSparseRowMatrix);
+  }
+
+  @Test
+  public void testCompressSlicesInAnyOrder() {
+    final Matrix source = randomSparseMatrix(RandomUtils.getRandom(), 25, 10, 0.3);
+    final List<MatrixSlice> slices = Lists.newArrayList(source);
+    Collections.shuffle(slices, RandomUtils.getRandom());
+    // Neither a Matrix nor in row order, like the rows of a SequenceFile read by DistributedRowMatrix
+    VectorIterable shuffled = new VectorIterable() {
+      @Override
+      public Iterator<MatrixSlice> iterateAll() {
+        return slices.iterator();
+      }
+      @Override
+      public Iterator<MatrixSlice> iterator() {
+        return iterateAll();
+      }
+      @Override
+      public int numSlices() {
+        return slices.size();
+      }
+      @Override
+      public int numRows() {
+        return source.numRows();
+      }
+      @Override
+      public int numCols() {
+        return source.numCols();
+      }
+      @Override
+      public Vector times(Vector v) {
+        throw new UnsupportedOperationException();
+      }
+      @Override
+      public Vector timesSquared(Vector v) {
+        throw new UnsupportedOperationException();
+      }
+    };
+    assertSameElements(source, new CompressedSparseRowMatrix(shuffled));
+    assertSameElements(source, new CompressedSparseColumnMatrix(shuffled));
+  }
+
+  @Test
+  public void testWrap() {
+    // 1 0 2
+    // 0 0 0
+    // 0 3 0
+    Matrix csr = new CompressedSparseRowMatrix(3, 3, new int[] {0, 2, 2, 3}, new int[] {0, 2, 1},
+        new double[] {1.0, 2.0, 3.0});
+    Matrix csc = new CompressedSparseColumnMatrix(3, 3, new int[] {0, 1, 2, 3}, new int[] {0, 2, 0},
+        new double[] {1.0, 3.0, 2.0});
+    assertSameElements(csr, csc);
+    assertEquals(2.0, csr.getQuick(0, 2), EPSILON);
+    assertEquals(3.0, csc.getQuick(2, 1), EPSILON);
+    assertEquals(3, ((CompressedSparseRowMatrix) csr).numNonZeros());
+    assertEquals(2, csr.getNumNondefaultElements()[AbstractMatrix.COL]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrapUnsortedIndices() {
+    new CompressedSparseRowMatrix(1, 3, new int[] {0, 2}, new int[] {2, 0}, new double[] {1.0, 2.0});
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testImmutable() {
+    new CompressedSparseRowMatrix(new SparseRowMatrix(2, 2)).set(0, 0, 1.0);
+  }
+
+  @Test
+  public void testProducts() {
+    Random random = RandomUtils.getRandom();
+    // The larger one has enough non-zero elements to be multiplied in parallel
+    int[][] shapes = {{1, 1}, {40, 17}, {3000, 500}};
+    for (int[] shape : shapes) {
+      Matrix source = randomSparseMatrix(random, shape[0], shape[1], 0.1);
+      Vector x = randomVector(random, shape[1]);
+      Vector y = randomVector(random, shape[0]);
+      Vector expectedTimes = source.times(x);
+      Vector expectedTransposeTimes = source.transpose().times(y);
+      Vector expectedTimesSquared = source.transpose().times(source.times(x));
+
+      CompressedSparseRowMatrix csr = new CompressedSparseRowMatrix(source);
+      assertSameVector(expectedTimes, csr.times(x));
+      assertSameVector(expectedTransposeTimes, csr.transposeTimes(y));
+      assertSameVector(expectedTimesSquared, csr.timesSquared(x));
+      assertSameVector(expectedTransposeTimes, csr.transpose().times(y));
+
+      CompressedSparseColumnMatrix csc = new CompressedSparseColumnMatrix(source);
+      assertSameVector(expectedTimes, csc.times(x));
+      assertSameVector(expectedTransposeTimes, csc.transposeTimes(y));
+      assertSameVector(expectedTimesSquared, csc.timesSquared(x));
+
+      Vector sparseX = new SequentialAccessSparseVector(shape[1]);
+      sparseX.setQuick(0, 2.0);
+      assertSameVector(source.times(sparseX), csr.times(sparseX));
+    }
+  }
+
+  @Test(expected = CardinalityException.class)
+  public void testTimesCardinality() {
+    new CompressedSparseRowMatrix(new SparseRowMatrix(2, 3)).times(new DenseVector(2));
+  }
+
+  private static Matrix randomSparseMatrix(Random random, int rows, int columns, double density) {
+    Matrix matrix = new SparseRowMatrix(rows, columns);
+    for (int row = 0; row < rows; row++) {
+      for (int column = 0; column < columns; column++) {
+        if (random.nextDouble() < density) {
+          matrix.setQuick(row, column, random.nextGaussian());
+        }
+      }
+    }
+    return matrix;
+  }
+
+  private static Vector randomVector(Random random, int size) {
+    Vector vector = new DenseVector(size);
+    for (int i = 0; i < size; i++) {
+      vector.setQuick(i, random.nextGaussian());
+    }
+    return vector;
+  }
+
+  private static void assertSameElements(Matrix expected, Matrix actual) {
+    assertEquals(expected.rowSize(), actual.rowSize());
+    assertEquals(expected.columnSize(), actual.columnSize());
+    for (int row = 0; row < expected.rowSize(); row++) {
+      for (int column = 0; column < expected.columnSize(); column++) {
+        assertEquals(expected.getQuick(row, column), actual.getQuick(row, column), EPSILON);
+      }
+    }
+  }
+
+  private static void assertSameVector(Vector expected, Vector actual) {
+    assertEquals(expected.size(), actual.size());
+    assertEquals(0.0, expected.minus(actual).norm(Double.POSITIVE_INFINITY), 1.0e-9);
+  }
+
+}
@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import org.junit.Test;
+
+public final class TestDenseFloatMatrix extends MatrixTest {
+
+  private static final double FLOAT_EPSILON = 1.0e-5;
+
+  @Override
+  public Matrix matrixFactory(double[][] values) {
+    return new DenseFloatMatrix(new DenseMatrix(values));
+  }
+
+  @Override
+  public void testRowView() {
+    Matrix test = matrixFactory(new double[][] {{1.5, 2.5}, {3.5, 4.5}});
+    test.viewRow(1).set(0, 0.1);
+    assertEquals((float) 0.1, test.get(1, 0), 0.0);
+    assertEquals(test.get(1, 0), test.viewRow(1).get(0), 0.0);
+    assertEquals(2.5, test.viewRow(0).get(1), 0.0);
+  }
+
+  @Override
+  public void testColumnView() {
+    Matrix test = matrixFactory(new double[][] {{1.5, 2.5}, {3.5, 4.5}});
+    test.viewColumn(1).set(0, 0.1);
+    assertEquals((float) 0.1, test.get(0, 1), 0.0);
+    assertEquals(test.get(0, 1), test.viewColumn(1).get(0), 0.0);
+    assertEquals(4.5, test.viewColumn(1).get(1), 0.0);
+  }
+
+  @Override
+  public void testTimesDouble() {
+    Matrix value = matrixFactory(new double[][] {{1.1, 2.2}, {3.3, 4.4}}).times(4.53);
+    assertEquals(1.1 * 4.53, value.get(0, 0), FLOAT_EPSILON);
+    assertEquals(4.4 * 4.53, value.get(1, 1), FLOAT_EPSILON);
+  }
+
+  @Override
+  public void testTimesMatrix() {
+    Matrix test = matrixFactory(new double[][] {{1.1, 2.2}, {3.3, 4.4}, {5.5, 6.6}});
+    Matrix value = test.times(test.transpose());
+    Matrix expected = new DenseMatrix(new double[][] {{5.0, 11.0, 17.0},
+        {11.0, 25.0, 39.0}, {17.0, 39.0, 61.0}}).times(1.21);
+    for (int row = 0; row < 3; row++) {
+      for (int col = 0; col < 3; col++) {
+        assertEquals(expected.get(row, col), value.get(row, col), FLOAT_EPSILON * expected.get(row, col));
+      }
+    }
+  }
+
+  @Override
+  public void testTimesVector() {
+    Matrix test = matrixFactory(new double[][] {{1.1, 2.2}, {3.3, 4.4}, {5.5, 6.6}});
+    Vector value = test.times(new DenseVector(new double[] {1.0 / 1.1, 2.0 / 1.1}));
+    Vector expected = new DenseVector(new double[] {5.0, 11.0, 17.0});
+    assertEquals(0.0, expected.minus(value).norm(2), FLOAT_EPSILON);
+  }
+
+  @Test
+  public void testValuesRoundedToFloat() {
+    Matrix test = new DenseFloatMatrix(2, 2);
+    test.set(0, 1, 0.1);
+    assertEquals((float) 0.1, test.get(0, 1), 0.0);
+    assertTrue(test.viewRow(0) instanceof DenseFloatVector);
+    assertTrue(test.like() instanceof DenseFloatMatrix);
+    assertTrue(test.clone() instanceof DenseFloatMatrix);
+  }
+
+}
@@ -17,6 +17,12 @@
 
 package org.apache.mahout.math;
 
+import java.util.Random;
+
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.function.Functions;
+import org.junit.Test;
+
 public final class TestDenseMatrix extends MatrixTest {
 
   @Override
@@ -24,4 +30,54 @@ public final class TestDenseMatrix extends MatrixTest {
     return new DenseMatrix(values);
   }
 
+  @Test
+  public void testTimesMatchesNaiveProduct() {
+    Random random = RandomUtils.getRandom();
+    // Sizes that are not multiples of the blocking, large enough to be computed in parallel
+    int[][] shapes = {{1, 1, 1}, {5, 3, 7}, {130, 150, 600}, {9, 700, 3}};
+    for (int[] shape : shapes) {
+      Matrix a = randomMatrix(random, shape[0], shape[1]);
+      Matrix b = randomMatrix(random, shape[1], shape[2]);
+      assertNaiveProduct(a, b, a.times(b));
+      assertNaiveProduct(a.transpose(), a, a.transpose().times(a));
+    }
+  }
+
+  @Test
+  public void testTimesSquaredMatchesProducts() {
+    Random random = RandomUtils.getRandom();
+    Matrix a = randomMatrix(random, 40, 30);
+    Vector v = new DenseVector(30).assign(Functions.random());
+    Vector expected = a.transpose().times(a.times(v));
+    assertEquals(0.0, expected.minus(a.timesSquared(v)).norm(Double.POSITIVE_INFINITY), 1.0e-9);
+    Vector sparse = new RandomAccessSparseVector(30);
+    sparse.setQuick(3, 2.0);
+    expected = a.transpose().times(a.times(sparse));
+    assertEquals(0.0, expected.minus(a.timesSquared(sparse)).norm(Double.POSITIVE_INFINITY), 1.0e-9);
+  }
+
+  private static Matrix randomMatrix(Random random, int rows, int columns) {
+    double[][] values = new double[rows][columns];
+    for (int row = 0; row < rows; row++) {
+      for (int col = 0; col < columns; col++) {
+        values[row][col] = random.nextGaussian();
+      }
+    }
+    return new DenseMatrix(values, true);
+  }
+
+  private static void assertNaiveProduct(Matrix a, Matrix b, Matrix product) {
+    assertEquals(a.rowSize(), product.rowSize());
+    assertEquals(b.columnSize(), product.columnSize());
+    for (int row = 0; row < a.rowSize(); row++) {
+      for (int col = 0; col < b.columnSize(); col++) {
+        double expected = 0.0;
+        for (int k = 0; k < a.columnSize(); k++) {
+          expected += a.getQuick(row, k) * b.getQuick(k, col);
+        }
+        assertEquals(expected, product.getQuick(row, col), 1.0e-9);
+      }
+    }
+  }
+
 }
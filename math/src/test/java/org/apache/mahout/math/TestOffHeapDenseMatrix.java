@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.io.File;
+import java.nio.ReadOnlyBufferException;
+
+import org.apache.mahout.math.function.Functions;
+import org.junit.Test;
+
+public final class TestOffHeapDenseMatrix extends MatrixTest {
+
+  @Override
+  public Matrix matrixFactory(double[][] values) {
+    // two rows to a page, so that the test matrices span several pages
+    Matrix matrix = new OffHeapDenseMatrix(values.length, values[0].length, 2);
+    for (int row = 0; row < values.length; row++) {
+      matrix.assignRow(row, new DenseVector(values[row]));
+    }
+    return matrix;
+  }
+
+  @Test
+  public void testMappedFile() throws Exception {
+    File file = getTestTempFile("matrix");
+    Matrix expected = matrixFactory(new double[][] {{1.0, 2.0, 3.0}, {4.0, 5.0, 6.0}, {7.0, 8.0, 9.0}});
+    OffHeapDenseMatrix written = OffHeapDenseMatrix.create(file, 3, 3, 2);
+    written.assign(expected);
+    written.flush();
+    assertEquals(16 + 9 * 8, file.length());
+
+    OffHeapDenseMatrix readOnly = OffHeapDenseMatrix.map(file, false);
+    assertEquals(3, readOnly.numRows());
+    assertEquals(3, readOnly.numCols());
+    assertEquals(0.0, readOnly.minus(expected).aggregate(Functions.PLUS, Functions.ABS), 0.0);
+    try {
+      readOnly.set(0, 0, 1.0);
+      fail();
+    } catch (ReadOnlyBufferException robe) {
+      // expected
+    }
+
+    // changes through one read-write mapping show through the others
+    OffHeapDenseMatrix writable = OffHeapDenseMatrix.map(file, true);
+    writable.viewRow(2).set(1, -8.0);
+    assertEquals(-8.0, readOnly.get(2, 1), 0.0);
+    assertEquals(-8.0, written.get(2, 1), 0.0);
+  }
+
+  @Test
+  public void testCreateFromRows() throws Exception {
+    Matrix rows = new SparseRowMatrix(4, 3);
+    rows.set(0, 1, 1.5);
+    rows.set(3, 2, -2.5);
+    Matrix matrix = OffHeapDenseMatrix.create(getTestTempFile("rows"), rows);
+    assertEquals(0.0, matrix.minus(rows).aggregate(Functions.PLUS, Functions.ABS), 0.0);
+  }
+
+  @Test
+  public void testCloneIsIndependent() {
+    Matrix matrix = matrixFactory(new double[][] {{1.0, 2.0}, {3.0, 4.0}, {5.0, 6.0}});
+    Matrix clone = matrix.clone();
+    clone.set(2, 0, 0.0);
+    assertEquals(5.0, matrix.get(2, 0), 0.0);
+    assertEquals(0.0, clone.get(2, 0), 0.0);
+  }
+
+}
@@ -17,12 +17,16 @@
 
 package org.apache.mahout.math;
 
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.function.AbstractDoubleDoubleFunction;
+import org.apache.mahout.math.function.DoubleDoubleFunction;
 import org.apache.mahout.math.function.Functions;
 import org.junit.Test;
 
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Random;
 
 public final class VectorTest extends MahoutTestCase {
 
@@ -780,6 +784,78 @@ public final class VectorTest extends MahoutTestCase {
         v.aggregate(w, Functions.PLUS, Functions.chain(Functions.pow(2), Functions.MINUS)), EPSILON);
   }
 
+  @Test
+  public void testSparseAssignAndAggregate() {
+    // f(0, y) = 0, but f(x, 0) = x
+    DoubleDoubleFunction leftMult = new AbstractDoubleDoubleFunction() {
+      @Override
+      public double apply(double x, double y) {
+        return x * (y + 1.0);
+      }
+      @Override
+      public boolean isLikeLeftMult() {
+        return true;
+      }
+    };
+    DoubleDoubleFunction[] functions =
+        {Functions.PLUS, Functions.MINUS, Functions.plusMult(2.0), Functions.MULT, Functions.MAX, leftMult};
+    Random random = RandomUtils.getRandom();
+    for (int run = 0; run < 10; run++) {
+      Vector[] vs = randomSparseVectors(random);
+      Vector[] ws = randomSparseVectors(random);
+      for (Vector v : vs) {
+        for (Vector w : ws) {
+          for (DoubleDoubleFunction function : functions) {
+            Vector expected = new DenseVector(v.size());
+            for (int i = 0; i < v.size(); i++) {
+              expected.setQuick(i, function.apply(v.getQuick(i), w.getQuick(i)));
+            }
+            Vector actual = v.clone().assign(w, function);
+            assertEquals(0.0, expected.minus(actual).norm(Double.POSITIVE_INFINITY), EPSILON);
+          }
+          assertEquals(v.minus(w).getLengthSquared(),
+              v.aggregate(w, Functions.PLUS, Functions.chain(Functions.pow(2), Functions.MINUS)), EPSILON);
+          assertEquals(v.norm(1) + w.norm(1), v.aggregate(w, Functions.PLUS, Functions.PLUS_ABS), EPSILON);
+          double dot = 0.0;
+          for (int i = 0; i < v.size(); i++) {
+            dot += v.getQuick(i) * w.getQuick(i);
+          }
+          assertEquals(dot, v.aggregate(w, Functions.PLUS, Functions.MULT), EPSILON);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testAggregateCardinality() {
+    Vector[] vs = {new DenseVector(3), new RandomAccessSparseVector(3), new SequentialAccessSparseVector(3)};
+    Vector[] ws = {new DenseVector(4), new RandomAccessSparseVector(4), new SequentialAccessSparseVector(4)};
+    DoubleDoubleFunction[] aggregators = {Functions.PLUS, Functions.MAX};
+    for (Vector v : vs) {
+      v.setQuick(1, 2.0);
+      for (Vector w : ws) {
+        w.setQuick(3, 1.0);
+        for (DoubleDoubleFunction aggregator : aggregators) {
+          try {
+            v.aggregate(w, aggregator, Functions.MULT);
+            fail("Expected CardinalityException for " + v.getClass() + " and " + w.getClass());
+          } catch (CardinalityException ce) {
+            // expected
+          }
+        }
+      }
+    }
+  }
+
+  /** @return the same random sparse vector as each implementation */
+  private static Vector[] randomSparseVectors(Random random) {
+    Vector dense = new DenseVector(200);
+    for (int i = 0; i < 20; i++) {
+      dense.setQuick(random.nextInt(dense.size()), random.nextGaussian());
+    }
+    return new Vector[] {dense, new RandomAccessSparseVector(dense), new SequentialAccessSparseVector(dense)};
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void testEmptyAggregate1() {
     assertEquals(1.0, new DenseVector(new double[]{1}).aggregate(Functions.MIN, Functions.IDENTITY), EPSILON);